@@ -0,0 +1,124 @@
+/**
+ * BlockingPacketClient.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.bench;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import org.apache.niolex.network.Config;
+import org.apache.niolex.network.PacketData;
+
+/**
+ * A minimal blocking packet client used to drive the server in benchmarks. It keeps all
+ * the buffers, so the client side does not allocate anything in the measured loop.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-29
+ */
+public class BlockingPacketClient {
+
+    private final SocketChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocate(Config.PACKET_HEADER_SIZE);
+    private ByteBuffer body = ByteBuffer.allocate(1024);
+
+    /**
+     * Encode the packet into a byte buffer, header and body.
+     *
+     * @param pd the packet
+     * @return the encoded buffer, ready to be sent
+     */
+    public static ByteBuffer encode(PacketData pd) {
+        ByteBuffer bb = ByteBuffer.allocate(Config.PACKET_HEADER_SIZE + pd.getLength());
+        pd.putHeader(bb);
+        bb.put(pd.getData());
+        bb.flip();
+        return bb;
+    }
+
+    /**
+     * Connect to the server.
+     *
+     * @param address the server address
+     * @throws IOException if failed to connect
+     */
+    public BlockingPacketClient(InetSocketAddress address) throws IOException {
+        super();
+        channel = SocketChannel.open(address);
+        channel.socket().setTcpNoDelay(true);
+    }
+
+    /**
+     * Send the encoded packet.
+     *
+     * @param encoded the buffer returned by {@link #encode(PacketData)}
+     * @throws IOException if I/O error occurred
+     */
+    public void send(ByteBuffer encoded) throws IOException {
+        encoded.rewind();
+        while (encoded.hasRemaining()) {
+            channel.write(encoded);
+        }
+    }
+
+    /**
+     * Read one packet from the server.
+     *
+     * @return the packet length
+     * @throws IOException if I/O error occurred
+     */
+    public int read() throws IOException {
+        header.clear();
+        readFully(header);
+        int length = header.getInt(4);
+        if (body.capacity() < length) {
+            body = ByteBuffer.allocate(length);
+        }
+        body.clear();
+        body.limit(length);
+        readFully(body);
+        return length;
+    }
+
+    /**
+     * Read until the buffer is full.
+     *
+     * @param bb the buffer
+     * @throws IOException if I/O error occurred or the connection is closed
+     */
+    private void readFully(ByteBuffer bb) throws IOException {
+        while (bb.hasRemaining()) {
+            if (channel.read(bb) < 0) {
+                throw new EOFException("Connection closed by server.");
+            }
+        }
+    }
+
+    /**
+     * Close the connection.
+     *
+     * @throws IOException if I/O error occurred
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,105 @@
+/**
+ * EchoThroughputBenchmark.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.bench;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.niolex.network.PacketData;
+import org.apache.niolex.network.demo.EchoPacketHandler;
+import org.apache.niolex.network.server.MultiNioServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmark the echo throughput of {@link MultiNioServer}. In every operation, we send one
+ * packet on every connection first, and then read all the echoes back, so the server
+ * selectors are busy with all the connections at the same time.
+ * <br>
+ * The packet throughput is the score multiplied by the number of connections.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-29
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EchoThroughputBenchmark {
+
+    private static final int PORT = 9881;
+
+    @Param({"1", "64", "1024"})
+    public int connections;
+
+    @Param({"128"})
+    public int size;
+
+    @Param({"4"})
+    public int threads;
+
+    private MultiNioServer server;
+    private BlockingPacketClient[] clients;
+    private ByteBuffer encoded;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new MultiNioServer(threads);
+        server.setPort(PORT);
+        server.setPacketHandler(new EchoPacketHandler());
+        if (!server.start()) {
+            throw new IllegalStateException("Failed to start server at " + PORT);
+        }
+        clients = new BlockingPacketClient[connections];
+        InetSocketAddress address = new InetSocketAddress("localhost", PORT);
+        for (int i = 0; i < connections; ++i) {
+            clients[i] = new BlockingPacketClient(address);
+        }
+        encoded = BlockingPacketClient.encode(new PacketData(2, new byte[size]));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for (BlockingPacketClient c : clients) {
+            c.close();
+        }
+        server.stop();
+    }
+
+    @Benchmark
+    public long echoRound() throws IOException {
+        for (BlockingPacketClient c : clients) {
+            c.send(encoded);
+        }
+        long total = 0;
+        for (BlockingPacketClient c : clients) {
+            total += c.read();
+        }
+        return total;
+    }
+
+}
@@ -0,0 +1,93 @@
+/**
+ * FastCoreBenchmark.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.bench;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.niolex.network.PacketData;
+import org.apache.niolex.network.demo.EchoPacketHandler;
+import org.apache.niolex.network.server.NioServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmark the FastCore read and write state machine, one packet is echoed by a single
+ * selector {@link NioServer} over loopback in every operation.
+ * <br>
+ * The mode selects the read and write path: <code>plain</code> is the default one,
+ * <code>aggregate</code> turns on the read aggregation, and <code>gather</code> turns on
+ * the gathering write.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-29
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FastCoreBenchmark {
+
+    private static final int PORT = 9880;
+
+    @Param({"plain", "aggregate", "gather"})
+    public String mode;
+
+    @Param({"0", "64", "1024", "65536"})
+    public int size;
+
+    private NioServer server;
+    private BlockingPacketClient client;
+    private ByteBuffer encoded;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new NioServer();
+        server.setPort(PORT);
+        server.setPacketHandler(new EchoPacketHandler());
+        server.setReadAggregation("aggregate".equals(mode));
+        server.setGatheringWrite("gather".equals(mode));
+        if (!server.start()) {
+            throw new IllegalStateException("Failed to start server at " + PORT);
+        }
+        client = new BlockingPacketClient(new InetSocketAddress("localhost", PORT));
+        encoded = BlockingPacketClient.encode(new PacketData(2, new byte[size]));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        server.stop();
+    }
+
+    @Benchmark
+    public int echo() throws IOException {
+        client.send(encoded);
+        return client.read();
+    }
+
+}
@@ -0,0 +1,158 @@
+/**
+ * IdleConnectionSoak.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.bench;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.niolex.network.demo.EchoPacketHandler;
+import org.apache.niolex.network.server.MultiNioServer;
+import org.apache.niolex.network.server.ServerStats;
+
+/**
+ * The soak test of idle connections. It's not a JMH benchmark, because we want to measure
+ * the memory, not the time. Run the server and the clients in two JVMs, so the memory of
+ * the client sockets is not counted:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar org.apache.niolex.network.bench.IdleConnectionSoak server 9883 4 lean
+ * java -cp target/benchmarks.jar org.apache.niolex.network.bench.IdleConnectionSoak client localhost 9883 1000000
+ * </pre>
+ *
+ * The server reports the heap and native bytes per idle connection every 10 seconds. The
+ * clients bind to 127.0.0.1, 127.0.0.2 ... in turn, so we are not limited by the number of
+ * the ephemeral ports of one local address.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public class IdleConnectionSoak {
+
+    /**
+     * The number of connections bound to one local address.
+     */
+    private static final int CONNECTIONS_PER_ADDRESS = 50000;
+
+    /**
+     * The report interval in milliseconds.
+     */
+    private static final long REPORT_INTERVAL = 10000;
+
+    /**
+     * The main entry.
+     *
+     * @param args server &lt;port&gt; &lt;threads&gt; [lean] | client &lt;host&gt; &lt;port&gt; &lt;connections&gt;
+     * @throws Exception if failed to run the soak test
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 3 && "server".equals(args[0])) {
+            runServer(Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                    args.length > 3 && "lean".equals(args[3]));
+        } else if (args.length >= 4 && "client".equals(args[0])) {
+            runClients(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+        } else {
+            System.out.println("Usage: IdleConnectionSoak server <port> <threads> [lean]");
+            System.out.println("       IdleConnectionSoak client <host> <port> <connections>");
+        }
+    }
+
+    /**
+     * Start the server and report the memory per connection periodically.
+     *
+     * @param port the server port
+     * @param threads the number of selector threads
+     * @param lean whether to use the shared send buffer
+     * @throws InterruptedException if interrupted while sleeping
+     */
+    private static void runServer(int port, int threads, boolean lean) throws InterruptedException {
+        long baseHeap = usedHeap();
+        long baseNative = usedDirect();
+        MultiNioServer server = new MultiNioServer(threads);
+        server.setPort(port);
+        server.setPacketHandler(new EchoPacketHandler());
+        server.setSharedSendBuffer(lean);
+        if (!server.start()) {
+            throw new IllegalStateException("Failed to start server at " + port);
+        }
+        ServerStats stats = new ServerStats(server.getSelectorStats());
+        System.out.printf("Server started at %d, threads %d, lean %b.%n", port, threads, lean);
+        while (true) {
+            Thread.sleep(REPORT_INTERVAL);
+            int conns = stats.getConnections();
+            long heap = usedHeap() - baseHeap;
+            long direct = usedDirect() - baseNative;
+            System.out.printf("connections %d, heap %d, direct %d, heap/conn %d, direct/conn %d%n",
+                    conns, heap, direct, conns == 0 ? 0 : heap / conns, conns == 0 ? 0 : direct / conns);
+        }
+    }
+
+    /**
+     * Open the idle connections and keep them open until this process is killed.
+     *
+     * @param host the server host
+     * @param port the server port
+     * @param connections the number of connections
+     * @throws IOException if failed to connect
+     * @throws InterruptedException if interrupted while sleeping
+     */
+    private static void runClients(String host, int port, int connections) throws IOException, InterruptedException {
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        List<SocketChannel> list = new ArrayList<SocketChannel>(connections);
+        for (int i = 0; i < connections; ++i) {
+            int k = i / CONNECTIONS_PER_ADDRESS + 1;
+            SocketChannel ch = SocketChannel.open();
+            ch.bind(new InetSocketAddress("127.0." + (k >> 8) + "." + (k & 0xff), 0));
+            ch.connect(address);
+            list.add(ch);
+            if ((i + 1) % 10000 == 0) {
+                System.out.printf("%d connections opened.%n", i + 1);
+            }
+        }
+        System.out.printf("All %d connections opened, press Ctrl+C to exit.%n", list.size());
+        Thread.sleep(Long.MAX_VALUE);
+    }
+
+    /**
+     * @return the used heap after a full GC
+     */
+    private static long usedHeap() {
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * @return the memory used by the direct buffers
+     */
+    private static long usedDirect() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+
+}
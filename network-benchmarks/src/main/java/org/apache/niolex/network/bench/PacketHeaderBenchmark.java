@@ -0,0 +1,88 @@
+/**
+ * PacketHeaderBenchmark.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.bench;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.niolex.network.ByteArrayPool;
+import org.apache.niolex.network.PacketData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmark the packet header encoding and decoding.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-29
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PacketHeaderBenchmark {
+
+    @Param({"true", "false"})
+    public boolean direct;
+
+    @Param({"64", "4096"})
+    public int length;
+
+    private PacketData packet;
+    private ByteBuffer buffer;
+    private ByteArrayPool pool;
+
+    @Setup
+    public void setup() {
+        packet = new PacketData(3, new byte[length]);
+        buffer = direct ? ByteBuffer.allocateDirect(8) : ByteBuffer.allocate(8);
+        pool = new ByteArrayPool();
+        packet.putHeader(buffer);
+    }
+
+    @Benchmark
+    public ByteBuffer putHeader() {
+        buffer.clear();
+        packet.putHeader(buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public PacketData parseHeader() {
+        buffer.rewind();
+        PacketData pd = new PacketData();
+        pd.parseHeader(buffer);
+        return pd;
+    }
+
+    @Benchmark
+    public PacketData parseHeaderPooled() {
+        buffer.rewind();
+        PacketData pd = new PacketData();
+        pd.parseHeader(buffer, pool);
+        pd.release();
+        return pd;
+    }
+
+}
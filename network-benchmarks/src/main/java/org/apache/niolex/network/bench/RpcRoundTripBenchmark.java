@@ -0,0 +1,164 @@
+/**
+ * RpcRoundTripBenchmark.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.bench;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.niolex.network.client.PacketClient;
+import org.apache.niolex.network.demo.proto.PersonProtos.Person;
+import org.apache.niolex.network.demo.proto.PersonProtos.PhoneNumber;
+import org.apache.niolex.network.demo.proto.PersonProtos.PhoneType;
+import org.apache.niolex.network.demo.proto.PersonProtos.Work;
+import org.apache.niolex.network.demo.proto.PersonService;
+import org.apache.niolex.network.demo.proto.PersonServiceImpl;
+import org.apache.niolex.network.demo.stuff.StringArray;
+import org.apache.niolex.network.rpc.IConverter;
+import org.apache.niolex.network.rpc.cli.BaseInvoker;
+import org.apache.niolex.network.rpc.cli.RpcStub;
+import org.apache.niolex.network.rpc.conv.JsonConverter;
+import org.apache.niolex.network.rpc.conv.KryoConverter;
+import org.apache.niolex.network.rpc.conv.ProtoStuffConverter;
+import org.apache.niolex.network.rpc.conv.ProtobufConverter;
+import org.apache.niolex.network.rpc.conv.SmileConverter;
+import org.apache.niolex.network.rpc.svr.ConfigItem;
+import org.apache.niolex.network.rpc.svr.RpcPacketHandler;
+import org.apache.niolex.network.server.MultiNioServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmark the {@link RpcStub} to {@link RpcPacketHandler} round trip over loopback, for
+ * every {@link IConverter}.
+ * <br>
+ * JSON, Smile and Kryo call the demo JSON service, Protostuff can not serialize top level
+ * strings so it calls the demo Protostuff service, and Protobuf calls the demo person
+ * service. All of them send two short strings or an equivalent message.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-29
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RpcRoundTripBenchmark {
+
+    private static final int PORT = 9882;
+
+    @Param({"json", "smile", "kryo", "protostuff", "protobuf"})
+    public String converter;
+
+    private MultiNioServer server;
+    private BaseInvoker invoker;
+    private Callable<Object> call;
+
+    @Setup
+    public void setup() throws IOException {
+        IConverter conv = createConverter();
+        RpcPacketHandler handler = new RpcPacketHandler(4, conv);
+        server = new MultiNioServer(2);
+        server.setPort(PORT);
+        server.setPacketHandler(handler);
+
+        invoker = new BaseInvoker(new PacketClient(new InetSocketAddress("localhost", PORT)));
+        RpcStub stub = new RpcStub(invoker, conv);
+        if ("protostuff".equals(converter)) {
+            handler.addRpcConfig(new ConfigItem(org.apache.niolex.network.demo.stuff.RpcService.class,
+                    new org.apache.niolex.network.demo.stuff.RpcServiceImpl()));
+            final org.apache.niolex.network.demo.stuff.RpcService ser =
+                    stub.getService(org.apache.niolex.network.demo.stuff.RpcService.class);
+            final StringArray arg = new StringArray();
+            arg.arr = new String[] {"Hello ", "Benchmark!"};
+            call = new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return ser.concat(arg);
+                }
+            };
+        } else if ("protobuf".equals(converter)) {
+            handler.addRpcConfig(new ConfigItem(PersonService.class, new PersonServiceImpl()));
+            final PersonService ser = stub.getService(PersonService.class);
+            final Person p = Person.newBuilder().setId(1).setName("Hello").setEmail("benchmark@xxx.com")
+                    .setWork(Work.newBuilder().setPosition("Benchmark!").setReportTo(0).setSalary(1).build())
+                    .addPhone(PhoneNumber.newBuilder().setNumber("1").setType(PhoneType.MOBILE).build()).build();
+            call = new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return ser.updatePerson(p);
+                }
+            };
+        } else {
+            handler.addRpcConfig(new ConfigItem(org.apache.niolex.network.demo.json.RpcService.class,
+                    new org.apache.niolex.network.demo.json.RpcServiceImpl()));
+            final org.apache.niolex.network.demo.json.RpcService ser =
+                    stub.getService(org.apache.niolex.network.demo.json.RpcService.class);
+            call = new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return ser.concat("Hello ", "Benchmark!");
+                }
+            };
+        }
+        if (!server.start()) {
+            throw new IllegalStateException("Failed to start server at " + PORT);
+        }
+        invoker.connect();
+    }
+
+    /**
+     * Create the converter from the parameter.
+     *
+     * @return the converter
+     */
+    private IConverter createConverter() {
+        if ("json".equals(converter)) {
+            return new JsonConverter();
+        } else if ("smile".equals(converter)) {
+            return new SmileConverter();
+        } else if ("kryo".equals(converter)) {
+            return new KryoConverter();
+        } else if ("protostuff".equals(converter)) {
+            return new ProtoStuffConverter();
+        } else if ("protobuf".equals(converter)) {
+            return new ProtobufConverter();
+        }
+        throw new IllegalArgumentException("Unknown converter: " + converter);
+    }
+
+    @TearDown
+    public void tearDown() {
+        invoker.stop();
+        server.stop();
+    }
+
+    @Benchmark
+    public Object roundTrip() throws Exception {
+        return call.call();
+    }
+
+}
@@ -28,6 +28,7 @@ import org.apache.niolex.config.core.CodeMap;
 import org.apache.niolex.config.core.PacketTranslater;
 import org.apache.niolex.network.IPacketWriter;
 import org.apache.niolex.network.PacketData;
+import org.apache.niolex.network.server.ChannelGroup;
 import org.springframework.stereotype.Component;
 
 /**
@@ -47,10 +48,9 @@ public class ConfigEventDispatcher {
 			new ArrayList<IPacketWriter>(0));
 
 	/**
-	 * Store clients.
+	 * Store clients, the packet is framed only once for all the clients of one group.
 	 */
-	private final ConcurrentHashMap<String, ConcurrentHashMap<IPacketWriter, String>> clients =
-			new ConcurrentHashMap<String, ConcurrentHashMap<IPacketWriter, String>>();
+	private final ConcurrentHashMap<String, ChannelGroup> clients = new ConcurrentHashMap<String, ChannelGroup>();
 
 
 	/**
@@ -60,11 +60,11 @@ public class ConfigEventDispatcher {
 	 * @param listener the listener
 	 */
 	public void addListener(String groupName, IPacketWriter listener) {
-		ConcurrentHashMap<IPacketWriter, String> map = clients.get(groupName);
-		if (map == null) {
-		    map = ConcurrentUtil.initMap(clients, groupName, new ConcurrentHashMap<IPacketWriter, String>());
+		ChannelGroup group = clients.get(groupName);
+		if (group == null) {
+		    group = ConcurrentUtil.initMap(clients, groupName, new ChannelGroup(groupName));
 		}
-		map.put(listener, "");
+		group.add(listener);
 	}
 
 	/**
@@ -74,9 +74,9 @@ public class ConfigEventDispatcher {
 	 * @param listener the listener
 	 */
 	public void removeListener(String groupName, IPacketWriter listener) {
-		ConcurrentHashMap<IPacketWriter, String> map = clients.get(groupName);
-		if (map != null) {
-			map.remove(listener);
+		ChannelGroup group = clients.get(groupName);
+		if (group != null) {
+			group.remove(listener);
 		}
 	}
 
@@ -133,11 +133,9 @@ public class ConfigEventDispatcher {
 	 * @param data the packet data
 	 */
 	public void fireClientEvent(String groupName, PacketData data) {
-		ConcurrentHashMap<IPacketWriter, String> map = clients.get(groupName);
-		if (map != null) {
-			for (IPacketWriter wt : map.keySet()) {
-				wt.handleWrite(data);
-			}
+		ChannelGroup group = clients.get(groupName);
+		if (group != null) {
+			group.write(data);
 		}
 	}
 
@@ -34,6 +34,7 @@ import org.apache.niolex.config.dao.ItemDao;
 import org.apache.niolex.config.event.ConfigEventDispatcher;
 import org.apache.niolex.config.service.AuthenService;
 import org.apache.niolex.config.service.GroupService;
+import org.apache.niolex.network.AttributeKey;
 import org.apache.niolex.network.IPacketWriter;
 import org.apache.niolex.network.PacketData;
 import org.slf4j.Logger;
@@ -51,6 +52,8 @@ public class GroupServiceImpl implements GroupService {
 
 	private static final Logger LOG = LoggerFactory.getLogger(GroupServiceImpl.class);
 
+	private static final AttributeKey<Set<String>> GROUP_SET_KEY = AttributeKey.valueOf(AttachKey.GROUP_SET);
+
 	/**
 	 * Use this field to sync with DB.
 	 */
@@ -122,15 +125,16 @@ public class GroupServiceImpl implements GroupService {
 	 */
 	private Set<String> getCachedGroupSet(IPacketWriter wt) {
 		// This client may already has some groups, so we merge them.
-		synchronized (wt) {
-			Set<String> set = wt.getAttached(AttachKey.GROUP_SET);
-			if (set == null) {
-				set = new HashSet<String>();
-				// Attach group list. For close this client and remove listener.
-				wt.attachData(AttachKey.GROUP_SET, set);
+		Set<String> set = wt.getAttached(GROUP_SET_KEY);
+		if (set == null) {
+			set = new HashSet<String>();
+			// Attach group list. For close this client and remove listener.
+			Set<String> old = wt.attachIfAbsent(GROUP_SET_KEY, set);
+			if (old != null) {
+				set = old;
 			}
-			return set;
 		}
+		return set;
 	}
 
 	/**
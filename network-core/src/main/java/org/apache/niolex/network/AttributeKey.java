@@ -0,0 +1,128 @@
+/**
+ * AttributeKey.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The typed key of the connection attributes. Every key is registered by name once and
+ * assigned a small integer slot, so the attribute lookup is just an array index.
+ * <br>
+ * Keys with the same name are the same key, so the String keyed
+ * {@link IPacketWriter#attachData(String, Object)} and {@link IPacketWriter#getAttached(String)}
+ * share the slots with the registered typed keys. The String keys never register any new key,
+ * the other names are stored in a per connection map. Please define the keys as static final
+ * fields, there can be at most {@link Config#ATTRIBUTE_MAX_KEYS} keys in one JVM.
+ *
+ * @param <T> the type of the attribute value
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public final class AttributeKey<T> {
+
+    /**
+     * All the registered keys.
+     */
+    private static final ConcurrentMap<String, AttributeKey<?>> KEYS = new ConcurrentHashMap<String, AttributeKey<?>>();
+
+    /**
+     * The next slot index.
+     */
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    /**
+     * Get the key of this name, register a new key if not registered yet.
+     *
+     * @param <T> the type of the attribute value
+     * @param name the key name
+     * @return the key
+     * @throws IllegalStateException if there are too many keys
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> AttributeKey<T> valueOf(String name) {
+        AttributeKey<?> key = KEYS.get(name);
+        if (key == null) {
+            synchronized (KEYS) {
+                key = KEYS.get(name);
+                if (key == null) {
+                    int id = NEXT_ID.get();
+                    if (id >= Config.ATTRIBUTE_MAX_KEYS) {
+                        throw new IllegalStateException("Too many attribute keys, max " + Config.ATTRIBUTE_MAX_KEYS);
+                    }
+                    key = new AttributeKey<T>(name, id);
+                    KEYS.put(name, key);
+                    NEXT_ID.set(id + 1);
+                }
+            }
+        }
+        return (AttributeKey<T>) key;
+    }
+
+    /**
+     * Find the registered key of this name, no new key will be registered.
+     *
+     * @param <T> the type of the attribute value
+     * @param name the key name
+     * @return the key, or null if not registered
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> AttributeKey<T> find(String name) {
+        return (AttributeKey<T>) KEYS.get(name);
+    }
+
+    private final String name;
+    private final int id;
+
+    /**
+     * Create a new key.
+     *
+     * @param name the key name
+     * @param id the slot index
+     */
+    private AttributeKey(String name, int id) {
+        this.name = name;
+        this.id = id;
+    }
+
+    /**
+     * @return the key name
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return the slot index of this key
+     */
+    public int id() {
+        return id;
+    }
+
+    /**
+     * Override super method
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return name;
+    }
+
+}
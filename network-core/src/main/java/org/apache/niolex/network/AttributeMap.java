@@ -0,0 +1,150 @@
+/**
+ * AttributeMap.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * The lock free attribute map of one connection, indexed by {@link AttributeKey#id()}.
+ * <br>
+ * The slots are stored in segments of 16, which are created on the first use and never
+ * moved, so all the operations are atomic without any lock, and an idle connection without
+ * attributes pays for nothing but this object.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public class AttributeMap {
+
+    private static final int SEGMENT_SHIFT = 4;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+    private static final int SEGMENT_NUM = (Config.ATTRIBUTE_MAX_KEYS + SEGMENT_MASK) >> SEGMENT_SHIFT;
+
+    /**
+     * The updater to create the segments array.
+     */
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<AttributeMap, AtomicReferenceArray> UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(AttributeMap.class, AtomicReferenceArray.class, "segments");
+
+    /**
+     * The segments of the slots, created on the first set.
+     */
+    private volatile AtomicReferenceArray<AtomicReferenceArray<Object>> segments;
+
+    /**
+     * Get the value of this key.
+     *
+     * @param <T> the type of the attribute value
+     * @param key the attribute key
+     * @return the value, or null if not set
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(AttributeKey<T> key) {
+        AtomicReferenceArray<Object> seg = segment(key, false);
+        return seg == null ? null : (T) seg.get(key.id() & SEGMENT_MASK);
+    }
+
+    /**
+     * Set the value of this key.
+     *
+     * @param <T> the type of the attribute value
+     * @param key the attribute key
+     * @param value the new value, null to remove it
+     * @return the old value, or null if not set
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T set(AttributeKey<T> key, T value) {
+        AtomicReferenceArray<Object> seg = segment(key, value != null);
+        return seg == null ? null : (T) seg.getAndSet(key.id() & SEGMENT_MASK, value);
+    }
+
+    /**
+     * Set the value of this key if it's not set yet.
+     *
+     * @param <T> the type of the attribute value
+     * @param key the attribute key
+     * @param value the new value
+     * @return the current value if already set, or null if the new value is set
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T setIfAbsent(AttributeKey<T> key, T value) {
+        AtomicReferenceArray<Object> seg = segment(key, true);
+        int idx = key.id() & SEGMENT_MASK;
+        while (!seg.compareAndSet(idx, null, value)) {
+            Object old = seg.get(idx);
+            if (old != null) {
+                return (T) old;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Atomically set the value of this key to the update value if the current value is the
+     * same as the expected value.
+     *
+     * @param <T> the type of the attribute value
+     * @param key the attribute key
+     * @param expect the expected value, null means not set
+     * @param update the new value
+     * @return true if successful
+     */
+    public <T> boolean compareAndSet(AttributeKey<T> key, T expect, T update) {
+        AtomicReferenceArray<Object> seg = segment(key, expect == null);
+        if (seg == null) {
+            return false;
+        }
+        return seg.compareAndSet(key.id() & SEGMENT_MASK, expect, update);
+    }
+
+    /**
+     * Remove all the attributes.
+     */
+    public void clear() {
+        segments = null;
+    }
+
+    /**
+     * Get the segment of this key.
+     *
+     * @param key the attribute key
+     * @param create whether to create the segment if it's not created yet
+     * @return the segment, or null if not created
+     */
+    @SuppressWarnings("unchecked")
+    private AtomicReferenceArray<Object> segment(AttributeKey<?> key, boolean create) {
+        AtomicReferenceArray<AtomicReferenceArray<Object>> segs;
+        while ((segs = segments) == null) {
+            if (!create) {
+                return null;
+            }
+            UPDATER.compareAndSet(this, null, new AtomicReferenceArray<AtomicReferenceArray<Object>>(SEGMENT_NUM));
+        }
+        int k = key.id() >> SEGMENT_SHIFT;
+        AtomicReferenceArray<Object> seg = segs.get(k);
+        if (seg == null && create) {
+            segs.compareAndSet(k, null, new AtomicReferenceArray<Object>(SEGMENT_MASK + 1));
+            seg = segs.get(k);
+        }
+        return seg;
+    }
+
+}
@@ -0,0 +1,149 @@
+/**
+ * ByteArrayPool.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class is used to manage the packet body arrays of the received packets. It's
+ * a slab allocator, every slab holds the free arrays of one exact size, because the
+ * packet data array must be as long as the packet length.
+ * <br>
+ * Arrays larger than {@link #getMaxArraySize()} are not pooled, we just create them.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-22
+ * @see BufferManager
+ */
+public class ByteArrayPool {
+
+    /**
+     * The max size of the array to be pooled.
+     */
+    private final int maxArraySize;
+
+    /**
+     * The slabs, indexed by array size.
+     */
+    private final AtomicReferenceArray<Slab> slabs;
+
+    /**
+     * The max number of free arrays in each slab.
+     */
+    private int maxSlabSize = Config.SERVER_POOL_MAX_SLAB_SIZE;
+
+    /**
+     * Create a byte array pool with the default max array size.
+     */
+    public ByteArrayPool() {
+        this(Config.SERVER_POOL_MAX_ARRAY_SIZE);
+    }
+
+    /**
+     * Create a byte array pool with the specified max array size.
+     *
+     * @param maxArraySize the max size of the array to be pooled
+     */
+    public ByteArrayPool(int maxArraySize) {
+        super();
+        this.maxArraySize = maxArraySize;
+        this.slabs = new AtomicReferenceArray<Slab>(maxArraySize + 1);
+    }
+
+    /**
+     * Get a byte array of exactly the specified length from this pool.
+     *
+     * @param length the array length
+     * @return the byte array
+     */
+    public byte[] getArray(int length) {
+        if (length > maxArraySize) {
+            return new byte[length];
+        }
+        Slab slab = slabs.get(length);
+        if (slab != null) {
+            byte[] arr = slab.queue.poll();
+            if (arr != null) {
+                slab.size.decrementAndGet();
+                return arr;
+            }
+        }
+        return new byte[length];
+    }
+
+    /**
+     * Give this byte array back to the pool.
+     *
+     * @param arr the byte array
+     * @return true if we accept this array, false if we dropped it
+     */
+    public boolean giveBack(byte[] arr) {
+        if (arr.length > maxArraySize) {
+            return false;
+        }
+        Slab slab = slabs.get(arr.length);
+        if (slab == null) {
+            slabs.compareAndSet(arr.length, null, new Slab());
+            slab = slabs.get(arr.length);
+        }
+        if (slab.size.incrementAndGet() <= maxSlabSize) {
+            slab.queue.add(arr);
+            return true;
+        } else {
+            slab.size.decrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * @return the max size of the array to be pooled
+     */
+    public int getMaxArraySize() {
+        return maxArraySize;
+    }
+
+    /**
+     * @return the max number of free arrays in each slab
+     */
+    public int getMaxSlabSize() {
+        return maxSlabSize;
+    }
+
+    /**
+     * @param maxSlabSize the max number of free arrays in each slab to set
+     */
+    public void setMaxSlabSize(int maxSlabSize) {
+        this.maxSlabSize = maxSlabSize;
+    }
+
+    /**
+     * The free arrays of one size.
+     *
+     * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+     * @version 1.0.0
+     * @since 2013-11-22
+     */
+    private static class Slab {
+        private final ConcurrentLinkedQueue<byte[]> queue = new ConcurrentLinkedQueue<byte[]>();
+        private final AtomicInteger size = new AtomicInteger();
+    }
+
+}
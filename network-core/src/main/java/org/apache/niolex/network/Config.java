@@ -42,11 +42,27 @@ public interface Config extends Const {
      */
     int PACKET_HEADER_SIZE = 8;
 
+    /**
+     * The packet header size of the version 2 wire protocol, the 8 bytes header followed
+     * by the 4 bytes correlation id.
+     */
+    int PACKET_HEADER_SIZE_V2 = 12;
+
     /**
      * The max queue size of buffer manager, default to 2K.
      */
     int BUFFER_MGR_MAX_QUEUE_SIZE = 2 * K;
 
+    /**
+     * The max size of the packet body array to be pooled, default to 2K.
+     */
+    int SERVER_POOL_MAX_ARRAY_SIZE = 2 * K;
+
+    /**
+     * The max number of free arrays of each size in the byte array pool.
+     */
+    int SERVER_POOL_MAX_SLAB_SIZE = 256;
+
     /**
      * The low level socket buffer size.
      */
@@ -78,11 +94,29 @@ public interface Config extends Const {
 	 */
 	int SERVER_DIRECT_BUFFER_SIZE = 8 * K;
 
+	/**
+	 * The NIO Direct Byte buffer size for the aggregated read, each selector
+	 * thread has one buffer of this size. Default to 64KB.
+	 */
+	int SERVER_READ_BUFFER_SIZE = 64 * K;
+
+	/**
+	 * The max number of bytes to be sent in one gathering write, the server will
+	 * turn to other channels after this budget is used up. Default to 256KB.
+	 */
+	int SERVER_GATHERING_WRITE_BUDGET = 256 * K;
+
 	/**
 	 * The max packet size for this server. Default to 10MB
 	 */
 	int SERVER_MAX_PACKET_SIZE = 10 * M;
 
+	/**
+	 * The max number of packets waiting to be handled for one connection in the ordered
+	 * dispatch mode, the packets exceed this limit will be dropped.
+	 */
+	int SERVER_DISPATCH_QUEUE_SIZE = 1000;
+
 	/**
 	 * The fault tolerate map size, which contains all the fault client data.
 	 * Configure this size too much will consume much memory.
@@ -106,6 +140,17 @@ public interface Config extends Const {
 	 */
 	int SERVER_HEARTBEAT_INTERVAL = 10000;
 
+	/**
+	 * The tick duration of the server timing wheel in milliseconds, the heart beat and the idle
+	 * timeouts driven by this wheel may be delayed at most one tick.
+	 */
+	int SERVER_TIMING_WHEEL_TICK = 100;
+
+	/**
+	 * The number of ticks in one round of the server timing wheel.
+	 */
+	int SERVER_TIMING_WHEEL_SIZE = 512;
+
 	/**
 	 * The default server listen port.
 	 */
@@ -138,6 +183,23 @@ public interface Config extends Const {
 	 */
 	int RPC_CONNECT_RETRY_TIMES = 3;
 
+	/**
+	 * The upper bound of the sleep between each retry when the client manager backs off
+	 * exponentially in the racing connect mode.
+	 */
+	int RPC_MAX_SLEEP_BT_RETRY = 30000;
+
+	/**
+	 * The delay in milliseconds before the client manager starts to connect to the next
+	 * address when it races connections to several addresses in parallel.
+	 */
+	int CLIENT_RACE_CONNECT_DELAY = 250;
+
+	/**
+	 * The max number of threads shared by all the client managers to race connections.
+	 */
+	int CLIENT_RACE_THREADS = 8;
+
 	/**
 	 * Rpc handle timeout. If the client can not get response packet after this time, it will throw
 	 * an exception to the upper layer.
@@ -160,6 +222,12 @@ public interface Config extends Const {
 	 */
 	// --------------------------------------------------------------
 
+	/**
+	 * The max number of attribute keys, see {@link AttributeKey}. Every key takes one slot
+	 * in the attribute map of each connection.
+	 */
+	int ATTRIBUTE_MAX_KEYS = 256;
+
 	/**
 	 * Attach session handler to the packet writer with this key.
 	 */
@@ -180,6 +248,16 @@ public interface Config extends Const {
 	 */
 	String ATTACH_KEY_HEART_BEAT = "SYS_HAND_HEART_BEAT";
 
+	/**
+	 * Attach the ordered dispatch queue of the connection.
+	 */
+	String ATTACH_KEY_DISPATCH_QUEUE = "SYS_HAND_DISPATCH_QUEUE";
+
+	/**
+	 * Attach the flag of the packet sent counter of the channel groups.
+	 */
+	String ATTACH_KEY_GROUP_COUNTER = "SYS_HAND_GROUP_COUNTER";
+
 	/**
 	 * Attach the registered service address.
 	 */
@@ -232,6 +310,13 @@ public interface Config extends Const {
 	 */
 	short CODE_NAME_DIFF = (short)65506;
 
+	/**
+	 * Negotiate the version 2 wire protocol. Client sends this packet with version 2 right
+	 * after connected, server which supports it replies the same code with reserved 1 and
+	 * empty body, then both sides use the 12 bytes header from the next packet on.
+	 */
+	short CODE_PROTOCOL_V2 = (short)65507;
+
 	/**
 	 * Packet not recognized.
 	 */
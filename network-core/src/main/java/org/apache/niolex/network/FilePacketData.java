@@ -0,0 +1,149 @@
+/**
+ * FilePacketData.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The packet whose body is a region of a file. The server will write the packet header
+ * first, and then transfer the file region directly into the socket by
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * so the file content will never be loaded into heap.
+ * <br>
+ * The remote peer will receive a normal packet with the file region as the packet body.
+ * For files larger than {@link Config#SERVER_MAX_PACKET_SIZE}, please use
+ * {@link #split(int, FileChannel)} to send it in chunks, the chunks will be received in
+ * order with the same packet code.
+ * <br>
+ * This packet is only supported by the server side
+ * {@link org.apache.niolex.network.server.FastCore}. The file channel is owned by the user,
+ * user can close it after the packet is sent, please see
+ * {@link IPacketWriter#addEventListener(org.apache.niolex.network.event.WriteEventListener)}.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-25
+ */
+public class FilePacketData extends PacketData {
+
+    // Max packet size.
+    private static final int MAX_SIZE = Config.SERVER_MAX_PACKET_SIZE;
+
+    /**
+     * The file channel to read data from.
+     */
+    private final FileChannel fileChannel;
+
+    /**
+     * The position of the file region in the file.
+     */
+    private final long position;
+
+    /**
+     * Split the whole file into packets, each packet is not larger than
+     * {@link Config#SERVER_MAX_PACKET_SIZE}.
+     *
+     * @param code the packet code
+     * @param fileChannel the file channel
+     * @return the packet list
+     * @throws IOException if failed to get the file size
+     */
+    public static List<FilePacketData> split(int code, FileChannel fileChannel) throws IOException {
+        return split(code, fileChannel, 0, fileChannel.size(), MAX_SIZE);
+    }
+
+    /**
+     * Split the file region into packets, each packet is not larger than the chunk size.
+     * We always return at least one packet, even if the region is empty.
+     *
+     * @param code the packet code
+     * @param fileChannel the file channel
+     * @param position the position of the file region in the file
+     * @param count the number of bytes of the file region
+     * @param chunkSize the max size of each packet
+     * @return the packet list
+     * @throws IllegalArgumentException if the chunk size is not in the range of (0, max packet size]
+     */
+    public static List<FilePacketData> split(int code, FileChannel fileChannel, long position, long count,
+            int chunkSize) {
+        if (chunkSize <= 0 || chunkSize > MAX_SIZE) {
+            throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+        }
+        List<FilePacketData> list = new ArrayList<FilePacketData>((int) (count / chunkSize) + 1);
+        long end = position + count;
+        do {
+            int size = (int) Math.min(chunkSize, end - position);
+            list.add(new FilePacketData(code, fileChannel, position, size));
+            position += size;
+        } while (position < end);
+        return list;
+    }
+
+    /**
+     * Create a file packet.
+     *
+     * @param code the packet code
+     * @param fileChannel the file channel to read data from
+     * @param position the position of the file region in the file
+     * @param count the number of bytes of the file region, which is the packet length
+     * @throws IllegalArgumentException if the count is larger than
+     * {@link Config#SERVER_MAX_PACKET_SIZE} or negative
+     */
+    public FilePacketData(int code, FileChannel fileChannel, long position, int count) {
+        super(code);
+        if (count < 0 || count > MAX_SIZE) {
+            throw new IllegalArgumentException("Invalid file region size: " + count);
+        }
+        this.fileChannel = fileChannel;
+        this.position = position;
+        this.length = count;
+    }
+
+    /**
+     * Make a copy of this packet. The file channel is shared.
+     *
+     * Override super method
+     * @see org.apache.niolex.network.PacketData#clone()
+     */
+    @Override
+    public FilePacketData clone() {
+        FilePacketData other = new FilePacketData(this.code, this.fileChannel, this.position, this.length);
+        other.reserved = this.reserved;
+        other.version = this.version;
+        other.correlationId = this.correlationId;
+        return other;
+    }
+
+    /**
+     * @return the file channel to read data from
+     */
+    public FileChannel getFileChannel() {
+        return fileChannel;
+    }
+
+    /**
+     * @return the position of the file region in the file
+     */
+    public long getPosition() {
+        return position;
+    }
+
+}
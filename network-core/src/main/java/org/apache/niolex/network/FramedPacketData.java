@@ -0,0 +1,126 @@
+/**
+ * FramedPacketData.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The packet framed only once into a read only direct buffer with both the header and
+ * the body, so it can be written to a large number of connections without copying. The
+ * server side {@link org.apache.niolex.network.server.FastCore} will write a duplicate view
+ * of the shared frame into the socket directly, the other writers just use it as a normal
+ * packet.
+ * <br>
+ * The frames of the two wire protocol versions are created on the first use respectively.
+ * Please do not change this packet after created, the changes will not be reflected in the
+ * frames. Please see {@link org.apache.niolex.network.server.ChannelGroup} for broadcast.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public class FramedPacketData extends PacketData {
+
+    /**
+     * The frame of the version 1 wire protocol.
+     */
+    private volatile ByteBuffer frame;
+
+    /**
+     * The frame of the version 2 wire protocol.
+     */
+    private volatile ByteBuffer frameV2;
+
+    /**
+     * Create a framed packet with the same header and body of the specified packet. If the
+     * data array of the packet is borrowed from a pool, we make a copy of it, so the packet
+     * can be released after this method returns.
+     *
+     * @param sc the packet to be framed
+     * @throws IllegalArgumentException if the packet is a file packet
+     */
+    public FramedPacketData(PacketData sc) {
+        super(sc.getCode(), frameData(sc));
+        this.version = sc.getVersion();
+        this.reserved = sc.getReserved();
+        this.correlationId = sc.getCorrelationId();
+    }
+
+    /**
+     * Get the data to be framed of the specified packet. The file packet has no data in
+     * memory, it would be framed as an empty packet, so we reject it.
+     *
+     * @param sc the packet
+     * @return the data to be framed
+     * @throws IllegalArgumentException if the packet is a file packet
+     */
+    private static byte[] frameData(PacketData sc) {
+        if (sc instanceof FilePacketData) {
+            throw new IllegalArgumentException("The file packet can not be framed.");
+        }
+        return sc.isPooled() ? copyData(sc) : sc.getData();
+    }
+
+    /**
+     * Copy the data of the specified packet.
+     *
+     * @param sc the packet
+     * @return the copy of the data
+     */
+    private static byte[] copyData(PacketData sc) {
+        byte[] data = new byte[sc.getLength()];
+        System.arraycopy(sc.getData(), 0, data, 0, data.length);
+        return data;
+    }
+
+    /**
+     * Get a view of the shared frame of the specified wire protocol version. The view is
+     * positioned at the start of the frame, and the content of the frame is read only.
+     *
+     * @param v2 true to get the frame of the version 2 wire protocol
+     * @return the view of the frame
+     */
+    public ByteBuffer getFrame(boolean v2) {
+        ByteBuffer f = v2 ? frameV2 : frame;
+        if (f == null) {
+            // Two threads may frame it at the same time, it's harmless.
+            f = createFrame(v2);
+            if (v2) {
+                frameV2 = f;
+            } else {
+                frame = f;
+            }
+        }
+        return f.duplicate();
+    }
+
+    /**
+     * Put the header and the body into a new direct buffer.
+     *
+     * @param v2 true to put the version 2 header
+     * @return the read only frame
+     */
+    private ByteBuffer createFrame(boolean v2) {
+        ByteBuffer bb = ByteBuffer.allocateDirect(headerSize(v2) + length);
+        putHeader(bb, v2);
+        bb.put(data, 0, length);
+        bb.flip();
+        return bb.asReadOnlyBuffer();
+    }
+
+}
@@ -17,6 +17,7 @@
  */
 package org.apache.niolex.network;
 
+import org.apache.niolex.network.event.PacketSentListener;
 import org.apache.niolex.network.event.WriteEventListener;
 
 /**
@@ -60,9 +61,23 @@ public interface IPacketWriter {
      */
     public void addEventListener(WriteEventListener listener);
 
+    /**
+     * Add a light weight listener to be notified after packet sent to client. If packet codes
+     * are specified, the listener will only be notified of the packets with these codes.
+     * <br>
+     * This is the allocation free alternative of {@link #addEventListener(WriteEventListener)}.
+     *
+     * @param listener the packet sent listener
+     * @param codes the packet codes to listen, empty to listen all packets
+     */
+    public void addSentListener(PacketSentListener listener, short... codes);
+
     /**
      * Attach some data to this object, please use your unique key, all system internal data key
      * will start with <b>SYS_</b>, please keep away from them.
+     * <br>
+     * The names of the registered {@link AttributeKey}s share the slots with those keys, the
+     * other names are kept in a per connection map, they never register any new key.
      *
      * @param key the user defined key
      * @param value the user attachment
@@ -80,4 +95,46 @@ public interface IPacketWriter {
      */
     public <T> T getAttached(String key);
 
+    /**
+     * Attach the typed attribute to this object. The String keyed attachment with the same
+     * name shares the value with this key.
+     *
+     * @param <T> the type of the attribute value
+     * @param key the attribute key
+     * @param value the attribute value, null to remove it
+     * @return the current stored object, or null if nothing is stored currently.
+     */
+    public <T> T attachData(AttributeKey<T> key, T value);
+
+    /**
+     * Attach the typed attribute to this object if nothing is stored with this key.
+     *
+     * @param <T> the type of the attribute value
+     * @param key the attribute key
+     * @param value the attribute value
+     * @return the current stored object, or null if the new value is stored.
+     */
+    public <T> T attachIfAbsent(AttributeKey<T> key, T value);
+
+    /**
+     * Atomically replace the typed attribute with the update value if the current stored
+     * object is the expected one.
+     *
+     * @param <T> the type of the attribute value
+     * @param key the attribute key
+     * @param expect the expected object, null means nothing is stored
+     * @param update the new value
+     * @return true if replaced
+     */
+    public <T> boolean compareAndAttach(AttributeKey<T> key, T expect, T update);
+
+    /**
+     * Get the typed attribute from this Writer, or null if nothing is stored.
+     *
+     * @param <T> the type of the attribute value
+     * @param key the attribute key
+     * @return the attached object
+     */
+    public <T> T getAttached(AttributeKey<T> key);
+
 }
@@ -0,0 +1,87 @@
+/**
+ * IStreamHandler.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The streaming packet handler interface, used to receive the large packets without holding
+ * the whole packet body in memory. The server delivers the packet header first, and then the
+ * body chunks as they arrive from the socket, so the handler can spill them to disk or process
+ * them incrementally.
+ * <br>
+ * All the methods are invoked in the selector thread one by one for one connection, please do
+ * not block in them. The chunks of one packet are always delivered in order.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public interface IStreamHandler {
+
+    /**
+     * Get the max body size of the packets of this code to be streamed. Packets of the codes
+     * not streamed are handled by the packet handler as usual.
+     * <br>
+     * The packets of the streamed codes larger than this limit are rejected and the connection
+     * is closed, just like the packets larger than {@link Config#SERVER_MAX_PACKET_SIZE}. So
+     * this limit can be larger than that global constant.
+     *
+     * @param code the packet code
+     * @return the max body size in bytes, 0 to not stream the packets of this code
+     */
+    public int getStreamLimit(short code);
+
+    /**
+     * A streamed packet starts. The header packet contains all the header fields, but its
+     * data array is null.
+     *
+     * @param header the packet header
+     * @param wt the packet writer of this connection
+     */
+    public void streamStart(PacketData header, IPacketWriter wt);
+
+    /**
+     * A body chunk of the streamed packet arrives. The chunk buffer is only valid in this
+     * method, please copy the data out if you want to keep it.
+     *
+     * @param header the packet header
+     * @param chunk the body chunk, from position to limit
+     * @param wt the packet writer of this connection
+     */
+    public void streamChunk(PacketData header, ByteBuffer chunk, IPacketWriter wt);
+
+    /**
+     * All the body of the streamed packet has been delivered.
+     *
+     * @param header the packet header
+     * @param wt the packet writer of this connection
+     */
+    public void streamEnd(PacketData header, IPacketWriter wt);
+
+    /**
+     * The connection is closed before all the body of the streamed packet is delivered, the
+     * handler should clean the partial data here. This method is invoked before
+     * {@link IPacketHandler#handleClose(IPacketWriter)}.
+     *
+     * @param header the packet header
+     * @param wt the packet writer of this connection
+     */
+    public void streamAbort(PacketData header, IPacketWriter wt);
+
+}
@@ -50,6 +50,12 @@ public class Packet {
      */
     protected int length;
 
+    /**
+     * The 32-bit correlation id, it's only transferred in the version 2 wire protocol.
+     * Please see {@link Config#CODE_PROTOCOL_V2}.
+     */
+    protected int correlationId;
+
     /**
      * The real packet content.
      */
@@ -171,4 +177,19 @@ public class Packet {
         this.data = data;
     }
 
+    /**
+     * @return the correlation id
+     */
+    public int getCorrelationId() {
+        return correlationId;
+    }
+
+    /**
+     * @param correlationId
+     *            the correlation id to set
+     */
+    public void setCorrelationId(int correlationId) {
+        this.correlationId = correlationId;
+    }
+
 }
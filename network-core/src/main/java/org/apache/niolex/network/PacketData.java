@@ -18,6 +18,7 @@
 package org.apache.niolex.network;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import org.apache.niolex.commons.codec.StringUtil;
 
@@ -39,6 +40,16 @@ public class PacketData extends Packet implements Cloneable {
     // Max packet size.
     private static final int MAX_SIZE = Config.SERVER_MAX_PACKET_SIZE;
 
+    // The reference count updater.
+    private static final AtomicIntegerFieldUpdater<PacketData> REF_CNT =
+            AtomicIntegerFieldUpdater.newUpdater(PacketData.class, "refCnt");
+
+    // The pool which the data array is borrowed from, null if not pooled.
+    private volatile ByteArrayPool pool;
+
+    // The reference count of the pooled data array.
+    private volatile int refCnt;
+
     /**
      * Get the default heart beat packet.
      *
@@ -105,6 +116,7 @@ public class PacketData extends Packet implements Cloneable {
 
     /**
      * Make a copy of this packet. All fields will be copied.
+     * The data array is shared with this packet, and the copy is not pooled.
      *
      * @return the copy.
      */
@@ -113,6 +125,7 @@ public class PacketData extends Packet implements Cloneable {
     	PacketData other = new PacketData(this.code, this.data);
     	other.reserved = this.reserved;
     	other.version = this.version;
+    	other.correlationId = this.correlationId;
     	return other;
     }
 
@@ -129,6 +142,31 @@ public class PacketData extends Packet implements Cloneable {
         bb.putInt(length);
     }
 
+    /**
+     * Generate Header Data from this Packet and put it into the ByteBuffer, in the
+     * specified wire protocol version. Please make sure there are at least
+     * {@link #headerSize(boolean)} bytes left in the buffer.
+     *
+     * @param bb byte buffer used to put the header
+     * @param v2 true to put the version 2 header with the correlation id
+     */
+    public void putHeader(ByteBuffer bb, boolean v2) {
+        putHeader(bb);
+        if (v2) {
+            bb.putInt(correlationId);
+        }
+    }
+
+    /**
+     * Get the packet header size of the specified wire protocol version.
+     *
+     * @param v2 true for the version 2 header
+     * @return the header size
+     */
+    public static int headerSize(boolean v2) {
+        return v2 ? Config.PACKET_HEADER_SIZE_V2 : Config.PACKET_HEADER_SIZE;
+    }
+
     /**
      * Parse Packet header from the ByteBuffer.
      * We will create the data array for you to put in the packet content, but
@@ -139,15 +177,139 @@ public class PacketData extends Packet implements Cloneable {
      * {@link Config#SERVER_MAX_PACKET_SIZE}
      */
     public void parseHeader(ByteBuffer bb) {
+        parseHeader(bb, null);
+    }
+
+    /**
+     * Parse Packet header from the ByteBuffer, and borrow the data array from the
+     * specified pool if it's not null.
+     * <br>
+     * A pooled packet is owned by the caller with reference count 1, please see
+     * {@link #retain()} and {@link #release()} for the contract.
+     *
+     * @param bb the header byte buffer
+     * @param pool the pool to borrow data array from, null to create a new array
+     * @throws IllegalStateException if the packet is larger than
+     * {@link Config#SERVER_MAX_PACKET_SIZE}
+     */
+    public void parseHeader(ByteBuffer bb, ByteArrayPool pool) {
+        parseHeader(bb, pool, false);
+    }
+
+    /**
+     * Parse Packet header of the specified wire protocol version from the ByteBuffer, and
+     * borrow the data array from the specified pool if it's not null.
+     *
+     * @param bb the header byte buffer
+     * @param pool the pool to borrow data array from, null to create a new array
+     * @param v2 true to parse the version 2 header with the correlation id
+     * @throws IllegalStateException if the packet is larger than
+     * {@link Config#SERVER_MAX_PACKET_SIZE}
+     * @see #parseHeader(ByteBuffer, ByteArrayPool)
+     */
+    public void parseHeader(ByteBuffer bb, ByteArrayPool pool, boolean v2) {
+        readHeader(bb, v2);
+        allocate(pool);
+    }
+
+    /**
+     * Read the header fields of the specified wire protocol version from the ByteBuffer,
+     * without checking the packet length or creating the data array. The caller must call
+     * {@link #allocate(ByteArrayPool)} later if it wants to read the body into this packet.
+     *
+     * @param bb the header byte buffer
+     * @param v2 true to read the version 2 header with the correlation id
+     */
+    public void readHeader(ByteBuffer bb, boolean v2) {
         version = bb.get();
         reserved = bb.get();
         code = bb.getShort();
         length = bb.getInt();
+        if (v2) {
+            correlationId = bb.getInt();
+        }
+    }
 
+    /**
+     * Create the data array according to the packet length in the header, and borrow it
+     * from the specified pool if it's not null.
+     *
+     * @param pool the pool to borrow data array from, null to create a new array
+     * @throws IllegalStateException if the packet is larger than
+     * {@link Config#SERVER_MAX_PACKET_SIZE}
+     */
+    public void allocate(ByteArrayPool pool) {
         if (length > MAX_SIZE) {
         	throw new IllegalStateException("The packet length is larger than the max size: " + length);
         }
-        data = new byte[length];
+        if (length == 0) {
+            data = Z_LEN_STUB;
+        } else if (pool != null) {
+            data = pool.getArray(length);
+            this.pool = pool;
+            this.refCnt = 1;
+        } else {
+            data = new byte[length];
+        }
+    }
+
+    /**
+     * Retain this packet, so the data array will not be given back to the pool when the
+     * packet reader releases it.
+     * <br>
+     * Packet handlers who want to keep the packet or it's data array after
+     * {@link IPacketHandler#handlePacket(PacketData, IPacketWriter)} returned, e.g. handle
+     * it in another thread or write it back to the remote peer, must call this method. The
+     * handler can call {@link #release()} later when it's done, or just leave the array to GC.
+     * <br>
+     * This method is a no-op for packets not borrowed from a pool.
+     *
+     * @return this packet
+     */
+    public PacketData retain() {
+        if (pool != null) {
+            REF_CNT.incrementAndGet(this);
+        }
+        return this;
+    }
+
+    /**
+     * Release this packet. When the reference count drops to 0, the data array
+     * will be given back to the pool, and the data of this packet will be set to null.
+     * <br>
+     * This method is a no-op for packets not borrowed from a pool.
+     *
+     * @return true if the data array was given back to the pool
+     */
+    public boolean release() {
+        ByteArrayPool p = pool;
+        if (p != null && REF_CNT.decrementAndGet(this) == 0) {
+            pool = null;
+            p.giveBack(data);
+            data = null;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Set the data of this packet. If the current data array is borrowed from a pool,
+     * this packet will not be pooled any more, and the old array is left to GC.
+     *
+     * Override super method
+     * @see org.apache.niolex.network.Packet#setData(byte[])
+     */
+    @Override
+    public void setData(byte[] data) {
+        this.pool = null;
+        this.data = data;
+    }
+
+    /**
+     * @return true if the data array of this packet is borrowed from a pool
+     */
+    public boolean isPooled() {
+        return pool != null;
     }
 
 }
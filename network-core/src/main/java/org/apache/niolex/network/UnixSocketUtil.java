@@ -0,0 +1,401 @@
+/**
+ * UnixSocketUtil.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.apache.niolex.commons.util.SystemUtil;
+
+/**
+ * The utility to use Unix domain sockets for the co-located services. Unix domain socket
+ * channels are only available since Java 16, so we access them by reflection, and
+ * {@link #isSupported()} returns false on the older platforms.
+ * <br>
+ * A Unix domain socket address is written as <code>unix:/path/to/file.sock</code>. In order
+ * to pass it through the existing client interfaces, we represent it as an unresolved
+ * {@link InetSocketAddress} with the whole address string as the host name and port 0.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public class UnixSocketUtil {
+
+    /**
+     * The prefix of the Unix domain socket address.
+     */
+    public static final String PREFIX = "unix:";
+
+    private static final ProtocolFamily UNIX = findFamily();
+    private static final Method ADDRESS_OF = findMethod("java.net.UnixDomainSocketAddress", "of", String.class);
+    private static final Method OPEN_CHANNEL = findMethod("java.nio.channels.SocketChannel", "open", ProtocolFamily.class);
+    private static final Method OPEN_SERVER = findMethod("java.nio.channels.ServerSocketChannel", "open", ProtocolFamily.class);
+
+    /**
+     * Find the UNIX protocol family, it's only available since Java 16.
+     *
+     * @return the protocol family, or null if it's not supported
+     */
+    private static ProtocolFamily findFamily() {
+        try {
+            return StandardProtocolFamily.valueOf("UNIX");
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Find the public method by reflection.
+     *
+     * @param className the class name
+     * @param name the method name
+     * @param paramType the parameter type
+     * @return the method, or null if not found
+     */
+    private static Method findMethod(String className, String name, Class<?> paramType) {
+        try {
+            return Class.forName(className).getMethod(name, paramType);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Invoke the static method and unwrap the exception thrown by it.
+     *
+     * @param m the method
+     * @param arg the argument
+     * @return the result
+     * @throws IOException if the platform does not support it, or the method throws IOException
+     */
+    private static Object invoke(Method m, Object arg) throws IOException {
+        if (!isSupported()) {
+            // The connect paths only expect IOException, so we can not throw runtime exception here.
+            throw new IOException("Unix domain socket is not supported on this platform.");
+        }
+        try {
+            return m.invoke(null, arg);
+        } catch (InvocationTargetException e) {
+            Throwable t = e.getCause();
+            if (t instanceof IOException) {
+                throw (IOException) t;
+            }
+            throw new IOException("Failed to invoke " + m.getName(), t);
+        } catch (IllegalAccessException e) {
+            throw new IOException("Failed to invoke " + m.getName(), e);
+        }
+    }
+
+    /**
+     * @return true if the platform supports Unix domain socket channels
+     */
+    public static boolean isSupported() {
+        return UNIX != null && ADDRESS_OF != null && OPEN_CHANNEL != null && OPEN_SERVER != null;
+    }
+
+    /**
+     * Create the client side representation of the Unix domain socket address.
+     *
+     * @param path the socket file path
+     * @return the unresolved address
+     */
+    public static InetSocketAddress unixAddress(String path) {
+        return InetSocketAddress.createUnresolved(PREFIX + path, 0);
+    }
+
+    /**
+     * Test whether this address represents a Unix domain socket address.
+     *
+     * @param addr the address
+     * @return true if it's a Unix domain socket address
+     */
+    public static boolean isUnixAddress(InetSocketAddress addr) {
+        return addr != null && addr.isUnresolved() && addr.getHostString().startsWith(PREFIX);
+    }
+
+    /**
+     * Get the socket file path from the Unix domain socket address.
+     *
+     * @param addr the Unix domain socket address
+     * @return the socket file path
+     */
+    public static String getPath(InetSocketAddress addr) {
+        return addr.getHostString().substring(PREFIX.length());
+    }
+
+    /**
+     * Parse the address string. Both <code>host:port</code> and <code>unix:/path</code> are
+     * supported.
+     *
+     * @param addr the address string
+     * @return the parsed address
+     */
+    public static InetSocketAddress parseAddress(String addr) {
+        if (addr.startsWith(PREFIX)) {
+            return unixAddress(addr.substring(PREFIX.length()));
+        }
+        String[] aa = addr.split(":");
+        return new InetSocketAddress(aa[0], Integer.parseInt(aa[1]));
+    }
+
+    /**
+     * Get the display name of this address.
+     *
+     * @param addr the address
+     * @return the address string
+     */
+    public static String toString(InetSocketAddress addr) {
+        return isUnixAddress(addr) ? addr.getHostString() : String.valueOf(addr);
+    }
+
+    /**
+     * Open a blocking socket channel and connect it to the Unix domain socket address.
+     *
+     * @param addr the Unix domain socket address
+     * @return the connected socket channel
+     * @throws IOException if I/O related error occurred, or the platform does not support it
+     */
+    public static SocketChannel openChannel(InetSocketAddress addr) throws IOException {
+        SocketAddress sa = (SocketAddress) invoke(ADDRESS_OF, getPath(addr));
+        SocketChannel ch = (SocketChannel) invoke(OPEN_CHANNEL, UNIX);
+        try {
+            ch.connect(sa);
+            return ch;
+        } catch (IOException e) {
+            SystemUtil.close(ch);
+            throw e;
+        }
+    }
+
+    /**
+     * Open a non-blocking server socket channel and bind it to this path. The stale socket
+     * file left by the last run will be deleted.
+     *
+     * @param path the socket file path
+     * @return the bound server socket channel
+     * @throws IOException if I/O related error occurred, or the platform does not support it
+     */
+    public static ServerSocketChannel openServerChannel(String path) throws IOException {
+        SocketAddress sa = (SocketAddress) invoke(ADDRESS_OF, path);
+        ServerSocketChannel ssc = (ServerSocketChannel) invoke(OPEN_SERVER, UNIX);
+        try {
+            ssc.configureBlocking(false);
+            deletePath(path);
+            ssc.bind(sa, Config.SO_BACKLOG);
+            return ssc;
+        } catch (IOException e) {
+            SystemUtil.close(ssc);
+            throw e;
+        }
+    }
+
+    /**
+     * Delete the socket file.
+     *
+     * @param path the socket file path
+     * @throws IOException if I/O related error occurred
+     */
+    public static void deletePath(String path) throws IOException {
+        Files.deleteIfExists(Paths.get(path));
+    }
+
+    /**
+     * Test whether this socket channel is a Unix domain socket channel.
+     *
+     * @param ch the socket channel
+     * @return true if it's a Unix domain socket channel
+     */
+    public static boolean isUnixChannel(SocketChannel ch) {
+        try {
+            SocketAddress a = ch.getLocalAddress();
+            return a != null && !(a instanceof InetSocketAddress);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Create an input stream reading from the non-blocking socket channel directly. The Unix
+     * domain socket channel has no read timeout, so we wait for the data by a selector, and
+     * throw {@link SocketTimeoutException} if nothing arrived in time, just like the socket
+     * input stream with SO_TIMEOUT.
+     * <br>
+     * We do not use {@link java.nio.channels.Channels#newInputStream(java.nio.channels.ReadableByteChannel)},
+     * because its read blocks the write of the channel output stream.
+     *
+     * @param ch the non-blocking socket channel
+     * @param timeout the read timeout in milliseconds, 0 to wait forever
+     * @return the input stream
+     */
+    public static InputStream newInputStream(final SocketChannel ch, final int timeout) {
+        final Waiter waiter = new Waiter(ch, SelectionKey.OP_READ);
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                ByteBuffer bb = ByteBuffer.wrap(b, off, len);
+                int n;
+                while ((n = ch.read(bb)) == 0) {
+                    if (!waiter.await(timeout) && timeout > 0 && ch.isOpen()) {
+                        throw new SocketTimeoutException("Read timed out.");
+                    }
+                }
+                return n;
+            }
+
+            @Override
+            public void close() throws IOException {
+                ch.close();
+                waiter.close();
+            }
+        };
+    }
+
+    /**
+     * Create an output stream writing to the non-blocking socket channel directly. We wait by
+     * a selector when the socket buffer is full, so the writer never spins.
+     *
+     * @param ch the non-blocking socket channel
+     * @return the output stream
+     * @see #newInputStream(SocketChannel, int)
+     */
+    public static OutputStream newOutputStream(final SocketChannel ch) {
+        final Waiter waiter = new Waiter(ch, SelectionKey.OP_WRITE);
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer bb = ByteBuffer.wrap(b, off, len);
+                while (bb.hasRemaining()) {
+                    if (ch.write(bb) == 0) {
+                        waiter.await(0);
+                    }
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                ch.close();
+                waiter.close();
+            }
+        };
+    }
+
+    /**
+     * Wait for the non-blocking socket channel to be ready by a selector, which is created on
+     * the first wait and closed with the stream.
+     *
+     * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+     * @version 1.0.0
+     * @since 2013-11-30
+     */
+    private static class Waiter {
+        private final SocketChannel ch;
+        private final int ops;
+        private Selector selector;
+
+        /**
+         * Create a waiter.
+         *
+         * @param ch the non-blocking socket channel
+         * @param ops the interest operations
+         */
+        public Waiter(SocketChannel ch, int ops) {
+            this.ch = ch;
+            this.ops = ops;
+        }
+
+        /**
+         * Wait for the channel to be ready.
+         *
+         * @param timeout the max time to wait in milliseconds, 0 to wait forever
+         * @return true if ready, false if timed out or woken up
+         * @throws IOException if I/O related error occurred, or the channel is closed
+         */
+        public boolean await(long timeout) throws IOException {
+            Selector s = selector();
+            try {
+                int n = s.select(timeout);
+                s.selectedKeys().clear();
+                return n > 0;
+            } catch (ClosedSelectorException e) {
+                // The stream is closed by another thread.
+                throw new AsynchronousCloseException();
+            }
+        }
+
+        /**
+         * Get the selector, create it if absent. The channel must be closed before this
+         * waiter, so the selector created after the close fails to register and is closed.
+         *
+         * @return the selector
+         * @throws IOException if I/O related error occurred, or the channel is closed
+         */
+        private synchronized Selector selector() throws IOException {
+            if (selector == null) {
+                Selector s = Selector.open();
+                try {
+                    ch.register(s, ops);
+                } catch (IOException e) {
+                    SystemUtil.close(s);
+                    throw e;
+                }
+                selector = s;
+            }
+            return selector;
+        }
+
+        /**
+         * Close the selector, the waiting thread will be woken up.
+         */
+        public synchronized void close() {
+            SystemUtil.close(selector);
+        }
+    }
+
+}
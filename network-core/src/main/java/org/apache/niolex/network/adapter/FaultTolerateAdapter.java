@@ -23,10 +23,12 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.niolex.commons.collection.CircularList;
 import org.apache.niolex.commons.collection.LRUHashMap;
+import org.apache.niolex.network.AttributeKey;
 import org.apache.niolex.network.Config;
 import org.apache.niolex.network.IPacketHandler;
 import org.apache.niolex.network.IPacketWriter;
 import org.apache.niolex.network.PacketData;
+import org.apache.niolex.network.event.PacketSentListener;
 import org.apache.niolex.network.event.WriteEvent;
 import org.apache.niolex.network.event.WriteEventListener;
 import org.apache.niolex.network.serialize.PacketTransformer;
@@ -54,12 +56,12 @@ import org.slf4j.LoggerFactory;
  * @version 1.0.0
  * @since 2012-5-30
  */
-public class FaultTolerateAdapter implements IPacketHandler, WriteEventListener {
+public class FaultTolerateAdapter implements IPacketHandler, WriteEventListener, PacketSentListener {
 	private static final Logger LOG = LoggerFactory.getLogger(FaultTolerateAdapter.class);
 
-	private static final String KEY_UUID = Config.ATTACH_KEY_FAULTTO_UUID;
+	private static final AttributeKey<String> KEY_UUID = AttributeKey.valueOf(Config.ATTACH_KEY_FAULTTO_UUID);
 
-	private static final String KEY_RRLIST = Config.ATTACH_KEY_FAULT_RRLIST;
+	private static final AttributeKey<CircularList<PacketData>> KEY_RRLIST = AttributeKey.valueOf(Config.ATTACH_KEY_FAULT_RRLIST);
 
 	private static final int RR_SIZE = Config.SERVER_CACHE_TOLERATE_PACKETS_SIZE;
 
@@ -96,7 +98,7 @@ public class FaultTolerateAdapter implements IPacketHandler, WriteEventListener
 			wt.attachData(KEY_UUID, ssid);
 			wt.attachData(KEY_RRLIST, new CircularList<PacketData>(RR_SIZE));
             // Attach myself to listen all the write events.
-			wt.addEventListener(this);
+			wt.addSentListener(this);
 		}
 	}
 
@@ -179,10 +181,18 @@ public class FaultTolerateAdapter implements IPacketHandler, WriteEventListener
 	 */
 	@Override
 	public void afterSent(WriteEvent wEvent) {
-		IPacketWriter wt = wEvent.getPacketWriter();
+		packetSent(wEvent.getPacketWriter(), wEvent.getPacketData());
+	}
+
+	/**
+	 * Override super method
+	 * @see org.apache.niolex.network.event.PacketSentListener#packetSent(org.apache.niolex.network.IPacketWriter, org.apache.niolex.network.PacketData)
+	 */
+	@Override
+	public void packetSent(IPacketWriter wt, PacketData sc) {
 		CircularList<PacketData> list = wt.getAttached(KEY_RRLIST);
 		if (list != null) {
-			list.add(wEvent.getPacketData());
+			list.add(sc);
 		}
 	}
 
@@ -17,47 +17,62 @@
  */
 package org.apache.niolex.network.adapter;
 
-import java.util.Iterator;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
-import org.apache.niolex.commons.concurrent.ThreadUtil;
+import org.apache.niolex.network.AttributeKey;
 import org.apache.niolex.network.Config;
 import org.apache.niolex.network.IPacketHandler;
 import org.apache.niolex.network.IPacketWriter;
 import org.apache.niolex.network.PacketData;
+import org.apache.niolex.network.event.PacketSentListener;
 import org.apache.niolex.network.event.WriteEvent;
 import org.apache.niolex.network.event.WriteEventListener;
+import org.apache.niolex.network.server.TimingWheel;
+import org.apache.niolex.network.server.TimingWheel.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Handle the heart beat problem for the writers attached with this adapter. We
- * will start a deamon thread dedicates to handle heart beat.
+ * Handle the heart beat problem for the writers attached with this adapter. Every writer
+ * registered has a timeout in the timing wheel, which expires when the heart beat interval
+ * is passed since the last packet sent, so we only visit the writers need heart beat.
  * <br>
  * If user set {@link #forceHeartBeat}, then we will heart beat all the clients,
  * otherwise only heart beat those registered with {@link Config#CODE_REGR_HBEAT}.
  * <br>
- * User can set the heart beat interval with {@link #setHeartBeatInterval(int)}.
+ * User can set the heart beat interval with {@link #setHeartBeatInterval(int)}. User can
+ * share the timing wheel of the server with this adapter, e.g.
+ * {@link org.apache.niolex.network.server.NioServer#getTimingWheel()}, otherwise we will
+ * create a private timing wheel with a deamon thread.
  *
  * @author <a href="mailto:xiejiyun@gmail.com">Xie, Jiyun</a>
  * @version 1.0.0
  * @since 2012-6-14
  */
-public class HeartBeatAdapter implements IPacketHandler, WriteEventListener, Runnable {
+public class HeartBeatAdapter implements IPacketHandler, WriteEventListener, PacketSentListener {
 	private static final Logger LOG = LoggerFactory.getLogger(HeartBeatAdapter.class);
 
-	private static final String KEY = Config.ATTACH_KEY_HEART_BEAT;
+	private static final AttributeKey<Long> KEY = AttributeKey.valueOf(Config.ATTACH_KEY_HEART_BEAT);
 
 	/**
-     * The queue to save all the clients who needs heart beat.
-     * The iterator of this queue will not throw ConcurrentModificationException in multiple
-     * thread modification environment.
-     */
-	private final ConcurrentLinkedQueue<IPacketWriter> clientQueue = new ConcurrentLinkedQueue<IPacketWriter>();
+	 * The number of ticks in the private timing wheel.
+	 */
+	private static final int PRIVATE_WHEEL_SIZE = 64;
 
 	// The Handler need to be adapted.
 	private final IPacketHandler other;
 
+	/**
+	 * Whether the timing wheel is created by this adapter.
+	 */
+	private final boolean privateWheel;
+
+	/**
+	 * The timing wheel to schedule heart beat.
+	 */
+	private TimingWheel wheel;
+
     /**
      * The interval to send heart beat if no packet sent between this time.
      */
@@ -74,10 +89,11 @@ public class HeartBeatAdapter implements IPacketHandler, WriteEventListener, Run
      */
     private volatile boolean isWorking;
 
-	/**
-	 * The internal thread.
-	 */
-    private Thread thread;
+    /**
+     * The heart beat tasks parked while this adapter is stopped, they will be scheduled
+     * again when this adapter starts.
+     */
+    private final Queue<HeartBeatTask> parkedTasks = new ConcurrentLinkedQueue<HeartBeatTask>();
 
     /**
      * Whether do we need to send heart beat to all clients.
@@ -85,32 +101,65 @@ public class HeartBeatAdapter implements IPacketHandler, WriteEventListener, Run
     private boolean forceHeartBeat;
 
     /**
-     * The constructor of this adapter.
+     * The constructor of this adapter. We will create a private timing wheel.
      *
      * @param other the packet handler to be adapted
      */
     public HeartBeatAdapter(IPacketHandler other) {
 		super();
 		this.other = other;
+		this.privateWheel = true;
 	}
 
+    /**
+     * The constructor of this adapter, use the shared timing wheel to schedule heart beat.
+     * The shared timing wheel will not be stopped by this adapter.
+     *
+     * @param other the packet handler to be adapted
+     * @param wheel the shared timing wheel
+     */
+    public HeartBeatAdapter(IPacketHandler other, TimingWheel wheel) {
+        super();
+        this.other = other;
+        this.privateWheel = false;
+        this.wheel = wheel;
+    }
+
+    /**
+     * Get the timing wheel, the private timing wheel is created on the first use, so the
+     * tick duration can be calculated from the heart beat interval.
+     *
+     * @return the timing wheel
+     */
+    private synchronized TimingWheel wheel() {
+        if (wheel == null) {
+            wheel = new TimingWheel("HeartBeatAdapter", Math.max(1, maxHeartBeatRelaxation), PRIVATE_WHEEL_SIZE);
+        }
+        return wheel;
+    }
+
 	/**
-     * Start the internal thread to send heart beat.
+     * Start to send heart beat.
      */
     public void start() {
     	isWorking = true;
-    	thread = new Thread(this, "HeartBeatAdapter");
-    	thread.setDaemon(true);
-    	thread.start();
+    	wheel().start();
+    	HeartBeatTask task;
+    	while ((task = parkedTasks.poll()) != null) {
+    	    wheel().newTimeout(task, heartBeatInterval);
+    	}
     }
 
     /**
-     * Stop the internal thread.
+     * Stop sending heart beat, the private timing wheel will be stopped as well. On a shared
+     * timing wheel, every heart beat task is parked at its next run, and scheduled again
+     * when this adapter restarts, so the registered clients are kept.
      */
     public void stop() {
     	isWorking = false;
-    	thread.interrupt();
-    	ThreadUtil.join(thread);
+    	if (privateWheel) {
+    	    wheel().stop();
+    	}
     }
 
 	/**
@@ -136,15 +185,17 @@ public class HeartBeatAdapter implements IPacketHandler, WriteEventListener, Run
 	}
 
 	/**
-	 * Register this writer for heart beat.
+	 * Register this writer for heart beat. We do nothing if it's already registered.
 	 * 
 	 * @param wt the packet writer used to register heart beat
 	 */
 	public void registerHeartBeat(IPacketWriter wt) {
 		// Attach the current time stamp to the packet writer, and save it to the queue.
-		wt.attachData(KEY, System.currentTimeMillis());
-		wt.addEventListener(this);
-		clientQueue.add(wt);
+		if (wt.attachIfAbsent(KEY, System.currentTimeMillis()) != null) {
+		    return;
+		}
+		wt.addSentListener(this);
+		wheel().newTimeout(new HeartBeatTask(wt), heartBeatInterval);
 		LOG.info("Client {} is registerd for heart beat.", wt.getRemoteName());
 	}
 
@@ -154,14 +205,23 @@ public class HeartBeatAdapter implements IPacketHandler, WriteEventListener, Run
 	 */
 	@Override
 	public void afterSent(WriteEvent wEvent) {
-		IPacketWriter wt = wEvent.getPacketWriter();
+		packetSent(wEvent.getPacketWriter(), wEvent.getPacketData());
+	}
+
+	/**
+	 * Override super method
+	 * @see org.apache.niolex.network.event.PacketSentListener#packetSent(IPacketWriter, PacketData)
+	 */
+	@Override
+	public void packetSent(IPacketWriter wt, PacketData sc) {
 		Long ttm = wt.getAttached(KEY);
 		if (ttm != null) {
 		    long cttm = System.currentTimeMillis();
 		    
             // We relax attach time stamp for 150ms to increase performance.
+            // Do not use set here, or the time stamp cleaned by handleClose will come back.
             if (ttm + 150 < cttm)
-		        wt.attachData(KEY, cttm);
+		        wt.compareAndAttach(KEY, ttm, cttm);
 		}
 	}
 
@@ -177,39 +237,56 @@ public class HeartBeatAdapter implements IPacketHandler, WriteEventListener, Run
 	}
 
 
-	/**
-	 * Override super method
-	 * @see java.lang.Runnable#run()
-	 */
-	@Override
-	public void run() {
-		while (isWorking) {
-			handleHeartBeat();
-			ThreadUtil.sleep(heartBeatInterval / 4);
-		}
-	}
-
-
     /**
-     * Handle the heart beat problem of the writers attached with this adapter.
+     * The task to send heart beat to one writer. We check the last send time when the task
+     * expired, and schedule it again at the time the next heart beat is needed.
+     *
+     * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+     * @version 1.0.0
+     * @since 2013-11-30
      */
-    protected void handleHeartBeat() {
-    	Iterator<IPacketWriter> it = clientQueue.iterator();
-        PacketData hb = PacketData.getHeartBeatPacket();
-    	while (it.hasNext()) {
-    		IPacketWriter wt = it.next();
-    		Long ttm = wt.getAttached(KEY);
-    		if (ttm != null) {
-                long cttm = System.currentTimeMillis();
-    			// Send heart beat if and only if last send time is earlier than
-    			// One heart beat interval.
-                if (ttm + heartBeatInterval < cttm + maxHeartBeatRelaxation) {
-                    wt.handleWrite(hb);
-                    wt.attachData(KEY, cttm);
-    			}
-        	} else {
-        		it.remove();
-        	}
+    private class HeartBeatTask implements TimingWheel.Task {
+        private final IPacketWriter wt;
+
+        /**
+         * Create a heart beat task.
+         *
+         * @param wt the writer to send heart beat
+         */
+        private HeartBeatTask(IPacketWriter wt) {
+            this.wt = wt;
+        }
+
+        /**
+         * Override super method
+         * @see org.apache.niolex.network.server.TimingWheel.Task#run(org.apache.niolex.network.server.TimingWheel.Timeout)
+         */
+        @Override
+        public void run(Timeout timeout) {
+            Long ttm = wt.getAttached(KEY);
+            if (ttm == null) {
+                // The client is closed, stop here.
+                return;
+            }
+            if (!isWorking) {
+                // The adapter is stopped, park this task until it starts again.
+                parkedTasks.offer(this);
+                // The adapter may start before we parked, then nobody will take it.
+                if (isWorking && parkedTasks.remove(this)) {
+                    wheel.newTimeout(this, heartBeatInterval);
+                }
+                return;
+            }
+            long cttm = System.currentTimeMillis();
+            long left = ttm + heartBeatInterval - cttm;
+            // Send heart beat if and only if last send time is earlier than
+            // One heart beat interval.
+            if (left < maxHeartBeatRelaxation) {
+                wt.handleWrite(PacketData.getHeartBeatPacket());
+                wt.compareAndAttach(KEY, ttm, cttm);
+                left = heartBeatInterval;
+            }
+            wheel.newTimeout(this, left);
         }
     }
 
@@ -223,6 +300,8 @@ public class HeartBeatAdapter implements IPacketHandler, WriteEventListener, Run
     /**
 	 * The heartBeatInterval to set
 	 * There will be a +-(12.5%) max relaxation for heart beat.
+	 * Please set it before this adapter is used, the tick duration of the private timing
+	 * wheel is calculated from it.
 	 *
 	 * @param heartBeatInterval the heart beat internal to set in milliseconds
 	 */
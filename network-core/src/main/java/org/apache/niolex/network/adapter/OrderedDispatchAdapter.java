@@ -0,0 +1,272 @@
+/**
+ * OrderedDispatchAdapter.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.adapter;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.niolex.network.AttributeKey;
+import org.apache.niolex.network.Config;
+import org.apache.niolex.network.IPacketHandler;
+import org.apache.niolex.network.IPacketWriter;
+import org.apache.niolex.network.PacketData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Run the adapted handler in the executor instead of the network thread, so one slow
+ * handler will not stall all the other connections of the same selector.
+ * <br>
+ * The packets of one connection are handled one by one in the order they are received,
+ * and {@link #handleClose(IPacketWriter)} is handled after all of them. The packets of
+ * different connections are handled concurrently.
+ * <br>
+ * When there are already {@link #getMaxQueueSize()} packets waiting for one connection,
+ * the new packets of this connection will be dropped.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public class OrderedDispatchAdapter implements IPacketHandler {
+    private static final Logger LOG = LoggerFactory.getLogger(OrderedDispatchAdapter.class);
+
+    private static final AttributeKey<SerialQueue> KEY = AttributeKey.valueOf(Config.ATTACH_KEY_DISPATCH_QUEUE);
+
+    /**
+     * The max number of packets to be handled in one run, then we give the thread to others.
+     */
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * The marker of the close event in the queue.
+     */
+    private static final PacketData CLOSE = new PacketData();
+
+    // The Handler need to be adapted.
+    private final IPacketHandler other;
+
+    // The executor to run the handler.
+    private final Executor executor;
+
+    // The max number of packets waiting for one connection.
+    private final int maxQueueSize;
+
+    /* The statistics. */
+    private final AtomicLong pendingPackets = new AtomicLong();
+    private final AtomicLong handledPackets = new AtomicLong();
+    private final AtomicLong droppedPackets = new AtomicLong();
+
+    /**
+     * Create an OrderedDispatchAdapter with the default queue size.
+     *
+     * @param other the handler need to be adapted
+     * @param executor the executor to run the handler
+     */
+    public OrderedDispatchAdapter(IPacketHandler other, Executor executor) {
+        this(other, executor, Config.SERVER_DISPATCH_QUEUE_SIZE);
+    }
+
+    /**
+     * Create an OrderedDispatchAdapter.
+     *
+     * @param other the handler need to be adapted
+     * @param executor the executor to run the handler
+     * @param maxQueueSize the max number of packets waiting for one connection
+     */
+    public OrderedDispatchAdapter(IPacketHandler other, Executor executor, int maxQueueSize) {
+        super();
+        this.other = other;
+        this.executor = executor;
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    /**
+     * Put the packet into the queue of this connection. We retain the packet here and
+     * release it after it's handled, so the pooled data array is safe to use.
+     *
+     * Override super method
+     * @see org.apache.niolex.network.IPacketHandler#handlePacket(PacketData, IPacketWriter)
+     */
+    @Override
+    public void handlePacket(PacketData sc, IPacketWriter wt) {
+        SerialQueue q = getQueue(wt);
+        if (q.size.get() >= maxQueueSize) {
+            droppedPackets.incrementAndGet();
+            LOG.warn("Dispatch queue of client {} is full, packet dropped. desc {}.", wt.getRemoteName(), sc.descriptor());
+            return;
+        }
+        pendingPackets.incrementAndGet();
+        q.offer(sc.retain());
+    }
+
+    /**
+     * The close event is handled after all the packets received before it.
+     *
+     * Override super method
+     * @see org.apache.niolex.network.IPacketHandler#handleClose(IPacketWriter)
+     */
+    @Override
+    public void handleClose(IPacketWriter wt) {
+        getQueue(wt).offer(CLOSE);
+    }
+
+    /**
+     * Get the dispatch queue of this connection, create it if not created yet.
+     *
+     * @param wt the packet writer
+     * @return the dispatch queue
+     */
+    private SerialQueue getQueue(IPacketWriter wt) {
+        SerialQueue q = wt.getAttached(KEY);
+        if (q == null) {
+            q = new SerialQueue(wt);
+            SerialQueue old = wt.attachIfAbsent(KEY, q);
+            if (old != null) {
+                q = old;
+            }
+        }
+        return q;
+    }
+
+    /**
+     * @return the number of packets waiting to be handled
+     */
+    public long getPendingPackets() {
+        return pendingPackets.get();
+    }
+
+    /**
+     * @return the number of packets handled
+     */
+    public long getHandledPackets() {
+        return handledPackets.get();
+    }
+
+    /**
+     * @return the number of packets dropped because the queue is full
+     */
+    public long getDroppedPackets() {
+        return droppedPackets.get();
+    }
+
+    /**
+     * @return the max number of packets waiting for one connection
+     */
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    /**
+     * The packets of one connection, handled one by one in the executor. At most one
+     * thread is running this queue at any time.
+     *
+     * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+     * @version 1.0.0
+     * @since 2013-11-30
+     */
+    private final class SerialQueue implements Runnable {
+        private final ConcurrentLinkedQueue<PacketData> queue = new ConcurrentLinkedQueue<PacketData>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final IPacketWriter wt;
+
+        /**
+         * Create a queue for this connection.
+         *
+         * @param wt the packet writer
+         */
+        private SerialQueue(IPacketWriter wt) {
+            this.wt = wt;
+        }
+
+        /**
+         * Add the packet into this queue, and schedule it if it's not running.
+         *
+         * @param sc the packet
+         */
+        private void offer(PacketData sc) {
+            queue.add(sc);
+            if (size.getAndIncrement() == 0) {
+                schedule();
+            }
+        }
+
+        /**
+         * Submit this queue to the executor, or run it in the current thread if the
+         * executor refused it.
+         */
+        private void schedule() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                LOG.warn("Dispatch executor rejected, run handler in the current thread.");
+                run();
+            }
+        }
+
+        /**
+         * Handle the packets in this queue.
+         *
+         * Override super method
+         * @see java.lang.Runnable#run()
+         */
+        @Override
+        public void run() {
+            int n = 0;
+            do {
+                handle(queue.poll());
+                if (++n == BATCH_SIZE) {
+                    // Give the thread to other connections.
+                    if (size.decrementAndGet() > 0) {
+                        schedule();
+                    }
+                    return;
+                }
+            } while (size.decrementAndGet() > 0);
+        }
+
+        /**
+         * Handle one packet or the close event.
+         *
+         * @param sc the packet
+         */
+        private void handle(PacketData sc) {
+            if (sc == CLOSE) {
+                try {
+                    other.handleClose(wt);
+                } catch (Exception e) {
+                    LOG.info("Error occurred when invoke {}.handleClose(..)", other.getClass().getName(), e);
+                }
+                return;
+            }
+            try {
+                other.handlePacket(sc, wt);
+            } catch (Exception e) {
+                LOG.info("Error occurred when invoke {}.handlePacket(..)", other.getClass().getName(), e);
+            } finally {
+                sc.release();
+                pendingPackets.decrementAndGet();
+                handledPackets.incrementAndGet();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+/**
+ * AddressStats.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.client;
+
+import java.net.InetSocketAddress;
+
+/**
+ * The connect history of one server address, used by {@link ClientManager} to rank addresses.
+ * We remember the smoothed connect latency and the number of consecutive failures.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public class AddressStats {
+
+    /**
+     * The server address.
+     */
+    private final InetSocketAddress address;
+
+    /**
+     * The smoothed connect latency in milliseconds, -1 if never connected.
+     */
+    private volatile long latency = -1;
+
+    /**
+     * The number of consecutive connect failures.
+     */
+    private volatile int failures;
+
+    /**
+     * The total number of connect failures.
+     */
+    private volatile long totalFailures;
+
+    /**
+     * The time of the last connect failure.
+     */
+    private volatile long lastFailTime;
+
+    /**
+     * Create the connect history of this address.
+     *
+     * @param address the server address
+     */
+    public AddressStats(InetSocketAddress address) {
+        super();
+        this.address = address;
+    }
+
+    /**
+     * Record a successful connect, reset the consecutive failures.
+     *
+     * @param millis the time in milliseconds used to connect
+     */
+    public synchronized void connected(long millis) {
+        long l = latency;
+        // The exponentially weighted moving average, the new sample takes 1/4.
+        latency = l < 0 ? millis : (l * 3 + millis) / 4;
+        failures = 0;
+    }
+
+    /**
+     * Record a connect failure.
+     */
+    public synchronized void failed() {
+        ++failures;
+        ++totalFailures;
+        lastFailTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Get the rank of this address, the smaller the better. Addresses with less consecutive
+     * failures rank first, then the address with lower latency. Address never connected is
+     * treated as 0 latency, so it will get a chance to be tried.
+     *
+     * @return the rank of this address
+     */
+    public synchronized long rank() {
+        return ((long) failures << 32) + Math.min(Math.max(latency, 0), Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the server address
+     */
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the smoothed connect latency in milliseconds, -1 if never connected
+     */
+    public long getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return the number of consecutive connect failures
+     */
+    public int getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return the total number of connect failures
+     */
+    public long getTotalFailures() {
+        return totalFailures;
+    }
+
+    /**
+     * @return the time of the last connect failure, 0 if never failed
+     */
+    public long getLastFailTime() {
+        return lastFailTime;
+    }
+
+    /**
+     * Override super method
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return address + "[latency=" + latency + ", failures=" + failures + "]";
+    }
+
+}
@@ -25,15 +25,28 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.niolex.commons.stream.StreamUtil;
 import org.apache.niolex.commons.util.SystemUtil;
+import org.apache.niolex.network.AttributeKey;
 import org.apache.niolex.network.Config;
+import org.apache.niolex.network.FilePacketData;
 import org.apache.niolex.network.IClient;
 import org.apache.niolex.network.IPacketHandler;
 import org.apache.niolex.network.PacketData;
+import org.apache.niolex.network.UnixSocketUtil;
+import org.apache.niolex.network.event.PacketSentListener;
 import org.apache.niolex.network.event.WriteEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * The base implementation of IClient, please extend this class for convenience. We are using blocking IO to operate the
@@ -44,16 +57,33 @@ import org.apache.niolex.network.event.WriteEventListener;
  * @version 1.0.0, Date: 2012-6-14
  */
 public abstract class BaseClient implements IClient {
+    private static final Logger LOG = LoggerFactory.getLogger(BaseClient.class);
 
     /**
-     * The byte array used to read packet header.
+     * The max number of packets one thread writes for the others in one round.
+     */
+    private static final int MAX_COMBINE_SIZE = 256;
+
+    /**
+     * The byte arrays used to read packet header.
      */
     private final byte[] readHeader = new byte[Config.PACKET_HEADER_SIZE];
+    private final byte[] readHeaderV2 = new byte[Config.PACKET_HEADER_SIZE_V2];
 
     /**
      * The byte buffer used to write packet header.
      */
-    private final ByteBuffer writeHeader = ByteBuffer.allocate(Config.PACKET_HEADER_SIZE);
+    private final ByteBuffer writeHeader = ByteBuffer.allocate(Config.PACKET_HEADER_SIZE_V2);
+
+    /**
+     * Whether to ask the server for the version 2 wire protocol when connected.
+     */
+    private boolean protocolV2Enabled;
+
+    /**
+     * Whether the version 2 wire protocol is negotiated for the current connection.
+     */
+    protected volatile boolean protocolV2;
 
 	/**
      * The socket address this client is going to connect.
@@ -70,6 +100,12 @@ public abstract class BaseClient implements IClient {
      */
     protected Socket socket;
 
+    /**
+     * The Unix domain socket channel under control, used instead of the socket when the
+     * server address is a Unix domain socket address.
+     */
+    protected SocketChannel channel;
+
     /**
      * The socket input stream.
      */
@@ -85,6 +121,27 @@ public abstract class BaseClient implements IClient {
      */
     protected volatile boolean isWorking;
 
+    /**
+     * The number of packets put into the output stream but not flushed yet.
+     */
+    private int pendingPackets;
+
+    /**
+     * The total number of packets flushed and the total number of flushes.
+     */
+    private volatile long flushedPackets;
+    private volatile long flushCount;
+
+    /**
+     * The write requests waiting to be combined.
+     */
+    private final ConcurrentLinkedQueue<WriteRequest> combineQueue = new ConcurrentLinkedQueue<WriteRequest>();
+
+    /**
+     * The thread who got this lock will write packets for all the waiting threads.
+     */
+    private final Lock combineLock = new ReentrantLock();
+
     /**
      * Socket connect timeout.
      */
@@ -96,27 +153,86 @@ public abstract class BaseClient implements IClient {
     protected int socketBufferSize = Config.SO_BUFFER_SIZE;
 
     /**
-     * Prepare socket and connect to the specified server address.
+     * Prepare socket and connect to the specified server address. If the server address is a
+     * Unix domain socket address, we connect by a non-blocking Unix domain socket channel, and
+     * the read times out after the connect timeout as the socket does.
+     * <br>
+     * If the version 2 wire protocol is enabled but the server did not answer the negotiation
+     * in time, we reconnect and use the version 1 wire protocol, because a late answer on the
+     * old stream would be taken as a response.
      *
-     * @return the prepared socket
+     * @return the prepared socket, null if connected by Unix domain socket
      * @throws IOException if any I/O error occurs during the operation
+     * @see UnixSocketUtil#unixAddress(String)
      */
     protected Socket prepareSocket() throws IOException {
+        openConnection();
+        if (protocolV2Enabled && !negotiateProtocol()) {
+            openConnection();
+        }
+        return socket;
+    }
+
+    /**
+     * Close the old connection and connect to the server address, using the version 1 wire
+     * protocol.
+     *
+     * @throws IOException if any I/O error occurs during the operation
+     */
+    private void openConnection() throws IOException {
         // First, we must ensure the old socket is closed, or there will be resource leak.
         safeClose();
 
         // Then, we are ready to go.
-        socket = new Socket();
-        socket.setSendBufferSize(socketBufferSize);
-        socket.setReceiveBufferSize(socketBufferSize);
-        // Specify the specified linger time in seconds.
-        socket.setSoLinger(true, 3);
-        socket.setSoTimeout(connectTimeout);
-        socket.setTcpNoDelay(true);
-        socket.connect(serverAddress);
-        in = new BufferedInputStream(socket.getInputStream(), socketBufferSize);
-        out = new BufferedOutputStream(socket.getOutputStream(), socketBufferSize);
-        return socket;
+        if (UnixSocketUtil.isUnixAddress(serverAddress)) {
+            channel = UnixSocketUtil.openChannel(serverAddress);
+            channel.configureBlocking(false);
+            in = new BufferedInputStream(UnixSocketUtil.newInputStream(channel, connectTimeout), socketBufferSize);
+            out = new BufferedOutputStream(UnixSocketUtil.newOutputStream(channel), socketBufferSize);
+        } else {
+            socket = new Socket();
+            socket.setSendBufferSize(socketBufferSize);
+            socket.setReceiveBufferSize(socketBufferSize);
+            // Specify the specified linger time in seconds.
+            socket.setSoLinger(true, 3);
+            socket.setSoTimeout(connectTimeout);
+            socket.setTcpNoDelay(true);
+            socket.connect(serverAddress);
+            in = new BufferedInputStream(socket.getInputStream(), socketBufferSize);
+            out = new BufferedOutputStream(socket.getOutputStream(), socketBufferSize);
+        }
+        protocolV2 = false;
+        pendingPackets = 0;
+    }
+
+    /**
+     * Ask the server for the version 2 wire protocol. This method must be invoked right after
+     * connected, before any other packet is sent. If the server does not acknowledge it, we
+     * keep using the version 1 wire protocol. We wait for the answer at most the connect
+     * timeout, on Unix domain socket channels too.
+     *
+     * @return true if the server answered, false if timed out and the stream is in an unknown
+     * state, the invoker should reconnect
+     * @throws IOException if any I/O error occurs
+     * @see Config#CODE_PROTOCOL_V2
+     */
+    protected boolean negotiateProtocol() throws IOException {
+        PacketData req = new PacketData(Config.CODE_PROTOCOL_V2);
+        req.setVersion((byte) 2);
+        writePacket(req);
+        PacketData ack;
+        try {
+            ack = readPacket();
+        } catch (SocketTimeoutException e) {
+            LOG.warn("Server {} did not answer the protocol negotiation, reconnect and use version 1.", serverAddress);
+            return false;
+        }
+        if (ack.getCode() == Config.CODE_PROTOCOL_V2 && ack.getReserved() == 1 && ack.getLength() == 0) {
+            protocolV2 = true;
+        } else {
+            LOG.info("Server {} does not support the version 2 wire protocol.", serverAddress);
+        }
+        return true;
     }
 
     /**
@@ -129,12 +245,14 @@ public abstract class BaseClient implements IClient {
      */
     protected PacketData readPacket() throws IOException {
         // Read header.
-        int size = StreamUtil.readData(in, readHeader);
-        if (size != 8) {
+        boolean v2 = protocolV2;
+        byte[] header = v2 ? readHeaderV2 : readHeader;
+        int size = StreamUtil.readData(in, header);
+        if (size != header.length) {
             throw new EOFException("End of stream found, but packet was not finished.");
         }
         PacketData readPacket = new PacketData();
-        readPacket.parseHeader(ByteBuffer.wrap(readHeader));
+        readPacket.parseHeader(ByteBuffer.wrap(header), null, v2);
 
         // Read body.
         size = StreamUtil.readData(in, readPacket.getData());
@@ -151,11 +269,107 @@ public abstract class BaseClient implements IClient {
      * @throws IOException if any I/O error occurs
      */
     protected void writePacket(PacketData pd) throws IOException {
+        putPacket(pd);
+        flushPackets();
+    }
+
+    /**
+     * Write the packet into the output stream without flush it. The packet will stay in the
+     * stream buffer until the buffer is full or {@link #flushPackets()} is called, so we can
+     * send a batch of packets by one system call.
+     *
+     * @param pd the packet to be written
+     * @throws IOException if any I/O error occurs
+     * @throws IllegalArgumentException if the packet is a file packet
+     */
+    protected void putPacket(PacketData pd) throws IOException {
+        checkPacket(pd);
         writeHeader.clear();
-        pd.putHeader(writeHeader);
-        out.write(writeHeader.array());
+        pd.putHeader(writeHeader, protocolV2);
+        out.write(writeHeader.array(), 0, writeHeader.position());
         out.write(pd.getData());
+        ++pendingPackets;
+    }
+
+    /**
+     * Check whether this packet can be sent by the blocking client.
+     *
+     * @param pd the packet to be checked
+     * @throws IllegalArgumentException if the packet is a file packet, it's only supported
+     * by the server side
+     */
+    private static void checkPacket(PacketData pd) {
+        if (pd instanceof FilePacketData) {
+            throw new IllegalArgumentException("The file packet is not supported by the client.");
+        }
+    }
+
+    /**
+     * Flush all the packets put into the output stream since the last flush.
+     *
+     * @throws IOException if any I/O error occurs
+     */
+    protected void flushPackets() throws IOException {
         out.flush();
+        flushedPackets += pendingPackets;
+        pendingPackets = 0;
+        ++flushCount;
+    }
+
+    /**
+     * Write the packet into the output stream and flush it, this method can be invoked by many threads
+     * concurrently. Every thread put its packet into a queue, and the thread who got the lock writes all
+     * the queued packets and flush them once, so the other threads just wait for the lock and return
+     * without doing any I/O.
+     *
+     * @param pd the packet to be written
+     * @throws IOException if any I/O error occurs when write this packet
+     * @throws IllegalArgumentException if the packet is a file packet
+     */
+    protected void combineWrite(PacketData pd) throws IOException {
+        // Check it here, so it will not fail the other packets in the same round.
+        checkPacket(pd);
+        WriteRequest req = new WriteRequest(pd);
+        combineQueue.offer(req);
+        combineLock.lock();
+        try {
+            while (!req.done) {
+                combinePackets();
+            }
+        } finally {
+            combineLock.unlock();
+        }
+        // The error is thrown as it is, so the invoker can handle it just like write by itself.
+        if (req.error instanceof IOException) {
+            throw (IOException) req.error;
+        } else if (req.error != null) {
+            throw (RuntimeException) req.error;
+        }
+    }
+
+    /**
+     * Write the queued packets and flush them once. Must be invoked with the combine lock held. If any
+     * error occurred, all the packets in this round will be marked as failed.
+     */
+    private void combinePackets() {
+        List<WriteRequest> batch = new ArrayList<WriteRequest>();
+        Exception error = null;
+        try {
+            WriteRequest r;
+            while (batch.size() < MAX_COMBINE_SIZE && (r = combineQueue.poll()) != null) {
+                batch.add(r);
+                putPacket(r.pd);
+            }
+            flushPackets();
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = e;
+        }
+        for (WriteRequest r : batch) {
+            r.error = error;
+            r.done = true;
+        }
     }
 
 	/**
@@ -166,13 +380,64 @@ public abstract class BaseClient implements IClient {
 	 */
     @Override
     public String getRemoteName() {
-    	if (socket == null) {
-    		return serverAddress.toString() + "-0000";
-    	} else {
+    	if (socket != null) {
     		return serverAddress.toString() + "-" + socket.getLocalPort();
+    	} else if (channel != null) {
+    	    return UnixSocketUtil.toString(serverAddress) + "-uds";
+    	} else {
+    		return UnixSocketUtil.toString(serverAddress) + "-0000";
     	}
     }
 
+    /**
+     * @return whether to ask the server for the version 2 wire protocol when connected
+     */
+    public boolean isProtocolV2Enabled() {
+        return protocolV2Enabled;
+    }
+
+    /**
+     * Set whether to ask the server for the version 2 wire protocol when connected. The
+     * version 2 header carries a 32-bit correlation id, so RPC invokers can have much more
+     * requests in flight on one connection. Default to false.
+     * <br>
+     * This method must be called before call {@link #connect()}.
+     *
+     * @param protocolV2Enabled true to ask for the version 2 wire protocol
+     */
+    public void setProtocolV2Enabled(boolean protocolV2Enabled) {
+        this.protocolV2Enabled = protocolV2Enabled;
+    }
+
+    /**
+     * @return true if the version 2 wire protocol is negotiated for the current connection
+     */
+    public boolean isProtocolV2() {
+        return protocolV2;
+    }
+
+    /**
+     * @return the total number of packets flushed to the socket
+     */
+    public long getFlushedPackets() {
+        return flushedPackets;
+    }
+
+    /**
+     * @return the total number of times we flushed the output stream
+     */
+    public long getFlushCount() {
+        return flushCount;
+    }
+
+    /**
+     * @return the average number of packets sent by one flush, 0 if nothing flushed yet
+     */
+    public double getPacketsPerFlush() {
+        long cnt = flushCount;
+        return cnt == 0 ? 0 : (double) flushedPackets / cnt;
+    }
+
     /**
      * Safely close the socket.
      *
@@ -188,6 +453,15 @@ public abstract class BaseClient implements IClient {
             socket = null;
             return e;
         }
+        if (channel != null) {
+            StreamUtil.closeStream(in);
+            in = null;
+            StreamUtil.closeStream(out);
+            out = null;
+            Exception e = SystemUtil.close(channel);
+            channel = null;
+            return e;
+        }
         return null;
     }
 
@@ -200,6 +474,15 @@ public abstract class BaseClient implements IClient {
 		throw new UnsupportedOperationException("This method is not supported.");
 	}
 
+	/**
+	 * Override super method
+	 * @see org.apache.niolex.network.IPacketWriter#addSentListener(PacketSentListener, short[])
+	 */
+	@Override
+	public void addSentListener(PacketSentListener listener, short... codes) {
+		throw new UnsupportedOperationException("This method is not supported.");
+	}
+
 	/**
 	 * Override super method
 	 * @see org.apache.niolex.network.IPacketWriter#attachData(String, Object)
@@ -218,6 +501,42 @@ public abstract class BaseClient implements IClient {
 		throw new UnsupportedOperationException("This method is not supported.");
 	}
 
+	/**
+	 * Override super method
+	 * @see org.apache.niolex.network.IPacketWriter#attachData(AttributeKey, Object)
+	 */
+	@Override
+	public <T> T attachData(AttributeKey<T> key, T value) {
+		throw new UnsupportedOperationException("This method is not supported.");
+	}
+
+	/**
+	 * Override super method
+	 * @see org.apache.niolex.network.IPacketWriter#attachIfAbsent(AttributeKey, Object)
+	 */
+	@Override
+	public <T> T attachIfAbsent(AttributeKey<T> key, T value) {
+		throw new UnsupportedOperationException("This method is not supported.");
+	}
+
+	/**
+	 * Override super method
+	 * @see org.apache.niolex.network.IPacketWriter#compareAndAttach(AttributeKey, Object, Object)
+	 */
+	@Override
+	public <T> boolean compareAndAttach(AttributeKey<T> key, T expect, T update) {
+		throw new UnsupportedOperationException("This method is not supported.");
+	}
+
+	/**
+	 * Override super method
+	 * @see org.apache.niolex.network.IPacketWriter#getAttached(AttributeKey)
+	 */
+	@Override
+	public <T> T getAttached(AttributeKey<T> key) {
+		throw new UnsupportedOperationException("This method is not supported.");
+	}
+
     /**
      * {@inheritDoc}
      *
@@ -259,8 +578,7 @@ public abstract class BaseClient implements IClient {
 	 */
 	@Override
 	public void setServerAddress(String addr) {
-	    String[] aa = addr.split(":");
-	    this.serverAddress = new InetSocketAddress(aa[0], Integer.parseInt(aa[1]));
+	    this.serverAddress = UnixSocketUtil.parseAddress(addr);
 	}
 
 	/**
@@ -306,4 +624,27 @@ public abstract class BaseClient implements IClient {
 		return isWorking;
 	}
 
+    /**
+     * The packet waiting to be written by the combining thread.
+     *
+     * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+     * @version 1.0.0
+     * @since 2013-11-30
+     */
+    private static class WriteRequest {
+        private final PacketData pd;
+        private boolean done;
+        private Exception error;
+
+        /**
+         * Create a write request for this packet.
+         *
+         * @param pd the packet to be written
+         */
+        public WriteRequest(PacketData pd) {
+            super();
+            this.pd = pd;
+        }
+    }
+
 }
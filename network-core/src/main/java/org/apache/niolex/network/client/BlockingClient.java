@@ -93,15 +93,16 @@ public class BlockingClient extends BaseClient {
     }
 
     /**
-     * Write data in synchronized block to make sure we work correctly.
+     * Write data by the combining writer to make sure we work correctly. Packets from concurrent
+     * threads will be written and flushed together by one of them.
      * This is the override of super method.
      * 
      * @see org.apache.niolex.network.IPacketWriter#handleWrite(org.apache.niolex.network.PacketData)
      */
     @Override
-    public synchronized void handleWrite(PacketData sc) {
+    public void handleWrite(PacketData sc) {
         try {
-            writePacket(sc);
+            combineWrite(sc);
             LOG.debug("Packet sent. desc {}.", sc.descriptor());
         } catch (IOException e) {
             // Throw an exception to the invoker.
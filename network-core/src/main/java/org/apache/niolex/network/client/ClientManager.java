@@ -17,12 +17,31 @@
  */
 package org.apache.niolex.network.client;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.niolex.commons.util.Runner;
 import org.apache.niolex.commons.util.SystemUtil;
@@ -31,6 +50,7 @@ import org.apache.niolex.network.ConnStatus;
 import org.apache.niolex.network.IClient;
 import org.apache.niolex.network.IPacketHandler;
 import org.apache.niolex.network.PacketData;
+import org.apache.niolex.network.UnixSocketUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,6 +67,14 @@ import org.slf4j.LoggerFactory;
  * If user want to make sure finally connect to one server, please
  * call {@link #waitForConnected()}. See to document of that method
  * for details.
+ * <p>
+ * Addresses can be Unix domain socket addresses, see {@link UnixSocketUtil#parseAddress(String)}.
+ * <p>
+ * If user set the race width by {@link #setRaceWidth(int)}, we will race connections
+ * to several addresses in parallel, start the next one every race delay or as soon as
+ * one failed, and connect the client to the fastest one. The losing connections are
+ * cancelled as soon as we have a winner. Addresses are ranked by their connect history,
+ * and we back off exponentially with jitter between retry rounds in this mode.
  *
  * @author <a href="mailto:xiejiyun@gmail.com">Xie, Jiyun</a>
  * @version 1.0.5
@@ -55,16 +83,70 @@ import org.slf4j.LoggerFactory;
 public class ClientManager {
     private static final Logger LOG = LoggerFactory.getLogger(ClientManager.class);
 
+    /**
+     * The executor shared by all the client managers to race connections, the threads
+     * will die when idle.
+     */
+    private static final ExecutorService RACE_EXECUTOR = createRaceExecutor();
+
+    /**
+     * Create the executor to race connections.
+     *
+     * @return the executor
+     */
+    private static ExecutorService createRaceExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(Config.CLIENT_RACE_THREADS,
+                Config.CLIENT_RACE_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger seq = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "ClientManager-race-" + seq.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     /**
      * The time to sleep between retry.
      */
     private int sleepBetweenRetryTime = Config.RPC_SLEEP_BT_RETRY;
 
+    /**
+     * The max time to sleep between retry in the racing mode.
+     */
+    private int maxSleepBetweenRetryTime = Config.RPC_MAX_SLEEP_BT_RETRY;
+
     /**
      * Times to retry get connected.
      */
     private int connectRetryTimes = Config.RPC_CONNECT_RETRY_TIMES;
 
+    /**
+     * The max number of addresses to race in parallel, 1 means do not race.
+     */
+    private int raceWidth = 1;
+
+    /**
+     * The delay before racing the next address.
+     */
+    private int raceDelay = Config.CLIENT_RACE_CONNECT_DELAY;
+
+    /**
+     * The socket connect timeout.
+     */
+    private int connectTimeout = Config.SO_CONNECT_TIMEOUT;
+
+    /**
+     * The connect history of every server address.
+     */
+    private final ConcurrentMap<InetSocketAddress, AddressStats> statsMap =
+            new ConcurrentHashMap<InetSocketAddress, AddressStats>();
+
     /**
      * The status of this Client.
      */
@@ -146,7 +228,7 @@ public class ClientManager {
             this.connLatch = new CountDownLatch(1);
         }
         for (int i = 0; i < connectRetryTimes; ++i) {
-            SystemUtil.sleep(sleepBetweenRetryTime);
+            SystemUtil.sleep(retrySleepTime(i));
             LOG.info("RPC Client try to reconnect to server round {} ...", i);
             try {
                 doConnect();
@@ -167,13 +249,152 @@ public class ClientManager {
      * @throws IOException if I/O related error occurred
      */
     private void doConnect() throws IOException {
-        addressIndex = (addressIndex + 1) % addressList.size();
-        client.setServerAddress(addressList.get(addressIndex));
-        client.connect();
+        InetSocketAddress addr;
+        boolean race = raceWidth > 1 && addressList.size() > 1;
+        if (race) {
+            addr = raceAddress();
+        } else {
+            addressIndex = (addressIndex + 1) % addressList.size();
+            addr = addressList.get(addressIndex);
+        }
+        client.setServerAddress(addr);
+        AddressStats stats = stats(addr);
+        long start = System.currentTimeMillis();
+        try {
+            client.connect();
+        } catch (IOException e) {
+            stats.failed();
+            throw e;
+        }
+        if (!race) {
+            // The latency is already recorded when racing.
+            stats.connected(System.currentTimeMillis() - start);
+        }
         this.connStatus = ConnStatus.CONNECTED;
         connLatch.countDown();
     }
 
+    /**
+     * Race connections to the best ranked addresses, start the next one after the race delay
+     * or as soon as one failed, and return the address connected first. All the other
+     * connections are cancelled before this method returns.
+     *
+     * @return the fastest address
+     * @throws IOException if failed to connect to all the raced addresses
+     */
+    protected InetSocketAddress raceAddress() throws IOException {
+        List<InetSocketAddress> ranked = rankAddresses();
+        int width = Math.min(raceWidth, ranked.size());
+        CompletionService<InetSocketAddress> ecs = new ExecutorCompletionService<InetSocketAddress>(RACE_EXECUTOR);
+        List<Probe> probes = new ArrayList<Probe>(width);
+        int finished = 0;
+        Throwable last = null;
+        startProbe(ecs, probes, ranked.get(0));
+        try {
+            while (finished < probes.size()) {
+                Future<InetSocketAddress> f;
+                if (probes.size() < width) {
+                    f = ecs.poll(raceDelay, TimeUnit.MILLISECONDS);
+                    if (f == null) {
+                        // The race delay passed, let's start the next one.
+                        startProbe(ecs, probes, ranked.get(probes.size()));
+                        continue;
+                    }
+                } else {
+                    f = ecs.take();
+                }
+                ++finished;
+                try {
+                    return f.get();
+                } catch (ExecutionException e) {
+                    last = e.getCause();
+                    LOG.info("Failed to connect to server when racing. {}", last.toString());
+                    if (probes.size() < width) {
+                        startProbe(ecs, probes, ranked.get(probes.size()));
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted when racing connections.", e);
+        } finally {
+            // Cancel the losers, the finished ones are not affected.
+            for (Probe p : probes) {
+                p.cancel();
+            }
+        }
+        throw new IOException("Failed to connect to any of the raced addresses.", last);
+    }
+
+    /**
+     * Start a probe to this address in the race executor.
+     *
+     * @param ecs the completion service of this race
+     * @param probes the probes started in this race
+     * @param addr the address to probe
+     */
+    private void startProbe(CompletionService<InetSocketAddress> ecs, List<Probe> probes, InetSocketAddress addr) {
+        Probe p = new Probe(addr);
+        p.future = ecs.submit(p);
+        probes.add(p);
+    }
+
+    /**
+     * Sort the address list by the connect history, the best one first. Addresses with
+     * the same rank keep the shuffled order.
+     *
+     * @return the ranked address list
+     */
+    protected List<InetSocketAddress> rankAddresses() {
+        List<InetSocketAddress> list = new ArrayList<InetSocketAddress>(addressList);
+        // Take a snapshot of the ranks, they may change while we sort.
+        final Map<InetSocketAddress, Long> ranks = new HashMap<InetSocketAddress, Long>();
+        for (InetSocketAddress addr : list) {
+            ranks.put(addr, stats(addr).rank());
+        }
+        Collections.sort(list, new Comparator<InetSocketAddress>() {
+            @Override
+            public int compare(InetSocketAddress o1, InetSocketAddress o2) {
+                return ranks.get(o1).compareTo(ranks.get(o2));
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Get the time to sleep before this retry round. We sleep the fixed sleep between retry time
+     * unless in the racing mode, where we back off exponentially with jitter.
+     *
+     * @param round the retry round, starts from 0
+     * @return the time to sleep in milliseconds
+     */
+    protected int retrySleepTime(int round) {
+        if (raceWidth <= 1) {
+            return sleepBetweenRetryTime;
+        }
+        long cap = Math.min(maxSleepBetweenRetryTime, (long) sleepBetweenRetryTime << Math.min(round, 20));
+        long half = cap / 2;
+        return (int) (half + ThreadLocalRandom.current().nextLong(cap - half + 1));
+    }
+
+    /**
+     * Get the connect history of this address, create it if absent.
+     *
+     * @param addr the server address
+     * @return the connect history
+     */
+    private AddressStats stats(InetSocketAddress addr) {
+        AddressStats stats = statsMap.get(addr);
+        if (stats == null) {
+            stats = new AddressStats(addr);
+            AddressStats old = statsMap.putIfAbsent(addr, stats);
+            if (old != null) {
+                stats = old;
+            }
+        }
+        return stats;
+    }
+
     /**
      * Wait for we finally get a connection or been interrupted.
      * <p>
@@ -241,8 +462,7 @@ public class ClientManager {
         String[] addrArr = addressStr.split("[,; ]+");
         List<InetSocketAddress> list = new ArrayList<InetSocketAddress>();
         for (String addr : addrArr) {
-            String[] aa = addr.split(":");
-            list.add(new InetSocketAddress(aa[0], Integer.parseInt(aa[1])));
+            list.add(UnixSocketUtil.parseAddress(addr));
         }
         Collections.shuffle(list);
         this.addressList = list;
@@ -272,6 +492,70 @@ public class ClientManager {
         return sleepBetweenRetryTime;
     }
 
+    /**
+     * Set the max time in milliseconds that client will sleep between retry in the racing
+     * mode, the exponential backoff will not exceed this time.
+     *
+     * @param maxSleepBetweenRetryTime the max sleep between retry time to set
+     */
+    public void setMaxSleepBetweenRetryTime(int maxSleepBetweenRetryTime) {
+        this.maxSleepBetweenRetryTime = maxSleepBetweenRetryTime;
+    }
+
+    /**
+     * @return the current maxSleepBetweenRetryTime
+     */
+    public int getMaxSleepBetweenRetryTime() {
+        return maxSleepBetweenRetryTime;
+    }
+
+    /**
+     * Set the max number of addresses to race in parallel when connect. Set it to 1 to
+     * connect to the addresses one by one. Default to 1.
+     *
+     * @param raceWidth the race width to set
+     * @throws IllegalArgumentException if raceWidth is less than 1
+     */
+    public void setRaceWidth(int raceWidth) {
+        if (raceWidth < 1) {
+            throw new IllegalArgumentException("The race width must be positive.");
+        }
+        this.raceWidth = raceWidth;
+    }
+
+    /**
+     * @return the current raceWidth
+     */
+    public int getRaceWidth() {
+        return raceWidth;
+    }
+
+    /**
+     * Set the time in milliseconds to wait before racing the next address.
+     *
+     * @param raceDelay the race delay to set
+     */
+    public void setRaceDelay(int raceDelay) {
+        this.raceDelay = raceDelay;
+    }
+
+    /**
+     * @return the current raceDelay
+     */
+    public int getRaceDelay() {
+        return raceDelay;
+    }
+
+    /**
+     * Get the connect history of this address.
+     *
+     * @param addr the server address
+     * @return the connect history, null if we never tried to connect to it
+     */
+    public AddressStats getAddressStats(InetSocketAddress addr) {
+        return statsMap.get(addr);
+    }
+
     /**
      * Set the number of retry times.
      *
@@ -295,6 +579,7 @@ public class ClientManager {
      * @see org.apache.niolex.network.IClient#setConnectTimeout(int)
      */
     public void setConnectTimeout(int timeout) {
+        this.connectTimeout = timeout;
         this.client.setConnectTimeout(timeout);
     }
 
@@ -318,4 +603,73 @@ public class ClientManager {
         client.setPacketHandler(packetHandler);
     }
 
+    /**
+     * Try to connect to one address and close it, record the connect history. A probe can
+     * be cancelled at any time, we will close the socket to abort the connecting.
+     *
+     * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+     * @version 1.0.0
+     * @since 2013-11-30
+     */
+    private class Probe implements Callable<InetSocketAddress> {
+        private final InetSocketAddress addr;
+        private volatile Future<InetSocketAddress> future;
+        private volatile Closeable so;
+        private volatile boolean cancelled;
+
+        /**
+         * Create a probe to this address.
+         *
+         * @param addr the server address
+         */
+        public Probe(InetSocketAddress addr) {
+            super();
+            this.addr = addr;
+        }
+
+        /**
+         * Override super method
+         * @see java.util.concurrent.Callable#call()
+         */
+        @Override
+        public InetSocketAddress call() throws Exception {
+            AddressStats stats = stats(addr);
+            long start = System.currentTimeMillis();
+            try {
+                if (UnixSocketUtil.isUnixAddress(addr)) {
+                    so = UnixSocketUtil.openChannel(addr);
+                } else {
+                    Socket s = new Socket();
+                    so = s;
+                    if (cancelled) {
+                        throw new IOException("The probe is cancelled.");
+                    }
+                    s.connect(addr, connectTimeout);
+                }
+                stats.connected(System.currentTimeMillis() - start);
+                return addr;
+            } catch (IOException e) {
+                // A cancelled probe tells nothing about this address.
+                if (!cancelled) {
+                    stats.failed();
+                }
+                throw e;
+            } finally {
+                SystemUtil.close(so);
+            }
+        }
+
+        /**
+         * Cancel this probe if it's not finished yet, close the socket to abort connecting.
+         */
+        public void cancel() {
+            if (future.isDone()) {
+                return;
+            }
+            cancelled = true;
+            future.cancel(true);
+            SystemUtil.close(so);
+        }
+    }
+
 }
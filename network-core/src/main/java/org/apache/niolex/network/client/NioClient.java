@@ -0,0 +1,512 @@
+/**
+ * NioClient.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+
+import org.apache.niolex.commons.util.SystemUtil;
+import org.apache.niolex.network.AttributeKey;
+import org.apache.niolex.network.Config;
+import org.apache.niolex.network.IClient;
+import org.apache.niolex.network.IPacketHandler;
+import org.apache.niolex.network.IPacketWriter;
+import org.apache.niolex.network.PacketData;
+import org.apache.niolex.network.UnixSocketUtil;
+import org.apache.niolex.network.event.PacketSentListener;
+import org.apache.niolex.network.event.WriteEventListener;
+import org.apache.niolex.network.server.FastCore;
+import org.apache.niolex.network.server.OverflowPolicy;
+import org.apache.niolex.network.server.TimingWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The NioClient connect to the specified server through a shared {@link NioClientGroup}, so it
+ * does not consume any thread of its own. This client can be shared by multiple threads and
+ * use it concurrently, but it should be shared only <b>after</b> it's connected to server.
+ * <br>
+ * Just like {@link PacketClient}, when user call {@link #handleWrite(PacketData)}, we put the
+ * packet into the send queue and return immediately, all the I/O will be handled in the selector
+ * threads of the group. We send a heart beat when nothing is sent in half of the connect timeout,
+ * and close the connection when nothing is received in the connect timeout.
+ * <br>
+ * The packet attachments are supported, but they are cleared when the client reconnects. The
+ * version 2 wire protocol is not supported by this client.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public class NioClient implements IClient {
+    private static final Logger LOG = LoggerFactory.getLogger(NioClient.class);
+
+    /**
+     * The client group to run this client.
+     */
+    private final NioClientGroup group;
+
+    /**
+     * The socket address this client is going to connect.
+     */
+    private InetSocketAddress serverAddress;
+
+    /**
+     * The packet handler when packet received.
+     */
+    private IPacketHandler packetHandler;
+
+    /**
+     * Socket connect timeout.
+     */
+    private int connectTimeout = Config.SO_CONNECT_TIMEOUT;
+
+    /**
+     * The send queue water marks, 0 means no limit.
+     */
+    private int lowWaterMark, highWaterMark;
+
+    /**
+     * The fast core manages the current connection, null if not connected.
+     */
+    private volatile FastCore core;
+
+    /**
+     * The local port of the current connection.
+     */
+    private volatile int localPort;
+
+    /**
+     * The status of this client.
+     */
+    private volatile boolean isWorking;
+
+    /**
+     * Create a NioClient in this group without any server address.<br>
+     * Please call setter {@link #setServerAddress(InetSocketAddress)} or {@link #setServerAddress(String)} to set
+     * server address before call {@link #connect()}.
+     *
+     * @param group the client group to run this client
+     */
+    public NioClient(NioClientGroup group) {
+        super();
+        this.group = group;
+    }
+
+    /**
+     * Create a NioClient in this group with this specified server address.
+     *
+     * @param group the client group to run this client
+     * @param serverAddress the server address to connect to
+     */
+    public NioClient(NioClientGroup group, InetSocketAddress serverAddress) {
+        super();
+        this.group = group;
+        this.serverAddress = serverAddress;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Connect in the current thread, and register the connection to the client group.
+     *
+     * @see org.apache.niolex.network.IClient#connect()
+     */
+    @Override
+    public void connect() throws IOException {
+        SocketChannel ch;
+        if (UnixSocketUtil.isUnixAddress(serverAddress)) {
+            ch = UnixSocketUtil.openChannel(serverAddress);
+            localPort = 0;
+        } else {
+            ch = SocketChannel.open();
+            try {
+                Socket so = ch.socket();
+                so.setSendBufferSize(Config.SO_BUFFER_SIZE);
+                so.setReceiveBufferSize(Config.SO_BUFFER_SIZE);
+                so.connect(serverAddress, connectTimeout);
+                localPort = so.getLocalPort();
+            } catch (IOException e) {
+                SystemUtil.close(ch);
+                throw e;
+            }
+        }
+        FastCore c = group.register(ch, new Handler());
+        if (highWaterMark > 0) {
+            c.setWaterMarks(lowWaterMark, highWaterMark);
+            c.setOverflowPolicy(OverflowPolicy.BLOCK);
+        }
+        FastCore old = core;
+        core = c;
+        isWorking = true;
+        if (old != null) {
+            old.close();
+        }
+        // The connection may be closed before we published it, the close event was dropped
+        // by the handler, so we fire it here.
+        if (!c.isOpen()) {
+            fireClose(c);
+            return;
+        }
+        int interval = Math.max(1, connectTimeout / 2);
+        group.getTimingWheel().newTimeout(new HeartBeatTask(c, interval), interval);
+        LOG.info("Nio client connected to address: {}.", serverAddress);
+    }
+
+    /**
+     * This is the override of super method.
+     *
+     * @see org.apache.niolex.network.IClient#stop()
+     */
+    @Override
+    public void stop() {
+        this.isWorking = false;
+        FastCore c = core;
+        core = null;
+        if (c != null) {
+            c.close();
+        }
+    }
+
+    /**
+     * Get the fast core of the current connection.
+     *
+     * @return the fast core
+     * @throws IllegalStateException if this client is not connected
+     */
+    private FastCore core() {
+        FastCore c = core;
+        if (c == null) {
+            throw new IllegalStateException("This Client is not connected.");
+        }
+        return c;
+    }
+
+    /**
+     * We put the packet into the send queue of the current connection, and return immediately.
+     * If the water marks are set, we will block when the queue is above the high water mark.
+     *
+     * @throws IllegalStateException if this client is not connected or the connection is closed
+     * @see org.apache.niolex.network.IPacketWriter#handleWrite(org.apache.niolex.network.PacketData)
+     */
+    @Override
+    public void handleWrite(PacketData sc) {
+        core().handleWrite(sc);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Override super method
+     * @see org.apache.niolex.network.IPacketWriter#getRemoteName()
+     */
+    @Override
+    public String getRemoteName() {
+        return UnixSocketUtil.toString(serverAddress) + "-" + (core == null ? "0000" : String.valueOf(localPort));
+    }
+
+    /**
+     * Override super method
+     *
+     * @throws IllegalStateException if this client is not connected
+     * @see org.apache.niolex.network.IPacketWriter#addEventListener(WriteEventListener)
+     */
+    @Override
+    public void addEventListener(WriteEventListener listener) {
+        core().addEventListener(listener);
+    }
+
+    /**
+     * Override super method
+     *
+     * @throws IllegalStateException if this client is not connected
+     * @see org.apache.niolex.network.IPacketWriter#addSentListener(PacketSentListener, short[])
+     */
+    @Override
+    public void addSentListener(PacketSentListener listener, short... codes) {
+        core().addSentListener(listener, codes);
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.IPacketWriter#attachData(String, Object)
+     */
+    @Override
+    public Object attachData(String key, Object value) {
+        FastCore c = core;
+        return c == null ? null : c.attachData(key, value);
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.IPacketWriter#getAttached(String)
+     */
+    @Override
+    public <T> T getAttached(String key) {
+        FastCore c = core;
+        return c == null ? null : c.<T>getAttached(key);
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.IPacketWriter#attachData(AttributeKey, Object)
+     */
+    @Override
+    public <T> T attachData(AttributeKey<T> key, T value) {
+        FastCore c = core;
+        return c == null ? null : c.attachData(key, value);
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.IPacketWriter#attachIfAbsent(AttributeKey, Object)
+     */
+    @Override
+    public <T> T attachIfAbsent(AttributeKey<T> key, T value) {
+        FastCore c = core;
+        return c == null ? null : c.attachIfAbsent(key, value);
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.IPacketWriter#compareAndAttach(AttributeKey, Object, Object)
+     */
+    @Override
+    public <T> boolean compareAndAttach(AttributeKey<T> key, T expect, T update) {
+        FastCore c = core;
+        return c != null && c.compareAndAttach(key, expect, update);
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.IPacketWriter#getAttached(AttributeKey)
+     */
+    @Override
+    public <T> T getAttached(AttributeKey<T> key) {
+        FastCore c = core;
+        return c == null ? null : c.getAttached(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * This is the override of super method.
+     * @see org.apache.niolex.network.IClient#isWorking()
+     */
+    @Override
+    public boolean isWorking() {
+        return isWorking;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * This is the override of super method.
+     * @see org.apache.niolex.network.IClient#setPacketHandler(IPacketHandler)
+     */
+    @Override
+    public void setPacketHandler(IPacketHandler packetHandler) {
+        this.packetHandler = packetHandler;
+    }
+
+    /**
+     * @return the socket connect timeout.
+     */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Override super method
+     * @see org.apache.niolex.network.IClient#setConnectTimeout(int)
+     */
+    @Override
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * This is the override of super method.
+     * @see org.apache.niolex.network.IClient#setServerAddress(java.net.InetSocketAddress)
+     */
+    @Override
+    public void setServerAddress(InetSocketAddress serverAddress) {
+        this.serverAddress = serverAddress;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * This is the override of super method.
+     * @see org.apache.niolex.network.IClient#setServerAddress(java.lang.String)
+     */
+    @Override
+    public void setServerAddress(String addr) {
+        this.serverAddress = UnixSocketUtil.parseAddress(addr);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * This is the override of super method.
+     * @see org.apache.niolex.network.IClient#getServerAddress()
+     */
+    @Override
+    public InetSocketAddress getServerAddress() {
+        return serverAddress;
+    }
+
+    /**
+     * Set the send queue water marks in bytes. When the queue is above the high water mark,
+     * the writing threads will be blocked until the queue drops to the low water mark. The
+     * selector threads and the timing wheel thread are never blocked. Set high water mark
+     * to 0 to disable the limit, which is the default.
+     * <br>
+     * This method must be called before {@link #connect()}
+     *
+     * @param lowWaterMark the low water mark
+     * @param highWaterMark the high water mark
+     * @see org.apache.niolex.network.server.BasePacketWriter#setWaterMarks(int, int)
+     */
+    public void setWaterMarks(int lowWaterMark, int highWaterMark) {
+        this.lowWaterMark = lowWaterMark;
+        this.highWaterMark = highWaterMark;
+    }
+
+    /**
+     * @return the number of bytes waiting to be sent, 0 if not connected
+     */
+    public long getQueuedBytes() {
+        FastCore c = core;
+        return c == null ? 0 : c.getQueuedBytes();
+    }
+
+    /**
+     * @return the client group running this client
+     */
+    public NioClientGroup getGroup() {
+        return group;
+    }
+
+    /**
+     * Tell the user packet handler the current connection is closed. The event is fired at
+     * most once for each connection, and ignored for the old connections.
+     *
+     * @param wt the closed connection
+     */
+    private void fireClose(IPacketWriter wt) {
+        synchronized (this) {
+            if (wt != core || !isWorking) {
+                return;
+            }
+            isWorking = false;
+        }
+        LOG.info("Nio client disconnected from address: {}.", serverAddress);
+        packetHandler.handleClose(NioClient.this);
+    }
+
+    /**
+     * Pass the packets to the user packet handler with this client as the writer. The close
+     * event of the old connections and the close caused by {@link #stop()} are ignored.
+     *
+     * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+     * @version 1.0.0
+     * @since 2013-11-30
+     */
+    private class Handler implements IPacketHandler {
+
+        /**
+         * Override super method
+         * @see org.apache.niolex.network.IPacketHandler#handlePacket(PacketData, IPacketWriter)
+         */
+        @Override
+        public void handlePacket(PacketData sc, IPacketWriter wt) {
+            packetHandler.handlePacket(sc, NioClient.this);
+        }
+
+        /**
+         * Override super method
+         * @see org.apache.niolex.network.IPacketHandler#handleClose(IPacketWriter)
+         */
+        @Override
+        public void handleClose(IPacketWriter wt) {
+            fireClose(wt);
+        }
+    }
+
+    /**
+     * Send heart beat when nothing is sent in the interval, and close the connection when
+     * nothing is received in the connect timeout.
+     *
+     * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+     * @version 1.0.0
+     * @since 2013-11-30
+     */
+    private class HeartBeatTask implements TimingWheel.Task {
+        private final FastCore c;
+        private final int interval;
+
+        /**
+         * Create a heart beat task for this connection.
+         *
+         * @param c the fast core of the connection
+         * @param interval the heart beat interval
+         */
+        public HeartBeatTask(FastCore c, int interval) {
+            super();
+            this.c = c;
+            this.interval = interval;
+        }
+
+        /**
+         * Override super method
+         * @see org.apache.niolex.network.server.TimingWheel.Task#run(org.apache.niolex.network.server.TimingWheel.Timeout)
+         */
+        @Override
+        public void run(TimingWheel.Timeout timeout) {
+            if (c != core || !c.isOpen()) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if (now - c.getLastReadTime() > connectTimeout) {
+                LOG.warn("Nothing received from {} in {}ms, the connection will be closed.", serverAddress, connectTimeout);
+                c.close();
+                return;
+            }
+            // We never block the shared wheel thread. If the send queue is above the high water
+            // mark, there is no need to send heart beat, the remote will get the queued data.
+            if (now - c.getLastWriteTime() >= interval && c.isWritable()) {
+                try {
+                    c.handleWrite(PacketData.getHeartBeatPacket());
+                } catch (IllegalStateException e) {
+                    // The connection is closed.
+                    return;
+                }
+            }
+            if (group.isWorking()) {
+                group.getTimingWheel().newTimeout(this, interval);
+            }
+        }
+    }
+
+}
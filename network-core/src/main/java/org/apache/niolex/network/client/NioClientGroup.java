@@ -0,0 +1,374 @@
+/**
+ * NioClientGroup.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.client;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.niolex.commons.util.SystemUtil;
+import org.apache.niolex.network.Config;
+import org.apache.niolex.network.IPacketHandler;
+import org.apache.niolex.network.server.FastCore;
+import org.apache.niolex.network.server.SelectorHolder;
+import org.apache.niolex.network.server.SelectorStats;
+import org.apache.niolex.network.server.TimingWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The NIO client group multiplexes any number of outbound connections over a few selector
+ * threads. Every connection is managed by a {@link FastCore} in the client mode, the same
+ * state machine used by the server, so we do not need any thread per connection.
+ * <br>
+ * Please use {@link NioClient} to create connections in this group. One group can be shared
+ * by all the clients in one JVM, and it must be started before any client connects.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public class NioClientGroup {
+    private static final Logger LOG = LoggerFactory.getLogger(NioClientGroup.class);
+
+    /**
+     * The max time in milliseconds the selectors wait in one select.
+     */
+    private static final int SELECT_TIMEOUT = Config.SERVER_ACCEPT_TIMEOUT;
+
+    /**
+     * The round robin index to pick a selector for the new connection.
+     */
+    private final AtomicInteger nextIndex = new AtomicInteger();
+
+    /**
+     * The number of selector threads.
+     */
+    private final int threadsNumber;
+
+    /**
+     * The selectors of this group.
+     */
+    private volatile RunnableSelector[] selectors;
+
+    /**
+     * The timing wheel to drive the heart beat of the clients, created on the first use.
+     */
+    private volatile TimingWheel timingWheel;
+
+    /**
+     * The status of this group.
+     */
+    private volatile boolean isWorking;
+
+    /**
+     * Create a client group with this number of selector threads.
+     *
+     * @param threadsNumber the number of selector threads
+     * @throws IllegalArgumentException if the number of threads is not positive
+     */
+    public NioClientGroup(int threadsNumber) {
+        super();
+        if (threadsNumber <= 0) {
+            throw new IllegalArgumentException("The number of threads must be positive.");
+        }
+        this.threadsNumber = threadsNumber;
+    }
+
+    /**
+     * Open the selectors and start the selector threads.
+     *
+     * @return true if started, false if failed
+     */
+    public synchronized boolean start() {
+        if (isWorking) {
+            return true;
+        }
+        isWorking = true;
+        RunnableSelector[] arr = new RunnableSelector[threadsNumber];
+        try {
+            for (int i = 0; i < threadsNumber; ++i) {
+                arr[i] = new RunnableSelector("NioClientGroup-" + i);
+            }
+            selectors = arr;
+            LOG.info("Nio client group started with {} selectors.", threadsNumber);
+            return true;
+        } catch (Exception e) {
+            LOG.error("Failed to start nio client group.", e);
+            isWorking = false;
+            closeSelectors(arr);
+        }
+        return false;
+    }
+
+    /**
+     * Stop this group. All the connections in this group are closed without notifying the
+     * packet handlers, just like {@link NioClient#stop()}.
+     */
+    public synchronized void stop() {
+        if (!isWorking) {
+            return;
+        }
+        isWorking = false;
+        closeSelectors(selectors);
+        selectors = null;
+        if (timingWheel != null) {
+            timingWheel.stop();
+            timingWheel = null;
+        }
+        LOG.info("Nio client group stoped.");
+    }
+
+    /**
+     * Stop this group in a new thread because this selector failed. The selector thread must
+     * not take the group monitor, a user thread may hold it in {@link #stop()} and wait for
+     * the selector thread to end.
+     *
+     * @param failed the failed selector
+     */
+    private void stopLater(final RunnableSelector failed) {
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (NioClientGroup.this) {
+                    // The group may already be stopped, or even started again.
+                    RunnableSelector[] arr = selectors;
+                    if (arr != null && Arrays.asList(arr).contains(failed)) {
+                        stop();
+                    }
+                }
+            }
+        }, "NioClientGroup-Stopper");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Close all the selectors in this array.
+     *
+     * @param arr the selector array
+     */
+    private static void closeSelectors(RunnableSelector[] arr) {
+        for (RunnableSelector r : arr) {
+            if (r != null) {
+                try {
+                    r.close();
+                } catch (Exception e) {
+                    LOG.info("Failed to close client selector: {}", e.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Register the connected socket channel to one of the selectors in this group, and create
+     * a fast core in the client mode to manage it. We create the fast core in the selector
+     * thread, and wait for it here.
+     *
+     * @param channel the connected socket channel
+     * @param packetHandler the packet handler of this connection
+     * @return the fast core
+     * @throws IOException if I/O related error occurred
+     * @throws IllegalStateException if this group is not working
+     */
+    public FastCore register(final SocketChannel channel, final IPacketHandler packetHandler) throws IOException {
+        RunnableSelector[] arr = selectors;
+        if (!isWorking || arr == null) {
+            throw new IllegalStateException("The client group is not working.");
+        }
+        final SelectorHolder holder = arr[(nextIndex.getAndIncrement() & Integer.MAX_VALUE) % arr.length].holder;
+        channel.configureBlocking(false);
+        FutureTask<FastCore> task = new FutureTask<FastCore>(new Callable<FastCore>() {
+            @Override
+            public FastCore call() throws Exception {
+                FastCore core = new FastCore(packetHandler, holder, channel);
+                core.setClientMode(true);
+                return core;
+            }
+        });
+        if (holder.isSelectorThread()) {
+            // Register in the selector thread directly, or we will wait for ourselves.
+            task.run();
+        } else {
+            holder.execute(task);
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            SystemUtil.close(channel);
+            throw new IOException("Interrupted when register the channel.", e);
+        } catch (ExecutionException e) {
+            SystemUtil.close(channel);
+            Throwable t = e.getCause();
+            if (t instanceof IOException) {
+                throw (IOException) t;
+            }
+            throw new IOException("Failed to register the channel.", t);
+        }
+    }
+
+    /**
+     * Get the timing wheel of this group, it will be created and started on the first use,
+     * and stopped when this group is stopped.
+     *
+     * @return the timing wheel
+     */
+    public TimingWheel getTimingWheel() {
+        TimingWheel w = timingWheel;
+        if (w == null) {
+            synchronized (this) {
+                w = timingWheel;
+                if (w == null) {
+                    w = new TimingWheel("NioClientGroup-TimingWheel", Config.SERVER_TIMING_WHEEL_TICK,
+                            Config.SERVER_TIMING_WHEEL_SIZE);
+                    w.start();
+                    timingWheel = w;
+                }
+            }
+        }
+        return w;
+    }
+
+    /**
+     * @return the statistics of every selector, empty if this group is not working
+     */
+    public SelectorStats[] getSelectorStats() {
+        RunnableSelector[] arr = selectors;
+        if (arr == null) {
+            return new SelectorStats[0];
+        }
+        SelectorStats[] stats = new SelectorStats[arr.length];
+        for (int i = 0; i < arr.length; ++i) {
+            stats[i] = arr[i].holder.getStats();
+        }
+        return stats;
+    }
+
+    /**
+     * @return the number of selector threads
+     */
+    public int getThreadsNumber() {
+        return threadsNumber;
+    }
+
+    /**
+     * @return true if this group is working
+     */
+    public boolean isWorking() {
+        return isWorking;
+    }
+
+    /**
+     * Run the wrapped selector endlessly in a separate daemon thread.
+     *
+     * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+     * @version 1.0.0
+     * @since 2013-11-30
+     */
+    private class RunnableSelector implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final SelectorHolder holder;
+
+        /**
+         * Create a selector and start the thread to run it.
+         *
+         * @param name the thread name
+         * @throws IOException if I/O errors occurred
+         */
+        public RunnableSelector(String name) throws IOException {
+            super();
+            this.selector = Selector.open();
+            this.thread = new Thread(this, name);
+            this.holder = new SelectorHolder(thread, selector);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Close all the channels and the selector, and wait for the thread to stop.
+         *
+         * @throws IOException if I/O errors occurred
+         * @throws InterruptedException if interrupted when waiting for stop thread
+         */
+        public void close() throws IOException, InterruptedException {
+            for (SelectionKey skey : selector.keys()) {
+                SystemUtil.close(skey.channel());
+            }
+            selector.wakeup();
+            if (thread != Thread.currentThread()) {
+                thread.join();
+            }
+            selector.close();
+        }
+
+        /**
+         * Override super method
+         * 
+         * @see java.lang.Runnable#run()
+         */
+        @Override
+        public void run() {
+            try {
+                while (isWorking) {
+                    selector.select(SELECT_TIMEOUT);
+                    holder.changeAllInterestOps();
+                    Set<SelectionKey> selectedKeys = selector.selectedKeys();
+                    for (SelectionKey selectionKey : selectedKeys) {
+                        handleKey(selectionKey);
+                    }
+                    selectedKeys.clear();
+                }
+            } catch (Exception e) {
+                LOG.error("Error occured in the client selector, the group will now shutdown.", e);
+                stopLater(this);
+            }
+        }
+
+        /**
+         * Read and write the fast core attached to this key.
+         *
+         * @param selectionKey the selected key
+         */
+        private void handleKey(SelectionKey selectionKey) {
+            try {
+                FastCore core = (FastCore) selectionKey.attachment();
+                if (selectionKey.isValid() && selectionKey.isReadable()) {
+                    while (core.handleRead())
+                        ;
+                }
+                if (selectionKey.isValid() && selectionKey.isWritable()) {
+                    while (core.handleWrite())
+                        ;
+                }
+            } catch (CancelledKeyException e) {
+                // The channel is closed.
+            }
+        }
+    }
+
+}
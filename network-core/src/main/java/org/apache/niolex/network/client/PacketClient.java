@@ -19,6 +19,8 @@ package org.apache.niolex.network.client;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
@@ -38,6 +40,9 @@ import org.slf4j.LoggerFactory;
  * then we just return immediately. But if the internal queue is full, we will block on the queue to wait for
  * a room for the new packet. All the I/O will be handled in our internal threads.
  * <br>
+ * The write thread drains all the queued packets at once and flushes them by one system call. User can set a
+ * linger time by {@link #setLingerMicros(int)} to wait a little longer for more packets to batch together.
+ * <br>
  * The disadvantage of this class is that we will consume two threads. So don't create too many PacketClient in
  * one JVM.
  * 
@@ -62,6 +67,11 @@ public class PacketClient extends BaseClient {
      */
     private volatile Thread writeThread;
 
+    /**
+     * The time in microseconds to wait for more packets before flush, 0 means flush immediately.
+     */
+    private volatile int lingerMicros;
+
     /**
      * Create a PacketClient without any server address.<br>
      * Please call setter {@link #setServerAddress(InetSocketAddress)} or {@link #setServerAddress(String)} to set
@@ -139,6 +149,28 @@ public class PacketClient extends BaseClient {
         return sendPacketList.size();
     }
 
+    /**
+     * @return the time in microseconds to wait for more packets before flush
+     */
+    public int getLingerMicros() {
+        return lingerMicros;
+    }
+
+    /**
+     * Set the time in microseconds the write thread waits for more packets before flush them
+     * to the socket. A small linger trades latency for throughput under bursty load. Default
+     * to 0, which means we just flush all the queued packets immediately.
+     *
+     * @param lingerMicros the time in microseconds to wait for more packets
+     * @throws IllegalArgumentException if lingerMicros is negative
+     */
+    public void setLingerMicros(int lingerMicros) {
+        if (lingerMicros < 0) {
+            throw new IllegalArgumentException("The linger time must not be negative.");
+        }
+        this.lingerMicros = lingerMicros;
+    }
+
     /**
      * The ReadLoop, reads packet from remote server over and over again.
      *
@@ -195,6 +227,11 @@ public class PacketClient extends BaseClient {
      */
     public class WriteLoop implements Runnable {
 
+        /**
+         * The packets to be flushed together.
+         */
+        private final List<PacketData> batch = new ArrayList<PacketData>();
+
         /**
          * Create a WriteLoop.
          */
@@ -214,7 +251,9 @@ public class PacketClient extends BaseClient {
                          */
                         PacketData sendPacket = sendPacketList.poll(connectTimeout / 2, TimeUnit.MILLISECONDS);
                         if (sendPacket != null) {
-                            sendNewPacket(sendPacket);
+                            batch.add(sendPacket);
+                            sendPacketList.drainTo(batch);
+                            sendPackets(batch);
                         } else {
                             // If nothing to send, let's send a heart beat.
                             sendNewPacket(PacketData.getHeartBeatPacket());
@@ -243,6 +282,56 @@ public class PacketClient extends BaseClient {
                 LOG.debug("Packet sent. desc {}, queue size {}.", sendPacket.descriptor(), PacketClient.this.outstandingSize());
             }
         }
+
+        /**
+         * Send all the packets in the list to remote server and flush only once. If the linger time
+         * is set, we will wait for more packets before flush. The list will be cleared after that.
+         *
+         * @param list the packets to be send to server
+         * @throws IOException if I/O related error occurred
+         */
+        public void sendPackets(List<PacketData> list) throws IOException {
+            try {
+                int linger = lingerMicros;
+                if (linger > 0) {
+                    lingerForMore(list, linger);
+                }
+                for (PacketData sendPacket : list) {
+                    putPacket(sendPacket);
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Packet put. desc {}, queue size {}.", sendPacket.descriptor(), PacketClient.this.outstandingSize());
+                    }
+                }
+                flushPackets();
+            } finally {
+                list.clear();
+            }
+        }
+
+        /**
+         * Keep collecting packets into the list until the linger time passed, then drain all the
+         * remaining packets into the list.
+         *
+         * @param list the list to add packets into
+         * @param linger the time in microseconds to wait
+         */
+        private void lingerForMore(List<PacketData> list, int linger) {
+            long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(linger);
+            try {
+                long remain;
+                while ((remain = deadline - System.nanoTime()) > 0) {
+                    PacketData more = sendPacketList.poll(remain, TimeUnit.NANOSECONDS);
+                    if (more == null) {
+                        break;
+                    }
+                    list.add(more);
+                    sendPacketList.drainTo(list);
+                }
+            } catch (InterruptedException e) {
+                // We are stopping, just send what we have.
+            }
+            sendPacketList.drainTo(list);
+        }
     }
 
 }
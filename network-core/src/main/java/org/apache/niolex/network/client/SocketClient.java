@@ -27,7 +27,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * The blocking implementation of IClient. We use synchronized methods to handle both read and write.
+ * The blocking implementation of IClient. We use synchronized methods to handle read, and combine the
+ * concurrent writes so only one thread writes to the socket at a time.
  * Users maybe use this class in multi-threads, but you need to handle packet read carefully, because
  * the packet you read maybe not the expected response of your sent packet. So we recommend you to use
  * it only in one thread.
@@ -103,12 +104,18 @@ public class SocketClient extends BaseClient {
      * @see org.apache.niolex.network.IPacketWriter#handleWrite(org.apache.niolex.network.PacketData)
      */
     @Override
-    public synchronized void handleWrite(PacketData sc) {
+    public void handleWrite(PacketData sc) {
         try {
-            writePacket(sc);
-            LOG.debug("Packet sent. desc {}, length {}.", sc.descriptor(), sc.getLength());
             if (autoRead) {
-                handleRead();
+                // We need to read the response of this packet, so write and read must be done together.
+                synchronized (this) {
+                    combineWrite(sc);
+                    LOG.debug("Packet sent. desc {}, length {}.", sc.descriptor(), sc.getLength());
+                    handleRead();
+                }
+            } else {
+                combineWrite(sc);
+                LOG.debug("Packet sent. desc {}, length {}.", sc.descriptor(), sc.getLength());
             }
         } catch (IOException e) {
             // When IO exception occurred, this socket is invalid, we need to close it.
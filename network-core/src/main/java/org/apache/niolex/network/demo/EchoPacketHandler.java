@@ -47,7 +47,8 @@ public class EchoPacketHandler implements IPacketHandler {
      */
     @Override
     public void handlePacket(PacketData sc, IPacketWriter wt) {
-        wt.handleWrite(sc);
+        // We write the packet back, so we must keep it.
+        wt.handleWrite(sc.retain());
         LOG.debug("Packet with desc [{}] from remote [{}] echoed back.", sc.descriptor(),
         		wt.getRemoteName());
     }
@@ -50,8 +50,9 @@ public class SavePacketHandler implements IPacketHandler {
 	 */
 	@Override
 	public void handlePacket(PacketData sc, IPacketWriter wt) {
+	    // We save the packet, so we must keep it.
 	    if (collection != null)
-	        collection.add(sc);
+	        collection.add(sc.retain());
 	}
 
 	/**
@@ -0,0 +1,48 @@
+/**
+ * PacketSentListener.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.event;
+
+import org.apache.niolex.network.IPacketWriter;
+import org.apache.niolex.network.PacketData;
+
+/**
+ * The light weight listener to get notified when packet sent. Different from
+ * {@link WriteEventListener}, we pass the writer and the packet directly, so no event
+ * object is created for every packet.
+ *
+ * @see org.apache.niolex.network.IPacketWriter#addSentListener(PacketSentListener, short...)
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public interface PacketSentListener {
+
+    /**
+     * This method is invoked just after we sent the packet to remote peer, in the network
+     * thread, so please return as soon as possible.
+     * <br>
+     * Like {@link WriteEventListener#afterSent(WriteEvent)}, it only indicates that the
+     * data is sent to network buffer.
+     *
+     * @param wt the packet writer which sent this packet
+     * @param sc the packet sent just now
+     */
+    public void packetSent(IPacketWriter wt, PacketData sc);
+
+}
@@ -0,0 +1,49 @@
+/**
+ * WritabilityListener.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.event;
+
+import org.apache.niolex.network.IPacketWriter;
+
+/**
+ * The interface user need to implement in order to get the event when the writability
+ * of a packet writer changed. Producers can pause writing when the writer becomes
+ * not writable, and resume when it's writable again.
+ *
+ * @see org.apache.niolex.network.server.BasePacketWriter#addWritabilityListener(WritabilityListener)
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-26
+ */
+public interface WritabilityListener {
+
+    /**
+     * This event is fired when the send queue of the packet writer grows above the high
+     * water mark, or drops below the low water mark.
+     * <br>
+     * Notion! This event is fired outside of any lock, so events may arrive out of order
+     * when the writability changes very fast. Please check
+     * {@link org.apache.niolex.network.server.BasePacketWriter#isWritable()} if you need the
+     * current status.
+     *
+     * @param wt the packet writer
+     * @param writable true if the writer becomes writable, false otherwise
+     */
+    public void writabilityChanged(IPacketWriter wt, boolean writable);
+
+}
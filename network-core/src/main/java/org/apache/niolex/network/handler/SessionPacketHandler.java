@@ -17,6 +17,7 @@
  */
 package org.apache.niolex.network.handler;
 
+import org.apache.niolex.network.AttributeKey;
 import org.apache.niolex.network.Config;
 import org.apache.niolex.network.IPacketHandler;
 import org.apache.niolex.network.IPacketWriter;
@@ -34,7 +35,7 @@ import org.slf4j.LoggerFactory;
 public class SessionPacketHandler implements IPacketHandler {
 	private static final Logger LOG = LoggerFactory.getLogger(SessionPacketHandler.class);
 
-    private static final String KEY = Config.ATTACH_KEY_SESS_HANDLER;
+    private static final AttributeKey<IPacketHandler> KEY = AttributeKey.valueOf(Config.ATTACH_KEY_SESS_HANDLER);
 
     private IHandlerFactory factory;
 
@@ -0,0 +1,38 @@
+/**
+ * AssignStrategy.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.server;
+
+/**
+ * The strategy to assign new connections to selectors in {@link MultiNioServer}.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-27
+ * @see DefaultAssignStrategy
+ */
+public interface AssignStrategy {
+
+    /**
+     * Choose a selector for the new connection. This method is invoked in the accept thread.
+     *
+     * @param stats the statistics of all the selectors, never empty
+     * @return the index of the chosen selector
+     */
+    public int assign(SelectorStats[] stats);
+
+}
@@ -18,39 +18,134 @@
 package org.apache.niolex.network.server;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
+import org.apache.niolex.network.AttributeKey;
+import org.apache.niolex.network.AttributeMap;
+import org.apache.niolex.network.Config;
 import org.apache.niolex.network.IPacketWriter;
 import org.apache.niolex.network.PacketData;
+import org.apache.niolex.network.event.PacketSentListener;
+import org.apache.niolex.network.event.WritabilityListener;
 import org.apache.niolex.network.event.WriteEvent;
 import org.apache.niolex.network.event.WriteEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * The base BasePacketWriter, handle object attach and the outstanding packet storage.
  * PacketData will be stored in a ConcurrentLinkedQueue, which is good at concurrent writes.
+ * <br>
+ * The queue is unbounded by default. User can set the high and low water marks to limit the
+ * number of bytes in the queue, please see {@link #setWaterMarks(int, int)}.
+ * <br>
+ * The attachment slots, the packet queue and the listener list are created on the first use,
+ * so an idle connection only pays for the fields of this class.
+ * <br>
+ * The send queue can be split into priority lanes, please see {@link #setLanePolicy(LanePolicy)}.
  *
  * @author <a href="mailto:xiejiyun@gmail.com">Xie, Jiyun</a>
  * @version 1.0.0
  * @since 2012-5-30
  */
 public abstract class BasePacketWriter implements IPacketWriter {
+    private static final Logger LOG = LoggerFactory.getLogger(BasePacketWriter.class);
 
     /**
-     * Attachment map, save all attachments here.
+     * The updater to create the send packets queue.
      */
-    protected Map<String, Object> attachMap = new HashMap<String, Object>();
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<BasePacketWriter, ConcurrentLinkedQueue> QUEUE_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(BasePacketWriter.class, ConcurrentLinkedQueue.class, "sendPacketsQueue");
 
     /**
-     * Store all the packets need to be sent to client.
+     * The updater to create the named attachment map.
      */
-    private ConcurrentLinkedQueue<PacketData> sendPacketsQueue = new ConcurrentLinkedQueue<PacketData>();
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<BasePacketWriter, ConcurrentHashMap> NAMED_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(BasePacketWriter.class, ConcurrentHashMap.class, "namedMap");
 
     /**
-     * The packet write event listener list.
+     * Attachment map, save all attachments here. It's lock free, so the attachments can be
+     * accessed from any thread.
      */
-    private ArrayList<WriteEventListener> listenerList = new ArrayList<WriteEventListener>(2);
+    private final AttributeMap attachMap = new AttributeMap();
+
+    /**
+     * The String keyed attachments without any registered {@link AttributeKey}, created when
+     * the first one is attached.
+     */
+    private volatile ConcurrentHashMap<String, Object> namedMap;
+
+    /**
+     * Store all the packets need to be sent to client, created when the first packet is written.
+     */
+    private volatile ConcurrentLinkedQueue<PacketData> sendPacketsQueue;
+
+    /**
+     * The control and bulk lanes of the send queue, created when the lane policy is set. The
+     * send packets queue is the normal lane.
+     */
+    private volatile ConcurrentLinkedQueue<PacketData> controlQueue, bulkQueue;
+
+    /**
+     * The policy to select the send lane, null to put all the packets into the normal lane.
+     */
+    private volatile LanePolicy lanePolicy;
+
+    /**
+     * The number of packets sent from the higher lanes while the bulk lane is waiting.
+     */
+    private int bulkDelayed;
+
+    /**
+     * The packet write event listener list, created when the first listener is added.
+     */
+    private ArrayList<WriteEventListener> listenerList;
+
+    /**
+     * The packet sent listeners, replaced by a new array when listener is added.
+     */
+    private volatile SentEntry[] sentListeners;
+
+    /**
+     * The writability listener list, created when the first listener is added.
+     */
+    private ArrayList<WritabilityListener> writabilityList;
+
+    /**
+     * The number of bytes of all the packets in the send queue.
+     */
+    private final AtomicLong queuedBytes = new AtomicLong();
+
+    /**
+     * The send queue high water mark in bytes, 0 means no limit.
+     */
+    private int highWaterMark;
+
+    /**
+     * The send queue low water mark in bytes.
+     */
+    private int lowWaterMark;
+
+    /**
+     * The policy to deal with the packets written above the high water mark.
+     */
+    private OverflowPolicy overflowPolicy = OverflowPolicy.NOTIFY;
+
+    /**
+     * The writability of this writer.
+     */
+    private volatile boolean writable = true;
+
+    /**
+     * Whether we have closed this writer for overflow.
+     */
+    private volatile boolean overflowClosed;
 
     /**
      * The channel status.
@@ -67,28 +162,229 @@ public abstract class BasePacketWriter implements IPacketWriter {
     /**
      * We put the packet into the internal queue.
      * When channel is closed, we forbid user from send data.
+     * <br>
+     * If the queue is above the high water mark, we will deal with this packet according
+     * to the overflow policy.
+     * <br>
+     * If the lane policy is set, the packet is put into the lane selected by the policy.
      *
      * @throws IllegalStateException When This Channel is Closed.
      * @see org.apache.niolex.network.IPacketWriter#handleWrite(org.apache.niolex.network.PacketData)
      */
     @Override
     public void handleWrite(PacketData sc) {
+        LanePolicy policy = lanePolicy;
+        handleWrite(sc, policy == null ? SendLane.NORMAL : policy.select(sc));
+    }
+
+    /**
+     * Put the packet into the specified lane of the send queue. The lanes are only effective
+     * after the lane policy is set, otherwise all the packets are put into the normal lane.
+     *
+     * @param sc the packet to be sent
+     * @param lane the send lane
+     * @throws IllegalStateException When This Channel is Closed.
+     * @see #handleWrite(PacketData)
+     */
+    public void handleWrite(PacketData sc, SendLane lane) {
+        if (isChannelClosed) {
+            throw new IllegalStateException("This Channel is Closed.");
+        }
+        int size = sc.getLength() + Config.PACKET_HEADER_SIZE;
+        if (highWaterMark > 0 && queuedBytes.get() >= highWaterMark && !handleOverflow(size)) {
+            return;
+        }
+        long q = queuedBytes.addAndGet(size);
+        queuedBytesChanged(size);
+        laneQueue(lane).add(sc);
+        if (highWaterMark > 0 && q >= highWaterMark && writable) {
+            changeWritable(false);
+        }
+    }
+
+    /**
+     * Deal with the packet written above the high water mark.
+     *
+     * @param size the size of the packet
+     * @return true if we need to put this packet into the queue, false to drop it
+     */
+    private boolean handleOverflow(int size) {
+        switch (overflowPolicy) {
+            case BLOCK:
+                if (canBlock()) {
+                    awaitWritable();
+                }
+                return true;
+            case DROP_OLDEST:
+                PacketData sc;
+                // Drop from the lowest lane first.
+                while (queuedBytes.get() + size > highWaterMark && (sc = taken(pollOldest())) != null) {
+                    LOG.debug("Packet dropped for overflow. desc {}, size {}.", sc.descriptor(), sc.getLength());
+                }
+                return true;
+            case CLOSE:
+                if (!overflowClosed) {
+                    overflowClosed = true;
+                    LOG.warn("Send queue overflow, queued bytes {}, the connection will be closed.", queuedBytes.get());
+                    overflowClose();
+                }
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Wait until this writer becomes writable.
+     *
+     * @throws IllegalStateException When This Channel is Closed.
+     */
+    private void awaitWritable() {
+        synchronized (this) {
+            while (!writable && !isChannelClosed) {
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
         if (isChannelClosed) {
             throw new IllegalStateException("This Channel is Closed.");
         }
-        sendPacketsQueue.add(sc);
+    }
+
+    /**
+     * Change the writability of this writer, and notify the listeners. We double check the
+     * queued bytes inside the lock, so the status is always consistent with the queue.
+     *
+     * @param w the new writability
+     */
+    private void changeWritable(boolean w) {
+        synchronized (this) {
+            if (writable == w) {
+                return;
+            }
+            long q = queuedBytes.get();
+            if (w ? q > lowWaterMark : q < highWaterMark) {
+                return;
+            }
+            writable = w;
+            if (w) {
+                this.notifyAll();
+            }
+        }
+        ArrayList<WritabilityListener> list = writabilityList;
+        if (list != null) {
+            for (WritabilityListener listener : list) {
+                listener.writabilityChanged(this, w);
+            }
+        }
+    }
+
+    /**
+     * Sub class can override this method to tell us whether the current thread can be
+     * blocked when the queue is above the high water mark.
+     *
+     * @return true if the current thread can be blocked
+     */
+    protected boolean canBlock() {
+        return true;
+    }
+
+    /**
+     * Sub class need to override this method to close the connection when the queue is above
+     * the high water mark and the overflow policy is {@link OverflowPolicy#CLOSE}. This method
+     * will be invoked in the writing thread.
+     * <br>
+     * The default implementation just marks this channel as closed.
+     */
+    protected void overflowClose() {
+        channelClosed();
+    }
+
+    /**
+     * Sub class can override this method to track the bytes queued in this writer, e.g.
+     * to sum them up for statistics. This method is invoked after the queued bytes changed.
+     *
+     * @param delta the number of bytes, negative when packets are taken out of the queue
+     */
+    protected void queuedBytesChanged(long delta) {
     }
 
     /**
      * Override super method
      * 
+     * @throws IllegalStateException When This Channel is Closed.
      * @see org.apache.niolex.network.IPacketWriter#addEventListener(org.apache.niolex.network.event.WriteEventListener)
      */
     @Override
     public void addEventListener(WriteEventListener listener) {
+        if (isChannelClosed) {
+            throw new IllegalStateException("This Channel is Closed.");
+        }
+        if (listenerList == null) {
+            listenerList = new ArrayList<WriteEventListener>(2);
+        }
         listenerList.add(listener);
     }
 
+    /**
+     * Override super method
+     * 
+     * @throws IllegalStateException When This Channel is Closed.
+     * @see org.apache.niolex.network.IPacketWriter#addSentListener(org.apache.niolex.network.event.PacketSentListener, short[])
+     */
+    @Override
+    public void addSentListener(PacketSentListener listener, short... codes) {
+        if (isChannelClosed) {
+            throw new IllegalStateException("This Channel is Closed.");
+        }
+        SentEntry e = new SentEntry(listener, codes);
+        synchronized (this) {
+            SentEntry[] old = sentListeners;
+            if (old == null) {
+                sentListeners = new SentEntry[] {e};
+            } else {
+                SentEntry[] arr = Arrays.copyOf(old, old.length + 1);
+                arr[old.length] = e;
+                sentListeners = arr;
+            }
+        }
+    }
+
+    /**
+     * Get the send packets queue, create it if it's not created yet.
+     *
+     * @return the send packets queue
+     */
+    @SuppressWarnings("unchecked")
+    private ConcurrentLinkedQueue<PacketData> sendQueue() {
+        ConcurrentLinkedQueue<PacketData> q = sendPacketsQueue;
+        if (q == null) {
+            QUEUE_UPDATER.compareAndSet(this, null, new ConcurrentLinkedQueue<PacketData>());
+            q = sendPacketsQueue;
+        }
+        return q;
+    }
+
+    /**
+     * Get the queue of the send lane, fall back to the normal lane if the lanes are not created.
+     *
+     * @param lane the send lane
+     * @return the queue of the lane
+     */
+    private ConcurrentLinkedQueue<PacketData> laneQueue(SendLane lane) {
+        ConcurrentLinkedQueue<PacketData> q = null;
+        if (lane == SendLane.CONTROL) {
+            q = controlQueue;
+        } else if (lane == SendLane.BULK) {
+            q = bulkQueue;
+        }
+        return q == null ? sendQueue() : q;
+    }
+
     /**
      * Sub class need to use this method to clean all the internal
      * data structure and mark this channel as closed.
@@ -100,13 +396,19 @@ public abstract class BasePacketWriter implements IPacketWriter {
             return;
         }
         isChannelClosed = true;
+        // Wake up all the blocked writing threads.
+        synchronized (this) {
+            this.notifyAll();
+        }
         attachMap.clear();
-        attachMap = null;
+        namedMap = null;
         // We do not clear this queue, because some adapter might want to use it.
         // But we still need to set it to null to help GC.
         sendPacketsQueue = null;
-        listenerList.clear();
+        controlQueue = bulkQueue = null;
         listenerList = null;
+        sentListeners = null;
+        writabilityList = null;
     }
 
     /**
@@ -116,8 +418,21 @@ public abstract class BasePacketWriter implements IPacketWriter {
      * @param sc the packet sent just now
      */
     protected void fireSendEvent(PacketData sc) {
+        SentEntry[] sents = sentListeners;
+        if (sents != null) {
+            short code = sc.getCode();
+            for (SentEntry e : sents) {
+                if (e.accept(code)) {
+                    e.listener.packetSent(this, sc);
+                }
+            }
+        }
+        ArrayList<WriteEventListener> list = listenerList;
+        if (list == null) {
+            return;
+        }
         WriteEvent wEvent = new WriteEvent(this, sc);
-        for (WriteEventListener listener : listenerList) {
+        for (WriteEventListener listener : list) {
             listener.afterSent(wEvent);
         }
     }
@@ -128,7 +443,79 @@ public abstract class BasePacketWriter implements IPacketWriter {
      * @return the next packet to be sent to client
      */
     protected PacketData handleNext() {
-        return sendPacketsQueue.poll();
+        return taken(bulkQueue == null ? poll(sendPacketsQueue) : pollLanes());
+    }
+
+    /**
+     * Poll the next packet from the lanes. The higher lanes are drained first, but when there
+     * are {@link LanePolicy#getMaxBulkDelay()} packets sent from the higher lanes while the
+     * bulk lane is waiting, we send one bulk packet.
+     *
+     * @return the next packet, null if all the lanes are empty
+     */
+    private PacketData pollLanes() {
+        ConcurrentLinkedQueue<PacketData> bulk = bulkQueue;
+        LanePolicy policy = lanePolicy;
+        if (bulk == null || policy == null) {
+            return poll(sendPacketsQueue);
+        }
+        PacketData sc;
+        if (bulkDelayed >= policy.getMaxBulkDelay() && (sc = bulk.poll()) != null) {
+            bulkDelayed = 0;
+            return sc;
+        }
+        if ((sc = poll(controlQueue)) != null || (sc = poll(sendPacketsQueue)) != null) {
+            if (!bulk.isEmpty()) {
+                ++bulkDelayed;
+            }
+            return sc;
+        }
+        bulkDelayed = 0;
+        return bulk.poll();
+    }
+
+    /**
+     * Poll the oldest packet of the lowest lane to be dropped.
+     *
+     * @return the packet, null if all the lanes are empty
+     */
+    private PacketData pollOldest() {
+        PacketData sc = poll(bulkQueue);
+        if (sc == null) {
+            sc = poll(sendPacketsQueue);
+        }
+        if (sc == null) {
+            sc = poll(controlQueue);
+        }
+        return sc;
+    }
+
+    /**
+     * Poll the head of this queue.
+     *
+     * @param q the queue, may be null
+     * @return the head packet, null if the queue is null or empty
+     */
+    private static PacketData poll(ConcurrentLinkedQueue<PacketData> q) {
+        return q == null ? null : q.poll();
+    }
+
+    /**
+     * The packet is taken out of the send queue, update the queued bytes.
+     *
+     * @param sc the packet taken out, may be null
+     * @return the packet
+     */
+    private PacketData taken(PacketData sc) {
+        if (sc != null) {
+            int size = sc.getLength() + Config.PACKET_HEADER_SIZE;
+            long left = queuedBytes.addAndGet(-size);
+            queuedBytesChanged(-size);
+            if (!writable && left <= lowWaterMark) {
+                changeWritable(true);
+            }
+        }
+        return sc;
     }
 
     /**
@@ -138,7 +525,22 @@ public abstract class BasePacketWriter implements IPacketWriter {
      */
     @Override
     public Object attachData(String key, Object value) {
-        return attachMap.put(key, value);
+        if (isChannelClosed) {
+            return null;
+        }
+        AttributeKey<Object> attr = AttributeKey.find(key);
+        if (attr != null) {
+            Object old = attachMap.set(attr, value);
+            // The key may be registered after this name was attached.
+            ConcurrentHashMap<String, Object> map = namedMap;
+            Object named = map == null ? null : map.remove(key);
+            return old == null ? named : old;
+        }
+        ConcurrentHashMap<String, Object> map = namedMap(value != null);
+        if (map == null) {
+            return null;
+        }
+        return value == null ? map.remove(key) : map.put(key, value);
     }
 
     /**
@@ -146,13 +548,87 @@ public abstract class BasePacketWriter implements IPacketWriter {
      * 
      * @see org.apache.niolex.network.IPacketWriter#getAttached(java.lang.String)
      */
-    @SuppressWarnings("unchecked")
     @Override
+    @SuppressWarnings("unchecked")
     public <T> T getAttached(String key) {
         if (isChannelClosed) {
             return null;
         }
-        return (T) attachMap.get(key);
+        AttributeKey<T> attr = AttributeKey.find(key);
+        T value = attr == null ? null : attachMap.get(attr);
+        if (value == null) {
+            ConcurrentHashMap<String, Object> map = namedMap;
+            value = map == null ? null : (T) map.get(key);
+        }
+        return value;
+    }
+
+    /**
+     * Get the named attachment map, create it if absent and required.
+     *
+     * @param create whether to create the map
+     * @return the map, or null if not created
+     */
+    @SuppressWarnings("unchecked")
+    private ConcurrentHashMap<String, Object> namedMap(boolean create) {
+        ConcurrentHashMap<String, Object> map = namedMap;
+        if (map == null && create) {
+            NAMED_UPDATER.compareAndSet(this, null, new ConcurrentHashMap<String, Object>());
+            map = namedMap;
+        }
+        return map;
+    }
+
+    /**
+     * Override super method
+     * 
+     * @see org.apache.niolex.network.IPacketWriter#attachData(org.apache.niolex.network.AttributeKey, java.lang.Object)
+     */
+    @Override
+    public <T> T attachData(AttributeKey<T> key, T value) {
+        if (isChannelClosed) {
+            return null;
+        }
+        return attachMap.set(key, value);
+    }
+
+    /**
+     * Override super method
+     * 
+     * @see org.apache.niolex.network.IPacketWriter#attachIfAbsent(org.apache.niolex.network.AttributeKey, java.lang.Object)
+     */
+    @Override
+    public <T> T attachIfAbsent(AttributeKey<T> key, T value) {
+        if (isChannelClosed) {
+            return null;
+        }
+        return attachMap.setIfAbsent(key, value);
+    }
+
+    /**
+     * Override super method
+     * 
+     * @see org.apache.niolex.network.IPacketWriter#compareAndAttach(org.apache.niolex.network.AttributeKey, java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public <T> boolean compareAndAttach(AttributeKey<T> key, T expect, T update) {
+        if (isChannelClosed) {
+            return false;
+        }
+        return attachMap.compareAndSet(key, expect, update);
+    }
+
+    /**
+     * Override super method
+     * 
+     * @see org.apache.niolex.network.IPacketWriter#getAttached(org.apache.niolex.network.AttributeKey)
+     */
+    @Override
+    public <T> T getAttached(AttributeKey<T> key) {
+        if (isChannelClosed) {
+            return null;
+        }
+        return attachMap.get(key);
     }
 
     /**
@@ -161,16 +637,176 @@ public abstract class BasePacketWriter implements IPacketWriter {
      * @return true if it's empty
      */
     public boolean isEmpty() {
-        return sendPacketsQueue.isEmpty();
+        return isEmpty(sendPacketsQueue) && isEmpty(controlQueue) && isEmpty(bulkQueue);
     }
 
     /**
-     * Get the current non send packet queue.
+     * @param q the queue, may be null
+     * @return true if the queue is null or empty
+     */
+    private static boolean isEmpty(ConcurrentLinkedQueue<PacketData> q) {
+        return q == null || q.isEmpty();
+    }
+
+    /**
+     * Get the current non send packet queue. If the lane policy is set, the packets in the
+     * control and bulk lanes are moved to the tail of the normal lane first, so the returned
+     * queue contains all the non send packets.
      *
-     * @return the current queue
+     * @return the current queue, null if this channel is closed
      */
     public ConcurrentLinkedQueue<PacketData> getRemainQueue() {
-        return sendPacketsQueue;
+        if (isChannelClosed) {
+            return sendPacketsQueue;
+        }
+        ConcurrentLinkedQueue<PacketData> q = sendQueue();
+        PacketData sc;
+        while ((sc = poll(controlQueue)) != null) {
+            q.add(sc);
+        }
+        while ((sc = poll(bulkQueue)) != null) {
+            q.add(sc);
+        }
+        return q;
+    }
+
+    /**
+     * Set the policy to select the send lane of the packets. The packets in the higher lanes
+     * are sent before the packets in the lower lanes, so a heart beat or a notification will
+     * not wait for a large response queued before it. The packets are never reordered within
+     * one lane, and one packet is always sent completely before the next one.
+     * <br>
+     * Please set it right after this writer is created, before the first write. The default
+     * is null, which means all the packets are sent in the order they are written.
+     *
+     * @param lanePolicy the lane policy, null to put all the packets into the normal lane
+     */
+    public void setLanePolicy(LanePolicy lanePolicy) {
+        this.lanePolicy = lanePolicy;
+        if (lanePolicy != null && bulkQueue == null) {
+            controlQueue = new ConcurrentLinkedQueue<PacketData>();
+            bulkQueue = new ConcurrentLinkedQueue<PacketData>();
+        }
+    }
+
+    /**
+     * @return the policy to select the send lane, null if all the packets are in the normal lane
+     */
+    public LanePolicy getLanePolicy() {
+        return lanePolicy;
+    }
+
+    /**
+     * Add a listener to be notified when the writability of this writer changed.
+     *
+     * @param listener the writability listener
+     */
+    public void addWritabilityListener(WritabilityListener listener) {
+        if (writabilityList == null) {
+            writabilityList = new ArrayList<WritabilityListener>(1);
+        }
+        writabilityList.add(listener);
+    }
+
+    /**
+     * Set the high and low water marks of the send queue in bytes. When the queue grows to
+     * the high water mark, this writer becomes not writable, and the packets written after
+     * that will be dealt with according to the overflow policy. When the queue drops to the
+     * low water mark, this writer becomes writable again.
+     * <br>
+     * Set high water mark to 0 to disable the limit, which is the default.
+     *
+     * @param lowWaterMark the low water mark
+     * @param highWaterMark the high water mark
+     * @throws IllegalArgumentException if the water marks are invalid
+     */
+    public void setWaterMarks(int lowWaterMark, int highWaterMark) {
+        if (lowWaterMark < 0 || (highWaterMark > 0 && lowWaterMark > highWaterMark)) {
+            throw new IllegalArgumentException("Invalid water marks: " + lowWaterMark + ", " + highWaterMark);
+        }
+        this.lowWaterMark = lowWaterMark;
+        this.highWaterMark = highWaterMark;
+    }
+
+    /**
+     * @return the send queue high water mark in bytes
+     */
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * @return the send queue low water mark in bytes
+     */
+    public int getLowWaterMark() {
+        return lowWaterMark;
+    }
+
+    /**
+     * @return the policy to deal with the packets written above the high water mark
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Set the policy to deal with the packets written above the high water mark.
+     * The default is {@link OverflowPolicy#NOTIFY}.
+     *
+     * @param overflowPolicy the overflow policy to set
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @return true if the send queue is below the high water mark
+     */
+    public boolean isWritable() {
+        return writable;
+    }
+
+    /**
+     * @return the number of bytes of all the packets in the send queue
+     */
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /**
+     * The packet sent listener with the packet codes it listens.
+     *
+     * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+     * @version 1.0.0
+     * @since 2013-11-30
+     */
+    private static final class SentEntry {
+        private final PacketSentListener listener;
+        private final short[] codes;
+
+        /**
+         * Create a new entry.
+         *
+         * @param listener the packet sent listener
+         * @param codes the packet codes to listen, empty to listen all packets
+         */
+        private SentEntry(PacketSentListener listener, short[] codes) {
+            this.listener = listener;
+            if (codes == null || codes.length == 0) {
+                this.codes = null;
+            } else {
+                this.codes = codes.clone();
+                Arrays.sort(this.codes);
+            }
+        }
+
+        /**
+         * @param code the packet code
+         * @return true if this listener listens packets of this code
+         */
+        private boolean accept(short code) {
+            return codes == null || Arrays.binarySearch(codes, code) >= 0;
+        }
     }
 
 }
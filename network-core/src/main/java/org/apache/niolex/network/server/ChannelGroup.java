@@ -0,0 +1,262 @@
+/**
+ * ChannelGroup.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.server;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.niolex.network.AttributeKey;
+import org.apache.niolex.network.Config;
+import org.apache.niolex.network.FramedPacketData;
+import org.apache.niolex.network.IPacketWriter;
+import org.apache.niolex.network.PacketData;
+import org.apache.niolex.network.event.PacketSentListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A group of packet writers to broadcast packets to. The packet is framed only once into
+ * a shared read only buffer, see {@link FramedPacketData}, and the same packet instance is
+ * put into the queue of every writer, so the cost of broadcasting to one more writer is
+ * just one queue offer.
+ * <br>
+ * The writers closed are removed from this group when we fail to write to them, user can
+ * also remove them in {@link org.apache.niolex.network.IPacketHandler#handleClose(IPacketWriter)}.
+ * This class is thread safe.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public class ChannelGroup {
+    private static final Logger LOG = LoggerFactory.getLogger(ChannelGroup.class);
+
+    /**
+     * The key to mark the writer with the sent counter registered.
+     */
+    private static final AttributeKey<Boolean> KEY = AttributeKey.valueOf(Config.ATTACH_KEY_GROUP_COUNTER);
+
+    /**
+     * The listener to count the packets sent for the groups. It's registered only once for
+     * each writer, no matter how many groups the writer is in.
+     */
+    private static final PacketSentListener SENT_COUNTER = new PacketSentListener() {
+
+        @Override
+        public void packetSent(IPacketWriter wt, PacketData sc) {
+            if (sc instanceof GroupPacketData) {
+                ((GroupPacketData) sc).group.sent.increment();
+            }
+        }
+    };
+
+    /**
+     * The framed packet broadcasted by this group.
+     *
+     * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+     * @version 1.0.0
+     * @since 2013-11-30
+     */
+    private static final class GroupPacketData extends FramedPacketData {
+        private final ChannelGroup group;
+
+        /**
+         * Create a framed packet of the group.
+         *
+         * @param sc the packet to be framed
+         * @param group the group
+         */
+        private GroupPacketData(PacketData sc, ChannelGroup group) {
+            super(sc);
+            this.group = group;
+        }
+    }
+
+    /**
+     * The writers of this group.
+     */
+    private final Set<IPacketWriter> writers = Collections.newSetFromMap(new ConcurrentHashMap<IPacketWriter, Boolean>());
+
+    /**
+     * The name of this group.
+     */
+    private final String name;
+
+    /**
+     * The number of packets broadcasted.
+     */
+    private final AtomicLong broadcasts = new AtomicLong();
+
+    /**
+     * The number of packets put into the queue of the writers.
+     */
+    private final StripedCounter queued = new StripedCounter();
+
+    /**
+     * The number of packets sent to the socket by the writers.
+     */
+    private final StripedCounter sent = new StripedCounter();
+
+    /**
+     * The number of packets failed to write for the writer is closed.
+     */
+    private final StripedCounter failed = new StripedCounter();
+
+    /**
+     * Create a new channel group.
+     *
+     * @param name the name of this group
+     */
+    public ChannelGroup(String name) {
+        super();
+        this.name = name;
+    }
+
+    /**
+     * Add the writer into this group. We count the packets sent by the writers support
+     * {@link IPacketWriter#addSentListener(PacketSentListener, short...)}.
+     *
+     * @param wt the packet writer
+     * @return true if added, false if it's already in this group or closed
+     */
+    public boolean add(IPacketWriter wt) {
+        if (!writers.add(wt)) {
+            return false;
+        }
+        try {
+            if (wt.attachIfAbsent(KEY, Boolean.TRUE) == null) {
+                wt.addSentListener(SENT_COUNTER);
+            }
+        } catch (UnsupportedOperationException e) {
+            // The client side writers do not support it, we just do not count the packets sent.
+        } catch (IllegalStateException e) {
+            // The writer is closed.
+            writers.remove(wt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Remove the writer from this group. The packets already in the queue of this writer
+     * will still be sent.
+     *
+     * @param wt the packet writer
+     * @return true if removed, false if it's not in this group
+     */
+    public boolean remove(IPacketWriter wt) {
+        return writers.remove(wt);
+    }
+
+    /**
+     * Test whether the writer is in this group.
+     *
+     * @param wt the packet writer
+     * @return true if it's in this group
+     */
+    public boolean contains(IPacketWriter wt) {
+        return writers.contains(wt);
+    }
+
+    /**
+     * Broadcast the packet to all the writers in this group. The packet is framed only once.
+     * The writers closed are removed from this group.
+     * <br>
+     * If the packet is borrowed from a pool, it can be released after this method returns.
+     *
+     * @param sc the packet to broadcast
+     * @return the number of writers the packet is written to
+     * @throws IllegalArgumentException if the packet is a file packet, it can not be framed
+     */
+    public int write(PacketData sc) {
+        GroupPacketData framed = new GroupPacketData(sc, this);
+        broadcasts.incrementAndGet();
+        int cnt = 0;
+        Iterator<IPacketWriter> it = writers.iterator();
+        while (it.hasNext()) {
+            IPacketWriter wt = it.next();
+            try {
+                wt.handleWrite(framed);
+                ++cnt;
+            } catch (IllegalStateException e) {
+                // This writer is closed.
+                it.remove();
+                failed.increment();
+                LOG.debug("Writer {} removed from group {} for {}.", wt.getRemoteName(), name, e.toString());
+            }
+        }
+        queued.add(cnt);
+        return cnt;
+    }
+
+    /**
+     * @return the name of this group
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the current number of writers in this group
+     */
+    public int size() {
+        return writers.size();
+    }
+
+    /**
+     * @return the number of packets broadcasted
+     */
+    public long getBroadcasts() {
+        return broadcasts.get();
+    }
+
+    /**
+     * @return the number of packets put into the queue of the writers
+     */
+    public long getQueued() {
+        return queued.sum();
+    }
+
+    /**
+     * @return the number of packets sent to the socket by the writers
+     */
+    public long getSent() {
+        return sent.sum();
+    }
+
+    /**
+     * @return the number of packets failed to write for the writer is closed
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * Override super method
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ChannelGroup[" + name + "] size " + size() + ", broadcasts " + getBroadcasts() + ", queued "
+                + getQueued() + ", sent " + getSent() + ", failed " + getFailed();
+    }
+
+}
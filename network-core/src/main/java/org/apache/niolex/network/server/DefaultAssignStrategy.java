@@ -0,0 +1,100 @@
+/**
+ * DefaultAssignStrategy.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.server;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The built-in selector assign strategies.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-27
+ */
+public enum DefaultAssignStrategy implements AssignStrategy {
+
+    /**
+     * Assign connections to selectors one by one.
+     */
+    ROUND_ROBIN {
+        private final AtomicInteger currentIdx = new AtomicInteger();
+
+        @Override
+        public int assign(SelectorStats[] stats) {
+            return (currentIdx.incrementAndGet() & Integer.MAX_VALUE) % stats.length;
+        }
+    },
+
+    /**
+     * Assign connections to the selector with the least connections.
+     */
+    LEAST_CONNECTIONS {
+        @Override
+        public int assign(SelectorStats[] stats) {
+            int idx = 0;
+            for (int i = 1; i < stats.length; ++i) {
+                if (stats[i].getConnections() < stats[idx].getConnections()) {
+                    idx = i;
+                }
+            }
+            return idx;
+        }
+    },
+
+    /**
+     * Assign connections to the selector with the least traffic in the recent seconds.
+     */
+    LEAST_BYTES {
+        @Override
+        public int assign(SelectorStats[] stats) {
+            int idx = 0;
+            long min = stats[0].getBytesPerSecond();
+            for (int i = 1; i < stats.length; ++i) {
+                long b = stats[i].getBytesPerSecond();
+                if (b < min || (b == min && stats[i].getConnections() < stats[idx].getConnections())) {
+                    idx = i;
+                    min = b;
+                }
+            }
+            return idx;
+        }
+    },
+
+    /**
+     * Choose two selectors randomly, and assign connections to the one with less connections.
+     * It's nearly as good as {@link #LEAST_CONNECTIONS}, but avoids herd behavior when the
+     * statistics are not updated in time.
+     */
+    POWER_OF_TWO {
+        @Override
+        public int assign(SelectorStats[] stats) {
+            if (stats.length == 1) {
+                return 0;
+            }
+            ThreadLocalRandom rand = ThreadLocalRandom.current();
+            int a = rand.nextInt(stats.length);
+            int b = rand.nextInt(stats.length - 1);
+            if (b >= a) {
+                ++b;
+            }
+            return stats[a].getConnections() <= stats[b].getConnections() ? a : b;
+        }
+    };
+
+}
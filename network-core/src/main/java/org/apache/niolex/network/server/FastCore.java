@@ -19,14 +19,21 @@ package org.apache.niolex.network.server;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.net.SocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.niolex.network.ByteArrayPool;
 import org.apache.niolex.network.Config;
+import org.apache.niolex.network.FilePacketData;
+import org.apache.niolex.network.FramedPacketData;
 import org.apache.niolex.network.IPacketHandler;
+import org.apache.niolex.network.IStreamHandler;
 import org.apache.niolex.network.PacketData;
+import org.apache.niolex.network.UnixSocketUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,6 +60,23 @@ public class FastCore extends BasePacketWriter {
      */
     private static final BufferManager BUFFER_MANAGER = new BufferManager();
 
+    /**
+     * The max number of buffers in one gathering write.
+     */
+    private static final int GATHER_MAX_BUFFERS = 64;
+
+    /**
+     * In the gathering write mode, packet body not larger than this size will be copied
+     * into the direct buffer, larger ones will be sent as a separate buffer.
+     */
+    private static final int GATHER_COPY_THRESHOLD = 1024;
+
+    /**
+     * The empty buffer used to mark a packet body as fully sent without holding the shared
+     * scratch buffer of the selector.
+     */
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
     /**
      * Internal used in FastCore. Please ignore.
      * Status indicate the running status of read and write.
@@ -61,13 +85,15 @@ public class FastCore extends BasePacketWriter {
      * NONE -&gt; Not running
      * HEADER -&gt; Reading(Writing) header
      * BODY -&gt; Reading(Writing) body
+     * FILE -&gt; Writing file region
+     * STREAM -&gt; Delivering body chunks to the stream handler
      * </pre>
      * 
      * @author Xie, Jiyun
      *
      */
     public static enum Status {
-        HEADER, BODY, NONE;
+        HEADER, BODY, NONE, FILE, STREAM;
     }
 
     /**
@@ -76,9 +102,15 @@ public class FastCore extends BasePacketWriter {
     private final IPacketHandler packetHandler;
 
     /**
-     * The server selector holding this handler.
+     * The stream handler to receive the large packets, null to not stream any packet.
+     */
+    private IStreamHandler streamHandler;
+
+    /**
+     * The server selector holding this handler. It will be changed when this connection is
+     * moved to another selector.
      */
-    private final SelectorHolder selector;
+    private volatile SelectorHolder selector;
 
     /**
      * The socket channel this fast core instance is handling.
@@ -88,18 +120,55 @@ public class FastCore extends BasePacketWriter {
     /**
      * The socket selection key of the managed channel.
      */
-    private final SelectionKey selectionKey;
+    private volatile SelectionKey selectionKey;
 
     /**
-     * The head byte buffer.
+     * The load statistics of the selector holding this handler.
      */
-    private final ByteBuffer sendHeadBuffer = ByteBuffer.allocate(8);
-    private final ByteBuffer recvHeadBuffer = ByteBuffer.allocate(8);
+    private volatile SelectorStats stats;
 
     /**
-     * The direct small buffer, for faster send speed.
+     * The head byte buffer. The send one is only used by the large packets, so it's created
+     * on the first use.
      */
-    private final ByteBuffer directBuffer = BUFFER_MANAGER.getBuffer();
+    private ByteBuffer sendHeadBuffer;
+    private final ByteBuffer recvHeadBuffer = ByteBuffer.allocate(Config.PACKET_HEADER_SIZE_V2);
+
+    /**
+     * The direct small buffer, for faster send speed. It's null in the shared send
+     * buffer mode.
+     */
+    private ByteBuffer directBuffer = BUFFER_MANAGER.getBuffer();
+
+    /**
+     * Whether to use the scratch buffer of the selector instead of the private direct buffer.
+     */
+    private boolean sharedSendBuffer;
+
+    /**
+     * The pool to borrow the received packet data array from, null if not pooled.
+     */
+    private ByteArrayPool arrayPool;
+
+    /**
+     * Whether to read data in the aggregation mode.
+     */
+    private boolean readAggregation;
+
+    /**
+     * Whether to write data in the gathering mode.
+     */
+    private boolean gatheringWrite;
+
+    /**
+     * Whether this fast core manages a client side connection.
+     */
+    private boolean clientMode;
+
+    /**
+     * The max number of bytes to be gathered in one write.
+     */
+    private int gatheringWriteBudget = Config.SERVER_GATHERING_WRITE_BUDGET;
 
     /**
      * Current socket write status, attached to the selector or not.
@@ -107,19 +176,62 @@ public class FastCore extends BasePacketWriter {
     private final AtomicBoolean writeAttached = new AtomicBoolean(false);
 
     /**
-     * The client side name of this socket.
+     * The client side address of this socket.
+     */
+    private final SocketAddress remoteAddress;
+
+    /**
+     * The client side name of this socket, built on the first use.
      */
     private String remoteName;
 
+    /**
+     * The last time we read any data from this socket, in milliseconds.
+     */
+    private volatile long lastReadTime;
+
+    /**
+     * The last time we sent any packet to this socket, in milliseconds.
+     */
+    private volatile long lastWriteTime;
+
+    /**
+     * The traffic counters of this connection. They are only updated in the selector thread,
+     * so a plain volatile write is enough, and they can be read in any thread.
+     */
+    private volatile long bytesIn;
+    private volatile long bytesOut;
+    private volatile long packetsIn;
+    private volatile long packetsOut;
+
     /* The send related variable. */
     private ByteBuffer sendBuffer;
     private Status sendStatus;
     private PacketData sendPacket;
+    private long fileSent;
+
+    /* The gathering write related variable. */
+    private ByteBuffer[] gatherBuffers;
+    private PacketData[] gatherPackets;
+    private int gatherOffset;
+    private int gatherCount;
+    private int gatherPacketCount;
+    private int gatherBytes;
 
     /* The receive related variable. */
     private ByteBuffer receiveBuffer;
     private Status receiveStatus;
     private PacketData receivePacket;
+    private int streamRemain;
+
+    /* The selector turn budget related variable. */
+    private long turnBytes;
+    private int turnPackets;
+
+    /* The wire protocol related variable. */
+    private boolean readV2;
+    private boolean writeV2;
+    private PacketData v2Ack;
 
     /**
      * Constructor of FastCore, manage a SocketChannel inside.
@@ -141,20 +253,34 @@ public class FastCore extends BasePacketWriter {
         sendStatus = Status.NONE;
         receiveStatus = Status.HEADER;
         receiveBuffer = getReceiveBuffer();
-        Socket so = channel.socket();
-        // Initialize socket buffer.
-        so.setTcpNoDelay(true);
-        so.setSoLinger(false, 0);
-        so.setSendBufferSize(Config.SO_BUFFER_SIZE);
-        so.setReceiveBufferSize(Config.SO_BUFFER_SIZE);
+        String local;
+        if (UnixSocketUtil.isUnixChannel(channel)) {
+            // The Unix domain socket has no TCP options, and the client address is unnamed.
+            local = UnixSocketUtil.PREFIX + channel.getLocalAddress();
+            remoteAddress = channel.getRemoteAddress();
+            remoteName = local + "-" + Integer.toHexString(System.identityHashCode(this));
+        } else {
+            Socket so = channel.socket();
+            // Initialize socket buffer.
+            so.setTcpNoDelay(true);
+            so.setSoLinger(false, 0);
+            so.setSendBufferSize(Config.SO_BUFFER_SIZE);
+            so.setReceiveBufferSize(Config.SO_BUFFER_SIZE);
+            local = "Port " + so.getLocalPort();
+            remoteAddress = so.getRemoteSocketAddress();
+        }
         this.selectionKey = channel.register(selector.getSelector(), SelectionKey.OP_READ, this);
+        this.stats = selector.getStats();
+        stats.connectionOpened(this);
+        lastReadTime = lastWriteTime = System.currentTimeMillis();
 
-        remoteName = so.getRemoteSocketAddress().toString();
-        StringBuilder sb = new StringBuilder();
-        sb.append("Remote Client [").append(remoteName);
-        sb.append("] connected to local Port [").append(so.getLocalPort());
-        sb.append("].");
-        LOG.info(sb.toString());
+        if (LOG.isInfoEnabled()) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Remote Client [").append(getRemoteName());
+            sb.append("] connected to local [").append(local);
+            sb.append("].");
+            LOG.info(sb.toString());
+        }
     }
 
     /**
@@ -163,6 +289,9 @@ public class FastCore extends BasePacketWriter {
      * @return the head buffer
      */
     private ByteBuffer getSendBuffer() {
+        if (sendHeadBuffer == null) {
+            sendHeadBuffer = ByteBuffer.allocate(Config.PACKET_HEADER_SIZE_V2);
+        }
         sendHeadBuffer.clear();
         return sendHeadBuffer;
     }
@@ -174,6 +303,7 @@ public class FastCore extends BasePacketWriter {
      */
     private ByteBuffer getReceiveBuffer() {
         recvHeadBuffer.clear();
+        recvHeadBuffer.limit(PacketData.headerSize(readV2));
         return recvHeadBuffer;
     }
 
@@ -186,6 +316,9 @@ public class FastCore extends BasePacketWriter {
      */
     @Override
     public String getRemoteName() {
+        if (remoteName == null) {
+            remoteName = String.valueOf(remoteAddress);
+        }
         return remoteName;
     }
 
@@ -195,11 +328,11 @@ public class FastCore extends BasePacketWriter {
      *
      * Override super method
      * 
-     * @see org.apache.niolex.network.server.BasePacketWriter#handleWrite(org.apache.niolex.network.PacketData)
+     * @see org.apache.niolex.network.server.BasePacketWriter#handleWrite(org.apache.niolex.network.PacketData, org.apache.niolex.network.server.SendLane)
      */
     @Override
-    public void handleWrite(PacketData sc) {
-        super.handleWrite(sc);
+    public void handleWrite(PacketData sc, SendLane lane) {
+        super.handleWrite(sc, lane);
         // Signal the selector there is data to write.
         if (writeAttached.compareAndSet(false, true)) {
             selector.attacheWrite(selectionKey);
@@ -214,11 +347,18 @@ public class FastCore extends BasePacketWriter {
      * Read status change summary:
      * HEADER -&gt; Need read header, means nothing is read by now
      * BODY -&gt; Header is read, need to read body now
+     * STREAM -&gt; Header is read, need to stream body to the stream handler
      * </pre>
      * 
      * @return true if there are some more data needs to be read.
      */
     public boolean handleRead() {
+        if (readAggregation) {
+            return handleAggregateRead();
+        }
+        if (receiveStatus == Status.STREAM) {
+            return handleStreamRead();
+        }
         try {
             int k = socketChannel.read(receiveBuffer);
             if (k < 0) {
@@ -226,14 +366,22 @@ public class FastCore extends BasePacketWriter {
                 handleClose();
                 return false;
             }
+            recordRead(k);
+            if (k > 0) {
+                lastReadTime = System.currentTimeMillis();
+            }
             if (!receiveBuffer.hasRemaining()) {
                 receiveBuffer.flip();
                 if (receiveStatus == Status.HEADER) {
                     receivePacket = new PacketData();
-                    receivePacket.parseHeader(receiveBuffer);
+                    receivePacket.readHeader(receiveBuffer, readV2);
+                    if (startStream()) {
+                        return true;
+                    }
+                    receivePacket.allocate(arrayPool);
                     receiveBuffer = ByteBuffer.wrap(receivePacket.getData());
                     receiveStatus = Status.BODY;
-                    socketChannel.read(receiveBuffer);
+                    recordRead(socketChannel.read(receiveBuffer));
                     if (!receiveBuffer.hasRemaining()) {
                         packetFinished();
                         return true;
@@ -251,22 +399,253 @@ public class FastCore extends BasePacketWriter {
         return false;
     }
 
+    /**
+     * Handle read request of the streamed packet body. We read the body chunk into the direct
+     * read buffer of the selector, and deliver it to the stream handler directly.
+     *
+     * @return true if there are some more data needs to be read.
+     */
+    protected boolean handleStreamRead() {
+        try {
+            ByteBuffer readBuffer = selector.getReadBuffer();
+            readBuffer.clear();
+            if (readBuffer.capacity() > streamRemain) {
+                readBuffer.limit(streamRemain);
+            }
+            int want = readBuffer.limit();
+            int k = socketChannel.read(readBuffer);
+            if (k < 0) {
+                // This socket is closed now.
+                handleClose();
+                return false;
+            }
+            recordRead(k);
+            if (k > 0) {
+                lastReadTime = System.currentTimeMillis();
+                readBuffer.flip();
+                streamChunk(readBuffer);
+            }
+            // Either the packet is finished or the read buffer is full.
+            return k == want;
+        } catch (Exception e) {
+            LOG.info("Failed to read data from client socket: {}", e.toString());
+            handleClose();
+        }
+        return false;
+    }
+
+    /**
+     * Handle read request in the aggregation mode. called by NIO selector's looping thread.
+     * <br>
+     * We read as much data as possible into the direct read buffer of the selector, and then
+     * slice all the complete packets out of it. The partial packet will be kept in the
+     * receive buffer, and will be finished by the following reads.
+     *
+     * @return true if there are some more data needs to be read.
+     */
+    protected boolean handleAggregateRead() {
+        try {
+            ByteBuffer readBuffer = selector.getReadBuffer();
+            readBuffer.clear();
+            int k = socketChannel.read(readBuffer);
+            if (k < 0) {
+                // This socket is closed now.
+                handleClose();
+                return false;
+            }
+            recordRead(k);
+            if (k > 0) {
+                lastReadTime = System.currentTimeMillis();
+            }
+            readBuffer.flip();
+            decodePackets(readBuffer);
+            // If the read buffer is full, there may be more data in the socket.
+            return k == readBuffer.capacity();
+        } catch (Exception e) {
+            LOG.info("Failed to read data from client socket: {}", e.toString());
+            handleClose();
+        }
+        return false;
+    }
+
+    /**
+     * The frame decoder of the aggregation mode. Slice all the complete packets out of
+     * the read buffer, and copy the remaining partial packet into the receive buffer.
+     *
+     * @param readBuffer the read buffer ready to be read from
+     */
+    private void decodePackets(ByteBuffer readBuffer) {
+        while (readBuffer.hasRemaining()) {
+            if (receiveStatus == Status.STREAM) {
+                // Deliver the body chunk in place.
+                int limit = readBuffer.limit();
+                if (readBuffer.remaining() > streamRemain) {
+                    readBuffer.limit(readBuffer.position() + streamRemain);
+                }
+                ByteBuffer chunk = readBuffer.slice();
+                readBuffer.position(readBuffer.limit());
+                readBuffer.limit(limit);
+                streamChunk(chunk);
+                continue;
+            }
+            transfer(readBuffer, receiveBuffer);
+            if (receiveBuffer.hasRemaining()) {
+                // Partial packet, wait for the next read.
+                return;
+            }
+            if (receiveStatus == Status.HEADER) {
+                receiveBuffer.flip();
+                receivePacket = new PacketData();
+                receivePacket.readHeader(receiveBuffer, readV2);
+                if (startStream()) {
+                    continue;
+                }
+                receivePacket.allocate(arrayPool);
+                receiveBuffer = ByteBuffer.wrap(receivePacket.getData());
+                receiveStatus = Status.BODY;
+                if (receivePacket.getLength() == 0) {
+                    packetFinished();
+                }
+            } else {
+                packetFinished();
+            }
+        }
+    }
+
+    /**
+     * Check whether the received packet header should be streamed, and start streaming it if so.
+     * The heart beat and the protocol negotiation packets are never streamed.
+     *
+     * @return true if the packet is streamed
+     * @throws IllegalStateException if the packet is larger than the stream limit
+     */
+    private boolean startStream() {
+        short code = receivePacket.getCode();
+        if (streamHandler == null || code == Config.CODE_HEART_BEAT || code == Config.CODE_PROTOCOL_V2) {
+            return false;
+        }
+        int limit = streamHandler.getStreamLimit(code);
+        if (limit <= 0) {
+            return false;
+        }
+        int length = receivePacket.getLength();
+        if (length < 0 || length > limit) {
+            throw new IllegalStateException("The stream length is larger than the limit: " + length);
+        }
+        receiveStatus = Status.STREAM;
+        streamRemain = length;
+        streamHandler.streamStart(receivePacket, this);
+        if (length == 0) {
+            streamFinished();
+        }
+        return true;
+    }
+
+    /**
+     * Deliver the body chunk to the stream handler, and finish the stream if all the body
+     * is delivered.
+     *
+     * @param chunk the body chunk
+     */
+    private void streamChunk(ByteBuffer chunk) {
+        streamRemain -= chunk.remaining();
+        streamHandler.streamChunk(receivePacket, chunk, this);
+        if (streamRemain == 0) {
+            streamFinished();
+        }
+    }
+
+    /**
+     * All the body of the streamed packet is delivered, init another read cycle.
+     */
+    private void streamFinished() {
+        LOG.debug("Packet streamed. desc {}, size {}.", receivePacket.descriptor(), receivePacket.getLength());
+        stats.packetReceived(receivePacket.getLength());
+        ++packetsIn;
+        ++turnPackets;
+        // Change status first, so we will not abort this stream if the handler throws.
+        receiveStatus = Status.HEADER;
+        receiveBuffer = getReceiveBuffer();
+        streamHandler.streamEnd(receivePacket, this);
+    }
+
+    /**
+     * Transfer as much data as possible from the source buffer into the destination buffer.
+     *
+     * @param src the source buffer
+     * @param dst the destination buffer
+     */
+    private static void transfer(ByteBuffer src, ByteBuffer dst) {
+        if (src.remaining() <= dst.remaining()) {
+            dst.put(src);
+        } else {
+            int limit = src.limit();
+            src.limit(src.position() + dst.remaining());
+            dst.put(src);
+            src.limit(limit);
+        }
+    }
+
     /**
      * Read packet finished, we need to invoke packet handler, and
      * init another read cycle.
+     * <br>
+     * The packet is released after the packet handler returns, so the data array can
+     * be reused if it's borrowed from the array pool.
+     *
+     * @see PacketData#retain()
      */
     public void packetFinished() {
         LOG.debug("Packet received. desc {}, size {}.", receivePacket.descriptor(), receivePacket.getLength());
+        stats.packetReceived(receivePacket.getLength());
+        ++packetsIn;
+        ++turnPackets;
         // We send heart beat back directly, without notifying the packet handler.
+        // The client side just ignores the heart beat echoed by the server.
         if (receivePacket.getCode() == Config.CODE_HEART_BEAT) {
-            handleWrite(receivePacket);
+            if (!clientMode) {
+                handleWrite(receivePacket);
+            }
+        } else if (receivePacket.getCode() == Config.CODE_PROTOCOL_V2 && !readV2 && !clientMode) {
+            negotiateV2();
         } else {
-            packetHandler.handlePacket(receivePacket, this);
+            try {
+                packetHandler.handlePacket(receivePacket, this);
+            } finally {
+                receivePacket.release();
+            }
         }
         receiveStatus = Status.HEADER;
         receiveBuffer = getReceiveBuffer();
     }
 
+    /**
+     * The client asks for the version 2 wire protocol. We read the 12 bytes header from
+     * the next packet on, and write the 12 bytes header after the acknowledge packet.
+     */
+    private void negotiateV2() {
+        PacketData ack = new PacketData(Config.CODE_PROTOCOL_V2);
+        ack.setVersion((byte) 2);
+        ack.setReserved((byte) 1);
+        readV2 = true;
+        v2Ack = ack;
+        handleWrite(ack);
+        LOG.debug("Remote Client [{}] switched to the version 2 wire protocol.", getRemoteName());
+    }
+
+    /**
+     * The header of this packet is put into the send buffer, switch the write side wire
+     * protocol if it's the acknowledge packet.
+     *
+     * @param pk the packet
+     */
+    private void headerPut(PacketData pk) {
+        if (pk == v2Ack) {
+            writeV2 = true;
+            v2Ack = null;
+        }
+    }
+
     /**
      * Handle write request. called by NIO selector's looping thread.
      * Send packets to client when network is free.
@@ -276,30 +655,37 @@ public class FastCore extends BasePacketWriter {
      * NONE -&gt; Nothing is sending now
      * HEADER -&gt; Sending a packet, header now
      * BODY -&gt; Sending a packet body
+     * FILE -&gt; Sending a file packet body
      * </pre>
      * 
      * @return true if there are some more free space to write to.
      */
     public boolean handleWrite() {
+        if (gatheringWrite) {
+            return handleGatheringWrite();
+        }
         try {
             if (sendStatus == Status.NONE) {
                 return sendNewPacket();
+            } else if (sendStatus == Status.FILE) {
+                return transferFile() && packetSent();
             } else {
                 if (sendBuffer.hasRemaining()) {
-                    socketChannel.write(sendBuffer);
+                    recordWrite(socketChannel.write(sendBuffer));
                     return !sendBuffer.hasRemaining();
                 } else {
                     if (sendStatus == Status.HEADER) {
+                        if (sendPacket instanceof FilePacketData) {
+                            sendStatus = Status.FILE;
+                            fileSent = 0;
+                            return transferFile() && packetSent();
+                        }
                         sendStatus = Status.BODY;
                         sendBuffer = ByteBuffer.wrap(sendPacket.getData());
-                        socketChannel.write(sendBuffer);
+                        recordWrite(socketChannel.write(sendBuffer));
                         return !sendBuffer.hasRemaining();
                     } else {
-                        // Tell listener this packet has been sent just now.
-                        this.fireSendEvent(sendPacket);
-                        sendStatus = Status.NONE;
-                        LOG.debug("Packet sent. desc {}, size {}.", sendPacket.descriptor(), sendPacket.getLength());
-                        return sendNewPacket();
+                        return packetSent();
                     }
                 }
             }
@@ -310,6 +696,48 @@ public class FastCore extends BasePacketWriter {
         return false;
     }
 
+    /**
+     * The current packet is sent, fire the send event and start to send a new packet.
+     *
+     * @return true if there are some more free space to write to.
+     * @throws IOException if I/O error occurred
+     */
+    private boolean packetSent() throws IOException {
+        // Tell listener this packet has been sent just now.
+        this.fireSendEvent(sendPacket);
+        stats.packetSent(sendPacket.getLength());
+        ++packetsOut;
+        ++turnPackets;
+        lastWriteTime = System.currentTimeMillis();
+        sendStatus = Status.NONE;
+        LOG.debug("Packet sent. desc {}, size {}.", sendPacket.descriptor(), sendPacket.getLength());
+        return sendNewPacket();
+    }
+
+    /**
+     * Transfer the file region of the current file packet directly into the socket channel.
+     *
+     * @return true if the whole file region is sent, false if the socket send buffer is full.
+     * @throws IOException if I/O error occurred or the file is truncated
+     */
+    private boolean transferFile() throws IOException {
+        FilePacketData fp = (FilePacketData) sendPacket;
+        FileChannel fc = fp.getFileChannel();
+        while (fileSent < fp.getLength()) {
+            long k = fc.transferTo(fp.getPosition() + fileSent, fp.getLength() - fileSent, socketChannel);
+            if (k == 0) {
+                if (fp.getPosition() + fileSent >= fc.size()) {
+                    throw new IOException("The file is truncated, expected length " + fp.getLength()
+                            + ", sent " + fileSent);
+                }
+                return false;
+            }
+            fileSent += k;
+            recordWrite(k);
+        }
+        return true;
+    }
+
     /**
      * Start to send a new packet.
      * If there is nothing to send, we will detach the write operation from selection key.
@@ -321,26 +749,37 @@ public class FastCore extends BasePacketWriter {
         sendPacket = super.handleNext();
         // If there is no packet in the queue, we try to reset attach flag.
         if (sendPacket == null) {
-            // We set this flag to false, and we are definitely in the event looping thread. So if others
-            // want to send some data, it will attach the write operation again, but not immediately, it's
-            // a delayed operation, because we can only attach write operation in the event looping thread.
-            // So there's no concurrent problem here.
-            writeAttached.set(false);
-            // After we set the flag, we check the queue again.
-            if (isEmpty()) {
-                // Nothing to send, remove the OP_WRITE from selector.
-                selectionKey.interestOps(SelectionKey.OP_READ);
-                return false;
-            } else {
-                // Queue is not empty, we return true, system will redo the packet handle.
-                writeAttached.set(true);
-                return true;
-            }
+            return detachWrite();
         } else {
             return doSendNewPacket();
         }
     }
 
+    /**
+     * There is nothing to send, we will detach the write operation from selection key.
+     *
+     * @return true if there are some packets added to the queue concurrently.
+     */
+    private boolean detachWrite() {
+        // We set this flag to false, and we are definitely in the event looping thread. So if others
+        // want to send some data, it will attach the write operation again, but not immediately, it's
+        // a delayed operation, because we can only attach write operation in the event looping thread.
+        // So there's no concurrent problem here.
+        writeAttached.set(false);
+        // After we set the flag, we check the queue again.
+        if (isEmpty()) {
+            // Nothing to send, remove the OP_WRITE from selector. We also release the send
+            // buffer, it may hold the body of the last large packet.
+            selectionKey.interestOps(SelectionKey.OP_READ);
+            sendBuffer = null;
+            return false;
+        } else {
+            // Queue is not empty, we return true, system will redo the packet handle.
+            writeAttached.set(true);
+            return true;
+        }
+    }
+
     /**
      * Do really send the packet.
      *
@@ -348,22 +787,496 @@ public class FastCore extends BasePacketWriter {
      * @throws IOException if I/O error occurred
      */
     private boolean doSendNewPacket() throws IOException {
-        if (sendPacket.getLength() + 8 <= DIRECT_BUFFER_SIZE) {
+        if (sendPacket instanceof FramedPacketData) {
+            // The packet is framed already, we send a view of the shared frame.
+            sendStatus = Status.BODY;
+            sendBuffer = ((FramedPacketData) sendPacket).getFrame(writeV2);
+            recordWrite(socketChannel.write(sendBuffer));
+            return !sendBuffer.hasRemaining();
+        }
+        if (sendPacket.getLength() + PacketData.headerSize(writeV2) <= DIRECT_BUFFER_SIZE
+                && !(sendPacket instanceof FilePacketData)) {
             // We send small packets in just one buffer.
             sendStatus = Status.BODY;
-            sendBuffer = directBuffer;
+            sendBuffer = scratchBuffer();
             sendBuffer.clear();
-            sendPacket.putHeader(sendBuffer);
+            sendPacket.putHeader(sendBuffer, writeV2);
             sendBuffer.put(sendPacket.getData());
         } else {
             // Packet too large, we will send it multiple times.
             sendStatus = Status.HEADER;
             sendBuffer = getSendBuffer();
-            sendPacket.putHeader(sendBuffer);
+            sendPacket.putHeader(sendBuffer, writeV2);
         }
+        headerPut(sendPacket);
         sendBuffer.flip();
-        socketChannel.write(sendBuffer);
-        return !sendBuffer.hasRemaining();
+        recordWrite(socketChannel.write(sendBuffer));
+        if (!sendBuffer.hasRemaining()) {
+            if (sharedSendBuffer && sendStatus == Status.BODY) {
+                // The scratch buffer will be used by other connections, and maybe by another
+                // selector thread after rebalance, so we must not keep it after this call.
+                sendBuffer = EMPTY_BUFFER;
+            }
+            return true;
+        }
+        if (sharedSendBuffer && sendStatus == Status.BODY) {
+            sendBuffer = keepLeftover(sendBuffer);
+        }
+        return false;
+    }
+
+    /**
+     * Get the buffer to put the small packets in.
+     *
+     * @return the selector scratch buffer in the shared send buffer mode, or the private
+     * direct buffer otherwise
+     */
+    private ByteBuffer scratchBuffer() {
+        return sharedSendBuffer ? selector.getWriteBuffer() : directBuffer;
+    }
+
+    /**
+     * Copy the unsent data out of the selector scratch buffer, because the scratch buffer
+     * will be used by other connections.
+     *
+     * @param bb the buffer slice of the scratch buffer
+     * @return the heap buffer containing the unsent data
+     */
+    private static ByteBuffer keepLeftover(ByteBuffer bb) {
+        ByteBuffer left = ByteBuffer.allocate(bb.remaining());
+        left.put(bb);
+        left.flip();
+        return left;
+    }
+
+    /**
+     * Handle write request in the gathering mode. called by NIO selector's looping thread.
+     * <br>
+     * We drain as many packets as possible from the queue, bounded by the gathering write
+     * budget, and send all of them in one gathering write. The send events are fired after
+     * the whole batch is sent. A file packet ends the batch, the file region is transfered
+     * after all the gathered buffers are sent.
+     *
+     * @return true if there are some more free space to write to.
+     */
+    protected boolean handleGatheringWrite() {
+        try {
+            if (gatherOffset == gatherCount && sendStatus != Status.FILE && !prepareGather()) {
+                return detachWrite();
+            }
+            if (gatherOffset < gatherCount) {
+                recordWrite(socketChannel.write(gatherBuffers, gatherOffset, gatherCount - gatherOffset));
+                while (gatherOffset < gatherCount && !gatherBuffers[gatherOffset].hasRemaining()) {
+                    gatherBuffers[gatherOffset++] = null;
+                }
+                if (gatherOffset < gatherCount) {
+                    // The socket send buffer is full.
+                    if (sharedSendBuffer) {
+                        for (int i = gatherOffset; i < gatherCount; ++i) {
+                            // The shared frames are read only, they are never reused.
+                            if (gatherBuffers[i].isDirect() && !gatherBuffers[i].isReadOnly()) {
+                                gatherBuffers[i] = keepLeftover(gatherBuffers[i]);
+                            }
+                        }
+                    }
+                    return false;
+                }
+            }
+            if (sendStatus == Status.FILE) {
+                // The file packet is always the last one in the batch.
+                if (!transferFile()) {
+                    return false;
+                }
+                sendStatus = Status.NONE;
+                sendPacket = null;
+            }
+            for (int i = 0; i < gatherPacketCount; ++i) {
+                // Tell listener this packet has been sent just now.
+                this.fireSendEvent(gatherPackets[i]);
+                stats.packetSent(gatherPackets[i].getLength());
+                gatherPackets[i] = null;
+            }
+            if (gatherPacketCount > 0) {
+                lastWriteTime = System.currentTimeMillis();
+                packetsOut += gatherPacketCount;
+                turnPackets += gatherPacketCount;
+            }
+            LOG.debug("Packets sent. count {}, size {}.", gatherPacketCount, gatherBytes);
+            // If the budget is used up, we stop here and give other channels a chance.
+            return gatherBytes < gatheringWriteBudget;
+        } catch (Exception e) {
+            LOG.info("Failed to send data to client socket: {}", e.toString());
+            handleClose();
+        }
+        return false;
+    }
+
+    /**
+     * Drain packets from the queue into the gather buffers. Packet headers and small bodies
+     * are copied into the direct buffer, large bodies and the framed packets are sent as
+     * they are.
+     *
+     * @return true if there is at least one packet to send
+     */
+    private boolean prepareGather() {
+        if (gatherBuffers == null) {
+            gatherBuffers = new ByteBuffer[GATHER_MAX_BUFFERS];
+            gatherPackets = new PacketData[GATHER_MAX_BUFFERS];
+        }
+        gatherOffset = gatherCount = gatherPacketCount = gatherBytes = 0;
+        ByteBuffer scratch = scratchBuffer();
+        scratch.clear();
+        int segStart = 0;
+        PacketData pk;
+        // Every packet uses at most 2 buffers, and we need one more for the last segment.
+        while (gatherCount + 3 <= GATHER_MAX_BUFFERS && gatherBytes < gatheringWriteBudget
+                && scratch.remaining() >= Config.PACKET_HEADER_SIZE_V2 && (pk = super.handleNext()) != null) {
+            gatherPackets[gatherPacketCount++] = pk;
+            gatherBytes += pk.getLength() + PacketData.headerSize(writeV2);
+            if (pk instanceof FramedPacketData) {
+                segStart = closeSegment(scratch, segStart);
+                gatherBuffers[gatherCount++] = ((FramedPacketData) pk).getFrame(writeV2);
+                continue;
+            }
+            pk.putHeader(scratch, writeV2);
+            headerPut(pk);
+            if (pk instanceof FilePacketData) {
+                sendPacket = pk;
+                sendStatus = Status.FILE;
+                fileSent = 0;
+                break;
+            }
+            if (pk.getLength() <= GATHER_COPY_THRESHOLD && pk.getLength() <= scratch.remaining()) {
+                scratch.put(pk.getData(), 0, pk.getLength());
+            } else {
+                segStart = closeSegment(scratch, segStart);
+                gatherBuffers[gatherCount++] = ByteBuffer.wrap(pk.getData(), 0, pk.getLength());
+            }
+        }
+        closeSegment(scratch, segStart);
+        return gatherPacketCount > 0;
+    }
+
+    /**
+     * Add the data in the scratch buffer from the segment start to the current position
+     * into the gather buffers, if there is any.
+     *
+     * @param scratch the scratch buffer
+     * @param segStart the segment start position
+     * @return the new segment start position
+     */
+    private int closeSegment(ByteBuffer scratch, int segStart) {
+        int end = scratch.position();
+        if (end > segStart) {
+            ByteBuffer seg = scratch.duplicate();
+            seg.limit(end);
+            seg.position(segStart);
+            gatherBuffers[gatherCount++] = seg;
+        }
+        return end;
+    }
+
+    /**
+     * Set the pool to borrow the received packet data array from. Please set it right after
+     * this fast core is created, before the first read.
+     *
+     * @param arrayPool the array pool, null to not pool data array
+     */
+    public void setArrayPool(ByteArrayPool arrayPool) {
+        this.arrayPool = arrayPool;
+    }
+
+    /**
+     * Set the stream handler to receive the large packets. The packets of the codes streamed
+     * by this handler are delivered to it chunk by chunk instead of to the packet handler.
+     * Please set it right after this fast core is created, before the first read.
+     *
+     * @param streamHandler the stream handler, null to not stream any packet
+     * @see IStreamHandler
+     */
+    public void setStreamHandler(IStreamHandler streamHandler) {
+        this.streamHandler = streamHandler;
+    }
+
+    /**
+     * Set whether to read data in the aggregation mode. In this mode, we read data into
+     * the shared direct read buffer of the selector, so we can read many small packets in
+     * one system call. Please set it right after this fast core is created, before the
+     * first read.
+     *
+     * @param readAggregation true to read data in the aggregation mode
+     */
+    public void setReadAggregation(boolean readAggregation) {
+        this.readAggregation = readAggregation;
+    }
+
+    /**
+     * Set whether this fast core manages a client side connection. In the client mode, we
+     * do not echo the heart beat packets, and do not answer the protocol negotiation.
+     * Please set it right after this fast core is created, before the first read.
+     *
+     * @param clientMode true to use the client mode
+     */
+    public void setClientMode(boolean clientMode) {
+        this.clientMode = clientMode;
+    }
+
+    /**
+     * Set whether to write data in the gathering mode. In this mode, we send many queued
+     * packets in one system call. Please set it right after this fast core is created,
+     * before the first write.
+     *
+     * @param gatheringWrite true to write data in the gathering mode
+     */
+    public void setGatheringWrite(boolean gatheringWrite) {
+        this.gatheringWrite = gatheringWrite;
+    }
+
+    /**
+     * Set the max number of bytes to be gathered in one write. We send at least one
+     * packet in every write no matter how large it is.
+     *
+     * @param gatheringWriteBudget the budget in bytes
+     */
+    public void setGatheringWriteBudget(int gatheringWriteBudget) {
+        this.gatheringWriteBudget = gatheringWriteBudget;
+    }
+
+    /**
+     * Set whether to use the scratch buffer of the selector to send small packets instead
+     * of the private direct buffer. In the shared mode, the private direct buffer is given
+     * back, and only the unsent leftovers are kept by this connection, so the native memory
+     * scales with the active writers instead of the number of connections.
+     * <br>
+     * Please set it right after this fast core is created, before the first write.
+     *
+     * @param sharedSendBuffer true to use the selector scratch buffer
+     */
+    public void setSharedSendBuffer(boolean sharedSendBuffer) {
+        this.sharedSendBuffer = sharedSendBuffer;
+        if (sharedSendBuffer && directBuffer != null) {
+            BUFFER_MANAGER.giveBack(directBuffer);
+            directBuffer = null;
+        } else if (!sharedSendBuffer && directBuffer == null) {
+            directBuffer = BUFFER_MANAGER.getBuffer();
+        }
+    }
+
+    /**
+     * Sum the queued bytes of all the connections into the selector statistics.
+     *
+     * Override super method
+     * @see org.apache.niolex.network.server.BasePacketWriter#queuedBytesChanged(long)
+     */
+    @Override
+    protected void queuedBytesChanged(long delta) {
+        stats.addPendingBytes(delta);
+    }
+
+    /**
+     * The selector thread and the timing wheel thread can not be blocked, they are shared
+     * by many connections.
+     *
+     * Override super method
+     * @see org.apache.niolex.network.server.BasePacketWriter#canBlock()
+     */
+    @Override
+    protected boolean canBlock() {
+        return !selector.isSelectorThread() && !TimingWheel.isWheelThread();
+    }
+
+    /**
+     * We close the channel in the selector thread.
+     *
+     * Override super method
+     * @see org.apache.niolex.network.server.BasePacketWriter#overflowClose()
+     */
+    @Override
+    protected void overflowClose() {
+        close();
+    }
+
+    /**
+     * Close this connection. This method can be invoked in any thread, the channel will be
+     * closed in the selector thread, and the packet handler will be notified as usual.
+     */
+    public void close() {
+        selector.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (socketChannel.isOpen()) {
+                    handleClose();
+                }
+            }
+        });
+    }
+
+    /**
+     * Record one read system call, count the bytes into the selector statistics and the
+     * current turn.
+     *
+     * @param n the number of bytes read
+     */
+    private void recordRead(long n) {
+        stats.recordRead(n);
+        if (n > 0) {
+            bytesIn += n;
+            turnBytes += n;
+        }
+    }
+
+    /**
+     * Record one write system call, count the bytes into the selector statistics and the
+     * current turn.
+     *
+     * @param n the number of bytes written
+     */
+    private void recordWrite(long n) {
+        stats.recordWrite(n);
+        if (n > 0) {
+            bytesOut += n;
+            turnBytes += n;
+        }
+    }
+
+    /**
+     * Start a new selector turn of reading or writing, clear the bytes and packets counted
+     * in the last turn. This method must be invoked in the selector thread.
+     */
+    public void startTurn() {
+        turnBytes = 0;
+        turnPackets = 0;
+    }
+
+    /**
+     * Check whether this connection used up the budget of the current turn. If so, the hit
+     * is recorded in the selector statistics. This method must be invoked in the selector
+     * thread.
+     *
+     * @param maxBytes the max number of bytes of one turn, 0 for no limit
+     * @param maxPackets the max number of packets of one turn, 0 for no limit
+     * @return true if the budget is used up
+     */
+    public boolean isBudgetUsedUp(int maxBytes, int maxPackets) {
+        if ((maxBytes > 0 && turnBytes >= maxBytes) || (maxPackets > 0 && turnPackets >= maxPackets)) {
+            stats.budgetHit();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return whether the socket channel of this connection is still open
+     */
+    public boolean isOpen() {
+        return socketChannel.isOpen();
+    }
+
+    /**
+     * @return the last time we read any data from this socket, in milliseconds
+     */
+    public long getLastReadTime() {
+        return lastReadTime;
+    }
+
+    /**
+     * @return the last time we sent any packet to this socket, in milliseconds
+     */
+    public long getLastWriteTime() {
+        return lastWriteTime;
+    }
+
+    /**
+     * @return the total bytes read from this connection
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * @return the total bytes written to this connection
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * @return the number of packets received from this connection
+     */
+    public long getPacketsIn() {
+        return packetsIn;
+    }
+
+    /**
+     * @return the number of packets sent to this connection
+     */
+    public long getPacketsOut() {
+        return packetsOut;
+    }
+
+    /**
+     * Check whether this connection is idle, i.e. there is no partial packet being read or
+     * written, so it can be moved to another selector safely. This method must be invoked in
+     * the selector thread.
+     *
+     * @return true if this connection is idle
+     */
+    public boolean isIdle() {
+        return sendStatus == Status.NONE && gatherOffset == gatherCount && !writeAttached.get()
+                && receiveStatus == Status.HEADER && receiveBuffer.position() == 0;
+    }
+
+    /**
+     * Move this connection to another selector. This method must be invoked in the current
+     * selector thread, and this connection must be idle.
+     * <br>
+     * We cancel the selection key here, and register the channel to the target selector in
+     * the target selector thread.
+     *
+     * @param target the target selector
+     * @see #isIdle()
+     */
+    public void moveTo(final SelectorHolder target) {
+        selectionKey.cancel();
+        long pending = getQueuedBytes();
+        stats.connectionClosed(this);
+        stats.addPendingBytes(-pending);
+        // Count this connection into the target from now on.
+        stats = target.getStats();
+        stats.connectionOpened(this);
+        stats.addPendingBytes(pending);
+        target.execute(new Runnable() {
+            @Override
+            public void run() {
+                reattach(target);
+            }
+        });
+    }
+
+    /**
+     * Register the channel to the target selector. This method must be invoked in the
+     * target selector thread.
+     *
+     * @param target the target selector
+     */
+    private void reattach(SelectorHolder target) {
+        if (!socketChannel.isOpen()) {
+            // Closed when we are moving.
+            return;
+        }
+        selector = target;
+        try {
+            selectionKey = socketChannel.register(target.getSelector(), SelectionKey.OP_READ, this);
+            // Some packets may be written when we are moving.
+            if (writeAttached.get() || !isEmpty()) {
+                writeAttached.set(true);
+                selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+            LOG.debug("Remote Client [{}] moved to a new selector.", getRemoteName());
+        } catch (Exception e) {
+            LOG.info("Failed to move client socket: {}", e.toString());
+            handleClose();
+        }
     }
 
     /**
@@ -377,11 +1290,30 @@ public class FastCore extends BasePacketWriter {
         try {
             // Close socket and streams.
             socketChannel.close();
-            BUFFER_MANAGER.giveBack(directBuffer);
-            StringBuilder sb = new StringBuilder();
-            sb.append("Remote Client [").append(remoteName);
-            sb.append("] disconnected.");
-            LOG.info(sb.toString());
+            stats.connectionClosed(this);
+            stats.addPendingBytes(-getQueuedBytes());
+            if (directBuffer != null) {
+                BUFFER_MANAGER.giveBack(directBuffer);
+                directBuffer = null;
+            }
+            // Give back the array of the half received packet.
+            if (receiveStatus == Status.BODY) {
+                receivePacket.release();
+            }
+            if (receiveStatus == Status.STREAM) {
+                receiveStatus = Status.HEADER;
+                try {
+                    streamHandler.streamAbort(receivePacket, this);
+                } catch (Exception e) {
+                    LOG.info("Error occurred when invoke {}.streamAbort(..)", streamHandler.getClass().getName(), e);
+                }
+            }
+            if (LOG.isInfoEnabled()) {
+                StringBuilder sb = new StringBuilder();
+                sb.append("Remote Client [").append(getRemoteName());
+                sb.append("] disconnected.");
+                LOG.info(sb.toString());
+            }
         } catch (Exception e) {
             LOG.info("Failed to close client socket: {}", e.toString());
         }
@@ -0,0 +1,126 @@
+/**
+ * IdleStateChecker.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.server;
+
+import org.apache.niolex.network.server.TimingWheel.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Check the read idle and write idle time of one connection in the timing wheel, and close
+ * the connection when it's silent too long. We only check the connection when the nearest
+ * idle time could be reached, so the connections with traffic cost nothing but the time
+ * stamps.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public class IdleStateChecker implements TimingWheel.Task {
+    private static final Logger LOG = LoggerFactory.getLogger(IdleStateChecker.class);
+
+    private final FastCore core;
+    private final TimingWheel wheel;
+    private final int readIdleTime;
+    private final int writeIdleTime;
+
+    /**
+     * Create a new idle state checker.
+     *
+     * @param core the connection to be checked
+     * @param wheel the timing wheel to schedule the check
+     * @param readIdleTime the max read idle time in milliseconds, 0 to disable
+     * @param writeIdleTime the max write idle time in milliseconds, 0 to disable
+     */
+    public IdleStateChecker(FastCore core, TimingWheel wheel, int readIdleTime, int writeIdleTime) {
+        super();
+        this.core = core;
+        this.wheel = wheel;
+        this.readIdleTime = readIdleTime;
+        this.writeIdleTime = writeIdleTime;
+    }
+
+    /**
+     * Schedule the first check of this connection.
+     */
+    public void schedule() {
+        wheel.newTimeout(this, nextCheck(readIdleTime, writeIdleTime));
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.TimingWheel.Task#run(org.apache.niolex.network.server.TimingWheel.Timeout)
+     */
+    @Override
+    public void run(Timeout timeout) {
+        if (!core.isOpen()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long readLeft = 0, writeLeft = 0;
+        if (readIdleTime > 0) {
+            readLeft = core.getLastReadTime() + readIdleTime - now;
+            if (readLeft <= 0) {
+                LOG.info("Remote Client [{}] is read idle for {}ms, close it.", core.getRemoteName(), readIdleTime);
+                core.close();
+                return;
+            }
+        }
+        if (writeIdleTime > 0) {
+            writeLeft = core.getLastWriteTime() + writeIdleTime - now;
+            if (writeLeft <= 0) {
+                LOG.info("Remote Client [{}] is write idle for {}ms, close it.", core.getRemoteName(), writeIdleTime);
+                core.close();
+                return;
+            }
+        }
+        wheel.newTimeout(this, nextCheck(readLeft, writeLeft));
+    }
+
+    /**
+     * Calculate the delay of the next check.
+     *
+     * @param readLeft the read idle time left, 0 if disabled
+     * @param writeLeft the write idle time left, 0 if disabled
+     * @return the delay of the next check
+     */
+    private static long nextCheck(long readLeft, long writeLeft) {
+        if (readLeft <= 0) {
+            return writeLeft;
+        }
+        if (writeLeft <= 0) {
+            return readLeft;
+        }
+        return Math.min(readLeft, writeLeft);
+    }
+
+    /**
+     * @return the max read idle time in milliseconds, 0 if disabled
+     */
+    public int getReadIdleTime() {
+        return readIdleTime;
+    }
+
+    /**
+     * @return the max write idle time in milliseconds, 0 if disabled
+     */
+    public int getWriteIdleTime() {
+        return writeIdleTime;
+    }
+
+}
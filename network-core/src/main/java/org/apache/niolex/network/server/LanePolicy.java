@@ -0,0 +1,194 @@
+/**
+ * LanePolicy.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.server;
+
+import java.util.Arrays;
+
+import org.apache.niolex.network.Config;
+import org.apache.niolex.network.PacketData;
+
+/**
+ * The policy to select the send lane of the packets written to a packet writer. One policy
+ * can be shared by all the connections of a server.
+ * <br>
+ * By default, the heart beat and the system reserved codes go to the control lane, the
+ * packets not smaller than the bulk threshold go to the bulk lane, and all the others go to
+ * the normal lane. User can assign the lane of some packet codes explicitly.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ * @see BasePacketWriter#setLanePolicy(LanePolicy)
+ */
+public class LanePolicy {
+
+    /**
+     * The last code of the user range, the codes above it are system reserved.
+     */
+    private static final int USER_CODE_END = 65500;
+
+    /**
+     * The packets not smaller than this size go to the bulk lane.
+     */
+    private final int bulkThreshold;
+
+    /**
+     * The max number of packets in the higher lanes can be sent while the bulk lane is waiting.
+     */
+    private final int maxBulkDelay;
+
+    /**
+     * The sorted codes assigned to every lane explicitly.
+     */
+    private volatile short[] controlCodes, normalCodes, bulkCodes;
+
+    /**
+     * Create a lane policy.
+     *
+     * @param bulkThreshold the packets not smaller than this body size go to the bulk lane,
+     * 0 to select the bulk lane only by code
+     * @param maxBulkDelay the max number of packets in the higher lanes can be sent while the
+     * bulk lane is waiting, then one bulk packet will be sent
+     * @throws IllegalArgumentException if the bulk threshold is negative or the max bulk delay
+     * is not positive
+     */
+    public LanePolicy(int bulkThreshold, int maxBulkDelay) {
+        super();
+        if (bulkThreshold < 0 || maxBulkDelay < 1) {
+            throw new IllegalArgumentException("Invalid lane policy: " + bulkThreshold + ", " + maxBulkDelay);
+        }
+        this.bulkThreshold = bulkThreshold;
+        this.maxBulkDelay = maxBulkDelay;
+    }
+
+    /**
+     * Assign the packets of these codes to the specified lane, the explicit assignment takes
+     * precedence over the default rules. The later assignment of the same code overrides the
+     * former one.
+     *
+     * @param lane the send lane
+     * @param codes the packet codes
+     */
+    public synchronized void assign(SendLane lane, short... codes) {
+        codes = codes.clone();
+        Arrays.sort(codes);
+        controlCodes = remove(controlCodes, codes);
+        normalCodes = remove(normalCodes, codes);
+        bulkCodes = remove(bulkCodes, codes);
+        switch (lane) {
+            case CONTROL:
+                controlCodes = add(controlCodes, codes);
+                break;
+            case BULK:
+                bulkCodes = add(bulkCodes, codes);
+                break;
+            default:
+                normalCodes = add(normalCodes, codes);
+                break;
+        }
+    }
+
+    /**
+     * Select the send lane of this packet.
+     *
+     * @param sc the packet to be sent
+     * @return the send lane
+     */
+    public SendLane select(PacketData sc) {
+        short code = sc.getCode();
+        if (contains(controlCodes, code)) {
+            return SendLane.CONTROL;
+        }
+        if (contains(normalCodes, code)) {
+            return SendLane.NORMAL;
+        }
+        if (contains(bulkCodes, code)) {
+            return SendLane.BULK;
+        }
+        if (code == Config.CODE_HEART_BEAT || (code & 0xffff) > USER_CODE_END) {
+            return SendLane.CONTROL;
+        }
+        if (bulkThreshold > 0 && sc.getLength() >= bulkThreshold) {
+            return SendLane.BULK;
+        }
+        return SendLane.NORMAL;
+    }
+
+    /**
+     * @return the packets not smaller than this body size go to the bulk lane
+     */
+    public int getBulkThreshold() {
+        return bulkThreshold;
+    }
+
+    /**
+     * @return the max number of packets in the higher lanes can be sent while the bulk lane
+     * is waiting
+     */
+    public int getMaxBulkDelay() {
+        return maxBulkDelay;
+    }
+
+    /**
+     * Check whether the sorted array contains this code.
+     *
+     * @param arr the sorted array, may be null
+     * @param code the code to check
+     * @return true if contains
+     */
+    private static boolean contains(short[] arr, short code) {
+        return arr != null && Arrays.binarySearch(arr, code) >= 0;
+    }
+
+    /**
+     * Create a new sorted array with the codes added.
+     *
+     * @param arr the old array, may be null
+     * @param codes the codes to add
+     * @return the new array
+     */
+    private static short[] add(short[] arr, short[] codes) {
+        int len = arr == null ? 0 : arr.length;
+        short[] r = arr == null ? new short[codes.length] : Arrays.copyOf(arr, len + codes.length);
+        System.arraycopy(codes, 0, r, len, codes.length);
+        Arrays.sort(r);
+        return r;
+    }
+
+    /**
+     * Create a new array with the codes removed.
+     *
+     * @param arr the old sorted array, may be null
+     * @param codes the codes to remove
+     * @return the new array, null if it's empty
+     */
+    private static short[] remove(short[] arr, short[] codes) {
+        if (arr == null) {
+            return null;
+        }
+        short[] r = new short[arr.length];
+        int len = 0;
+        for (short c : arr) {
+            if (!contains(codes, c)) {
+                r[len++] = c;
+            }
+        }
+        return len == 0 ? null : Arrays.copyOf(r, len);
+    }
+
+}
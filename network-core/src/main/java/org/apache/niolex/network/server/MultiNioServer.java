@@ -18,19 +18,29 @@
 package org.apache.niolex.network.server;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.LinkedList;
 import java.util.Set;
 
 import org.apache.niolex.commons.util.SystemUtil;
+import org.apache.niolex.network.Config;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * The MultiNioServer reads and writes packets in multiple threads.
  * This is specially Fast for multiple CPU(CORE) server.
+ * <br>
+ * By default, we accept all the connections in the main thread and hand them over to the
+ * selector threads. If the reuse port mode is enabled and the platform supports SO_REUSEPORT,
+ * every selector thread will own a server socket bound to the same port, and the kernel will
+ * load balance the connections among them.
  *
  * @author Xie, Jiyun
  */
@@ -39,11 +49,47 @@ public class MultiNioServer extends NioServer {
     /* For auto numbering the threads in this pool. */
     private static int threadInitNumber = 0;
 
+    /**
+     * The SO_REUSEPORT socket option, null if it's not supported by the platform.
+     */
+    private static final SocketOption<Boolean> SO_REUSEPORT = findReusePort();
+
+    /**
+     * Find the SO_REUSEPORT socket option by reflection, it's only available since Java 9.
+     *
+     * @return the option, or null if it's not supported
+     */
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> findReusePort() {
+        try {
+            SocketOption<Boolean> opt = (SocketOption<Boolean>) StandardSocketOptions.class
+                    .getField("SO_REUSEPORT").get(null);
+            ServerSocketChannel ssc = ServerSocketChannel.open();
+            try {
+                return ssc.supportedOptions().contains(opt) ? opt : null;
+            } finally {
+                ssc.close();
+            }
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the platform supports SO_REUSEPORT
+     */
+    public static boolean isReusePortSupported() {
+        return SO_REUSEPORT != null;
+    }
+
     // The Thread pool size
     private int threadsNumber = 8;
-    private int currentIdx = 0;
     private ThreadGroup tPool;
     private RunnableSelector[] selectors;
+    private SelectorStats[] selectorStats;
+    private AssignStrategy assignStrategy = DefaultAssignStrategy.ROUND_ROBIN;
+    private boolean reusePort;
+    private boolean multiAcceptor;
 
     /**
      * Create a MultiNioServer with default threads number.
@@ -77,15 +123,33 @@ public class MultiNioServer extends NioServer {
         isListening = true;
         tPool = new ThreadGroup("Selectors");
         selectors = new RunnableSelector[threadsNumber];
+        selectorStats = new SelectorStats[threadsNumber];
+        multiAcceptor = reusePort && isReusePortSupported();
+        if (reusePort && !multiAcceptor) {
+            LOG.warn("SO_REUSEPORT is not supported, fall back to the single acceptor mode.");
+        }
         try {
             for (int i = 0; i < threadsNumber; ++i) {
-                selectors[i] = new RunnableSelector(tPool, "selector-" + threadInitNumber++);
+                ServerSocketChannel acceptor = multiAcceptor && tcpEnabled ? openAcceptor() : null;
+                // There is no main selector, so the first selector accepts the Unix domain socket.
+                ServerSocketChannel unixAcceptor = multiAcceptor && i == 0 && unixPath != null ? openUnixAcceptor() : null;
+                selectors[i] = new RunnableSelector(tPool, "selector-" + threadInitNumber++, acceptor, unixAcceptor);
+                selectorStats[i] = selectors[i].selectorHolder.getStats();
             }
-        } catch (IOException e) {
+        } catch (Exception e) {
             LOG.error("Failed to start MultiNioServer.", e);
+            isListening = false;
+            closeSelectors();
+            closeUnixAcceptor();
             return false;
         }
 
+        if (multiAcceptor) {
+            exportStats();
+            LOG.info("MultiNioServer started at {} with {} acceptor threads.", getPort(), threadsNumber);
+            return true;
+        }
+
         // Then, start the server.
         boolean started = super.start();
         if (!started) {
@@ -96,7 +160,29 @@ public class MultiNioServer extends NioServer {
     }
 
     /**
-     * Using multiple selectors to handle client sockets.
+     * Open a server socket channel bound with SO_REUSEPORT.
+     *
+     * @return the server socket channel
+     * @throws IOException if I/O related error occurred
+     */
+    private ServerSocketChannel openAcceptor() throws IOException {
+        ServerSocketChannel ssc = ServerSocketChannel.open();
+        try {
+            ssc.configureBlocking(false);
+            ssc.setOption(StandardSocketOptions.SO_RCVBUF, Config.SO_BUFFER_SIZE);
+            ssc.setOption(StandardSocketOptions.SO_REUSEADDR, Config.SO_REUSEADDR);
+            ssc.setOption(SO_REUSEPORT, true);
+            ssc.bind(new InetSocketAddress(getPort()), Config.SO_BACKLOG);
+            return ssc;
+        } catch (IOException e) {
+            SystemUtil.close(ssc);
+            throw e;
+        }
+    }
+
+    /**
+     * Using multiple selectors to handle client sockets. The selector is chosen by
+     * the assign strategy.
      *
      * Override super method
      * 
@@ -104,11 +190,47 @@ public class MultiNioServer extends NioServer {
      */
     @Override
     protected void registerClient(SocketChannel client) throws IOException {
-        currentIdx = (currentIdx + 1) % selectors.length;
-        RunnableSelector runSelec = selectors[currentIdx];
+        RunnableSelector runSelec = selectors[assignStrategy.assign(selectorStats)];
         runSelec.registerClient(client);
     }
 
+    /**
+     * Move some idle connections from the selector with the most connections to the selector
+     * with the least connections, so that they have nearly the same number of connections.
+     * <br>
+     * This method returns immediately, the connections are moved in the selector threads
+     * asynchronously. Connections which are reading or writing packets will not be moved.
+     *
+     * @return the number of connections requested to be moved
+     */
+    public int rebalance() {
+        if (!isListening) {
+            return 0;
+        }
+        int max = 0, min = 0;
+        for (int i = 1; i < selectorStats.length; ++i) {
+            if (selectorStats[i].getConnections() > selectorStats[max].getConnections()) {
+                max = i;
+            }
+            if (selectorStats[i].getConnections() < selectorStats[min].getConnections()) {
+                min = i;
+            }
+        }
+        final int cnt = (selectorStats[max].getConnections() - selectorStats[min].getConnections()) / 2;
+        if (cnt > 0) {
+            final RunnableSelector from = selectors[max];
+            final SelectorHolder to = selectors[min].selectorHolder;
+            from.selectorHolder.execute(new Runnable() {
+                @Override
+                public void run() {
+                    from.moveIdleClients(to, cnt);
+                }
+            });
+            LOG.info("Rebalance {} connections from {} to {}.", cnt, max, min);
+        }
+        return cnt;
+    }
+
     /**
      * Invoke super stop internally.
      * Then stop the internal worker pool.
@@ -118,10 +240,27 @@ public class MultiNioServer extends NioServer {
         if (!isListening) {
             return;
         }
-        super.stop();
+        if (multiAcceptor) {
+            // There is no main thread, the server sockets are closed with the selectors.
+            isListening = false;
+            unexportStats();
+            closeUnixAcceptor();
+        } else {
+            super.stop();
+        }
+        closeSelectors();
+        stopTimingWheel();
+    }
+
+    /**
+     * Close all the internal selectors.
+     */
+    private void closeSelectors() {
         try {
             for (int i = 0; i < selectors.length; ++i) {
-                selectors[i].close();
+                if (selectors[i] != null) {
+                    selectors[i].close();
+                }
             }
         } catch (Exception e) {
             LOG.error("Failed to stop MultiNioServer.", e);
@@ -151,6 +290,61 @@ public class MultiNioServer extends NioServer {
         this.threadsNumber = threadsNumber;
     }
 
+    /**
+     * @return whether to use the reuse port mode
+     */
+    public boolean isReusePort() {
+        return reusePort;
+    }
+
+    /**
+     * Set whether to use the reuse port mode. In this mode, every selector thread owns a
+     * server socket bound with SO_REUSEPORT to the same port, and accepts connections by
+     * itself. If the platform does not support SO_REUSEPORT, we fall back to the default
+     * single acceptor mode.
+     * <br>
+     * You need to set this before call the start method, or it will throw an exception.
+     *
+     * @param reusePort true to use the reuse port mode
+     * @throws IllegalStateException if invoked after the server was started
+     * @see #isReusePortSupported()
+     */
+    public void setReusePort(boolean reusePort) {
+        if (isListening)
+            throw new IllegalStateException("reusePort can not be changed if server is running.");
+        this.reusePort = reusePort;
+    }
+
+    /**
+     * @return the strategy to assign new connections to selectors
+     */
+    public AssignStrategy getAssignStrategy() {
+        return assignStrategy;
+    }
+
+    /**
+     * Set the strategy to assign new connections to selectors. The default is
+     * {@link DefaultAssignStrategy#ROUND_ROBIN}. This strategy is not used in the reuse
+     * port mode, connections are assigned by the kernel.
+     *
+     * @param assignStrategy the assign strategy to set
+     */
+    public void setAssignStrategy(AssignStrategy assignStrategy) {
+        this.assignStrategy = assignStrategy;
+    }
+
+    /**
+     * Get the load statistics of all the worker selectors. The main selector only accepts
+     * new connections, so it's not included.
+     *
+     * Override super method
+     * @see org.apache.niolex.network.server.NioServer#getSelectorStats()
+     */
+    @Override
+    public SelectorStats[] getSelectorStats() {
+        return selectorStats;
+    }
+
     /**
      * Run the wrapped selector endlessly in each separate thread.
      *
@@ -164,11 +358,25 @@ public class MultiNioServer extends NioServer {
         private final Thread thread;
         private final SelectorHolder selectorHolder;
 
-        public RunnableSelector(ThreadGroup tPool, String name) throws IOException {
+        /**
+         * Create a selector and start the thread to run it.
+         *
+         * @param tPool the thread group
+         * @param name the thread name
+         * @param acceptors the server sockets owned by this selector, null items are ignored
+         * @throws IOException if I/O errors occurred
+         */
+        public RunnableSelector(ThreadGroup tPool, String name, ServerSocketChannel... acceptors) throws IOException {
             super();
             this.selector = Selector.open();
             this.thread = new Thread(tPool, this, name);
             this.selectorHolder = new SelectorHolder(thread, selector);
+            for (ServerSocketChannel acceptor : acceptors) {
+                if (acceptor != null) {
+                    // Register it before the thread start, so we will not be blocked by select.
+                    acceptor.register(selector, SelectionKey.OP_ACCEPT, selectorHolder);
+                }
+            }
             thread.start();
         }
 
@@ -222,6 +430,26 @@ public class MultiNioServer extends NioServer {
             }
         }
 
+        /**
+         * Move at most the specified number of idle clients to the target selector.
+         * This method must be invoked in this selector thread.
+         *
+         * @param target the target selector
+         * @param cnt the max number of clients to move
+         */
+        public void moveIdleClients(SelectorHolder target, int cnt) {
+            for (SelectionKey skey : selector.keys()) {
+                if (cnt <= 0) {
+                    break;
+                }
+                Object att = skey.attachment();
+                if (skey.isValid() && att instanceof FastCore && ((FastCore) att).isIdle()) {
+                    ((FastCore) att).moveTo(target);
+                    --cnt;
+                }
+            }
+        }
+
         /**
          * Add all the clients into this selector now.
          *
@@ -231,7 +459,7 @@ public class MultiNioServer extends NioServer {
             // Check the status, if there is any clients need to attach.
             SocketChannel client = null;
             while ((client = clientQueue.poll()) != null) {
-                new FastCore(packetHandler, selectorHolder, client);
+                createFastCore(selectorHolder, client);
             }
         }
 
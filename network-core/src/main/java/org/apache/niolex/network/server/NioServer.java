@@ -18,6 +18,7 @@
 package org.apache.niolex.network.server;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.nio.channels.CancelledKeyException;
@@ -26,12 +27,22 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.apache.niolex.commons.util.SystemUtil;
+import org.apache.niolex.network.ByteArrayPool;
 import org.apache.niolex.network.Config;
 import org.apache.niolex.network.IPacketHandler;
 import org.apache.niolex.network.IServer;
+import org.apache.niolex.network.IStreamHandler;
+import org.apache.niolex.network.UnixSocketUtil;
+import org.apache.niolex.network.adapter.OrderedDispatchAdapter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,6 +63,11 @@ public class NioServer implements IServer, Runnable {
      */
     private ServerSocketChannel ss;
 
+    /**
+     * The Unix domain server socket channel, null if not listening on a Unix domain socket.
+     */
+    private ServerSocketChannel uss;
+
     /**
      * The server accept and read selector, which is the main selector.
      */
@@ -87,6 +103,103 @@ public class NioServer implements IServer, Runnable {
      */
     protected int port = Config.SERVER_DEFAULT_PORT;
 
+    /**
+     * Whether to listen on the TCP port.
+     */
+    protected boolean tcpEnabled = true;
+
+    /**
+     * The Unix domain socket file path to listen on, null if not used.
+     */
+    protected String unixPath;
+
+    /**
+     * The pool to borrow the received packet data array from, null if not pooled.
+     */
+    protected ByteArrayPool arrayPool;
+
+    /**
+     * Whether to read data in the aggregation mode.
+     */
+    protected boolean readAggregation;
+
+    /**
+     * Whether to write data in the gathering mode.
+     */
+    protected boolean gatheringWrite;
+
+    /**
+     * The max number of bytes to be sent in one gathering write.
+     */
+    protected int gatheringWriteBudget = Config.SERVER_GATHERING_WRITE_BUDGET;
+
+    /**
+     * Whether the connections use the scratch buffer of the selector to send data.
+     */
+    protected boolean sharedSendBuffer;
+
+    /**
+     * The send queue water marks of every connection, 0 means no limit.
+     */
+    protected int lowWaterMark, highWaterMark;
+
+    /**
+     * The policy to deal with the packets written above the high water mark.
+     */
+    protected OverflowPolicy overflowPolicy = OverflowPolicy.NOTIFY;
+
+    /**
+     * The policy to select the send lane of every connection, null to not use lanes.
+     */
+    protected LanePolicy lanePolicy;
+
+    /**
+     * The executor to run the packet handler in the ordered dispatch mode, null to run the
+     * packet handler in the selector threads.
+     */
+    protected Executor dispatchExecutor;
+
+    /**
+     * The max number of packets waiting to be handled for one connection.
+     */
+    protected int dispatchQueueSize = Config.SERVER_DISPATCH_QUEUE_SIZE;
+
+    /**
+     * The adapter to dispatch packets to the executor, null if not in the ordered dispatch mode.
+     */
+    private OrderedDispatchAdapter dispatchAdapter;
+
+    /**
+     * The stream handler to receive the large packets, null to not stream any packet.
+     */
+    protected IStreamHandler streamHandler;
+
+    /**
+     * The max read idle and write idle time of the connections in milliseconds, 0 to disable.
+     */
+    protected int readIdleTime, writeIdleTime;
+
+    /**
+     * The max number of bytes and packets one connection can read or write in one selector
+     * turn, 0 for no limit.
+     */
+    protected int turnBudgetBytes, turnBudgetPackets;
+
+    /**
+     * The timing wheel shared by this server, created on the first use.
+     */
+    private volatile TimingWheel timingWheel;
+
+    /**
+     * Whether to export the server statistics as JMX MBeans.
+     */
+    protected boolean jmxEnabled;
+
+    /**
+     * The names of the exported MBeans.
+     */
+    private final List<ObjectName> exportedNames = new ArrayList<ObjectName>();
+
     /**
      * Start this Server and listen to the specified port.
      * It run a new thread to loop the main selector internally to handle accept request.
@@ -98,26 +211,60 @@ public class NioServer implements IServer, Runnable {
     @Override
     public boolean start() {
         try {
-            ss = ServerSocketChannel.open();
-            ss.configureBlocking(false);
-            ServerSocket so = ss.socket();
-            so.setReceiveBufferSize(Config.SO_BUFFER_SIZE);
-            so.setSoTimeout(Config.SO_CONNECT_TIMEOUT);
-            so.setReuseAddress(Config.SO_REUSEADDR);
-
-            so.bind(new InetSocketAddress(this.getPort()), Config.SO_BACKLOG);
             mainSelector = Selector.open();
-            ss.register(mainSelector, SelectionKey.OP_ACCEPT);
+            if (tcpEnabled) {
+                ss = ServerSocketChannel.open();
+                ss.configureBlocking(false);
+                ServerSocket so = ss.socket();
+                so.setReceiveBufferSize(Config.SO_BUFFER_SIZE);
+                so.setSoTimeout(Config.SO_CONNECT_TIMEOUT);
+                so.setReuseAddress(Config.SO_REUSEADDR);
+
+                so.bind(new InetSocketAddress(this.getPort()), Config.SO_BACKLOG);
+                ss.register(mainSelector, SelectionKey.OP_ACCEPT);
+            }
+            if (unixPath != null) {
+                openUnixAcceptor().register(mainSelector, SelectionKey.OP_ACCEPT);
+            }
 
             startLoop();
-            LOG.info("Server started at {}", this.getPort());
+            exportStats();
+            LOG.info("Server started at {}", tcpEnabled ? this.getPort() : UnixSocketUtil.PREFIX + unixPath);
             return true;
         } catch (Exception e) {
             LOG.error("Failed to start server.", e);
+            closeUnixAcceptor();
         }
         return false;
     }
 
+    /**
+     * Open the server socket channel listening on the Unix domain socket path.
+     *
+     * @return the non-blocking server socket channel
+     * @throws IOException if I/O related error occurred, or the platform does not support
+     * Unix domain socket
+     */
+    protected ServerSocketChannel openUnixAcceptor() throws IOException {
+        uss = UnixSocketUtil.openServerChannel(unixPath);
+        return uss;
+    }
+
+    /**
+     * Close the Unix domain server socket channel if it's opened, and delete the socket file.
+     */
+    protected void closeUnixAcceptor() {
+        if (uss != null) {
+            SystemUtil.close(uss);
+            uss = null;
+            try {
+                UnixSocketUtil.deletePath(unixPath);
+            } catch (IOException e) {
+                LOG.info("Failed to delete the unix socket file: {}", e.toString());
+            }
+        }
+    }
+
     /**
      * This method will start a new thread.
      * Run selector internally.
@@ -166,14 +313,20 @@ public class NioServer implements IServer, Runnable {
     protected final void handleKey(SelectionKey selectionKey) {
         try {
             if (selectionKey.isAcceptable()) {
-                SocketChannel client = ss.accept();
+                SocketChannel client = ((ServerSocketChannel) selectionKey.channel()).accept();
                 // Try to ensure the returned client to be correct.
                 if (client == null) {
                     return;
                 }
                 client.configureBlocking(false);
-                // Register this client to a selector.
-                registerClient(client);
+                Object att = selectionKey.attachment();
+                if (att instanceof SelectorHolder) {
+                    // This selector owns the server socket, register the client to itself.
+                    createFastCore((SelectorHolder) att, client);
+                } else {
+                    // Register this client to a selector.
+                    registerClient(client);
+                }
                 return;
             }
             FastCore fastCore = (FastCore) selectionKey.attachment();
@@ -205,7 +358,34 @@ public class NioServer implements IServer, Runnable {
      * @throws IOException if I/O related error occurred
      */
     protected void registerClient(SocketChannel client) throws IOException {
-        new FastCore(packetHandler, selectorHolder, client);
+        createFastCore(selectorHolder, client);
+    }
+
+    /**
+     * Create a new fast core to manage the client socket channel, and configure it with
+     * the options of this server. This method must be invoked in the selector thread.
+     *
+     * @param holder the selector holder to register the client
+     * @param client the client socket channel
+     * @return the created fast core
+     * @throws IOException if I/O related error occurred
+     */
+    protected FastCore createFastCore(SelectorHolder holder, SocketChannel client) throws IOException {
+        IPacketHandler handler = dispatchAdapter == null ? packetHandler : dispatchAdapter;
+        FastCore core = new FastCore(handler, holder, client);
+        core.setArrayPool(arrayPool);
+        core.setStreamHandler(streamHandler);
+        core.setReadAggregation(readAggregation);
+        core.setGatheringWrite(gatheringWrite);
+        core.setGatheringWriteBudget(gatheringWriteBudget);
+        core.setSharedSendBuffer(sharedSendBuffer);
+        core.setWaterMarks(lowWaterMark, highWaterMark);
+        core.setOverflowPolicy(overflowPolicy);
+        core.setLanePolicy(lanePolicy);
+        if (readIdleTime > 0 || writeIdleTime > 0) {
+            new IdleStateChecker(core, getTimingWheel(), readIdleTime, writeIdleTime).schedule();
+        }
+        return core;
     }
 
     /**
@@ -214,8 +394,16 @@ public class NioServer implements IServer, Runnable {
      * @param core the fast core
      */
     protected final void handleRead(FastCore core) {
-        // Call this method repeatedly to empty the read buffer.
-        while (core.handleRead())
+        if (turnBudgetBytes <= 0 && turnBudgetPackets <= 0) {
+            // Call this method repeatedly to empty the read buffer.
+            while (core.handleRead())
+                ;
+            return;
+        }
+        core.startTurn();
+        // Stop when the budget is used up, the remaining data is still in the socket, so the
+        // selector will select this connection again in the next turn.
+        while (core.handleRead() && !core.isBudgetUsedUp(turnBudgetBytes, turnBudgetPackets))
             ;
     }
 
@@ -225,8 +413,16 @@ public class NioServer implements IServer, Runnable {
      * @param core the fast core
      */
     protected final void handleWrite(FastCore core) {
-        // Call this method repeatedly to fulfill the write buffer.
-        while (core.handleWrite())
+        if (turnBudgetBytes <= 0 && turnBudgetPackets <= 0) {
+            // Call this method repeatedly to fulfill the write buffer.
+            while (core.handleWrite())
+                ;
+            return;
+        }
+        core.startTurn();
+        // Stop when the budget is used up, the write operation is still attached, so the
+        // selector will select this connection again in the next turn.
+        while (core.handleWrite() && !core.isBudgetUsedUp(turnBudgetBytes, turnBudgetPackets))
             ;
     }
 
@@ -242,21 +438,101 @@ public class NioServer implements IServer, Runnable {
         }
         // Mark the server as stopped, so main thread will return.
         isListening = false;
+        unexportStats();
         try {
-            ss.socket().close();
-            ss.close();
+            if (ss != null) {
+                ss.socket().close();
+                ss.close();
+            }
+            closeUnixAcceptor();
             for (SelectionKey skey : mainSelector.keys()) {
                 SystemUtil.close(skey.channel());
             }
             mainSelector.wakeup();
             mainThread.join();
             mainSelector.close();
+            stopTimingWheel();
             LOG.info("Server stoped.");
         } catch (Exception e) {
             LOG.error("Failed to stop server main thread.", e);
         }
     }
 
+    /**
+     * Stop the timing wheel of this server, if it's created.
+     */
+    protected synchronized void stopTimingWheel() {
+        if (timingWheel != null) {
+            timingWheel.stop();
+            timingWheel = null;
+        }
+    }
+
+    /**
+     * Export the server statistics and the statistics of every selector to the platform
+     * MBean server, if JMX is enabled. The object names are:
+     * <pre>
+     * org.apache.niolex.network:type=Server,port=8808
+     * org.apache.niolex.network:type=Selector,port=8808,index=0
+     * </pre>
+     */
+    protected void exportStats() {
+        if (!jmxEnabled) {
+            return;
+        }
+        SelectorStats[] stats = getSelectorStats();
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName("org.apache.niolex.network:type=Server,port=" + getPort());
+            mbs.registerMBean(new ServerStats(stats), name);
+            exportedNames.add(name);
+            for (int i = 0; i < stats.length; ++i) {
+                name = new ObjectName("org.apache.niolex.network:type=Selector,port=" + getPort() + ",index=" + i);
+                mbs.registerMBean(stats[i], name);
+                exportedNames.add(name);
+            }
+        } catch (Exception e) {
+            LOG.warn("Failed to export server statistics: {}", e.toString());
+        }
+    }
+
+    /**
+     * Remove all the exported MBeans from the platform MBean server.
+     */
+    protected void unexportStats() {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : exportedNames) {
+            try {
+                mbs.unregisterMBean(name);
+            } catch (Exception e) {
+                LOG.info("Failed to unexport server statistics: {}", e.toString());
+            }
+        }
+        exportedNames.clear();
+    }
+
+    /**
+     * Get the load statistics of all the selectors. Only available after the server started.
+     *
+     * @return the statistics array, one item for each selector
+     */
+    public SelectorStats[] getSelectorStats() {
+        return selectorHolder == null ? null : new SelectorStats[] {selectorHolder.getStats()};
+    }
+
+    /**
+     * List the connections with the most bytes read and written in all the selectors, to
+     * find the hot connections.
+     *
+     * @param n the max number of connections to list
+     * @return the connections description, the hottest first
+     * @see SelectorStatsMBean#listTopConnections(int)
+     */
+    public String[] listTopConnections(int n) {
+        SelectorStats[] stats = getSelectorStats();
+        return stats == null ? new String[0] : new ServerStats(stats).listTopConnections(n);
+    }
+
     /**
      * Override super method
      * 
@@ -277,6 +553,46 @@ public class NioServer implements IServer, Runnable {
         this.port = port;
     }
 
+    /**
+     * @return whether to listen on the TCP port
+     */
+    public boolean isTcpEnabled() {
+        return tcpEnabled;
+    }
+
+    /**
+     * Set whether to listen on the TCP port. Turn it off to listen on the Unix domain socket
+     * only. Default to true.
+     * <br>
+     * This method must be called before call {@link #start()}.
+     *
+     * @param tcpEnabled false to not listen on the TCP port
+     */
+    public void setTcpEnabled(boolean tcpEnabled) {
+        this.tcpEnabled = tcpEnabled;
+    }
+
+    /**
+     * @return the Unix domain socket file path to listen on, null if not used
+     */
+    public String getUnixPath() {
+        return unixPath;
+    }
+
+    /**
+     * Set the Unix domain socket file path to listen on, alongside the TCP port or instead of it.
+     * Clients on the same host can connect to <code>unix:</code> + this path, packets are handled
+     * by the same packet handler. The platform must support Unix domain socket channels, see
+     * {@link UnixSocketUtil#isSupported()}.
+     * <br>
+     * This method must be called before call {@link #start()}.
+     *
+     * @param unixPath the socket file path, null to not listen on Unix domain socket
+     */
+    public void setUnixPath(String unixPath) {
+        this.unixPath = unixPath;
+    }
+
     /**
      * Override super method
      * 
@@ -295,6 +611,384 @@ public class NioServer implements IServer, Runnable {
     @Override
     public void setPacketHandler(IPacketHandler packetHandler) {
         this.packetHandler = packetHandler;
+        updateDispatchAdapter();
+    }
+
+    /**
+     * Create the dispatch adapter according to the current settings.
+     */
+    private void updateDispatchAdapter() {
+        if (dispatchExecutor == null || packetHandler == null) {
+            dispatchAdapter = null;
+        } else {
+            dispatchAdapter = new OrderedDispatchAdapter(packetHandler, dispatchExecutor, dispatchQueueSize);
+        }
+    }
+
+    /**
+     * @return the pool to borrow the received packet data array from
+     */
+    public ByteArrayPool getArrayPool() {
+        return arrayPool;
+    }
+
+    /**
+     * Set the pool to borrow the received packet data array from. The default is null,
+     * which means we create a new array for every packet.
+     * <br>
+     * When the pool is set, the received packet will be released after the packet handler
+     * returns, so the packet handler must call {@link org.apache.niolex.network.PacketData#retain()}
+     * if it wants to keep the packet.
+     * <br>
+     * This method must be called before call {@link #start()}.
+     *
+     * @param arrayPool the array pool to set
+     */
+    public void setArrayPool(ByteArrayPool arrayPool) {
+        this.arrayPool = arrayPool;
+    }
+
+    /**
+     * @return whether to read data in the aggregation mode
+     */
+    public boolean isReadAggregation() {
+        return readAggregation;
+    }
+
+    /**
+     * Set whether to read data in the aggregation mode. The default is false, which means we
+     * read the packet header and then the packet body, one system call for each.
+     * <br>
+     * In the aggregation mode, every selector thread reads data into one large direct buffer
+     * of size {@link Config#SERVER_READ_BUFFER_SIZE}, and we slice all the complete packets
+     * out of it. This is much faster for small packets.
+     * <br>
+     * This method must be called before call {@link #start()}.
+     *
+     * @param readAggregation true to read data in the aggregation mode
+     */
+    public void setReadAggregation(boolean readAggregation) {
+        this.readAggregation = readAggregation;
+    }
+
+    /**
+     * @return whether to write data in the gathering mode
+     */
+    public boolean isGatheringWrite() {
+        return gatheringWrite;
+    }
+
+    /**
+     * Set whether to write data in the gathering mode. The default is false, which means we
+     * send the queued packets one by one.
+     * <br>
+     * In the gathering mode, we drain many queued packets and send them in one gathering
+     * write, packet headers and small bodies are copied into the direct buffer, large bodies
+     * are sent without copy.
+     * <br>
+     * This method must be called before call {@link #start()}.
+     *
+     * @param gatheringWrite true to write data in the gathering mode
+     */
+    public void setGatheringWrite(boolean gatheringWrite) {
+        this.gatheringWrite = gatheringWrite;
+    }
+
+    /**
+     * @return the max number of bytes to be sent in one gathering write
+     */
+    public int getGatheringWriteBudget() {
+        return gatheringWriteBudget;
+    }
+
+    /**
+     * Set the max number of bytes to be sent in one gathering write. The selector thread will
+     * turn to other channels after this budget is used up. The default is
+     * {@link Config#SERVER_GATHERING_WRITE_BUDGET}.
+     * <br>
+     * This method must be called before call {@link #start()}.
+     *
+     * @param gatheringWriteBudget the budget in bytes
+     */
+    public void setGatheringWriteBudget(int gatheringWriteBudget) {
+        this.gatheringWriteBudget = gatheringWriteBudget;
+    }
+
+    /**
+     * @return whether the connections use the scratch buffer of the selector to send data
+     */
+    public boolean isSharedSendBuffer() {
+        return sharedSendBuffer;
+    }
+
+    /**
+     * Set whether the connections use the scratch buffer of the selector to send small
+     * packets, instead of holding a private direct buffer each. Turn it on when there are
+     * lots of mostly idle connections. Default to false.
+     * <br>
+     * This method must be called before call {@link #start()}.
+     *
+     * @param sharedSendBuffer true to use the shared send buffer
+     * @see FastCore#setSharedSendBuffer(boolean)
+     */
+    public void setSharedSendBuffer(boolean sharedSendBuffer) {
+        this.sharedSendBuffer = sharedSendBuffer;
+    }
+
+    /**
+     * @return the executor to run the packet handler in the ordered dispatch mode
+     */
+    public Executor getDispatchExecutor() {
+        return dispatchExecutor;
+    }
+
+    /**
+     * Set the executor to run the packet handler. When it's set, the packet handler will be
+     * invoked in the executor instead of the selector threads, and the packets of one
+     * connection are still handled in order. Default to null.
+     * <br>
+     * This method must be called before call {@link #start()}.
+     *
+     * @param dispatchExecutor the executor, null to run the handler in the selector threads
+     * @see OrderedDispatchAdapter
+     */
+    public void setDispatchExecutor(Executor dispatchExecutor) {
+        this.dispatchExecutor = dispatchExecutor;
+        updateDispatchAdapter();
+    }
+
+    /**
+     * @return the max number of packets waiting to be handled for one connection
+     */
+    public int getDispatchQueueSize() {
+        return dispatchQueueSize;
+    }
+
+    /**
+     * Set the max number of packets waiting to be handled for one connection in the ordered
+     * dispatch mode, the packets exceed this limit will be dropped.
+     * <br>
+     * This method must be called before call {@link #start()}.
+     *
+     * @param dispatchQueueSize the max queue size
+     */
+    public void setDispatchQueueSize(int dispatchQueueSize) {
+        this.dispatchQueueSize = dispatchQueueSize;
+        updateDispatchAdapter();
+    }
+
+    /**
+     * Get the dispatch adapter to read the dispatch statistics.
+     *
+     * @return the dispatch adapter, null if not in the ordered dispatch mode
+     */
+    public OrderedDispatchAdapter getDispatchAdapter() {
+        return dispatchAdapter;
+    }
+
+    /**
+     * @return the stream handler to receive the large packets
+     */
+    public IStreamHandler getStreamHandler() {
+        return streamHandler;
+    }
+
+    /**
+     * Set the stream handler to receive the large packets. The packets of the codes streamed
+     * by this handler are delivered to it chunk by chunk as they arrive from the socket, with
+     * the size limit of every code given by {@link IStreamHandler#getStreamLimit(short)}. All
+     * the other packets are handled by the packet handler as usual. Default to null.
+     * <br>
+     * The stream handler is always invoked in the selector threads, even in the ordered
+     * dispatch mode. This method must be called before call {@link #start()}.
+     *
+     * @param streamHandler the stream handler, null to not stream any packet
+     */
+    public void setStreamHandler(IStreamHandler streamHandler) {
+        this.streamHandler = streamHandler;
+    }
+
+    /**
+     * Get the timing wheel shared by this server, it will be created and started on the first
+     * use, and stopped when this server is stopped. Use it to drive the per connection timeouts,
+     * e.g. {@link org.apache.niolex.network.adapter.HeartBeatAdapter}, so we only need one
+     * thread for all of them.
+     *
+     * @return the timing wheel
+     */
+    public TimingWheel getTimingWheel() {
+        TimingWheel w = timingWheel;
+        if (w == null) {
+            synchronized (this) {
+                w = timingWheel;
+                if (w == null) {
+                    w = new TimingWheel("NioServer-TimingWheel-" + port, Config.SERVER_TIMING_WHEEL_TICK,
+                            Config.SERVER_TIMING_WHEEL_SIZE);
+                    w.start();
+                    timingWheel = w;
+                }
+            }
+        }
+        return w;
+    }
+
+    /**
+     * @return the max read idle time of the connections in milliseconds, 0 if disabled
+     */
+    public int getReadIdleTime() {
+        return readIdleTime;
+    }
+
+    /**
+     * @return the max write idle time of the connections in milliseconds, 0 if disabled
+     */
+    public int getWriteIdleTime() {
+        return writeIdleTime;
+    }
+
+    /**
+     * Set the max idle time of the connections. The connection which has not read any data
+     * during the read idle time, or has not sent any packet during the write idle time will
+     * be closed. The idle time is checked in the timing wheel of this server, so it may be
+     * delayed at most {@link Config#SERVER_TIMING_WHEEL_TICK} milliseconds. This only affects
+     * the connections accepted after this method is invoked.
+     * <br>
+     * Please make sure the clients send heart beat more frequently than the read idle time,
+     * and there is a heart beat adapter to write packets more frequently than the write idle
+     * time. Both are disabled by default.
+     *
+     * @param readIdleTime the max read idle time in milliseconds, 0 to disable
+     * @param writeIdleTime the max write idle time in milliseconds, 0 to disable
+     */
+    public void setIdleTime(int readIdleTime, int writeIdleTime) {
+        this.readIdleTime = readIdleTime;
+        this.writeIdleTime = writeIdleTime;
+    }
+
+    /**
+     * @return the max number of bytes one connection can read or write in one selector turn
+     */
+    public int getTurnBudgetBytes() {
+        return turnBudgetBytes;
+    }
+
+    /**
+     * @return the max number of packets one connection can read or write in one selector turn
+     */
+    public int getTurnBudgetPackets() {
+        return turnBudgetPackets;
+    }
+
+    /**
+     * Set the budget of one connection in one selector turn, for reading and writing
+     * respectively. When the budget is used up, we turn to the other connections, and
+     * continue the remaining work of this connection in the next turn, so one busy
+     * connection can not delay the other connections of the same selector too much. See
+     * {@link SelectorStats#getBudgetHits()} for how often the budget is used up.
+     * <br>
+     * The budget is checked after every read or write call, so it may be exceeded by at most
+     * one buffer. Both are 0 by default, which means to read and write until the socket is
+     * drained or full.
+     *
+     * @param turnBudgetBytes the max number of bytes, 0 for no limit
+     * @param turnBudgetPackets the max number of packets, 0 for no limit
+     */
+    public void setTurnBudget(int turnBudgetBytes, int turnBudgetPackets) {
+        this.turnBudgetBytes = turnBudgetBytes;
+        this.turnBudgetPackets = turnBudgetPackets;
+    }
+
+    /**
+     * @return the send queue low water mark of every connection
+     */
+    public int getLowWaterMark() {
+        return lowWaterMark;
+    }
+
+    /**
+     * @return the send queue high water mark of every connection
+     */
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * Set the send queue water marks in bytes of every connection. The default high water
+     * mark is 0, which means the send queue is unbounded.
+     * <br>
+     * This method must be called before call {@link #start()}.
+     *
+     * @param lowWaterMark the low water mark
+     * @param highWaterMark the high water mark
+     * @throws IllegalArgumentException if the water marks are invalid
+     * @see BasePacketWriter#setWaterMarks(int, int)
+     */
+    public void setWaterMarks(int lowWaterMark, int highWaterMark) {
+        if (lowWaterMark < 0 || (highWaterMark > 0 && lowWaterMark > highWaterMark)) {
+            throw new IllegalArgumentException("Invalid water marks: " + lowWaterMark + ", " + highWaterMark);
+        }
+        this.lowWaterMark = lowWaterMark;
+        this.highWaterMark = highWaterMark;
+    }
+
+    /**
+     * @return the policy to deal with the packets written above the high water mark
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Set the policy to deal with the packets written above the high water mark.
+     * The default is {@link OverflowPolicy#NOTIFY}.
+     * <br>
+     * This method must be called before call {@link #start()}.
+     *
+     * @param overflowPolicy the overflow policy to set
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @return the policy to select the send lane of every connection
+     */
+    public LanePolicy getLanePolicy() {
+        return lanePolicy;
+    }
+
+    /**
+     * Set the policy to select the send lane of every connection, the policy is shared by
+     * all the connections. The control packets will be sent before the normal packets, and
+     * the normal packets before the bulk packets. The default is null, which means all the
+     * packets are sent in the order they are written.
+     * <br>
+     * This method must be called before call {@link #start()}.
+     *
+     * @param lanePolicy the lane policy, null to not use lanes
+     * @see BasePacketWriter#setLanePolicy(LanePolicy)
+     */
+    public void setLanePolicy(LanePolicy lanePolicy) {
+        this.lanePolicy = lanePolicy;
+    }
+
+    /**
+     * @return whether to export the server statistics as JMX MBeans
+     */
+    public boolean isJmxEnabled() {
+        return jmxEnabled;
+    }
+
+    /**
+     * Set whether to export the server statistics as JMX MBeans, please see
+     * {@link SelectorStatsMBean} for the attributes. The default is false.
+     * <br>
+     * This method must be called before call {@link #start()}.
+     *
+     * @param jmxEnabled true to export the statistics
+     */
+    public void setJmxEnabled(boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
     }
 
     /**
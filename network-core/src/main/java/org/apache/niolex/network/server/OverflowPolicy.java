@@ -0,0 +1,52 @@
+/**
+ * OverflowPolicy.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.server;
+
+/**
+ * The policy to deal with the packets written when the send queue of a packet writer
+ * is above the high water mark.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-26
+ * @see BasePacketWriter#setWaterMarks(int, int)
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Put the packet into the queue anyway, we only notify the writability listeners.
+     */
+    NOTIFY,
+
+    /**
+     * Block the writing thread until the queue drops below the low water mark. The selector
+     * thread will never be blocked, packets written in it are queued as {@link #NOTIFY}.
+     */
+    BLOCK,
+
+    /**
+     * Drop the oldest packets in the queue to make room for the new packet.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Drop the packet and close the connection.
+     */
+    CLOSE;
+
+}
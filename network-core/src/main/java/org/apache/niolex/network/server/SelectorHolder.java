@@ -17,11 +17,17 @@
  */
 package org.apache.niolex.network.server;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.niolex.network.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * This class hold the selector and the thread running the selector.
  * It will decide how to attach write operation to selector.
@@ -34,6 +40,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * @since 2012-8-17
  */
 public class SelectorHolder {
+    private static final Logger LOG = LoggerFactory.getLogger(SelectorHolder.class);
 
     /**
      * The interest operations contains both read and write.
@@ -45,6 +52,11 @@ public class SelectorHolder {
 	 */
 	private final ConcurrentLinkedQueue<SelectionKey> selectionKeyQueue = new ConcurrentLinkedQueue<SelectionKey>();
 
+	/**
+	 * This queue store all the tasks need to be run in the selector thread.
+	 */
+	private final ConcurrentLinkedQueue<Runnable> taskQueue = new ConcurrentLinkedQueue<Runnable>();
+
 	/**
      * This flag indicates the status of selector, so we will not wake up duplicately.
      */
@@ -60,6 +72,21 @@ public class SelectorHolder {
 	 */
 	private final Selector selector;
 
+	/**
+	 * The direct read buffer shared by all the channels registered to this selector.
+	 */
+	private ByteBuffer readBuffer;
+
+	/**
+	 * The scratch buffer to send small packets, shared by all the channels of this selector.
+	 */
+	private ByteBuffer writeBuffer;
+
+	/**
+	 * The load statistics of this selector.
+	 */
+	private final SelectorStats stats = new SelectorStats();
+
 	/**
 	 * The Constructor, must set selector thread and selector itself.
 	 *
@@ -83,7 +110,7 @@ public class SelectorHolder {
      */
 	public void attacheWrite(SelectionKey selectionKey) {
 		if (selectorThread == Thread.currentThread()) {
-			selectionKey.interestOps(READ_WRITE_OPS);
+		    interestWrite(selectionKey);
 		} else {
             // Add the selection key into the key queue, do not need synchronize it,
 		    // because we are using concurrent queue.
@@ -92,30 +119,111 @@ public class SelectorHolder {
 		}
 	}
 
+	/**
+	 * Run this task in the selector thread. The task is always queued and will be run after
+	 * the next select, even if this method is invoked in the selector thread. So it's safe to
+	 * close the channel in the task.
+	 *
+	 * @param task the task to be run
+	 */
+	public void execute(Runnable task) {
+	    taskQueue.add(task);
+	    wakeup();
+	}
+
+	/**
+	 * Change the interest operations into both read and write.
+	 *
+	 * @param selectionKey the selection key
+	 */
+	private static void interestWrite(SelectionKey selectionKey) {
+	    try {
+	        selectionKey.interestOps(READ_WRITE_OPS);
+	    } catch (CancelledKeyException e) {
+	        // The channel is closed or moved to another selector.
+	    }
+	}
+
 	/**
 	 * Use this method to wake up the selector managed by this holder.
 	 * Holder will eliminate unnecessary multiple wakeups.
 	 */
 	protected void wakeup() {
 		if (awaked.compareAndSet(false, true)) {
+			stats.wakeup();
 			selector.wakeup();
 		}
 	}
 
 	/**
-	 * Server use this method to change all the interest operations on hold.
+	 * Server use this method to change all the interest operations on hold, and run all the
+	 * queued tasks.
 	 * <br><b>
 	 * This method can only be invoked in the selector's thread.</b>
 	 */
-	protected void changeAllInterestOps() {
+	public void changeAllInterestOps() {
 		awaked.set(false);
+		stats.tick(System.currentTimeMillis());
 		SelectionKey k;
 		while ((k = selectionKeyQueue.poll()) != null) {
-		    k.interestOps(READ_WRITE_OPS);
+		    interestWrite(k);
+		}
+		Runnable r;
+		while ((r = taskQueue.poll()) != null) {
+		    try {
+		        r.run();
+		    } catch (Exception e) {
+		        LOG.info("Error occurred when run task in the selector thread.", e);
+		    }
 		}
 	}
 
 
+	/**
+	 * Get the direct read buffer shared by all the channels registered to this selector.
+	 * The buffer is created at the first call.
+	 * <br><b>
+	 * This method can only be invoked in the selector's thread.</b>
+	 *
+	 * @return the direct read buffer
+	 */
+	public ByteBuffer getReadBuffer() {
+	    if (readBuffer == null) {
+	        readBuffer = ByteBuffer.allocateDirect(Config.SERVER_READ_BUFFER_SIZE);
+	    }
+	    return readBuffer;
+	}
+
+	/**
+	 * Get the scratch buffer to send small packets. Since all the writes of the channels
+	 * of this selector are done in the selector thread one by one, we need only one buffer.
+	 * The channels must copy the unsent data out before the write returns.
+	 * <br>
+	 * This method must be invoked in the selector thread.
+	 *
+	 * @return the direct write buffer
+	 */
+	public ByteBuffer getWriteBuffer() {
+	    if (writeBuffer == null) {
+	        writeBuffer = ByteBuffer.allocateDirect(Config.SERVER_DIRECT_BUFFER_SIZE);
+	    }
+	    return writeBuffer;
+	}
+
+	/**
+	 * @return the load statistics of this selector
+	 */
+	public SelectorStats getStats() {
+	    return stats;
+	}
+
+	/**
+	 * @return true if the current thread is the selector thread
+	 */
+	public boolean isSelectorThread() {
+	    return selectorThread == Thread.currentThread();
+	}
+
 	/**
 	 * @return the selector this holder is managing.
 	 */
@@ -0,0 +1,503 @@
+/**
+ * SelectorStats.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The statistics of one selector, i.e. the number of connections, the traffic, the number of
+ * system calls etc. The counters are mostly updated in the selector thread, and can be read
+ * in any thread. It's also exported as a JMX MBean, please see {@link NioServer#setJmxEnabled(boolean)}.
+ * <br>
+ * We keep a sliding window of the total bytes, so we can calculate the recent traffic
+ * speed. The window is moved forward by {@link #tick(long)} in the selector loop.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-27
+ * @see AssignStrategy
+ */
+public class SelectorStats implements SelectorStatsMBean {
+
+    /**
+     * The number of slots in the sliding window.
+     */
+    private static final int WINDOW_SLOTS = 10;
+
+    /**
+     * The time span of each slot.
+     */
+    private static final long SLOT_MILLIS = 1000;
+
+    /**
+     * The number of buckets in the packet size histogram.
+     */
+    static final int HISTOGRAM_BUCKETS = 19;
+
+    /**
+     * The number of connections registered to this selector.
+     */
+    private final AtomicInteger connections = new AtomicInteger();
+
+    /**
+     * The connections registered to this selector, used to find the hot connections.
+     */
+    private final Set<FastCore> cores = Collections.newSetFromMap(new ConcurrentHashMap<FastCore, Boolean>());
+
+    /**
+     * The traffic counters.
+     */
+    private final StripedCounter bytesIn = new StripedCounter();
+    private final StripedCounter bytesOut = new StripedCounter();
+    private final StripedCounter packetsIn = new StripedCounter();
+    private final StripedCounter packetsOut = new StripedCounter();
+    private final StripedCounter readCalls = new StripedCounter();
+    private final StripedCounter writeCalls = new StripedCounter();
+
+    /**
+     * The selector counters.
+     */
+    private final StripedCounter loops = new StripedCounter();
+    private final StripedCounter wakeups = new StripedCounter();
+    private final StripedCounter budgetHits = new StripedCounter();
+
+    /**
+     * The bytes pending in the send queues, updated in the writing threads.
+     */
+    private final StripedCounter pendingBytes = new StripedCounter();
+
+    /**
+     * The packet size histograms.
+     */
+    private final AtomicLongArray sizeInHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    private final AtomicLongArray sizeOutHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+    /**
+     * The sliding window, the total bytes and the time at the start of each slot.
+     */
+    private final AtomicLongArray slotBytes = new AtomicLongArray(WINDOW_SLOTS);
+    private final AtomicLongArray slotTimes = new AtomicLongArray(WINDOW_SLOTS);
+
+    /**
+     * The current slot index.
+     */
+    private volatile int head;
+
+    /**
+     * The time to move to the next slot, only used in the selector thread.
+     */
+    private long nextTick;
+
+    /**
+     * Create an empty statistics.
+     */
+    public SelectorStats() {
+        super();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < WINDOW_SLOTS; ++i) {
+            slotTimes.set(i, now);
+        }
+        nextTick = now + SLOT_MILLIS;
+    }
+
+    /**
+     * Calculate the histogram bucket of this packet size.
+     *
+     * @param size the packet size
+     * @return the bucket index
+     */
+    static int bucket(int size) {
+        if (size <= 64) {
+            return 0;
+        }
+        return Math.min(32 - Integer.numberOfLeadingZeros(size - 1) - 6, HISTOGRAM_BUCKETS - 1);
+    }
+
+    /**
+     * Copy the histogram into a long array.
+     *
+     * @param histogram the histogram
+     * @return the array
+     */
+    private static long[] toArray(AtomicLongArray histogram) {
+        long[] arr = new long[HISTOGRAM_BUCKETS];
+        for (int i = 0; i < HISTOGRAM_BUCKETS; ++i) {
+            arr[i] = histogram.get(i);
+        }
+        return arr;
+    }
+
+    /**
+     * One selector loop iteration, move the sliding window forward if necessary. This method
+     * should be invoked in the selector thread.
+     *
+     * @param now the current time in milliseconds
+     */
+    public void tick(long now) {
+        loops.increment();
+        if (now >= nextTick) {
+            nextTick = now + SLOT_MILLIS;
+            int next = (head + 1) % WINDOW_SLOTS;
+            slotBytes.set(next, getBytes());
+            slotTimes.set(next, now);
+            head = next;
+        }
+    }
+
+    /**
+     * A new connection is registered to this selector.
+     */
+    public void connectionOpened() {
+        connections.incrementAndGet();
+    }
+
+    /**
+     * A connection is closed or moved out of this selector.
+     */
+    public void connectionClosed() {
+        connections.decrementAndGet();
+    }
+
+    /**
+     * The connection is registered to this selector, we count it and track it's traffic.
+     *
+     * @param core the connection
+     */
+    public void connectionOpened(FastCore core) {
+        if (cores.add(core)) {
+            connectionOpened();
+        }
+    }
+
+    /**
+     * The connection is closed or moved out of this selector.
+     *
+     * @param core the connection
+     */
+    public void connectionClosed(FastCore core) {
+        if (cores.remove(core)) {
+            connectionClosed();
+        }
+    }
+
+    /**
+     * Add all the connections registered to this selector into the list.
+     *
+     * @param list the list to add connections into
+     */
+    void collectConnections(List<FastCore> list) {
+        list.addAll(cores);
+    }
+
+    /**
+     * Find the top n connections with the most bytes read and written. The counters of the
+     * connections are read only once, so the order is stable even if they are changing.
+     *
+     * @param list the connections
+     * @param n the max number of connections to find
+     * @return the connections description, the hottest first
+     */
+    static String[] listTopConnections(Collection<FastCore> list, int n) {
+        if (n <= 0) {
+            return new String[0];
+        }
+        // The min heap of the current top n connections.
+        PriorityQueue<Traffic> heap = new PriorityQueue<Traffic>(n);
+        for (FastCore core : list) {
+            heap.offer(new Traffic(core));
+            if (heap.size() > n) {
+                heap.poll();
+            }
+        }
+        String[] arr = new String[heap.size()];
+        for (int i = arr.length - 1; i >= 0; --i) {
+            arr[i] = heap.poll().toString();
+        }
+        return arr;
+    }
+
+    /**
+     * The snapshot of the traffic counters of one connection.
+     *
+     * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+     * @version 1.0.0
+     * @since 2013-11-30
+     */
+    private static class Traffic implements Comparable<Traffic> {
+        private final String name;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final long packetsIn;
+        private final long packetsOut;
+
+        public Traffic(FastCore core) {
+            super();
+            this.name = core.getRemoteName();
+            this.bytesIn = core.getBytesIn();
+            this.bytesOut = core.getBytesOut();
+            this.packetsIn = core.getPacketsIn();
+            this.packetsOut = core.getPacketsOut();
+        }
+
+        /**
+         * Override super method
+         * @see java.lang.Comparable#compareTo(java.lang.Object)
+         */
+        @Override
+        public int compareTo(Traffic o) {
+            long a = bytesIn + bytesOut;
+            long b = o.bytesIn + o.bytesOut;
+            return a < b ? -1 : (a == b ? 0 : 1);
+        }
+
+        /**
+         * Override super method
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return name + " bytesIn=" + bytesIn + ", bytesOut=" + bytesOut + ", packetsIn="
+                    + packetsIn + ", packetsOut=" + packetsOut;
+        }
+    }
+
+    /**
+     * Record one read system call.
+     *
+     * @param n the number of bytes read
+     */
+    public void recordRead(long n) {
+        readCalls.increment();
+        if (n > 0) {
+            bytesIn.add(n);
+        }
+    }
+
+    /**
+     * Record one write system call.
+     *
+     * @param n the number of bytes written
+     */
+    public void recordWrite(long n) {
+        writeCalls.increment();
+        if (n > 0) {
+            bytesOut.add(n);
+        }
+    }
+
+    /**
+     * Record one received packet.
+     *
+     * @param size the packet size
+     */
+    public void packetReceived(int size) {
+        packetsIn.increment();
+        sizeInHistogram.incrementAndGet(bucket(size));
+    }
+
+    /**
+     * Record one sent packet.
+     *
+     * @param size the packet size
+     */
+    public void packetSent(int size) {
+        packetsOut.increment();
+        sizeOutHistogram.incrementAndGet(bucket(size));
+    }
+
+    /**
+     * The selector is waked up by other threads.
+     */
+    public void wakeup() {
+        wakeups.increment();
+    }
+
+    /**
+     * A connection used up it's budget of one selector turn.
+     */
+    public void budgetHit() {
+        budgetHits.increment();
+    }
+
+    /**
+     * Add the number of bytes pending in the send queues.
+     *
+     * @param delta the number of bytes, negative when packets are removed from the queue
+     */
+    public void addPendingBytes(long delta) {
+        pendingBytes.add(delta);
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getConnections()
+     */
+    @Override
+    public int getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getBytesIn()
+     */
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getBytesOut()
+     */
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    /**
+     * @return the total bytes read and written
+     */
+    public long getBytes() {
+        return getBytesIn() + getBytesOut();
+    }
+
+    /**
+     * Calculate the traffic speed in the sliding window. The result is approximate, because
+     * the window may be moving concurrently.
+     *
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getBytesPerSecond()
+     */
+    @Override
+    public long getBytesPerSecond() {
+        int oldest = (head + 1) % WINDOW_SLOTS;
+        long span = System.currentTimeMillis() - slotTimes.get(oldest);
+        return (getBytes() - slotBytes.get(oldest)) * 1000 / Math.max(span, 1);
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getPacketsIn()
+     */
+    @Override
+    public long getPacketsIn() {
+        return packetsIn.sum();
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getPacketsOut()
+     */
+    @Override
+    public long getPacketsOut() {
+        return packetsOut.sum();
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getReadCalls()
+     */
+    @Override
+    public long getReadCalls() {
+        return readCalls.sum();
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getWriteCalls()
+     */
+    @Override
+    public long getWriteCalls() {
+        return writeCalls.sum();
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getLoops()
+     */
+    @Override
+    public long getLoops() {
+        return loops.sum();
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getWakeups()
+     */
+    @Override
+    public long getWakeups() {
+        return wakeups.sum();
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getBudgetHits()
+     */
+    @Override
+    public long getBudgetHits() {
+        return budgetHits.sum();
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getPendingBytes()
+     */
+    @Override
+    public long getPendingBytes() {
+        return pendingBytes.sum();
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getPacketSizeInHistogram()
+     */
+    @Override
+    public long[] getPacketSizeInHistogram() {
+        return toArray(sizeInHistogram);
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getPacketSizeOutHistogram()
+     */
+    @Override
+    public long[] getPacketSizeOutHistogram() {
+        return toArray(sizeOutHistogram);
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#listTopConnections(int)
+     */
+    @Override
+    public String[] listTopConnections(int n) {
+        List<FastCore> list = new ArrayList<FastCore>();
+        collectConnections(list);
+        return listTopConnections(list, n);
+    }
+
+}
@@ -0,0 +1,117 @@
+/**
+ * SelectorStatsMBean.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.server;
+
+/**
+ * The JMX management interface of the selector statistics. The server statistics share
+ * the same attributes, they are the sum of all the selectors.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-28
+ */
+public interface SelectorStatsMBean {
+
+    /**
+     * @return the number of connections
+     */
+    public int getConnections();
+
+    /**
+     * @return the total bytes read
+     */
+    public long getBytesIn();
+
+    /**
+     * @return the total bytes written
+     */
+    public long getBytesOut();
+
+    /**
+     * @return the bytes read and written per second in the recent seconds
+     */
+    public long getBytesPerSecond();
+
+    /**
+     * @return the number of packets received
+     */
+    public long getPacketsIn();
+
+    /**
+     * @return the number of packets sent
+     */
+    public long getPacketsOut();
+
+    /**
+     * @return the number of read system calls
+     */
+    public long getReadCalls();
+
+    /**
+     * @return the number of write system calls
+     */
+    public long getWriteCalls();
+
+    /**
+     * @return the number of selector loop iterations
+     */
+    public long getLoops();
+
+    /**
+     * @return the number of selector wakeups issued
+     */
+    public long getWakeups();
+
+    /**
+     * @return the number of times a connection used up it's read or write budget of one
+     * selector turn, and left the remaining work to the next turn
+     */
+    public long getBudgetHits();
+
+    /**
+     * @return the number of bytes pending in the send queues
+     */
+    public long getPendingBytes();
+
+    /**
+     * The packet size histogram of the received packets. Bucket i counts the packets whose
+     * size is in the range (64 &lt;&lt; (i - 1), 64 &lt;&lt; i], bucket 0 counts packets not
+     * larger than 64 bytes.
+     *
+     * @return the histogram
+     */
+    public long[] getPacketSizeInHistogram();
+
+    /**
+     * The packet size histogram of the sent packets.
+     *
+     * @return the histogram
+     * @see #getPacketSizeInHistogram()
+     */
+    public long[] getPacketSizeOutHistogram();
+
+    /**
+     * List the connections with the most bytes read and written, to find the hot connections.
+     * Each line contains the remote name and the traffic counters of one connection.
+     *
+     * @param n the max number of connections to list
+     * @return the connections description, the hottest first
+     */
+    public String[] listTopConnections(int n);
+
+}
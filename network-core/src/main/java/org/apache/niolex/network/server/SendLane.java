@@ -0,0 +1,49 @@
+/**
+ * SendLane.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.server;
+
+/**
+ * The priority lanes of the send queue of a packet writer. The packets in the higher lanes
+ * are sent before the packets in the lower lanes, the packets in the same lane are sent in
+ * the order they are written.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ * @see LanePolicy
+ */
+public enum SendLane {
+
+    /**
+     * The control packets, e.g. heart beat and the system notifications. They are small and
+     * sent before all the other packets.
+     */
+    CONTROL,
+
+    /**
+     * The interactive packets, this is the default lane.
+     */
+    NORMAL,
+
+    /**
+     * The bulk packets, e.g. large responses and files. They are sent when there is nothing
+     * else to send, but never starved, see {@link LanePolicy#getMaxBulkDelay()}.
+     */
+    BULK;
+
+}
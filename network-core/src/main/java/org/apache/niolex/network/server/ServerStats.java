@@ -0,0 +1,257 @@
+/**
+ * ServerStats.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The statistics of the whole server, it's the sum of the statistics of all the selectors.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-28
+ */
+public class ServerStats implements ServerStatsMBean {
+
+    /**
+     * The statistics of all the selectors.
+     */
+    private final SelectorStats[] stats;
+
+    /**
+     * Create a server statistics.
+     *
+     * @param stats the statistics of all the selectors
+     */
+    public ServerStats(SelectorStats[] stats) {
+        super();
+        this.stats = stats;
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.ServerStatsMBean#getSelectors()
+     */
+    @Override
+    public int getSelectors() {
+        return stats.length;
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getConnections()
+     */
+    @Override
+    public int getConnections() {
+        int sum = 0;
+        for (SelectorStats s : stats) {
+            sum += s.getConnections();
+        }
+        return sum;
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getBytesIn()
+     */
+    @Override
+    public long getBytesIn() {
+        long sum = 0;
+        for (SelectorStats s : stats) {
+            sum += s.getBytesIn();
+        }
+        return sum;
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getBytesOut()
+     */
+    @Override
+    public long getBytesOut() {
+        long sum = 0;
+        for (SelectorStats s : stats) {
+            sum += s.getBytesOut();
+        }
+        return sum;
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getBytesPerSecond()
+     */
+    @Override
+    public long getBytesPerSecond() {
+        long sum = 0;
+        for (SelectorStats s : stats) {
+            sum += s.getBytesPerSecond();
+        }
+        return sum;
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getPacketsIn()
+     */
+    @Override
+    public long getPacketsIn() {
+        long sum = 0;
+        for (SelectorStats s : stats) {
+            sum += s.getPacketsIn();
+        }
+        return sum;
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getPacketsOut()
+     */
+    @Override
+    public long getPacketsOut() {
+        long sum = 0;
+        for (SelectorStats s : stats) {
+            sum += s.getPacketsOut();
+        }
+        return sum;
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getReadCalls()
+     */
+    @Override
+    public long getReadCalls() {
+        long sum = 0;
+        for (SelectorStats s : stats) {
+            sum += s.getReadCalls();
+        }
+        return sum;
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getWriteCalls()
+     */
+    @Override
+    public long getWriteCalls() {
+        long sum = 0;
+        for (SelectorStats s : stats) {
+            sum += s.getWriteCalls();
+        }
+        return sum;
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getLoops()
+     */
+    @Override
+    public long getLoops() {
+        long sum = 0;
+        for (SelectorStats s : stats) {
+            sum += s.getLoops();
+        }
+        return sum;
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getWakeups()
+     */
+    @Override
+    public long getWakeups() {
+        long sum = 0;
+        for (SelectorStats s : stats) {
+            sum += s.getWakeups();
+        }
+        return sum;
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getBudgetHits()
+     */
+    @Override
+    public long getBudgetHits() {
+        long sum = 0;
+        for (SelectorStats s : stats) {
+            sum += s.getBudgetHits();
+        }
+        return sum;
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getPendingBytes()
+     */
+    @Override
+    public long getPendingBytes() {
+        long sum = 0;
+        for (SelectorStats s : stats) {
+            sum += s.getPendingBytes();
+        }
+        return sum;
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getPacketSizeInHistogram()
+     */
+    @Override
+    public long[] getPacketSizeInHistogram() {
+        long[] sum = new long[SelectorStats.HISTOGRAM_BUCKETS];
+        for (SelectorStats s : stats) {
+            long[] h = s.getPacketSizeInHistogram();
+            for (int i = 0; i < sum.length; ++i) {
+                sum[i] += h[i];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#getPacketSizeOutHistogram()
+     */
+    @Override
+    public long[] getPacketSizeOutHistogram() {
+        long[] sum = new long[SelectorStats.HISTOGRAM_BUCKETS];
+        for (SelectorStats s : stats) {
+            long[] h = s.getPacketSizeOutHistogram();
+            for (int i = 0; i < sum.length; ++i) {
+                sum[i] += h[i];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Override super method
+     * @see org.apache.niolex.network.server.SelectorStatsMBean#listTopConnections(int)
+     */
+    @Override
+    public String[] listTopConnections(int n) {
+        List<FastCore> list = new ArrayList<FastCore>();
+        for (SelectorStats s : stats) {
+            s.collectConnections(list);
+        }
+        return SelectorStats.listTopConnections(list, n);
+    }
+
+}
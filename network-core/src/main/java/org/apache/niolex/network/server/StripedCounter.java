@@ -0,0 +1,102 @@
+/**
+ * StripedCounter.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter with low overhead under contention. We split the value into some stripes,
+ * every thread adds to its own stripe, and sum all of them when read.
+ * <br>
+ * The stripes are padded to avoid false sharing.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-28
+ */
+public class StripedCounter {
+
+    /**
+     * The number of stripes, a power of two not less than the number of CPUs.
+     */
+    private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The number of longs of each stripe, 64 bytes which is the common cache line size.
+     */
+    private static final int PADDING = 8;
+
+    /**
+     * The stripes.
+     */
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    /**
+     * Find the number of stripes for this number of CPUs.
+     *
+     * @param cpus the number of CPUs
+     * @return the number of stripes
+     */
+    static int stripes(int cpus) {
+        int n = 1;
+        while (n < cpus && n < 64) {
+            n <<= 1;
+        }
+        return n;
+    }
+
+    /**
+     * Add the value to this counter.
+     *
+     * @param x the value to add
+     */
+    public void add(long x) {
+        cells.addAndGet(index() * PADDING, x);
+    }
+
+    /**
+     * Add one to this counter.
+     */
+    public void increment() {
+        add(1);
+    }
+
+    /**
+     * Sum all the stripes. The result is not an atomic snapshot if there are concurrent updates.
+     *
+     * @return the current sum
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; ++i) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * Calculate the stripe index of the current thread.
+     *
+     * @return the index
+     */
+    private static int index() {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 16)) & (STRIPES - 1);
+    }
+
+}
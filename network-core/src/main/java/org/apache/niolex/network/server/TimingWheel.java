@@ -0,0 +1,493 @@
+/**
+ * TimingWheel.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import org.apache.niolex.commons.concurrent.ThreadUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The hashed timing wheel to schedule a large number of timeouts, e.g. one timeout for
+ * each connection. Adding and canceling a timeout cost O(1), and every tick only visits
+ * the timeouts in the current bucket, so the timeouts far from expiring are not touched.
+ * <br>
+ * A timeout is executed at most one tick later than its deadline. All the tasks are executed
+ * in the internal thread of this wheel one by one, so they must be quick. Timeouts can be
+ * added before the wheel is started, they will be scheduled after started.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public class TimingWheel implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(TimingWheel.class);
+
+    /**
+     * The max number of pending timeouts to be moved into the wheel in one tick, so
+     * a burst of new timeouts will not delay the tick too much.
+     */
+    private static final int MAX_TRANSFER_PER_TICK = 100000;
+
+    /**
+     * Mark the threads of all the timing wheels.
+     */
+    private static final ThreadLocal<Boolean> WHEEL_THREAD = new ThreadLocal<Boolean>();
+
+    /**
+     * The task to be executed when the timeout expired.
+     *
+     * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+     * @version 1.0.0
+     * @since 2013-11-30
+     */
+    public static interface Task {
+
+        /**
+         * Execute this task. It's invoked in the internal thread of the timing wheel, so
+         * it must not block.
+         *
+         * @param timeout the timeout expired
+         */
+        public void run(Timeout timeout);
+    }
+
+    /**
+     * The handle of a task scheduled in the timing wheel.
+     *
+     * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+     * @version 1.0.0
+     * @since 2013-11-30
+     */
+    public static final class Timeout {
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE_UPDATER =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final TimingWheel wheel;
+        private final Task task;
+        private final long deadline;
+        private volatile int state = ST_INIT;
+
+        // These fields are only accessed by the wheel thread.
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout prev, next;
+
+        /**
+         * Create a new timeout.
+         *
+         * @param wheel the timing wheel
+         * @param task the task to be executed
+         * @param deadline the deadline in nanoseconds
+         */
+        private Timeout(TimingWheel wheel, Task task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel this timeout, the task will not be executed if canceled successfully.
+         *
+         * @return true if canceled, false if it's already expired or canceled
+         */
+        public boolean cancel() {
+            if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+            wheel.cancelledTimeouts.add(this);
+            return true;
+        }
+
+        /**
+         * @return true if this timeout is canceled
+         */
+        public boolean isCancelled() {
+            return state == ST_CANCELLED;
+        }
+
+        /**
+         * @return true if this timeout is expired, i.e. the task is executed or being executed
+         */
+        public boolean isExpired() {
+            return state == ST_EXPIRED;
+        }
+
+        /**
+         * @return the task of this timeout
+         */
+        public Task getTask() {
+            return task;
+        }
+
+        /**
+         * Expire this timeout and execute the task.
+         */
+        private void expire() {
+            if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_EXPIRED)) {
+                return;
+            }
+            try {
+                task.run(this);
+            } catch (Throwable t) {
+                LOG.warn("Error occurred when run timing wheel task {}.", task.getClass().getName(), t);
+            }
+        }
+    }
+
+    /**
+     * The bucket of the wheel, a doubly linked list of timeouts. It's only accessed by the
+     * wheel thread.
+     *
+     * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+     * @version 1.0.0
+     * @since 2013-11-30
+     */
+    private static final class Bucket {
+        private Timeout head, tail;
+
+        /**
+         * Add the timeout to the tail of this bucket.
+         *
+         * @param t the timeout
+         */
+        private void add(Timeout t) {
+            t.bucket = this;
+            if (head == null) {
+                head = tail = t;
+            } else {
+                tail.next = t;
+                t.prev = tail;
+                tail = t;
+            }
+        }
+
+        /**
+         * Remove the timeout from this bucket.
+         *
+         * @param t the timeout
+         * @return the next timeout in this bucket
+         */
+        private Timeout remove(Timeout t) {
+            Timeout next = t.next;
+            if (t.prev != null) {
+                t.prev.next = next;
+            }
+            if (next != null) {
+                next.prev = t.prev;
+            }
+            if (t == head) {
+                head = next;
+            }
+            if (t == tail) {
+                tail = t.prev;
+            }
+            t.prev = t.next = null;
+            t.bucket = null;
+            return next;
+        }
+
+        /**
+         * Expire all the timeouts of this round, and count down the rounds of the others.
+         */
+        private void expire() {
+            Timeout t = head;
+            while (t != null) {
+                if (t.remainingRounds <= 0) {
+                    Timeout next = remove(t);
+                    t.expire();
+                    t = next;
+                } else if (t.isCancelled()) {
+                    t = remove(t);
+                } else {
+                    --t.remainingRounds;
+                    t = t.next;
+                }
+            }
+        }
+
+        /**
+         * Remove all the timeouts from this bucket.
+         *
+         * @param list the list to save the removed timeouts
+         */
+        private void clear(List<Timeout> list) {
+            Timeout t = head;
+            while (t != null) {
+                Timeout next = remove(t);
+                list.add(t);
+                t = next;
+            }
+        }
+    }
+
+    /**
+     * The timeouts added but not put into the wheel yet.
+     */
+    private final ConcurrentLinkedQueue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<Timeout>();
+
+    /**
+     * The timeouts canceled but not removed from the wheel yet.
+     */
+    private final ConcurrentLinkedQueue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<Timeout>();
+
+    /**
+     * The name of the internal thread.
+     */
+    private final String name;
+
+    /**
+     * The tick duration in nanoseconds.
+     */
+    private final long tickDuration;
+
+    /**
+     * The buckets of the wheel.
+     */
+    private final Bucket[] wheel;
+
+    /**
+     * The mask to map ticks into buckets.
+     */
+    private final int mask;
+
+    /**
+     * The working status of this wheel.
+     */
+    private volatile boolean isWorking;
+
+    /**
+     * The internal thread.
+     */
+    private Thread thread;
+
+    /**
+     * The start time of the internal thread in nanoseconds, only accessed by the wheel thread.
+     */
+    private long startTime;
+
+    /**
+     * The current tick, only accessed by the wheel thread.
+     */
+    private long tick;
+
+    /**
+     * Create a new timing wheel.
+     *
+     * @param name the name of the internal thread
+     * @param tickDuration the duration of one tick in milliseconds
+     * @param ticksPerWheel the number of ticks in one round, will be rounded up to the power of 2
+     * @throws IllegalArgumentException if the tick duration or the ticks per wheel is not positive
+     */
+    public TimingWheel(String name, long tickDuration, int ticksPerWheel) {
+        super();
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration must be positive.");
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > 1 << 30) {
+            throw new IllegalArgumentException("ticksPerWheel must be in (0, 2^30].");
+        }
+        int n = 1;
+        while (n < ticksPerWheel) {
+            n <<= 1;
+        }
+        this.name = name;
+        this.tickDuration = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+        this.wheel = new Bucket[n];
+        for (int i = 0; i < n; ++i) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = n - 1;
+    }
+
+    /**
+     * Start the internal thread. We do nothing if it's already started.
+     */
+    public synchronized void start() {
+        if (isWorking) {
+            return;
+        }
+        isWorking = true;
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the internal thread. The timeouts not expired are kept, they will be scheduled
+     * again if this wheel is started again.
+     */
+    public synchronized void stop() {
+        if (!isWorking) {
+            return;
+        }
+        isWorking = false;
+        thread.interrupt();
+        if (thread != Thread.currentThread()) {
+            ThreadUtil.join(thread);
+        }
+    }
+
+    /**
+     * Schedule the task to be executed after the specified delay.
+     *
+     * @param task the task to be executed
+     * @param delay the delay in milliseconds
+     * @return the timeout handle which can be used to cancel the task
+     * @throws IllegalArgumentException if the task is null
+     */
+    public Timeout newTimeout(Task task, long delay) {
+        if (task == null) {
+            throw new IllegalArgumentException("task must not be null.");
+        }
+        Timeout t = new Timeout(this, task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay));
+        pendingTimeouts.add(t);
+        return t;
+    }
+
+    /**
+     * Override super method
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run() {
+        WHEEL_THREAD.set(Boolean.TRUE);
+        startTime = System.nanoTime();
+        tick = 0;
+        // The timeouts left by the last run are calculated from the old start time.
+        List<Timeout> list = new ArrayList<Timeout>();
+        for (Bucket b : wheel) {
+            b.clear(list);
+        }
+        for (Timeout t : list) {
+            place(t);
+        }
+        while (isWorking) {
+            if (!waitForNextTick()) {
+                continue;
+            }
+            removeCancelled();
+            transferPending();
+            wheel[(int) (tick & mask)].expire();
+            ++tick;
+        }
+    }
+
+    /**
+     * Sleep until the end of the current tick.
+     *
+     * @return true if the current tick is ended, false if interrupted
+     */
+    private boolean waitForNextTick() {
+        long deadline = startTime + (tick + 1) * tickDuration;
+        while (true) {
+            long sleepMs = (deadline - System.nanoTime() + 999999) / 1000000;
+            if (sleepMs <= 0) {
+                return true;
+            }
+            try {
+                Thread.sleep(sleepMs);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Remove the canceled timeouts from the wheel.
+     */
+    private void removeCancelled() {
+        Timeout t;
+        while ((t = cancelledTimeouts.poll()) != null) {
+            if (t.bucket != null) {
+                t.bucket.remove(t);
+            }
+        }
+    }
+
+    /**
+     * Move the newly added timeouts into the wheel.
+     */
+    private void transferPending() {
+        for (int i = 0; i < MAX_TRANSFER_PER_TICK; ++i) {
+            Timeout t = pendingTimeouts.poll();
+            if (t == null) {
+                break;
+            }
+            if (!t.isCancelled()) {
+                place(t);
+            }
+        }
+    }
+
+    /**
+     * Put the timeout into the bucket of its deadline. The timeouts already expired are put
+     * into the current bucket.
+     *
+     * @param t the timeout
+     */
+    private void place(Timeout t) {
+        long calculated = (t.deadline - startTime) / tickDuration;
+        t.remainingRounds = (calculated - tick) / wheel.length;
+        long ticks = Math.max(calculated, tick);
+        wheel[(int) (ticks & mask)].add(t);
+    }
+
+    /**
+     * @return the number of ticks in one round
+     */
+    public int getTicksPerWheel() {
+        return wheel.length;
+    }
+
+    /**
+     * @return the duration of one tick in milliseconds
+     */
+    public long getTickDuration() {
+        return TimeUnit.NANOSECONDS.toMillis(tickDuration);
+    }
+
+    /**
+     * Return the current working status of this wheel.
+     *
+     * @return the current status
+     */
+    public boolean isWorking() {
+        return isWorking;
+    }
+
+    /**
+     * Check whether the current thread is the internal thread of any timing wheel. The wheel
+     * thread is shared by many tasks, so the tasks must not block it.
+     *
+     * @return true if the current thread is a wheel thread
+     */
+    public static boolean isWheelThread() {
+        return WHEEL_THREAD.get() != null;
+    }
+
+}
@@ -0,0 +1,52 @@
+/**
+ * AttributeKeyTest.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public class AttributeKeyTest {
+
+    @Test
+    public void testValueOf() throws Exception {
+        AttributeKey<String> a = AttributeKey.valueOf("key.test.a");
+        AttributeKey<String> b = AttributeKey.valueOf("key.test.b");
+        assertSame(a, AttributeKey.valueOf("key.test.a"));
+        assertNotSame(a, b);
+        assertTrue(a.id() != b.id());
+        assertEquals("key.test.a", a.name());
+        assertEquals("key.test.b", b.toString());
+        assertTrue(a.id() < Config.ATTRIBUTE_MAX_KEYS);
+    }
+
+    @Test
+    public void testFind() throws Exception {
+        assertNull(AttributeKey.find("key.test.find"));
+        // Find never registers the key.
+        assertNull(AttributeKey.find("key.test.find"));
+        AttributeKey<Integer> a = AttributeKey.valueOf("key.test.find");
+        assertSame(a, AttributeKey.find("key.test.find"));
+    }
+
+}
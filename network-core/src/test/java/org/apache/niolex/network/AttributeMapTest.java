@@ -0,0 +1,95 @@
+/**
+ * AttributeMapTest.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.niolex.commons.reflect.FieldUtil;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public class AttributeMapTest {
+
+    private static final AttributeKey<String> KEY = AttributeKey.valueOf("map.test.key");
+
+    private AttributeMap map = new AttributeMap();
+
+    @Test
+    public void testGetSet() throws Exception {
+        assertNull(map.get(KEY));
+        // Remove will not create the segments.
+        assertNull(map.set(KEY, null));
+        assertNull(FieldUtil.getValue(map, "segments"));
+        assertNull(map.set(KEY, "a"));
+        assertEquals("a", map.get(KEY));
+        assertEquals("a", map.set(KEY, "b"));
+        assertEquals("b", map.set(KEY, null));
+        assertNull(map.get(KEY));
+    }
+
+    @Test
+    public void testSetIfAbsent() throws Exception {
+        assertNull(map.setIfAbsent(KEY, "a"));
+        assertEquals("a", map.setIfAbsent(KEY, "b"));
+        assertEquals("a", map.get(KEY));
+    }
+
+    @Test
+    public void testCompareAndSet() throws Exception {
+        assertFalse(map.compareAndSet(KEY, "a", "b"));
+        assertTrue(map.compareAndSet(KEY, null, "a"));
+        assertFalse(map.compareAndSet(KEY, null, "b"));
+        assertTrue(map.compareAndSet(KEY, "a", "b"));
+        assertEquals("b", map.get(KEY));
+    }
+
+    @Test
+    public void testSegments() throws Exception {
+        AttributeKey<Integer> other = null;
+        for (int i = 0; i < 17; ++i) {
+            other = AttributeKey.valueOf("map.test.seg" + i);
+        }
+        map.set(KEY, "a");
+        map.set(other, 17);
+        assertEquals("a", map.get(KEY));
+        assertEquals(17, map.get(other).intValue());
+        AtomicReferenceArray<?> segs = FieldUtil.getValue(map, "segments");
+        int cnt = 0;
+        for (int i = 0; i < segs.length(); ++i) {
+            if (segs.get(i) != null) {
+                ++cnt;
+            }
+        }
+        assertEquals(2, cnt);
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        map.set(KEY, "a");
+        map.clear();
+        assertNull(map.get(KEY));
+        assertNull(FieldUtil.getValue(map, "segments"));
+    }
+
+}
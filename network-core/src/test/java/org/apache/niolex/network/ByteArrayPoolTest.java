@@ -0,0 +1,88 @@
+/**
+ * ByteArrayPoolTest.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-22
+ */
+public class ByteArrayPoolTest {
+
+    private ByteArrayPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        pool = new ByteArrayPool(64);
+    }
+
+    @Test
+    public void testGetArray() throws Exception {
+        byte[] arr = pool.getArray(33);
+        assertEquals(33, arr.length);
+        assertTrue(pool.giveBack(arr));
+        assertSame(arr, pool.getArray(33));
+        assertNotSame(arr, pool.getArray(33));
+    }
+
+    @Test
+    public void testGetArrayOtherSize() throws Exception {
+        byte[] arr = pool.getArray(33);
+        assertTrue(pool.giveBack(arr));
+        byte[] brr = pool.getArray(34);
+        assertEquals(34, brr.length);
+        assertNotSame(arr, brr);
+    }
+
+    @Test
+    public void testGetArrayLarge() throws Exception {
+        byte[] arr = pool.getArray(65);
+        assertEquals(65, arr.length);
+        assertFalse(pool.giveBack(arr));
+        assertNotSame(arr, pool.getArray(65));
+    }
+
+    @Test
+    public void testGiveBack() throws Exception {
+        pool.setMaxSlabSize(1);
+        assertTrue(pool.giveBack(new byte[8]));
+        assertFalse(pool.giveBack(new byte[8]));
+        assertTrue(pool.giveBack(new byte[9]));
+        pool.getArray(8);
+        assertTrue(pool.giveBack(new byte[8]));
+    }
+
+    @Test
+    public void testGetMaxArraySize() throws Exception {
+        assertEquals(64, pool.getMaxArraySize());
+        assertEquals(Config.SERVER_POOL_MAX_ARRAY_SIZE, new ByteArrayPool().getMaxArraySize());
+    }
+
+    @Test
+    public void testGetMaxSlabSize() throws Exception {
+        assertEquals(Config.SERVER_POOL_MAX_SLAB_SIZE, pool.getMaxSlabSize());
+        pool.setMaxSlabSize(3);
+        assertEquals(3, pool.getMaxSlabSize());
+    }
+
+}
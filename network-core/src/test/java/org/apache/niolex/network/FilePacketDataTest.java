@@ -0,0 +1,95 @@
+/**
+ * FilePacketDataTest.java
+ *
+ * Copyright 2011 Niolex, Inc.
+ *
+ * Niolex licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import org.apache.niolex.commons.util.Const;
+
+import org.junit.Test;
+
+public class FilePacketDataTest {
+
+    @Test
+    public void testPutHeader() throws Exception {
+        FileChannel fc = mock(FileChannel.class);
+        FilePacketData pc = new FilePacketData(47, fc, 100, 15);
+        ByteBuffer ba = ByteBuffer.allocate(8);
+        pc.putHeader(ba);
+        ba.flip();
+        assertEquals(1, ba.get());
+        assertEquals(0, ba.get());
+        assertEquals(47, ba.getShort());
+        assertEquals(15, ba.getInt());
+        assertEquals(fc, pc.getFileChannel());
+        assertEquals(100, pc.getPosition());
+    }
+
+    @Test
+    public void testClone() throws Exception {
+        FileChannel fc = mock(FileChannel.class);
+        FilePacketData pc = new FilePacketData(47, fc, 100, 15);
+        pc.setReserved((byte) 3);
+        FilePacketData qc = pc.clone();
+        assertEquals(47, qc.getCode());
+        assertEquals(3, qc.getReserved());
+        assertEquals(15, qc.getLength());
+        assertEquals(100, qc.getPosition());
+        assertEquals(fc, qc.getFileChannel());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testExceedMax() throws Exception {
+        new FilePacketData(47, mock(FileChannel.class), 0, Config.SERVER_MAX_PACKET_SIZE + 1);
+    }
+
+    @Test
+    public void testSplit() throws Exception {
+        FileChannel fc = mock(FileChannel.class);
+        when(fc.size()).thenReturn(25L * Const.M);
+        List<FilePacketData> list = FilePacketData.split(5, fc);
+        assertEquals(3, list.size());
+        assertEquals(0, list.get(0).getPosition());
+        assertEquals(10 * Const.M, list.get(0).getLength());
+        assertEquals(20 * Const.M, list.get(2).getPosition());
+        assertEquals(5 * Const.M, list.get(2).getLength());
+    }
+
+    @Test
+    public void testSplitRegion() throws Exception {
+        FileChannel fc = mock(FileChannel.class);
+        List<FilePacketData> list = FilePacketData.split(5, fc, 10, 100, 50);
+        assertEquals(2, list.size());
+        assertEquals(60, list.get(1).getPosition());
+        assertEquals(50, list.get(1).getLength());
+        list = FilePacketData.split(5, fc, 10, 0, 50);
+        assertEquals(1, list.size());
+        assertEquals(0, list.get(0).getLength());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testSplitInvalidChunk() throws Exception {
+        FilePacketData.split(5, mock(FileChannel.class), 10, 100, 0);
+    }
+
+}
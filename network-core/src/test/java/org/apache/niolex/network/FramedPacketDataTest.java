@@ -0,0 +1,103 @@
+/**
+ * FramedPacketDataTest.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public class FramedPacketDataTest {
+
+    @Test
+    public void testFramedPacketData() throws Exception {
+        PacketData sc = new PacketData(3, new byte[] {1, 2, 3, 4, 5});
+        sc.setReserved((byte) 7);
+        sc.setCorrelationId(99);
+        FramedPacketData fp = new FramedPacketData(sc);
+        assertEquals(3, fp.getCode());
+        assertEquals(5, fp.getLength());
+        assertEquals(7, fp.getReserved());
+        assertEquals(1, fp.getVersion());
+        assertEquals(99, fp.getCorrelationId());
+        assertSame(sc.getData(), fp.getData());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testFramedFilePacket() throws Exception {
+        new FramedPacketData(new FilePacketData(3, null, 0, 100));
+    }
+
+    @Test
+    public void testGetFrame() throws Exception {
+        PacketData sc = new PacketData(3, new byte[] {1, 2, 3, 4, 5});
+        sc.setCorrelationId(99);
+        FramedPacketData fp = new FramedPacketData(sc);
+        ByteBuffer f1 = fp.getFrame(false);
+        assertTrue(f1.isDirect());
+        assertTrue(f1.isReadOnly());
+        assertEquals(13, f1.remaining());
+        PacketData p = new PacketData();
+        p.parseHeader(f1);
+        assertEquals(3, p.getCode());
+        assertEquals(5, p.getLength());
+        assertEquals(1, f1.get());
+        // Every view has it's own position.
+        ByteBuffer f2 = fp.getFrame(false);
+        assertNotSame(f1, f2);
+        assertEquals(13, f2.remaining());
+        // The version 2 frame.
+        ByteBuffer v2 = fp.getFrame(true);
+        assertEquals(17, v2.remaining());
+        p.parseHeader(v2, null, true);
+        assertEquals(99, p.getCorrelationId());
+        assertEquals(5, v2.remaining());
+    }
+
+    @Test
+    public void testGetFrameEmpty() throws Exception {
+        FramedPacketData fp = new FramedPacketData(new PacketData(4));
+        assertEquals(8, fp.getFrame(false).remaining());
+        assertEquals(12, fp.getFrame(true).remaining());
+    }
+
+    @Test
+    public void testPooled() throws Exception {
+        ByteArrayPool pool = new ByteArrayPool();
+        PacketData sc = new PacketData();
+        ByteBuffer bb = ByteBuffer.allocate(8);
+        new PacketData(5, new byte[20]).putHeader(bb);
+        bb.flip();
+        sc.parseHeader(bb, pool);
+        sc.getData()[3] = 9;
+        assertTrue(sc.isPooled());
+        FramedPacketData fp = new FramedPacketData(sc);
+        assertNotSame(sc.getData(), fp.getData());
+        sc.release();
+        assertEquals(20, fp.getData().length);
+        assertEquals(9, fp.getData()[3]);
+        assertFalse(fp.isPooled());
+    }
+
+}
@@ -58,6 +58,23 @@ public class PacketDataTest {
         assertEquals(10485760, pc.getLength());
     }
 
+    @Test
+    public void testHeaderV2() {
+        PacketData pc = new PacketData(47, "lex implemented".getBytes());
+        pc.setCorrelationId(-5);
+        ByteBuffer ba = ByteBuffer.allocate(PacketData.headerSize(true));
+        pc.putHeader(ba, true);
+        assertFalse(ba.hasRemaining());
+        ba.flip();
+        PacketData qc = new PacketData();
+        qc.parseHeader(ba, null, true);
+        assertEquals(47, qc.getCode());
+        assertEquals(15, qc.getLength());
+        assertEquals(-5, qc.getCorrelationId());
+        assertEquals(-5, pc.clone().getCorrelationId());
+        assertEquals(8, PacketData.headerSize(false));
+    }
+
     @Test(expected=IllegalStateException.class)
     public void testparseHeaderExceedMax() {
         PacketData pc = new PacketData();
@@ -69,4 +86,97 @@ public class PacketDataTest {
         assertEquals(10485760, pc.getLength());
     }
 
+    @Test
+    public void testReadHeaderLarge() {
+        PacketData pc = new PacketData();
+        ByteBuffer ba = ByteBuffer.allocate(8);
+        ba.putInt(12345);
+        ba.putInt(10485761);
+        ba.flip();
+        pc.readHeader(ba, false);
+        assertEquals(10485761, pc.getLength());
+        assertEquals(12345, pc.getCode());
+        assertNull(pc.getData());
+        assertFalse(ba.hasRemaining());
+    }
+
+    @Test
+    public void testAllocate() {
+        PacketData pc = new PacketData();
+        ByteBuffer ba = ByteBuffer.allocate(8);
+        ba.putInt(12345);
+        ba.putInt(100);
+        ba.flip();
+        pc.readHeader(ba, false);
+        pc.allocate(new ByteArrayPool());
+        assertEquals(100, pc.getData().length);
+        assertTrue(pc.isPooled());
+        assertTrue(pc.release());
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testAllocateExceedMax() {
+        PacketData pc = new PacketData();
+        pc.setLength(10485761);
+        pc.allocate(null);
+    }
+
+    @Test
+    public void testparseHeaderZeroLength() {
+        PacketData pc = new PacketData();
+        ByteBuffer ba = ByteBuffer.allocate(8);
+        ba.putInt(12345);
+        ba.putInt(0);
+        ba.flip();
+        pc.parseHeader(ba, new ByteArrayPool());
+        assertEquals(0, pc.getData().length);
+        assertFalse(pc.isPooled());
+        assertFalse(pc.release());
+    }
+
+    @Test
+    public void testRetainRelease() {
+        ByteArrayPool pool = new ByteArrayPool();
+        PacketData pc = new PacketData();
+        ByteBuffer ba = ByteBuffer.allocate(8);
+        ba.putInt(12345);
+        ba.putInt(100);
+        ba.flip();
+        pc.parseHeader(ba, pool);
+        byte[] data = pc.getData();
+        assertEquals(100, data.length);
+        assertTrue(pc.isPooled());
+        assertEquals(pc, pc.retain());
+        assertFalse(pc.release());
+        assertTrue(pc.release());
+        assertNull(pc.getData());
+        assertFalse(pc.isPooled());
+        assertFalse(pc.release());
+        assertSame(data, pool.getArray(100));
+    }
+
+    @Test
+    public void testSetDataPooled() {
+        ByteArrayPool pool = new ByteArrayPool();
+        PacketData pc = new PacketData();
+        ByteBuffer ba = ByteBuffer.allocate(8);
+        ba.putInt(12345);
+        ba.putInt(100);
+        ba.flip();
+        pc.parseHeader(ba, pool);
+        byte[] data = new byte[5];
+        pc.setData(data);
+        assertFalse(pc.isPooled());
+        assertFalse(pc.release());
+        assertSame(data, pc.getData());
+    }
+
+    @Test
+    public void testRetainNotPooled() {
+        PacketData pc = new PacketData(3, new byte[3]);
+        assertEquals(pc, pc.retain());
+        assertFalse(pc.release());
+        assertEquals(3, pc.getData().length);
+    }
+
 }
@@ -0,0 +1,319 @@
+/**
+ * UnixSocketUtilTest.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.niolex.commons.bean.One;
+import org.apache.niolex.network.client.BlockingClient;
+import org.apache.niolex.network.client.ClientManager;
+import org.apache.niolex.network.client.NioClient;
+import org.apache.niolex.network.client.NioClientGroup;
+import org.apache.niolex.network.client.PacketClient;
+import org.apache.niolex.network.client.SocketClient;
+import org.apache.niolex.network.demo.EchoPacketHandler;
+import org.apache.niolex.network.server.NioServer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public class UnixSocketUtilTest {
+
+    private static final String PATH = System.getProperty("java.io.tmpdir") + "/niolex-uds-test.sock";
+    private static NioServer server;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        if (!UnixSocketUtil.isSupported()) {
+            return;
+        }
+        server = new NioServer();
+        server.setTcpEnabled(false);
+        server.setUnixPath(PATH);
+        assertFalse(server.isTcpEnabled());
+        assertEquals(PATH, server.getUnixPath());
+        server.setPacketHandler(new EchoPacketHandler());
+        assertTrue(server.start());
+        assertTrue(new File(PATH).exists());
+    }
+
+    @AfterClass
+    public static void stop() throws Exception {
+        if (server != null) {
+            server.stop();
+            assertFalse(new File(PATH).exists());
+        }
+    }
+
+    @Test
+    public void testParseAddress() throws Exception {
+        InetSocketAddress a = UnixSocketUtil.parseAddress("unix:/tmp/a.sock");
+        assertTrue(UnixSocketUtil.isUnixAddress(a));
+        assertEquals("/tmp/a.sock", UnixSocketUtil.getPath(a));
+        assertEquals("unix:/tmp/a.sock", UnixSocketUtil.toString(a));
+        InetSocketAddress b = UnixSocketUtil.parseAddress("localhost:8809");
+        assertFalse(UnixSocketUtil.isUnixAddress(b));
+        assertEquals(8809, b.getPort());
+        assertEquals(b.toString(), UnixSocketUtil.toString(b));
+        assertFalse(UnixSocketUtil.isUnixAddress(null));
+        assertFalse(UnixSocketUtil.isUnixAddress(InetSocketAddress.createUnresolved("localhost", 0)));
+    }
+
+    @Test
+    public void testOpenChannelNotSupported() throws Exception {
+        if (UnixSocketUtil.isSupported()) {
+            return;
+        }
+        try {
+            UnixSocketUtil.openChannel(UnixSocketUtil.unixAddress(PATH));
+            fail("Should throw IOException.");
+        } catch (IOException e) {
+            assertEquals("Unix domain socket is not supported on this platform.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testRetryConnectFail() throws Exception {
+        // Either the socket file does not exist or the platform does not support it, we
+        // always get IOException, so the connect status is updated.
+        ClientManager cm = new ClientManager(new SocketClient());
+        cm.setAddressList(UnixSocketUtil.PREFIX + PATH + ".none");
+        cm.setConnectRetryTimes(1);
+        cm.setSleepBetweenRetryTime(10);
+        assertFalse(cm.retryConnect());
+        assertFalse(cm.waitForConnected());
+    }
+
+    @Test
+    public void testSocketClient() throws Exception {
+        if (!UnixSocketUtil.isSupported()) {
+            return;
+        }
+        final One<PacketData> one = new One<PacketData>();
+        SocketClient c = new SocketClient();
+        c.setServerAddress(UnixSocketUtil.PREFIX + PATH);
+        c.setPacketHandler(new IPacketHandler() {
+
+            @Override
+            public void handlePacket(PacketData sc, IPacketWriter wt) {
+                one.a = sc;
+            }
+
+            @Override
+            public void handleClose(IPacketWriter wt) {
+            }});
+        assertTrue(c.getRemoteName().endsWith("-0000"));
+        c.connect();
+        assertEquals("unix:" + PATH + "-uds", c.getRemoteName());
+        c.handleWrite(new PacketData(2, new byte[10000]));
+        assertEquals(10000, one.a.getLength());
+        c.stop();
+        assertTrue(c.getRemoteName().endsWith("-0000"));
+    }
+
+    @Test
+    public void testPacketClient() throws Exception {
+        if (!UnixSocketUtil.isSupported()) {
+            return;
+        }
+        final CountDownLatch latch = new CountDownLatch(100);
+        PacketClient c = new PacketClient(UnixSocketUtil.unixAddress(PATH));
+        c.setProtocolV2Enabled(true);
+        c.setPacketHandler(new IPacketHandler() {
+
+            @Override
+            public void handlePacket(PacketData sc, IPacketWriter wt) {
+                latch.countDown();
+            }
+
+            @Override
+            public void handleClose(IPacketWriter wt) {
+            }});
+        c.connect();
+        assertTrue(c.isProtocolV2());
+        for (int i = 0; i < 100; ++i) {
+            c.handleWrite(new PacketData(2, new byte[i * 100]));
+        }
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        c.stop();
+    }
+
+    @Test
+    public void testNioClient() throws Exception {
+        if (!UnixSocketUtil.isSupported()) {
+            return;
+        }
+        NioClientGroup group = new NioClientGroup(1);
+        group.start();
+        final CountDownLatch latch = new CountDownLatch(1);
+        NioClient c = new NioClient(group);
+        ClientManager cm = new ClientManager(c);
+        cm.setAddressList(UnixSocketUtil.PREFIX + PATH);
+        cm.setPacketHandler(new IPacketHandler() {
+
+            @Override
+            public void handlePacket(PacketData sc, IPacketWriter wt) {
+                latch.countDown();
+            }
+
+            @Override
+            public void handleClose(IPacketWriter wt) {
+            }});
+        assertTrue(cm.connect());
+        c.handleWrite(new PacketData(2, new byte[3000]));
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals("unix:" + PATH + "-0", c.getRemoteName());
+        cm.close();
+        group.stop();
+    }
+
+    @Test
+    public void testStreams() throws Exception {
+        if (!UnixSocketUtil.isSupported()) {
+            return;
+        }
+        String path = PATH + ".mute";
+        ServerSocketChannel ssc = UnixSocketUtil.openServerChannel(path);
+        SocketChannel ch = UnixSocketUtil.openChannel(UnixSocketUtil.unixAddress(path));
+        SocketChannel peer = null;
+        InputStream in = null;
+        try {
+            while ((peer = ssc.accept()) == null) {
+                Thread.sleep(1);
+            }
+            ch.configureBlocking(false);
+            in = UnixSocketUtil.newInputStream(ch, 100);
+            long start = System.currentTimeMillis();
+            try {
+                in.read();
+                fail("The read should time out.");
+            } catch (SocketTimeoutException e) {
+                assertTrue(System.currentTimeMillis() - start >= 90);
+            }
+            peer.write(ByteBuffer.wrap(new byte[] {5}));
+            assertEquals(5, in.read());
+            // Write more than the socket buffer, the writer waits for the peer to read.
+            final SocketChannel p = peer;
+            final ByteBuffer bb = ByteBuffer.allocate(4 * 1024 * 1024);
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        while (bb.hasRemaining() && p.read(bb) >= 0);
+                    } catch (IOException e) {}
+                }
+            };
+            t.start();
+            OutputStream out = UnixSocketUtil.newOutputStream(ch);
+            out.write(new byte[bb.capacity()]);
+            t.join(5000);
+            assertFalse(bb.hasRemaining());
+            in.close();
+            assertFalse(ch.isOpen());
+        } finally {
+            ch.close();
+            if (peer != null) {
+                peer.close();
+            }
+            ssc.close();
+            UnixSocketUtil.deletePath(path);
+        }
+    }
+
+    @Test
+    public void testBlockingClientTimeout() throws Exception {
+        if (!UnixSocketUtil.isSupported()) {
+            return;
+        }
+        // The server never answers, the read loop must time out and send the heart beat.
+        String path = PATH + ".mute";
+        ServerSocketChannel ssc = UnixSocketUtil.openServerChannel(path);
+        BlockingClient c = new BlockingClient(UnixSocketUtil.unixAddress(path));
+        c.setPacketHandler(new IPacketHandler() {
+
+            @Override
+            public void handlePacket(PacketData sc, IPacketWriter wt) {
+            }
+
+            @Override
+            public void handleClose(IPacketWriter wt) {
+            }});
+        SocketChannel peer = null;
+        try {
+            c.setConnectTimeout(100);
+            c.connect();
+            while ((peer = ssc.accept()) == null) {
+                Thread.sleep(1);
+            }
+            ByteBuffer bb = ByteBuffer.allocate(Config.PACKET_HEADER_SIZE);
+            peer.configureBlocking(true);
+            while (bb.hasRemaining()) {
+                assertTrue(peer.read(bb) >= 0);
+            }
+            assertEquals(Config.CODE_HEART_BEAT, bb.getShort(2));
+            assertTrue(c.isWorking());
+        } finally {
+            c.stop();
+            if (peer != null) {
+                peer.close();
+            }
+            ssc.close();
+            UnixSocketUtil.deletePath(path);
+        }
+    }
+
+    @Test
+    public void testNegotiateTimeout() throws Exception {
+        if (!UnixSocketUtil.isSupported()) {
+            return;
+        }
+        // The server never answers, the client must not wait forever.
+        String path = PATH + ".mute";
+        ServerSocketChannel ssc = UnixSocketUtil.openServerChannel(path);
+        SocketClient c = new SocketClient();
+        try {
+            c.setServerAddress(UnixSocketUtil.PREFIX + path);
+            c.setConnectTimeout(100);
+            c.setProtocolV2Enabled(true);
+            c.connect();
+            assertFalse(c.isProtocolV2());
+            assertTrue(c.isWorking());
+        } finally {
+            c.stop();
+            ssc.close();
+            UnixSocketUtil.deletePath(path);
+        }
+    }
+
+}
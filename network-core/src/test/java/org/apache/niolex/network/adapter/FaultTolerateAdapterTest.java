@@ -30,6 +30,7 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.niolex.commons.collection.CircularList;
 import org.apache.niolex.commons.reflect.FieldUtil;
+import org.apache.niolex.network.AttributeKey;
 import org.apache.niolex.network.Config;
 import org.apache.niolex.network.IPacketHandler;
 import org.apache.niolex.network.IPacketWriter;
@@ -52,6 +53,8 @@ import org.mockito.runners.MockitoJUnitRunner;
 @RunWith(MockitoJUnitRunner.class)
 public class FaultTolerateAdapterTest {
 
+	private static final AttributeKey<String> UUID_KEY = AttributeKey.valueOf(Config.ATTACH_KEY_FAULTTO_UUID);
+
 	@Mock
 	private IPacketHandler h;
 	@Mock
@@ -85,8 +88,8 @@ public class FaultTolerateAdapterTest {
         PacketData sc = new PacketData(Config.CODE_REGR_UUID, "AJFIUEALKD".getBytes());
         fault.handlePacket(sc, wt);
         verify(h, times(0)).handlePacket(sc, wt);
-        verify(wt).addEventListener(fault);
-        verify(wt, times(2)).attachData(anyString(), anyObject());
+        verify(wt).addSentListener(fault);
+        verify(wt, times(2)).attachData(any(AttributeKey.class), anyObject());
     }
 
 	/**
@@ -104,7 +107,7 @@ public class FaultTolerateAdapterTest {
         verify(h, times(0)).handlePacket(sc, bpw);
         verify(h, times(1)).handlePacket(sc2, bpw);
 
-        verify(bpw).attachData(Config.ATTACH_KEY_FAULTTO_UUID, "AJFIUEALKD");
+        verify(bpw).attachData(UUID_KEY, "AJFIUEALKD");
 
         // Test fault tolerate.
         bpw.handleWrite(sc2);
@@ -242,7 +245,7 @@ public class FaultTolerateAdapterTest {
 		PacketData sc = new PacketData(Config.CODE_REGR_UUID, "AJFIUEALKD".getBytes());
 		IPacketWriter wt = mock(IPacketWriter.class);
 		fault.handlePacket(sc, wt);
-		verify(wt).attachData(Config.ATTACH_KEY_FAULTTO_UUID, "AJFIUEALKD");
+		verify(wt).attachData(UUID_KEY, "AJFIUEALKD");
 	}
 
 	/**
@@ -277,11 +280,11 @@ public class FaultTolerateAdapterTest {
 		IPacketWriter wt2 = mock(IPacketWriter.class);
 		// regi again
 		fault.handlePacket(sc, wt2);
-		verify(wt2).attachData(Config.ATTACH_KEY_FAULTTO_UUID, "AJFIUEALKD");
+		verify(wt2).attachData(UUID_KEY, "AJFIUEALKD");
 
 		TBasePacketWriter wt3 = spy(new TBasePacketWriter());
 		fault.handlePacket(sc, wt3);
-		verify(wt3).attachData(Config.ATTACH_KEY_FAULTTO_UUID, "AJFIUEALKD");
+		verify(wt3).attachData(UUID_KEY, "AJFIUEALKD");
 
 		ArgumentCaptor<PacketData> argument = ArgumentCaptor.forClass(PacketData.class);
 		verify(wt3, times(0)).handleWrite((PacketData) argument.capture());
@@ -20,15 +20,20 @@ package org.apache.niolex.network.adapter;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.niolex.network.AttributeKey;
 import org.apache.niolex.network.Config;
 import org.apache.niolex.network.IPacketHandler;
 import org.apache.niolex.network.IPacketWriter;
 import org.apache.niolex.network.PacketData;
 import org.apache.niolex.network.TBasePacketWriter;
 import org.apache.niolex.network.event.WriteEvent;
+import org.apache.niolex.network.server.TimingWheel;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 /**
  * @author <a href="mailto:xiejiyun@gmail.com">Xie, Jiyun</a>
@@ -37,6 +42,8 @@ import org.junit.Test;
  */
 public class HeartBeatAdapterTest {
 
+    public static final AttributeKey<Long> KEY = AttributeKey.valueOf(Config.ATTACH_KEY_HEART_BEAT);
+
     public static final IPacketHandler other = mock(IPacketHandler.class);
     public static final HeartBeatAdapter ha = new HeartBeatAdapter(other);
 
@@ -63,8 +70,8 @@ public class HeartBeatAdapterTest {
         IPacketWriter wt = spy(new TBasePacketWriter());
         PacketData sc = new PacketData();
         ha.handlePacket(sc, wt);
-        verify(wt, atLeast(1)).attachData(anyString(), anyObject());
-        verify(wt).addEventListener(ha);
+        verify(wt, atLeast(1)).attachIfAbsent(eq(KEY), anyLong());
+        verify(wt).addSentListener(ha);
     }
 
     @Test
@@ -75,8 +82,8 @@ public class HeartBeatAdapterTest {
         wt.attachData(Config.ATTACH_KEY_HEART_BEAT, System.currentTimeMillis());
         PacketData sc = new PacketData();
         ha.handlePacket(sc, wt);
-        verify(wt, times(1)).attachData(anyString(), anyObject());
-        verify(wt, never()).addEventListener(ha);
+        verify(wt, never()).attachIfAbsent(eq(KEY), anyLong());
+        verify(wt, never()).addSentListener(ha);
     }
 
     @Test
@@ -86,8 +93,8 @@ public class HeartBeatAdapterTest {
         IPacketWriter wt = spy(new TBasePacketWriter());
         PacketData sc = new PacketData();
         ha.handlePacket(sc, wt);
-        verify(wt, times(0)).attachData(anyString(), anyObject());
-        verify(wt, never()).addEventListener(ha);
+        verify(wt, never()).attachIfAbsent(eq(KEY), anyLong());
+        verify(wt, never()).addSentListener(ha);
     }
 
     @Test
@@ -97,12 +104,15 @@ public class HeartBeatAdapterTest {
         IPacketWriter wt = spy(new TBasePacketWriter());
         PacketData sc = new PacketData(Config.CODE_REGR_HBEAT, new byte[0]);
         ha.handlePacket(sc, wt);
-        verify(wt).attachData(anyString(), anyObject());
-        verify(wt).addEventListener(ha);
+        verify(wt).attachIfAbsent(eq(KEY), anyLong());
+        verify(wt).addSentListener(ha);
         // handle again, will not do anything this time.
         ha.handlePacket(sc, wt);
-        verify(wt).attachData(anyString(), anyObject());
-        verify(wt).addEventListener(ha);
+        verify(wt).attachIfAbsent(eq(KEY), anyLong());
+        verify(wt).addSentListener(ha);
+        // register directly, already registered.
+        ha.registerHeartBeat(wt);
+        verify(wt).addSentListener(ha);
     }
 
     @Test
@@ -111,7 +121,8 @@ public class HeartBeatAdapterTest {
         wt.attachData(Config.ATTACH_KEY_HEART_BEAT, System.currentTimeMillis() - 151);
         WriteEvent wEvent = new WriteEvent(wt, null);
         ha.afterSent(wEvent);
-        verify(wt, times(2)).attachData(anyString(), anyObject());
+        verify(wt).compareAndAttach(eq(KEY), anyLong(), anyLong());
+        assertTrue(System.currentTimeMillis() - wt.getAttached(KEY) < 150);
     }
     
     @Test
@@ -120,7 +131,7 @@ public class HeartBeatAdapterTest {
         wt.attachData(Config.ATTACH_KEY_HEART_BEAT, System.currentTimeMillis() - 39);
         WriteEvent wEvent = new WriteEvent(wt, null);
         ha.afterSent(wEvent);
-        verify(wt, times(1)).attachData(anyString(), anyObject());
+        verify(wt, never()).compareAndAttach(eq(KEY), anyLong(), anyLong());
     }
 
     @Test
@@ -128,21 +139,104 @@ public class HeartBeatAdapterTest {
         IPacketWriter wt = spy(new TBasePacketWriter());
         WriteEvent wEvent = new WriteEvent(wt, null);
         ha.afterSent(wEvent);
-        verify(wt, never()).attachData(anyString(), anyObject());
+        verify(wt, never()).compareAndAttach(eq(KEY), anyLong(), anyLong());
     }
 
     @Test
     public void testHandleClose() throws Exception {
         IPacketWriter wt = spy(new TBasePacketWriter());
         ha.handleClose(wt);
-        verify(wt).attachData(Config.ATTACH_KEY_HEART_BEAT, null);
+        verify(wt).attachData(KEY, null);
+        // The time stamp will not come back after closed.
+        ha.afterSent(new WriteEvent(wt, null));
+        assertNull(wt.getAttached(KEY));
     }
 
     @Test
-    public void testRun() throws Exception {
-        HeartBeatAdapter ada = new HeartBeatAdapter(null);
-        ada.run();
+    public void testSharedWheel() throws Exception {
+        TimingWheel wheel = mock(TimingWheel.class);
+        HeartBeatAdapter ada = new HeartBeatAdapter(null, wheel);
+        ada.setHeartBeatInterval(8000);
+        ada.start();
+        verify(wheel).start();
+        assertTrue(ada.isWorking());
+        IPacketWriter wt = spy(new TBasePacketWriter());
+        ada.registerHeartBeat(wt);
+        ArgumentCaptor<TimingWheel.Task> captor = ArgumentCaptor.forClass(TimingWheel.Task.class);
+        verify(wheel).newTimeout(captor.capture(), eq(8000L));
+        TimingWheel.Task task = captor.getValue();
+        // Packet sent just now, check again later.
+        task.run(null);
+        verify(wt, never()).handleWrite(PacketData.getHeartBeatPacket());
+        verify(wheel, times(2)).newTimeout(eq(task), anyLong());
+        // No packet sent during the interval.
+        wt.attachData(KEY, System.currentTimeMillis() - 8000);
+        task.run(null);
+        verify(wt).handleWrite(PacketData.getHeartBeatPacket());
+        verify(wheel, times(3)).newTimeout(eq(task), anyLong());
+        // Closed, the task is not scheduled again.
+        ada.handleClose(wt);
+        task.run(null);
+        verify(wheel, times(3)).newTimeout(eq(task), anyLong());
+        // The shared wheel is not stopped by the adapter.
+        ada.stop();
         assertFalse(ada.isWorking());
+        verify(wheel, never()).stop();
+    }
+
+    @Test
+    public void testStopped() throws Exception {
+        TimingWheel wheel = mock(TimingWheel.class);
+        HeartBeatAdapter ada = new HeartBeatAdapter(null, wheel);
+        IPacketWriter wt = spy(new TBasePacketWriter());
+        ada.registerHeartBeat(wt);
+        ArgumentCaptor<TimingWheel.Task> captor = ArgumentCaptor.forClass(TimingWheel.Task.class);
+        verify(wheel).newTimeout(captor.capture(), anyLong());
+        wt.attachData(KEY, System.currentTimeMillis() - 100000);
+        // Not started, so heart beat is not sent, and the task is parked.
+        captor.getValue().run(null);
+        verify(wt, never()).handleWrite(PacketData.getHeartBeatPacket());
+        verify(wheel, times(1)).newTimeout(eq(captor.getValue()), anyLong());
+        assertNotNull(wt.getAttached(KEY));
+        // The parked task is scheduled again when started.
+        ada.start();
+        verify(wheel, times(2)).newTimeout(eq(captor.getValue()), anyLong());
+    }
+
+    @Test
+    public void testStopSharedWheel() throws Exception {
+        TimingWheel wheel = new TimingWheel("HeartBeatAdapterTest", 10, 64);
+        HeartBeatAdapter ada = new HeartBeatAdapter(null, wheel);
+        ada.setHeartBeatInterval(80);
+        ada.start();
+        final AtomicInteger beats = new AtomicInteger();
+        IPacketWriter wt = new TBasePacketWriter() {
+            @Override
+            public void handleWrite(PacketData sc) {
+                if (sc.getCode() == Config.CODE_HEART_BEAT) {
+                    beats.incrementAndGet();
+                }
+            }
+        };
+        try {
+            ada.registerHeartBeat(wt);
+            assertNotNull(wt.getAttached(KEY));
+            ada.stop();
+            assertTrue(wheel.isWorking());
+            Thread.sleep(200);
+            int stopped = beats.get();
+            Thread.sleep(300);
+            // No heart beat while stopped, but the client is still registered.
+            assertEquals(stopped, beats.get());
+            assertNotNull(wt.getAttached(KEY));
+            // The heart beat goes on after restart, without register again.
+            ada.start();
+            Thread.sleep(300);
+            assertTrue(beats.get() > stopped);
+        } finally {
+            ada.stop();
+            wheel.stop();
+        }
     }
 
 	@Test
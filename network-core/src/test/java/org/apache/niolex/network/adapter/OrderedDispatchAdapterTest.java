@@ -0,0 +1,165 @@
+/**
+ * OrderedDispatchAdapterTest.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.adapter;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.niolex.network.IPacketHandler;
+import org.apache.niolex.network.IPacketWriter;
+import org.apache.niolex.network.PacketData;
+import org.apache.niolex.network.TBasePacketWriter;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public class OrderedDispatchAdapterTest {
+
+    /**
+     * Record the packet codes, and count down the latch when closed.
+     */
+    static class OrderHandler implements IPacketHandler {
+        final List<Short> codes = new ArrayList<Short>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        volatile Thread thread;
+
+        @Override
+        public void handlePacket(PacketData sc, IPacketWriter wt) {
+            thread = Thread.currentThread();
+            codes.add(sc.getCode());
+        }
+
+        @Override
+        public void handleClose(IPacketWriter wt) {
+            codes.add((short) -1);
+            latch.countDown();
+        }
+    }
+
+    /**
+     * Collect the tasks and run them manually.
+     */
+    static class ManualExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    @Test
+    public void testOrder() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        OrderHandler h = new OrderHandler();
+        OrderedDispatchAdapter ada = new OrderedDispatchAdapter(h, pool);
+        IPacketWriter wt = new TBasePacketWriter();
+        for (int i = 0; i < 500; ++i) {
+            ada.handlePacket(new PacketData(i), wt);
+        }
+        ada.handleClose(wt);
+        assertTrue(h.latch.await(5, TimeUnit.SECONDS));
+        pool.shutdown();
+        assertEquals(501, h.codes.size());
+        for (int i = 0; i < 500; ++i) {
+            assertEquals(i, h.codes.get(i).intValue());
+        }
+        assertEquals(-1, h.codes.get(500).intValue());
+        assertNotSame(Thread.currentThread(), h.thread);
+        assertEquals(500, ada.getHandledPackets());
+        assertEquals(0, ada.getPendingPackets());
+        assertEquals(0, ada.getDroppedPackets());
+    }
+
+    @Test
+    public void testQueueFull() throws Exception {
+        ManualExecutor ex = new ManualExecutor();
+        OrderHandler h = new OrderHandler();
+        OrderedDispatchAdapter ada = new OrderedDispatchAdapter(h, ex, 2);
+        assertEquals(2, ada.getMaxQueueSize());
+        IPacketWriter wt = new TBasePacketWriter();
+        ada.handlePacket(new PacketData(1), wt);
+        ada.handlePacket(new PacketData(2), wt);
+        ada.handlePacket(new PacketData(3), wt);
+        assertEquals(1, ex.tasks.size());
+        assertEquals(2, ada.getPendingPackets());
+        assertEquals(1, ada.getDroppedPackets());
+        // Close is never dropped.
+        ada.handleClose(wt);
+        ex.runAll();
+        assertEquals(3, h.codes.size());
+        assertEquals(2, h.codes.get(1).intValue());
+        assertEquals(-1, h.codes.get(2).intValue());
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        ManualExecutor ex = new ManualExecutor();
+        OrderHandler h = new OrderHandler();
+        OrderedDispatchAdapter ada = new OrderedDispatchAdapter(h, ex);
+        IPacketWriter wt = new TBasePacketWriter();
+        for (int i = 0; i < 70; ++i) {
+            ada.handlePacket(new PacketData(i), wt);
+        }
+        assertEquals(1, ex.tasks.size());
+        ex.tasks.remove(0).run();
+        assertEquals(64, h.codes.size());
+        // Rescheduled for the remaining packets.
+        assertEquals(1, ex.tasks.size());
+        ex.runAll();
+        assertEquals(70, h.codes.size());
+        assertEquals(69, h.codes.get(69).intValue());
+    }
+
+    @Test
+    public void testHandlerError() throws Exception {
+        ManualExecutor ex = new ManualExecutor();
+        IPacketHandler h = mock(IPacketHandler.class);
+        OrderedDispatchAdapter ada = new OrderedDispatchAdapter(h, ex);
+        IPacketWriter wt = new TBasePacketWriter();
+        PacketData a = new PacketData(1);
+        PacketData b = new PacketData(2);
+        doThrow(new IllegalStateException("Test")).when(h).handlePacket(a, wt);
+        doThrow(new IllegalStateException("Test")).when(h).handleClose(wt);
+        ada.handlePacket(a, wt);
+        ada.handlePacket(b, wt);
+        ada.handleClose(wt);
+        ex.runAll();
+        verify(h).handlePacket(b, wt);
+        verify(h).handleClose(wt);
+        assertEquals(2, ada.getHandledPackets());
+    }
+
+}
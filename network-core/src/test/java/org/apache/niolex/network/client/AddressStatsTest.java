@@ -0,0 +1,74 @@
+/**
+ * AddressStatsTest.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.client;
+
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public class AddressStatsTest {
+
+    private final InetSocketAddress addr = new InetSocketAddress("localhost", 8809);
+
+    @Test
+    public void testConnected() throws Exception {
+        AddressStats stats = new AddressStats(addr);
+        assertSame(addr, stats.getAddress());
+        assertEquals(-1, stats.getLatency());
+        assertEquals(0, stats.rank());
+        stats.connected(40);
+        assertEquals(40, stats.getLatency());
+        stats.connected(0);
+        assertEquals(30, stats.getLatency());
+        assertEquals(30, stats.rank());
+        assertTrue(stats.toString().endsWith("[latency=30, failures=0]"));
+    }
+
+    @Test
+    public void testFailed() throws Exception {
+        AddressStats stats = new AddressStats(addr);
+        assertEquals(0, stats.getLastFailTime());
+        stats.connected(10);
+        stats.failed();
+        stats.failed();
+        assertEquals(2, stats.getFailures());
+        assertEquals(2, stats.getTotalFailures());
+        assertTrue(stats.getLastFailTime() > 0);
+        assertEquals((2L << 32) + 10, stats.rank());
+        stats.connected(10);
+        assertEquals(0, stats.getFailures());
+        assertEquals(2, stats.getTotalFailures());
+    }
+
+    @Test
+    public void testRank() throws Exception {
+        AddressStats a = new AddressStats(addr);
+        AddressStats b = new AddressStats(addr);
+        a.connected(1000);
+        b.failed();
+        assertTrue(a.rank() < b.rank());
+    }
+
+}
@@ -21,6 +21,8 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -30,7 +32,11 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
 
+import org.apache.niolex.network.AttributeKey;
+import org.apache.niolex.network.Config;
+import org.apache.niolex.network.FilePacketData;
 import org.apache.niolex.network.IPacketHandler;
 import org.apache.niolex.network.PacketData;
 import org.junit.Test;
@@ -137,6 +143,154 @@ public class BaseClientTest extends BaseClient {
         assertEquals(26, ba.getInt());
     }
 
+    @Test
+    public void testPutFlushPackets() throws Exception {
+        final int[] flushed = new int[1];
+        ByteArrayOutputStream bout = new ByteArrayOutputStream() {
+            @Override
+            public void flush() {
+                ++flushed[0];
+            }
+        };
+        out = bout;
+        assertEquals(0, getPacketsPerFlush(), 0.001);
+        long packets = getFlushedPackets();
+        long flushes = getFlushCount();
+        putPacket(new PacketData(47, new byte[5]));
+        putPacket(new PacketData(48, new byte[6]));
+        putPacket(new PacketData(49));
+        assertEquals(0, flushed[0]);
+        assertEquals(8 * 3 + 11, bout.size());
+        flushPackets();
+        assertEquals(1, flushed[0]);
+        writePacket(new PacketData(50));
+        assertEquals(2, flushed[0]);
+        assertEquals(packets + 4, getFlushedPackets());
+        assertEquals(flushes + 2, getFlushCount());
+        assertEquals(2.0, getPacketsPerFlush(), 0.001);
+    }
+
+    @Test
+    public void testCombineWrite() throws Exception {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        out = bout;
+        long packets = getFlushedPackets();
+        long flushes = getFlushCount();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] ts = new Thread[8];
+        for (int i = 0; i < ts.length; ++i) {
+            final int code = i + 10;
+            ts[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int k = 0; k < 100; ++k) {
+                            combineWrite(new PacketData(code, new byte[k]));
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            ts[i].start();
+        }
+        start.countDown();
+        for (Thread t : ts) {
+            t.join();
+        }
+        assertEquals(packets + 800, getFlushedPackets());
+        assertTrue(getFlushCount() - flushes <= 800);
+        // Packets from one thread must be in order.
+        int[] next = new int[8];
+        in = new ByteArrayInputStream(bout.toByteArray());
+        for (int i = 0; i < 800; ++i) {
+            PacketData pc = readPacket();
+            int idx = pc.getCode() - 10;
+            assertEquals(next[idx]++, pc.getLength());
+        }
+        for (int i = 0; i < 8; ++i) {
+            assertEquals(100, next[i]);
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testPutPacketFile() throws Exception {
+        out = new ByteArrayOutputStream();
+        putPacket(new FilePacketData(47, null, 0, 10));
+    }
+
+    @Test
+    public void testCombineWriteFile() throws Exception {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        out = bout;
+        try {
+            combineWrite(new FilePacketData(47, null, 0, 10));
+            fail("Should throw IllegalArgumentException.");
+        } catch (IllegalArgumentException e) {
+            assertEquals("The file packet is not supported by the client.", e.getMessage());
+        }
+        assertEquals(0, bout.size());
+    }
+
+    @Test(expected=IOException.class)
+    public void testCombineWriteError() throws Exception {
+        out = new ByteArrayOutputStream() {
+            @Override
+            public void flush() throws IOException {
+                throw new IOException("Combine#Flush");
+            }
+        };
+        combineWrite(new PacketData(47, new byte[5]));
+    }
+
+    @Test
+    public void testReadWritePacketV2() throws Exception {
+        PacketData pc = new PacketData(47, "lex implemented v2.".getBytes());
+        pc.setCorrelationId(987654321);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        out = bout;
+        protocolV2 = true;
+        writePacket(pc);
+        assertEquals(12 + pc.getLength(), bout.size());
+        in = new ByteArrayInputStream(bout.toByteArray());
+        PacketData qc = readPacket();
+        protocolV2 = false;
+        assertArrayEquals(pc.getData(), qc.getData());
+        assertEquals(987654321, qc.getCorrelationId());
+    }
+
+    @Test
+    public void testNegotiateProtocol() throws Exception {
+        PacketData ack = new PacketData(Config.CODE_PROTOCOL_V2);
+        ack.setReserved((byte) 1);
+        ByteBuffer bb = ByteBuffer.allocate(8);
+        ack.putHeader(bb);
+        in = new ByteArrayInputStream(bb.array());
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        out = bout;
+        negotiateProtocol();
+        assertTrue(isProtocolV2());
+        protocolV2 = false;
+        ByteBuffer ba = ByteBuffer.wrap(bout.toByteArray());
+        assertEquals(8, ba.remaining());
+        assertEquals(2, ba.get());
+        assertEquals(0, ba.get());
+        assertEquals(Config.CODE_PROTOCOL_V2, ba.getShort());
+    }
+
+    @Test
+    public void testNegotiateProtocolEchoed() throws Exception {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        out = bout;
+        // The old echo server just sends our request back.
+        PacketData req = new PacketData(Config.CODE_PROTOCOL_V2);
+        req.setVersion((byte) 2);
+        writePacket(req);
+        in = new ByteArrayInputStream(bout.toByteArray());
+        negotiateProtocol();
+        assertFalse(isProtocolV2());
+    }
+
     @Test(expected=IOException.class)
     public void testReadPacketEOH() throws IOException {
         byte[] b = new byte[7];
@@ -215,14 +369,39 @@ public class BaseClientTest extends BaseClient {
         addEventListener(null);
     }
 
+    @Test(expected=UnsupportedOperationException.class)
+    public void testAddSentListener() throws Exception {
+        addSentListener(null);
+    }
+
     @Test(expected=UnsupportedOperationException.class)
     public void testAttachData() throws Exception {
         attachData("abc", null);
     }
 
+    @Test(expected=UnsupportedOperationException.class)
+    public void testAttachDataTyped() throws Exception {
+        attachData(AttributeKey.valueOf("abc"), null);
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void testAttachIfAbsent() throws Exception {
+        attachIfAbsent(AttributeKey.valueOf("abc"), "a");
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void testCompareAndAttach() throws Exception {
+        compareAndAttach(AttributeKey.valueOf("abc"), null, "a");
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void testGetAttachedTyped() throws Exception {
+        getAttached(AttributeKey.valueOf("abc"));
+    }
+
     @Test(expected=UnsupportedOperationException.class)
     public void testGetAttached() throws Exception {
-        getAttached(null);
+        getAttached((String) null);
     }
 
     @Test
@@ -24,6 +24,8 @@ import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 
 import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -285,6 +287,136 @@ public class ClientManagerTest {
         System.out.println(cm.getAddressList());
     }
 
+    @Test
+    public void testRaceConnect() throws InterruptedException {
+        SocketClient sc = new SocketClient();
+        ClientManager cm = new ClientManager(sc);
+        cm.setConnectTimeout(500);
+        cm.setRaceWidth(3);
+        cm.setRaceDelay(50);
+        assertEquals(3, cm.getRaceWidth());
+        assertEquals(50, cm.getRaceDelay());
+        InetSocketAddress good = new InetSocketAddress("localhost", 8809);
+        cm.setAddressList(Arrays.asList(new InetSocketAddress("localhost", 8101), good,
+                new InetSocketAddress("localhost", 8102)));
+        assertTrue(cm.connect());
+        assertTrue(cm.waitForConnected());
+        assertEquals(good, sc.getServerAddress());
+        AddressStats stats = cm.getAddressStats(good);
+        assertTrue(stats.getLatency() >= 0);
+        assertEquals(0, stats.getFailures());
+        cm.close();
+    }
+
+    @Test
+    public void testRaceCancelLosers() throws Exception {
+        // The backlog is full, so connecting to this server will hang.
+        ServerSocket ss = new ServerSocket(8111, 1);
+        Socket s1 = new Socket("localhost", 8111);
+        Socket s2 = new Socket("localhost", 8111);
+        SocketClient sc = new SocketClient();
+        ClientManager cm = new ClientManager(sc);
+        try {
+            cm.setConnectTimeout(5000);
+            cm.setRaceWidth(2);
+            cm.setRaceDelay(50);
+            InetSocketAddress slow = new InetSocketAddress("localhost", 8111);
+            InetSocketAddress good = new InetSocketAddress("localhost", 8809);
+            cm.setAddressList(Arrays.asList(good, slow));
+            cm.rankAddresses();
+            // Make the hanging one rank first.
+            cm.getAddressStats(good).connected(100);
+            long start = System.currentTimeMillis();
+            assertTrue(cm.connect());
+            assertTrue(System.currentTimeMillis() - start < 3000);
+            assertEquals(good, sc.getServerAddress());
+            Thread.sleep(100);
+            // The loser is cancelled, not failed.
+            assertEquals(0, cm.getAddressStats(slow).getFailures());
+            for (StackTraceElement[] stack : Thread.getAllStackTraces().values()) {
+                for (StackTraceElement e : stack) {
+                    assertFalse(e.getClassName().endsWith("ClientManager$Probe"));
+                }
+            }
+        } finally {
+            cm.close();
+            s1.close();
+            s2.close();
+            ss.close();
+        }
+    }
+
+    @Test
+    public void testRaceSingleAddress() throws InterruptedException {
+        SocketClient sc = new SocketClient();
+        ClientManager cm = new ClientManager(sc);
+        cm.setRaceWidth(3);
+        InetSocketAddress good = new InetSocketAddress("localhost", 8809);
+        cm.setAddressList(Arrays.asList(good));
+        assertTrue(cm.connect());
+        // There is nothing to race, but the latency is still recorded.
+        assertTrue(cm.getAddressStats(good).getLatency() >= 0);
+        cm.close();
+    }
+
+    @Test
+    public void testRaceConnectAllDead() throws InterruptedException {
+        SocketClient sc = new SocketClient();
+        ClientManager cm = new ClientManager(sc);
+        cm.setConnectTimeout(500);
+        cm.setRaceWidth(2);
+        cm.setConnectRetryTimes(1);
+        cm.setSleepBetweenRetryTime(1);
+        InetSocketAddress dead = new InetSocketAddress("localhost", 8103);
+        cm.setAddressList(Arrays.asList(dead, new InetSocketAddress("localhost", 8104)));
+        assertFalse(cm.connect());
+        assertFalse(cm.waitForConnected());
+        assertEquals(ConnStatus.CLOSED, cm.getConnStatus());
+        assertEquals(2, cm.getAddressStats(dead).getFailures());
+        assertEquals(-1, cm.getAddressStats(dead).getLatency());
+    }
+
+    @Test
+    public void testRankAddresses() {
+        ClientManager cm = new ClientManager(new SocketClient());
+        cm.setRaceWidth(3);
+        InetSocketAddress a = new InetSocketAddress("localhost", 8105);
+        InetSocketAddress b = new InetSocketAddress("localhost", 8106);
+        InetSocketAddress c = new InetSocketAddress("localhost", 8107);
+        cm.setAddressList(Arrays.asList(a, b, c));
+        List<InetSocketAddress> list = cm.rankAddresses();
+        assertEquals(3, list.size());
+        cm.getAddressStats(a).failed();
+        cm.getAddressStats(b).connected(30);
+        cm.getAddressStats(c).connected(20);
+        list = cm.rankAddresses();
+        assertEquals(Arrays.asList(c, b, a), list);
+    }
+
+    @Test
+    public void testRetrySleepTime() {
+        ClientManager cm = new ClientManager(new SocketClient());
+        cm.setSleepBetweenRetryTime(100);
+        cm.setMaxSleepBetweenRetryTime(1000);
+        assertEquals(1000, cm.getMaxSleepBetweenRetryTime());
+        assertEquals(100, cm.retrySleepTime(5));
+        cm.setRaceWidth(2);
+        for (int i = 0; i < 100; ++i) {
+            int t = cm.retrySleepTime(0);
+            assertTrue(t >= 50 && t <= 100);
+            t = cm.retrySleepTime(2);
+            assertTrue(t >= 200 && t <= 400);
+            t = cm.retrySleepTime(60);
+            assertTrue(t >= 500 && t <= 1000);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetRaceWidthInvalid() {
+        ClientManager cm = new ClientManager(new SocketClient());
+        cm.setRaceWidth(0);
+    }
+
     /**
      * Test method for {@link org.apache.niolex.network.client.ClientManager#setConnectTimeout(int)}.
      */
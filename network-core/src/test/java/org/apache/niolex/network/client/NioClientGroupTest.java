@@ -0,0 +1,151 @@
+/**
+ * NioClientGroupTest.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.client;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import org.apache.niolex.network.CoreRunner;
+import org.apache.niolex.network.IPacketHandler;
+import org.apache.niolex.network.IPacketWriter;
+import org.apache.niolex.network.PacketData;
+import org.apache.niolex.network.server.FastCore;
+import org.apache.niolex.network.server.TimingWheel;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public class NioClientGroupTest {
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        CoreRunner.createServer();
+    }
+
+    @AfterClass
+    public static void stop() throws Exception {
+        CoreRunner.shutdown();
+    }
+
+    private static final IPacketHandler NOOP = new IPacketHandler() {
+
+        @Override
+        public void handlePacket(PacketData sc, IPacketWriter wt) {
+        }
+
+        @Override
+        public void handleClose(IPacketWriter wt) {
+        }};
+
+    @Test
+    public void testStartStop() throws Exception {
+        NioClientGroup group = new NioClientGroup(3);
+        assertEquals(3, group.getThreadsNumber());
+        assertFalse(group.isWorking());
+        assertEquals(0, group.getSelectorStats().length);
+        assertTrue(group.start());
+        assertTrue(group.start());
+        assertTrue(group.isWorking());
+        assertEquals(3, group.getSelectorStats().length);
+        TimingWheel w = group.getTimingWheel();
+        assertSame(w, group.getTimingWheel());
+        assertTrue(w.isWorking());
+        group.stop();
+        group.stop();
+        assertFalse(group.isWorking());
+        assertFalse(w.isWorking());
+    }
+
+    @Test
+    public void testRegister() throws Exception {
+        NioClientGroup group = new NioClientGroup(2);
+        group.start();
+        FastCore[] cores = new FastCore[4];
+        for (int i = 0; i < cores.length; ++i) {
+            cores[i] = group.register(SocketChannel.open(CoreRunner.SERVER_ADDR), NOOP);
+            assertTrue(cores[i].isOpen());
+        }
+        Thread.sleep(50);
+        assertEquals(2, group.getSelectorStats()[0].getConnections());
+        assertEquals(2, group.getSelectorStats()[1].getConnections());
+        group.stop();
+        assertFalse(cores[0].isOpen());
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testRegisterNotStarted() throws Exception {
+        NioClientGroup group = new NioClientGroup(1);
+        group.register(SocketChannel.open(), NOOP);
+    }
+
+    @Test(expected=IOException.class)
+    public void testRegisterClosed() throws Exception {
+        NioClientGroup group = new NioClientGroup(1);
+        group.start();
+        SocketChannel ch = SocketChannel.open(CoreRunner.SERVER_ADDR);
+        ch.close();
+        try {
+            group.register(ch, NOOP);
+        } finally {
+            group.stop();
+        }
+    }
+
+    @Test
+    public void testSelectorFailedWhenStopping() throws Exception {
+        NioClientGroup group = new NioClientGroup(1);
+        group.start();
+        Field f = NioClientGroup.class.getDeclaredField("selectors");
+        f.setAccessible(true);
+        Object rs = ((Object[]) f.get(group))[0];
+        Field sf = rs.getClass().getDeclaredField("selector");
+        sf.setAccessible(true);
+        Field tf = rs.getClass().getDeclaredField("thread");
+        tf.setAccessible(true);
+        Thread thread = (Thread) tf.get(rs);
+        // Hold the group monitor just like a user thread in stop(), the failed selector
+        // thread must still end.
+        synchronized (group) {
+            ((Selector) sf.get(rs)).close();
+            thread.join(3000);
+            assertFalse(thread.isAlive());
+        }
+        // The group is stopped in another thread.
+        for (int i = 0; i < 300 && group.isWorking(); ++i) {
+            Thread.sleep(10);
+        }
+        assertFalse(group.isWorking());
+        assertTrue(group.start());
+        group.stop();
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidThreads() throws Exception {
+        new NioClientGroup(0);
+    }
+
+}
@@ -0,0 +1,280 @@
+/**
+ * NioClientTest.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.client;
+
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.niolex.commons.bean.One;
+import org.apache.niolex.network.AttributeKey;
+import org.apache.niolex.network.CoreRunner;
+import org.apache.niolex.network.IPacketHandler;
+import org.apache.niolex.network.IPacketWriter;
+import org.apache.niolex.network.PacketData;
+import org.apache.niolex.network.demo.EchoPacketHandler;
+import org.apache.niolex.network.server.NioServer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public class NioClientTest {
+
+    private static NioClientGroup group;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        CoreRunner.createServer();
+        group = new NioClientGroup(2);
+        group.start();
+    }
+
+    @AfterClass
+    public static void stop() throws Exception {
+        group.stop();
+        CoreRunner.shutdown();
+    }
+
+    @Test
+    public void testConnect() throws Exception {
+        NioClient client = new NioClient(group);
+        assertFalse(client.isWorking());
+        assertSame(group, client.getGroup());
+        client.setConnectTimeout(1234);
+        assertEquals(1234, client.getConnectTimeout());
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final One<PacketData> one = new One<PacketData>();
+        final One<IPacketWriter> wt1 = new One<IPacketWriter>();
+        final One<Boolean> closed = new One<Boolean>(false);
+        client.setPacketHandler(new IPacketHandler(){
+
+            @Override
+            public void handlePacket(PacketData sc, IPacketWriter wt) {
+                if (sc.getCode() == 2) {
+                    one.a = sc;
+                    wt1.a = wt;
+                    latch.countDown();
+                }
+            }
+
+            @Override
+            public void handleClose(IPacketWriter wt) {
+                // Should not be called when stop.
+                closed.a = true;
+            }});
+        client.setServerAddress(CoreRunner.SERVER_ADDR);
+        assertEquals(CoreRunner.SERVER_ADDR, client.getServerAddress());
+        assertTrue(client.getRemoteName().endsWith("-0000"));
+        client.connect();
+        assertTrue(client.isWorking());
+        assertFalse(client.getRemoteName().endsWith("-0000"));
+
+        PacketData sc = new PacketData(2, new byte[1024 * 1024 + 6]);
+        sc.setVersion((byte) 8);
+        sc.getData()[9] = (byte) 145;
+        sc.getData()[145] = (byte) 63;
+        client.handleWrite(sc);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        client.stop();
+        assertFalse(client.isWorking());
+        assertEquals(0, client.getQueuedBytes());
+        assertFalse(closed.a);
+
+        assertSame(client, wt1.a);
+        assertEquals((byte) 8, one.a.getVersion());
+        assertEquals(1024 * 1024 + 6, one.a.getLength());
+        assertEquals((byte) 145, one.a.getData()[9]);
+        assertEquals((byte) 63, one.a.getData()[145]);
+    }
+
+    @Test
+    public void testAttach() throws Exception {
+        NioClient client = new NioClient(group, CoreRunner.SERVER_ADDR);
+        AttributeKey<Integer> key = AttributeKey.valueOf("nio.client.attach");
+        assertNull(client.attachData("a", "b"));
+        assertNull(client.getAttached("a"));
+        assertNull(client.attachData(key, 3));
+        assertNull(client.attachIfAbsent(key, 3));
+        assertFalse(client.compareAndAttach(key, null, 3));
+        assertNull(client.getAttached(key));
+        client.setServerAddress("localhost:" + CoreRunner.PORT);
+        client.connect();
+        assertNull(client.attachData("a", "b"));
+        assertEquals("b", client.getAttached("a"));
+        assertNull(client.attachIfAbsent(key, 3));
+        assertTrue(client.compareAndAttach(key, 3, 4));
+        assertEquals(4, client.getAttached(key).intValue());
+        client.stop();
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testHandleWriteNotConnected() throws Exception {
+        NioClient client = new NioClient(group, CoreRunner.SERVER_ADDR);
+        client.handleWrite(new PacketData(2));
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testAddSentListenerNotConnected() throws Exception {
+        NioClient client = new NioClient(group, CoreRunner.SERVER_ADDR);
+        client.addSentListener(null);
+    }
+
+    @Test
+    public void testServerClose() throws Exception {
+        NioServer server = new NioServer();
+        server.setPort(8812);
+        server.setPacketHandler(new EchoPacketHandler());
+        server.start();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final NioClient client = new NioClient(group, new InetSocketAddress("localhost", 8812));
+        client.setPacketHandler(new IPacketHandler(){
+
+            @Override
+            public void handlePacket(PacketData sc, IPacketWriter wt) {
+            }
+
+            @Override
+            public void handleClose(IPacketWriter wt) {
+                assertSame(client, wt);
+                latch.countDown();
+            }});
+        client.setWaterMarks(1024, 4096);
+        client.connect();
+        server.stop();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertFalse(client.isWorking());
+    }
+
+    @Test
+    public void testHeartBeat() throws Exception {
+        NioClient client = new NioClient(group, CoreRunner.SERVER_ADDR);
+        client.setConnectTimeout(400);
+        client.setPacketHandler(new IPacketHandler(){
+
+            @Override
+            public void handlePacket(PacketData sc, IPacketWriter wt) {
+            }
+
+            @Override
+            public void handleClose(IPacketWriter wt) {
+            }});
+        client.connect();
+        // The heart beats keep the connection alive.
+        Thread.sleep(1000);
+        assertTrue(client.isWorking());
+        client.stop();
+    }
+
+    @Test
+    public void testHeartBeatStalled() throws Exception {
+        // The server accepts the connection, but never reads from it.
+        ServerSocket ss = new ServerSocket(8813);
+        NioClient client = new NioClient(group, new InetSocketAddress("localhost", 8813));
+        client.setConnectTimeout(400);
+        client.setWaterMarks(1024, 4096);
+        client.setPacketHandler(new IPacketHandler(){
+
+            @Override
+            public void handlePacket(PacketData sc, IPacketWriter wt) {
+            }
+
+            @Override
+            public void handleClose(IPacketWriter wt) {
+            }});
+        client.connect();
+        Socket so = ss.accept();
+        // The large packet fills the socket buffers, then the queue stays above the high water mark.
+        client.handleWrite(new PacketData(2, new byte[16 * 1024 * 1024]));
+        Thread.sleep(100);
+        client.handleWrite(new PacketData(2, new byte[8192]));
+        // The heart beat must not block the wheel thread, so the read timeout check closes it.
+        Thread.sleep(1000);
+        assertFalse(client.isWorking());
+        so.close();
+        ss.close();
+    }
+
+    @Test
+    public void testCloseBeforePublished() throws Exception {
+        // The server closes every connection right after accepting it.
+        final ServerSocket ss = new ServerSocket(8814);
+        Thread acceptor = new Thread() {
+            public void run() {
+                try {
+                    while (true) {
+                        ss.accept().close();
+                    }
+                } catch (Exception e) {}
+            }
+        };
+        acceptor.start();
+        for (int i = 0; i < 20; ++i) {
+            final CountDownLatch latch = new CountDownLatch(1);
+            NioClient client = new NioClient(group, new InetSocketAddress("localhost", 8814));
+            client.setPacketHandler(new IPacketHandler(){
+
+                @Override
+                public void handlePacket(PacketData sc, IPacketWriter wt) {
+                }
+
+                @Override
+                public void handleClose(IPacketWriter wt) {
+                    latch.countDown();
+                }});
+            client.connect();
+            // The close event must never be lost, however early it comes.
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertFalse(client.isWorking());
+        }
+        ss.close();
+        acceptor.join();
+    }
+
+    @Test
+    public void testClientManager() throws Exception {
+        NioClient client = new NioClient(group);
+        ClientManager cm = new ClientManager(client);
+        cm.setAddressList("localhost:" + CoreRunner.PORT);
+        final CountDownLatch latch = new CountDownLatch(1);
+        cm.setPacketHandler(new IPacketHandler(){
+
+            @Override
+            public void handlePacket(PacketData sc, IPacketWriter wt) {
+                latch.countDown();
+            }
+
+            @Override
+            public void handleClose(IPacketWriter wt) {
+            }});
+        assertTrue(cm.connect());
+        cm.handleWrite(new PacketData(2, "ClientManager".getBytes()));
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        cm.close();
+    }
+
+}
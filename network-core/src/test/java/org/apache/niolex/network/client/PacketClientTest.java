@@ -26,7 +26,10 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.niolex.commons.bean.One;
 import org.apache.niolex.commons.util.Runner;
@@ -116,6 +119,93 @@ public class PacketClientTest {
         assertEquals(0, packetClient.outstandingSize());
 	}
 
+	@Test
+	public void testBurstWrite() throws Exception {
+	    PacketClient packetClient = new PacketClient(CoreRunner.SERVER_ADDR);
+	    final CountDownLatch latch = new CountDownLatch(200);
+	    packetClient.setPacketHandler(new IPacketHandler(){
+
+	        @Override
+	        public void handlePacket(PacketData sc, IPacketWriter wt) {
+	            if (sc.getCode() == 2) {
+	                latch.countDown();
+	            }
+	        }
+
+	        @Override
+	        public void handleClose(IPacketWriter wt) {
+	        }});
+	    packetClient.setLingerMicros(500);
+	    assertEquals(500, packetClient.getLingerMicros());
+	    packetClient.connect();
+	    for (int i = 0; i < 200; ++i) {
+	        packetClient.handleWrite(new PacketData(2, new byte[100]));
+	    }
+	    assertTrue(latch.await(5, TimeUnit.SECONDS));
+	    packetClient.stop();
+	    assertTrue(packetClient.getFlushedPackets() >= 200);
+	    assertTrue(packetClient.getFlushCount() < packetClient.getFlushedPackets());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testSetLingerMicrosNegative() throws Exception {
+	    PacketClient pc = new PacketClient();
+	    pc.setLingerMicros(-1);
+	}
+
+	@Test
+	public void testSendPackets() throws Exception {
+	    final PacketClient pc = new PacketClient(CoreRunner.SERVER_ADDR);
+	    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+	    pc.out = bout;
+	    pc.handleWrite(new PacketData(3, new byte[5]));
+	    pc.handleWrite(new PacketData(3, new byte[6]));
+	    pc.setLingerMicros(1000);
+	    List<PacketData> list = new ArrayList<PacketData>();
+	    list.add(new PacketData(3, new byte[4]));
+	    WriteLoop wl = pc.new WriteLoop();
+	    wl.sendPackets(list);
+	    assertEquals(0, list.size());
+	    assertEquals(0, pc.outstandingSize());
+	    assertEquals(8 * 3 + 15, bout.size());
+	    assertEquals(3, pc.getFlushedPackets());
+	    assertEquals(1, pc.getFlushCount());
+	    assertEquals(3.0, pc.getPacketsPerFlush(), 0.001);
+	}
+
+	@Test
+	public void testSendPacketsLingerTillDeadline() throws Exception {
+	    final PacketClient pc = new PacketClient(CoreRunner.SERVER_ADDR);
+	    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+	    pc.out = bout;
+	    pc.setLingerMicros(200000);
+	    Thread t = new Thread() {
+	        public void run() {
+	            try {
+	                for (int i = 0; i < 3; ++i) {
+	                    Thread.sleep(20);
+	                    pc.handleWrite(new PacketData(3, new byte[i]));
+	                }
+	            } catch (InterruptedException e) {
+	                // Let's ignore it.
+	            }
+	        }
+	    };
+	    List<PacketData> list = new ArrayList<PacketData>();
+	    list.add(new PacketData(3, new byte[4]));
+	    WriteLoop wl = pc.new WriteLoop();
+	    long start = System.currentTimeMillis();
+	    t.start();
+	    wl.sendPackets(list);
+	    t.join();
+	    // All the packets arrived in the linger time are flushed together.
+	    assertTrue(System.currentTimeMillis() - start >= 150);
+	    assertEquals(0, pc.outstandingSize());
+	    assertEquals(8 * 4 + 7, bout.size());
+	    assertEquals(4, pc.getFlushedPackets());
+	    assertEquals(1, pc.getFlushCount());
+	}
+
 	@Test
     public void testReadLoopFalse() throws IOException {
 	    final PacketClient pc = new PacketClient();
@@ -23,7 +23,9 @@ import static org.mockito.Mockito.*;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -101,6 +103,56 @@ public class SocketClientTest {
         assertFalse(sc.isWorking());
 	}
 
+	@Test
+	public void testConnectV2() throws IOException {
+		SocketClient sc = new SocketClient(CoreRunner.SERVER_ADDR);
+		List<PacketData> list = new ArrayList<PacketData>();
+		sc.setPacketHandler(new SavePacketHandler(list));
+		sc.setProtocolV2Enabled(true);
+		assertTrue(sc.isProtocolV2Enabled());
+		sc.connect();
+		assertTrue(sc.isProtocolV2());
+		sc.setAutoRead(true);
+		PacketData pc = new PacketData(2, "Hello, v2.");
+		pc.setCorrelationId(0x12345678);
+		sc.handleWrite(pc);
+		assertEquals(1, list.size());
+		assertEquals(0x12345678, list.get(0).getCorrelationId());
+		assertEquals("Hello, v2.", new String(list.get(0).getData()));
+		sc.stop();
+	}
+
+	@Test
+	public void testConnectV2Timeout() throws Exception {
+		// This server never answers, the connections just stay in the backlog.
+		ServerSocket ss = new ServerSocket(8112);
+		SocketClient sc = new SocketClient(new InetSocketAddress("localhost", 8112));
+		try {
+			sc.setConnectTimeout(100);
+			sc.setProtocolV2Enabled(true);
+			sc.connect();
+			assertFalse(sc.isProtocolV2());
+			// The first connection is closed after the negotiation request.
+			Socket first = ss.accept();
+			assertEquals(8, first.getInputStream().read(new byte[100]));
+			assertEquals(-1, first.getInputStream().read());
+			first.close();
+			// The second connection starts with version 1 directly.
+			Socket second = ss.accept();
+			second.setSoTimeout(100);
+			try {
+				second.getInputStream().read();
+				fail("Should not negotiate again.");
+			} catch (SocketTimeoutException e) {
+				// Expected.
+			}
+			second.close();
+		} finally {
+			sc.stop();
+			ss.close();
+		}
+	}
+
 	@Test
 	public void testConnRecon() throws Exception {
 	    SocketClient sc = new SocketClient();
@@ -18,12 +18,20 @@
 package org.apache.niolex.network.server;
 
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
 
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.niolex.commons.reflect.FieldUtil;
+import org.apache.niolex.network.AttributeKey;
+import org.apache.niolex.network.Config;
 import org.apache.niolex.network.PacketData;
 import org.apache.niolex.network.TBasePacketWriter;
 import org.apache.niolex.network.adapter.HeartBeatAdapter;
+import org.apache.niolex.network.event.PacketSentListener;
+import org.apache.niolex.network.event.WritabilityListener;
 import org.apache.niolex.network.event.WriteEventListener;
 import org.junit.Before;
 import org.junit.Test;
@@ -91,7 +99,29 @@ public class BasePacketWriterTest {
         bpw.fireSendEvent(PacketData.getHeartBeatPacket());
     }
 
-    @Test(expected=NullPointerException.class)
+    @Test
+    public void testAddSentListener() throws Exception {
+        PacketSentListener all = mock(PacketSentListener.class);
+        PacketSentListener some = mock(PacketSentListener.class);
+        bpw.addSentListener(all);
+        bpw.addSentListener(some, (short) 5, (short) 3);
+        PacketData a = new PacketData(3);
+        PacketData b = new PacketData(4);
+        bpw.fireSendEvent(a);
+        bpw.fireSendEvent(b);
+        verify(all).packetSent(bpw, a);
+        verify(all).packetSent(bpw, b);
+        verify(some).packetSent(bpw, a);
+        verify(some, never()).packetSent(bpw, b);
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testAddSentListenerAfterClosed() throws Exception {
+        bpw.channelClosed();
+        bpw.addSentListener(mock(PacketSentListener.class));
+    }
+
+    @Test(expected=IllegalStateException.class)
     public void testAddEventListenerAfterClosed() throws Exception {
         WriteEventListener listener = new HeartBeatAdapter(null);
         bpw.addEventListener(listener);
@@ -99,6 +129,46 @@ public class BasePacketWriterTest {
         bpw.addEventListener(listener);
     }
 
+    @Test
+    public void testLazyState() throws Exception {
+        assertNull(FieldUtil.getValue(FieldUtil.getValue(bpw, "attachMap"), "segments"));
+        assertNull(FieldUtil.getValue(bpw, "sendPacketsQueue"));
+        assertNull(FieldUtil.getValue(bpw, "listenerList"));
+        assertTrue(bpw.isEmpty());
+        assertNull(bpw.handleNext());
+        assertNull(bpw.getAttached("a"));
+        assertNull(bpw.attachData("a", null));
+        assertNull(FieldUtil.getValue(bpw, "namedMap"));
+        // Fire event without listener.
+        bpw.fireSendEvent(PacketData.getHeartBeatPacket());
+        bpw.handleWrite(PacketData.getHeartBeatPacket());
+        assertNotNull(FieldUtil.getValue(bpw, "sendPacketsQueue"));
+        bpw.addEventListener(mock(WriteEventListener.class));
+        assertNotNull(FieldUtil.getValue(bpw, "listenerList"));
+    }
+
+    @Test
+    public void testAttachDataTyped() throws Exception {
+        AttributeKey<Integer> key = AttributeKey.valueOf("bpw.typed");
+        assertNull(bpw.attachData(key, null));
+        assertNull(FieldUtil.getValue(FieldUtil.getValue(bpw, "attachMap"), "segments"));
+        assertNull(bpw.attachIfAbsent(key, 3));
+        assertEquals(3, bpw.attachIfAbsent(key, 4).intValue());
+        assertFalse(bpw.compareAndAttach(key, 4, 5));
+        assertTrue(bpw.compareAndAttach(key, bpw.getAttached(key), 5));
+        // Share the slot with the String key.
+        Integer v = bpw.getAttached("bpw.typed");
+        assertEquals(5, v.intValue());
+        assertEquals(5, bpw.attachData(key, null).intValue());
+        assertNull(bpw.getAttached(key));
+        bpw.attachData(key, 6);
+        bpw.channelClosed();
+        assertNull(bpw.getAttached(key));
+        assertNull(bpw.attachData(key, 7));
+        assertNull(bpw.attachIfAbsent(key, 7));
+        assertFalse(bpw.compareAndAttach(key, null, 7));
+    }
+
 	/**
 	 * Test method for {@link org.apache.niolex.network.server.BasePacketWriter#attachData(java.lang.String, java.lang.Object)}.
 	 */
@@ -111,6 +181,31 @@ public class BasePacketWriterTest {
 		assertEquals(sc, bpw.getAttached("IDIJF"));
 	}
 
+    @Test
+    public void testAttachDataNamed() throws Exception {
+        // Read an unknown name never registers a key.
+        assertNull(bpw.getAttached("bpw.named.unknown"));
+        assertNull(AttributeKey.find("bpw.named.unknown"));
+        // Much more names than the key slots.
+        for (int i = 0; i < Config.ATTRIBUTE_MAX_KEYS * 2; ++i) {
+            assertNull(bpw.attachData("bpw.named." + i, i));
+        }
+        assertEquals(7, bpw.<Integer>getAttached("bpw.named.7").intValue());
+        assertNull(AttributeKey.find("bpw.named.7"));
+        assertEquals(7, bpw.attachData("bpw.named.7", null));
+        assertNull(bpw.getAttached("bpw.named.7"));
+        // The key registered after the name was attached.
+        AttributeKey<Integer> key = AttributeKey.valueOf("bpw.named.8");
+        assertNull(bpw.getAttached(key));
+        assertEquals(8, bpw.<Integer>getAttached("bpw.named.8").intValue());
+        assertEquals(8, bpw.attachData("bpw.named.8", 9));
+        assertEquals(9, bpw.getAttached(key).intValue());
+        bpw.channelClosed();
+        assertNull(bpw.getAttached("bpw.named.9"));
+        assertNull(bpw.attachData("bpw.named.9", 10));
+        assertNull(bpw.getAttached("bpw.named.9"));
+    }
+
 	@Test
 	public void testGetRemainQueue() throws InterruptedException {
 		PacketData sc = new PacketData();
@@ -140,4 +235,176 @@ public class BasePacketWriterTest {
 		assertEquals(10, queue.size());
 	}
 
+    @Test
+    public void testWaterMarks() {
+        WritabilityListener listener = mock(WritabilityListener.class);
+        bpw.addWritabilityListener(listener);
+        bpw.setWaterMarks(20, 40);
+        assertEquals(20, bpw.getLowWaterMark());
+        assertEquals(40, bpw.getHighWaterMark());
+        assertEquals(OverflowPolicy.NOTIFY, bpw.getOverflowPolicy());
+        bpw.handleWrite(new PacketData(4, new byte[12]));
+        bpw.handleWrite(new PacketData(4, new byte[12]));
+        assertTrue(bpw.isWritable());
+        assertEquals(40, bpw.getQueuedBytes());
+        bpw.handleWrite(new PacketData(4, new byte[12]));
+        assertFalse(bpw.isWritable());
+        verify(listener).writabilityChanged(bpw, false);
+        // Notify policy, the packet is queued.
+        bpw.handleWrite(new PacketData(4, new byte[12]));
+        assertEquals(80, bpw.getQueuedBytes());
+        bpw.handleNext();
+        bpw.handleNext();
+        assertFalse(bpw.isWritable());
+        bpw.handleNext();
+        assertTrue(bpw.isWritable());
+        assertEquals(20, bpw.getQueuedBytes());
+        verify(listener).writabilityChanged(bpw, true);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testWaterMarksInvalid() {
+        bpw.setWaterMarks(50, 40);
+    }
+
+    @Test
+    public void testOverflowDropOldest() {
+        bpw.setWaterMarks(20, 40);
+        bpw.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+        PacketData sc = new PacketData(4, new byte[12]);
+        for (int i = 0; i < 3; ++i) {
+            bpw.handleWrite(new PacketData(5, new byte[12]));
+        }
+        bpw.handleWrite(sc);
+        assertEquals(40, bpw.getQueuedBytes());
+        assertEquals(2, bpw.getRemainQueue().size());
+        assertEquals(5, bpw.handleNext().getCode());
+        assertEquals(sc, bpw.handleNext());
+    }
+
+    @Test
+    public void testOverflowClose() {
+        bpw.setWaterMarks(20, 40);
+        bpw.setOverflowPolicy(OverflowPolicy.CLOSE);
+        bpw.attachData("a", "b");
+        for (int i = 0; i < 3; ++i) {
+            bpw.handleWrite(new PacketData(5, new byte[12]));
+        }
+        // The third packet is dropped, and the channel is closed.
+        assertNull(bpw.getAttached("a"));
+        try {
+            bpw.handleWrite(new PacketData(5, new byte[12]));
+            fail("Should be closed.");
+        } catch (IllegalStateException e) {
+            assertEquals("This Channel is Closed.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testOverflowBlock() throws Exception {
+        bpw.setWaterMarks(0, 40);
+        bpw.setOverflowPolicy(OverflowPolicy.BLOCK);
+        bpw.handleWrite(new PacketData(5, new byte[32]));
+        final CountDownLatch latch = new CountDownLatch(1);
+        Thread t = new Thread() {
+            public void run() {
+                bpw.handleWrite(new PacketData(6, new byte[32]));
+                latch.countDown();
+            }
+        };
+        t.start();
+        assertFalse(latch.await(50, TimeUnit.MILLISECONDS));
+        assertEquals(5, bpw.handleNext().getCode());
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertEquals(6, bpw.handleNext().getCode());
+    }
+
+    @Test
+    public void testOverflowBlockClosed() throws Exception {
+        bpw.setWaterMarks(0, 40);
+        bpw.setOverflowPolicy(OverflowPolicy.BLOCK);
+        bpw.handleWrite(new PacketData(5, new byte[32]));
+        final CountDownLatch latch = new CountDownLatch(1);
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    bpw.handleWrite(new PacketData(6, new byte[32]));
+                } catch (IllegalStateException e) {
+                    latch.countDown();
+                }
+            }
+        };
+        t.start();
+        assertFalse(latch.await(50, TimeUnit.MILLISECONDS));
+        bpw.channelClosed();
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testLanes() {
+        LanePolicy policy = new LanePolicy(100, 2);
+        policy.assign(SendLane.CONTROL, (short) 9);
+        bpw.setLanePolicy(policy);
+        assertSame(policy, bpw.getLanePolicy());
+        bpw.handleWrite(new PacketData(5, new byte[200]));
+        bpw.handleWrite(new PacketData(6, new byte[10]));
+        bpw.handleWrite(new PacketData(7, new byte[300]));
+        bpw.handleWrite(new PacketData(8, new byte[10]));
+        bpw.handleWrite(PacketData.getHeartBeatPacket());
+        bpw.handleWrite(new PacketData(9, new byte[10]));
+        bpw.handleWrite(new PacketData(10, new byte[10]), SendLane.BULK);
+        assertEquals(7 * 8 + 540, bpw.getQueuedBytes());
+        // Control first, then normal, and one bulk packet after two delayed.
+        assertEquals(0, bpw.handleNext().getCode());
+        assertEquals(9, bpw.handleNext().getCode());
+        assertEquals(5, bpw.handleNext().getCode());
+        assertEquals(6, bpw.handleNext().getCode());
+        assertEquals(8, bpw.handleNext().getCode());
+        assertEquals(7, bpw.handleNext().getCode());
+        assertEquals(10, bpw.handleNext().getCode());
+        assertNull(bpw.handleNext());
+        assertTrue(bpw.isEmpty());
+        assertEquals(0, bpw.getQueuedBytes());
+    }
+
+    @Test
+    public void testLanesNotSet() {
+        bpw.handleWrite(new PacketData(5, new byte[200]), SendLane.BULK);
+        bpw.handleWrite(new PacketData(6), SendLane.CONTROL);
+        assertNull(bpw.getLanePolicy());
+        assertEquals(5, bpw.handleNext().getCode());
+        assertEquals(6, bpw.handleNext().getCode());
+    }
+
+    @Test
+    public void testLanesRemainQueue() {
+        bpw.setLanePolicy(new LanePolicy(100, 5));
+        bpw.handleWrite(new PacketData(5, new byte[200]));
+        bpw.handleWrite(new PacketData(6));
+        bpw.handleWrite(PacketData.getHeartBeatPacket());
+        assertFalse(bpw.isEmpty());
+        ConcurrentLinkedQueue<PacketData> q = bpw.getRemainQueue();
+        assertEquals(3, q.size());
+        assertEquals(6, q.poll().getCode());
+        assertEquals(0, q.poll().getCode());
+        assertEquals(5, q.poll().getCode());
+    }
+
+    @Test
+    public void testLanesDropOldest() {
+        bpw.setLanePolicy(new LanePolicy(10, 5));
+        bpw.setWaterMarks(20, 40);
+        bpw.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+        bpw.handleWrite(PacketData.getHeartBeatPacket());
+        bpw.handleWrite(new PacketData(5, new byte[12]));
+        bpw.handleWrite(new PacketData(6, new byte[4]));
+        bpw.handleWrite(new PacketData(7, new byte[4]));
+        // The bulk packet is dropped first.
+        assertEquals(32, bpw.getQueuedBytes());
+        assertEquals(0, bpw.handleNext().getCode());
+        assertEquals(6, bpw.handleNext().getCode());
+        assertEquals(7, bpw.handleNext().getCode());
+        assertNull(bpw.handleNext());
+    }
+
 }
@@ -0,0 +1,150 @@
+/**
+ * ChannelGroupTest.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.server;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import org.apache.niolex.network.FilePacketData;
+import org.apache.niolex.network.FramedPacketData;
+import org.apache.niolex.network.IPacketWriter;
+import org.apache.niolex.network.PacketData;
+import org.apache.niolex.network.TBasePacketWriter;
+import org.apache.niolex.network.client.PacketClient;
+import org.apache.niolex.network.event.PacketSentListener;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public class ChannelGroupTest {
+
+    @Test
+    public void testAddRemove() throws Exception {
+        ChannelGroup group = new ChannelGroup("test");
+        assertEquals("test", group.getName());
+        TBasePacketWriter wt = new TBasePacketWriter();
+        assertTrue(group.add(wt));
+        assertFalse(group.add(wt));
+        assertTrue(group.contains(wt));
+        assertEquals(1, group.size());
+        assertTrue(group.remove(wt));
+        assertFalse(group.remove(wt));
+        assertFalse(group.contains(wt));
+        assertEquals(0, group.size());
+    }
+
+    @Test
+    public void testWriteFilePacket() throws Exception {
+        ChannelGroup group = new ChannelGroup("test");
+        TBasePacketWriter wt = new TBasePacketWriter();
+        group.add(wt);
+        try {
+            group.write(new FilePacketData(3, null, 0, 100));
+            fail("Should throw IllegalArgumentException.");
+        } catch (IllegalArgumentException e) {
+            assertEquals("The file packet can not be framed.", e.getMessage());
+        }
+        assertTrue(wt.getRemainQueue().isEmpty());
+        assertEquals(0, group.getBroadcasts());
+    }
+
+    @Test
+    public void testAddClosed() throws Exception {
+        ChannelGroup group = new ChannelGroup("test");
+        TBasePacketWriter wt = new TBasePacketWriter();
+        wt.channelClosed();
+        assertFalse(group.add(wt));
+        assertEquals(0, group.size());
+    }
+
+    @Test
+    public void testAddClient() throws Exception {
+        ChannelGroup group = new ChannelGroup("test");
+        // The client does not support sent listener.
+        assertTrue(group.add(new PacketClient()));
+        assertEquals(1, group.size());
+    }
+
+    @Test
+    public void testSentListenerOnce() throws Exception {
+        ChannelGroup a = new ChannelGroup("a");
+        ChannelGroup b = new ChannelGroup("b");
+        IPacketWriter wt = spy(new TBasePacketWriter());
+        a.add(wt);
+        b.add(wt);
+        a.remove(wt);
+        a.add(wt);
+        verify(wt).addSentListener(any(PacketSentListener.class));
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        ChannelGroup group = new ChannelGroup("test");
+        TBasePacketWriter wt1 = new TBasePacketWriter();
+        TBasePacketWriter wt2 = new TBasePacketWriter();
+        TBasePacketWriter wt3 = new TBasePacketWriter();
+        group.add(wt1);
+        group.add(wt2);
+        group.add(wt3);
+        wt3.channelClosed();
+        PacketData sc = new PacketData(3, new byte[10]);
+        assertEquals(2, group.write(sc));
+        assertEquals(2, group.size());
+        assertFalse(group.contains(wt3));
+        // The same framed packet is shared.
+        PacketData p1 = wt1.getRemainQueue().poll();
+        PacketData p2 = wt2.getRemainQueue().poll();
+        assertTrue(p1 instanceof FramedPacketData);
+        assertSame(p1, p2);
+        assertEquals(3, p1.getCode());
+        assertEquals(1, group.getBroadcasts());
+        assertEquals(2, group.getQueued());
+        assertEquals(1, group.getFailed());
+        assertEquals(0, group.getSent());
+    }
+
+    @Test
+    public void testSent() throws Exception {
+        ChannelGroup a = new ChannelGroup("a");
+        ChannelGroup b = new ChannelGroup("b");
+        TBasePacketWriter wt = spy(new TBasePacketWriter());
+        a.add(wt);
+        b.add(wt);
+        ArgumentCaptor<PacketSentListener> captor = ArgumentCaptor.forClass(PacketSentListener.class);
+        verify(wt).addSentListener(captor.capture());
+        PacketSentListener listener = captor.getValue();
+        a.write(new PacketData(3, new byte[10]));
+        b.write(new PacketData(4, new byte[10]));
+        listener.packetSent(wt, wt.getRemainQueue().poll());
+        assertEquals(1, a.getSent());
+        assertEquals(0, b.getSent());
+        listener.packetSent(wt, wt.getRemainQueue().poll());
+        assertEquals(1, b.getSent());
+        // Packets not from any group.
+        listener.packetSent(wt, new PacketData(5));
+        listener.packetSent(wt, new FramedPacketData(new PacketData(5)));
+        assertEquals(1, a.getSent());
+        assertEquals(1, b.getSent());
+        assertEquals("ChannelGroup[a] size 1, broadcasts 1, queued 1, sent 1, failed 0", a.toString());
+    }
+
+}
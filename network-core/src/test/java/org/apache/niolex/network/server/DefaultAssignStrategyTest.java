@@ -0,0 +1,83 @@
+/**
+ * DefaultAssignStrategyTest.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.server;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-27
+ */
+public class DefaultAssignStrategyTest {
+
+    private SelectorStats[] stats;
+
+    @Before
+    public void setUp() throws Exception {
+        stats = new SelectorStats[3];
+        for (int i = 0; i < 3; ++i) {
+            stats[i] = new SelectorStats();
+        }
+        stats[0].connectionOpened();
+        stats[0].connectionOpened();
+        stats[2].connectionOpened();
+        stats[1].connectionOpened();
+        stats[1].connectionOpened();
+        stats[1].connectionOpened();
+        stats[2].recordRead(10000);
+    }
+
+    @Test
+    public void testRoundRobin() throws Exception {
+        int a = DefaultAssignStrategy.ROUND_ROBIN.assign(stats);
+        int b = DefaultAssignStrategy.ROUND_ROBIN.assign(stats);
+        int c = DefaultAssignStrategy.ROUND_ROBIN.assign(stats);
+        assertEquals((a + 1) % 3, b);
+        assertEquals((b + 1) % 3, c);
+    }
+
+    @Test
+    public void testLeastConnections() throws Exception {
+        assertEquals(2, DefaultAssignStrategy.LEAST_CONNECTIONS.assign(stats));
+    }
+
+    @Test
+    public void testLeastBytes() throws Exception {
+        // 0 and 1 have the same traffic, 0 has less connections.
+        assertEquals(0, DefaultAssignStrategy.LEAST_BYTES.assign(stats));
+    }
+
+    @Test
+    public void testPowerOfTwo() throws Exception {
+        for (int i = 0; i < 100; ++i) {
+            // The selector with the most connections will never be chosen.
+            assertNotEquals(1, DefaultAssignStrategy.POWER_OF_TWO.assign(stats));
+        }
+        assertEquals(0, DefaultAssignStrategy.POWER_OF_TWO.assign(new SelectorStats[] {stats[1]}));
+    }
+
+    @Test
+    public void testValueOf() throws Exception {
+        assertEquals(DefaultAssignStrategy.POWER_OF_TWO, DefaultAssignStrategy.valueOf("POWER_OF_TWO"));
+    }
+
+}
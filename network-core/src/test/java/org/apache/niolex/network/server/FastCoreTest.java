@@ -21,12 +21,14 @@ import static org.junit.Assert.*;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
@@ -36,10 +38,17 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.niolex.commons.reflect.FieldUtil;
 import org.apache.niolex.commons.reflect.MethodUtil;
 import org.apache.niolex.commons.util.Const;
+import org.apache.niolex.network.ByteArrayPool;
+import org.apache.niolex.network.Config;
 import org.apache.niolex.network.CoreRunner;
+import org.apache.niolex.network.FilePacketData;
+import org.apache.niolex.network.FramedPacketData;
 import org.apache.niolex.network.IPacketHandler;
 import org.apache.niolex.network.IPacketWriter;
+import org.apache.niolex.network.IStreamHandler;
 import org.apache.niolex.network.PacketData;
+import org.apache.niolex.network.event.WriteEvent;
+import org.apache.niolex.network.event.WriteEventListener;
 import org.apache.niolex.network.server.FastCore.Status;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -47,6 +56,7 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
@@ -88,6 +98,7 @@ public class FastCoreTest {
 		client.configureBlocking(false);
 		selector = Selector.open();
 		when(selectorH.getSelector()).thenReturn(selector);
+		when(selectorH.getStats()).thenReturn(new SelectorStats());
 		fastCore = spy(new FastCore(packetHandler, selectorH, client));
 	}
 
@@ -124,8 +135,32 @@ public class FastCoreTest {
 	 * Test method for {@link org.apache.niolex.network.server.FastCore#getRemoteName()}.
 	 */
 	@Test
-	public void testGetRemoteName() {
+	public void testGetRemoteName() throws IOException {
 		System.out.println(fastCore.getRemoteName());
+		assertEquals(client.getLocalAddress().toString(), fastCore.getRemoteName());
+		assertSame(fastCore.getRemoteName(), fastCore.getRemoteName());
+	}
+
+	@Test
+	public void testLazyState() throws IOException {
+	    assertNull(FieldUtil.getValue(fastCore, "sendHeadBuffer"));
+	    SocketChannel ch = mock(SocketChannel.class);
+	    FieldUtil.setValue(fastCore, "socketChannel", ch);
+	    FieldUtil.setValue(fastCore, "selectionKey", mock(SelectionKey.class));
+	    when(ch.write(any(ByteBuffer.class))).thenAnswer(new Answer<Integer>(){
+
+	        @Override
+	        public Integer answer(InvocationOnMock invocation) throws Throwable {
+	            ByteBuffer bf = (ByteBuffer)invocation.getArguments()[0];
+	            int k = bf.remaining();
+	            bf.position(bf.limit());
+	            return k;
+	        }});
+	    fastCore.handleWrite(new PacketData(3, new byte[Config.SERVER_DIRECT_BUFFER_SIZE]));
+	    while (fastCore.handleWrite());
+	    assertNotNull(FieldUtil.getValue(fastCore, "sendHeadBuffer"));
+	    // The body of the large packet is released after the queue drained.
+	    assertNull(FieldUtil.getValue(fastCore, "sendBuffer"));
 	}
 	
 
@@ -162,6 +197,799 @@ public class FastCoreTest {
         verify(packetHandler, times(1)).handlePacket(any(PacketData.class), any(IPacketWriter.class));
     }
 
+    /**
+     * Test method for {@link org.apache.niolex.network.server.FastCore#handleAggregateRead()}.
+     * @throws IOException
+     */
+    @Test
+    public void testHandleAggregateRead() throws IOException {
+        SocketChannel ch = mock(SocketChannel.class);
+        FieldUtil.setValue(fastCore, "socketChannel", ch);
+        when(selectorH.getReadBuffer()).thenReturn(ByteBuffer.allocate(64));
+        fastCore.setReadAggregation(true);
+        // 1. Read nothing.
+        when(ch.read(any(ByteBuffer.class))).thenReturn(0);
+        assertFalse(fastCore.handleRead());
+
+        // 2. Read two packets and a half.
+        when(ch.read(any(ByteBuffer.class))).thenAnswer(new Answer<Integer>(){
+
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                ByteBuffer bf = (ByteBuffer)invocation.getArguments()[0];
+                new PacketData(3, new byte[5]).putHeader(bf);
+                bf.put(new byte[5]);
+                new PacketData(4).putHeader(bf);
+                new PacketData(5, new byte[20]).putHeader(bf);
+                bf.put(new byte[6]);
+                return 35;
+            }});
+        assertFalse(fastCore.handleRead());
+        verify(packetHandler, times(2)).handlePacket(any(PacketData.class), any(IPacketWriter.class));
+
+        // 3. Read the remaining part of the last packet, and fill up the read buffer.
+        when(ch.read(any(ByteBuffer.class))).thenAnswer(new Answer<Integer>(){
+
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                ByteBuffer bf = (ByteBuffer)invocation.getArguments()[0];
+                bf.put(new byte[14]);
+                new PacketData(6, new byte[42]).putHeader(bf);
+                bf.put(new byte[42]);
+                return 64;
+            }});
+        assertTrue(fastCore.handleRead());
+        verify(packetHandler, times(4)).handlePacket(any(PacketData.class), any(IPacketWriter.class));
+
+        // 4. Closed.
+        when(ch.read(any(ByteBuffer.class))).thenReturn(-1);
+        assertFalse(fastCore.handleRead());
+        verify(packetHandler).handleClose(fastCore);
+    }
+
+    /**
+     * The stream handler records all the streamed bytes.
+     */
+    private static class RecordStreamHandler implements IStreamHandler {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int starts, chunks, ends, aborts;
+
+        @Override
+        public int getStreamLimit(short code) {
+            return code == 7 ? 200 : 0;
+        }
+
+        @Override
+        public void streamStart(PacketData header, IPacketWriter wt) {
+            assertNull(header.getData());
+            ++starts;
+        }
+
+        @Override
+        public void streamChunk(PacketData header, ByteBuffer chunk, IPacketWriter wt) {
+            while (chunk.hasRemaining()) {
+                out.write(chunk.get());
+            }
+            ++chunks;
+        }
+
+        @Override
+        public void streamEnd(PacketData header, IPacketWriter wt) {
+            assertEquals(out.size(), header.getLength());
+            ++ends;
+        }
+
+        @Override
+        public void streamAbort(PacketData header, IPacketWriter wt) {
+            ++aborts;
+        }
+    }
+
+    /**
+     * Answer the socket read with the header and then the body bytes.
+     */
+    private static class StreamAnswer implements Answer<Integer> {
+        private final PacketData header;
+        private final int[] bodyReads;
+        private int idx = -1;
+
+        public StreamAnswer(PacketData header, int... bodyReads) {
+            this.header = header;
+            this.bodyReads = bodyReads;
+        }
+
+        @Override
+        public Integer answer(InvocationOnMock invocation) throws Throwable {
+            ByteBuffer bf = (ByteBuffer)invocation.getArguments()[0];
+            if (idx == -1) {
+                ++idx;
+                header.putHeader(bf);
+                return 8;
+            }
+            if (idx == bodyReads.length) {
+                return 0;
+            }
+            int k = Math.min(bf.remaining(), bodyReads[idx++]);
+            for (int i = 0; i < k; ++i) {
+                bf.put((byte) i);
+            }
+            return k;
+        }
+    }
+
+    @Test
+    public void testHandleStreamRead() throws IOException {
+        RecordStreamHandler sh = new RecordStreamHandler();
+        fastCore.setStreamHandler(sh);
+        SocketChannel ch = mock(SocketChannel.class);
+        FieldUtil.setValue(fastCore, "socketChannel", ch);
+        when(selectorH.getReadBuffer()).thenReturn(ByteBuffer.allocate(64));
+        PacketData header = new PacketData(7);
+        header.setLength(100);
+        when(ch.read(any(ByteBuffer.class))).thenAnswer(new StreamAnswer(header, 60, 70));
+        // Header.
+        assertTrue(fastCore.handleRead());
+        assertEquals(Status.STREAM, FieldUtil.getValue(fastCore, "receiveStatus"));
+        assertEquals(1, sh.starts);
+        // Partial chunk.
+        assertFalse(fastCore.handleRead());
+        assertEquals(60, sh.out.size());
+        // The last chunk is limited to the packet body.
+        assertTrue(fastCore.handleRead());
+        assertEquals(100, sh.out.size());
+        assertEquals(2, sh.chunks);
+        assertEquals(1, sh.ends);
+        assertEquals(Status.HEADER, FieldUtil.getValue(fastCore, "receiveStatus"));
+        verify(packetHandler, never()).handlePacket(any(PacketData.class), any(IPacketWriter.class));
+        // Not streamed code.
+        when(ch.read(any(ByteBuffer.class))).thenAnswer(new StreamAnswer(new PacketData(8)));
+        assertTrue(fastCore.handleRead());
+        verify(packetHandler).handlePacket(any(PacketData.class), any(IPacketWriter.class));
+        assertEquals(0, sh.aborts);
+    }
+
+    @Test
+    public void testHandleStreamReadEmpty() throws IOException {
+        RecordStreamHandler sh = new RecordStreamHandler();
+        fastCore.setStreamHandler(sh);
+        SocketChannel ch = mock(SocketChannel.class);
+        FieldUtil.setValue(fastCore, "socketChannel", ch);
+        when(ch.read(any(ByteBuffer.class))).thenAnswer(new StreamAnswer(new PacketData(7)));
+        assertTrue(fastCore.handleRead());
+        assertEquals(1, sh.starts);
+        assertEquals(0, sh.chunks);
+        assertEquals(1, sh.ends);
+        assertEquals(Status.HEADER, FieldUtil.getValue(fastCore, "receiveStatus"));
+    }
+
+    @Test
+    public void testHandleStreamReadAbort() throws IOException {
+        RecordStreamHandler sh = new RecordStreamHandler();
+        fastCore.setStreamHandler(sh);
+        SocketChannel ch = mock(SocketChannel.class);
+        FieldUtil.setValue(fastCore, "socketChannel", ch);
+        when(selectorH.getReadBuffer()).thenReturn(ByteBuffer.allocate(64));
+        PacketData header = new PacketData(7);
+        header.setLength(100);
+        when(ch.read(any(ByteBuffer.class))).thenAnswer(new StreamAnswer(header, 30));
+        assertTrue(fastCore.handleRead());
+        assertFalse(fastCore.handleRead());
+        when(ch.read(any(ByteBuffer.class))).thenReturn(-1);
+        assertFalse(fastCore.handleRead());
+        assertEquals(1, sh.aborts);
+        assertEquals(0, sh.ends);
+        verify(packetHandler).handleClose(fastCore);
+    }
+
+    @Test
+    public void testHandleStreamReadTooLarge() throws IOException {
+        RecordStreamHandler sh = new RecordStreamHandler();
+        fastCore.setStreamHandler(sh);
+        SocketChannel ch = mock(SocketChannel.class);
+        FieldUtil.setValue(fastCore, "socketChannel", ch);
+        PacketData header = new PacketData(7);
+        header.setLength(201);
+        when(ch.read(any(ByteBuffer.class))).thenAnswer(new StreamAnswer(header));
+        assertFalse(fastCore.handleRead());
+        assertEquals(0, sh.starts);
+        assertEquals(0, sh.aborts);
+        verify(packetHandler).handleClose(fastCore);
+    }
+
+    @Test
+    public void testHandleAggregateStreamRead() throws IOException {
+        RecordStreamHandler sh = new RecordStreamHandler();
+        fastCore.setStreamHandler(sh);
+        fastCore.setReadAggregation(true);
+        SocketChannel ch = mock(SocketChannel.class);
+        FieldUtil.setValue(fastCore, "socketChannel", ch);
+        when(selectorH.getReadBuffer()).thenReturn(ByteBuffer.allocate(64));
+        // 1. A small packet, and the header and first chunk of the streamed packet.
+        when(ch.read(any(ByteBuffer.class))).thenAnswer(new Answer<Integer>(){
+
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                ByteBuffer bf = (ByteBuffer)invocation.getArguments()[0];
+                new PacketData(3, new byte[5]).putHeader(bf);
+                bf.put(new byte[5]);
+                PacketData header = new PacketData(7);
+                header.setLength(80);
+                header.putHeader(bf);
+                bf.put(new byte[46]);
+                return 64;
+            }});
+        assertTrue(fastCore.handleRead());
+        verify(packetHandler, times(1)).handlePacket(any(PacketData.class), any(IPacketWriter.class));
+        assertEquals(1, sh.starts);
+        assertEquals(46, sh.out.size());
+
+        // 2. The remaining body of the streamed packet, followed by a small packet.
+        when(ch.read(any(ByteBuffer.class))).thenAnswer(new Answer<Integer>(){
+
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                ByteBuffer bf = (ByteBuffer)invocation.getArguments()[0];
+                bf.put(new byte[34]);
+                new PacketData(4, new byte[3]).putHeader(bf);
+                bf.put(new byte[3]);
+                return 45;
+            }});
+        assertFalse(fastCore.handleRead());
+        assertEquals(80, sh.out.size());
+        assertEquals(2, sh.chunks);
+        assertEquals(1, sh.ends);
+        verify(packetHandler, times(2)).handlePacket(any(PacketData.class), any(IPacketWriter.class));
+    }
+
+    /**
+     * Test method for {@link org.apache.niolex.network.server.FastCore#handleWrite()}.
+     * @throws IOException
+     */
+    @Test
+    public void testHandleWriteFile() throws IOException {
+        SocketChannel ch = mock(SocketChannel.class);
+        FieldUtil.setValue(fastCore, "socketChannel", ch);
+        FileChannel fc = mock(FileChannel.class);
+        WriteEventListener listener = mock(WriteEventListener.class);
+        fastCore.addEventListener(listener);
+        fastCore.handleWrite(new FilePacketData(4, fc, 0, 100));
+        when(ch.write(any(ByteBuffer.class))).thenAnswer(new Answer<Integer>(){
+
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                ByteBuffer bf = (ByteBuffer)invocation.getArguments()[0];
+                int k = bf.remaining();
+                bf.position(bf.limit());
+                return k;
+            }});
+        when(fc.transferTo(0, 100, ch)).thenReturn(30L);
+        when(fc.transferTo(30, 70, ch)).thenReturn(0L);
+        when(fc.size()).thenReturn(100L);
+        // 1. Send header.
+        assertTrue(fastCore.handleWrite());
+        assertEquals(Status.HEADER, FieldUtil.getValue(fastCore, "sendStatus"));
+        // 2. Send part of the file.
+        assertFalse(fastCore.handleWrite());
+        assertEquals(Status.FILE, FieldUtil.getValue(fastCore, "sendStatus"));
+        // 3. Send the remaining.
+        when(fc.transferTo(30, 70, ch)).thenReturn(70L);
+        assertFalse(fastCore.handleWrite());
+        verify(listener).afterSent(any(WriteEvent.class));
+        assertEquals(Status.NONE, FieldUtil.getValue(fastCore, "sendStatus"));
+        SelectorStats stats = selectorH.getStats();
+        assertEquals(1, stats.getPacketsOut());
+        assertEquals(108, stats.getBytesOut());
+        assertEquals(0, stats.getPendingBytes());
+    }
+
+    /**
+     * Test method for {@link org.apache.niolex.network.server.FastCore#handleWrite()}.
+     * @throws IOException
+     */
+    @Test
+    public void testHandleWriteFileTruncated() throws IOException {
+        SocketChannel ch = mock(SocketChannel.class);
+        FieldUtil.setValue(fastCore, "socketChannel", ch);
+        FileChannel fc = mock(FileChannel.class);
+        fastCore.handleWrite(new FilePacketData(4, fc, 0, 100));
+        FieldUtil.setValue(fastCore, "sendPacket", fastCore.getRemainQueue().poll());
+        FieldUtil.setValue(fastCore, "sendStatus", Status.FILE);
+        when(fc.transferTo(0, 100, ch)).thenReturn(0L);
+        when(fc.size()).thenReturn(0L);
+        assertFalse(fastCore.handleWrite());
+        verify(packetHandler).handleClose(fastCore);
+    }
+
+    /**
+     * Test method for {@link org.apache.niolex.network.server.FastCore#handleGatheringWrite()}.
+     * @throws IOException
+     */
+    @Test
+    public void testHandleGatheringWrite() throws IOException {
+        SocketChannel ch = mock(SocketChannel.class);
+        FieldUtil.setValue(fastCore, "socketChannel", ch);
+        WriteEventListener listener = mock(WriteEventListener.class);
+        fastCore.addEventListener(listener);
+        fastCore.setGatheringWrite(true);
+        fastCore.handleWrite(new PacketData(3, new byte[5]));
+        fastCore.handleWrite(new PacketData(4));
+        fastCore.handleWrite(new PacketData(5, new byte[5]));
+        fastCore.handleWrite(new PacketData(6, new byte[3000]));
+        fastCore.handleWrite(new PacketData(7, new byte[5]));
+        final int[] bufCnt = new int[1];
+        // 1. Write the first buffer only.
+        when(ch.write(any(ByteBuffer[].class), anyInt(), anyInt())).thenAnswer(new Answer<Long>(){
+
+            @Override
+            public Long answer(InvocationOnMock invocation) throws Throwable {
+                ByteBuffer[] bfs = (ByteBuffer[])invocation.getArguments()[0];
+                int offset = (Integer)invocation.getArguments()[1];
+                bufCnt[0] = (Integer)invocation.getArguments()[2];
+                int k = bfs[offset].remaining();
+                bfs[offset].position(bfs[offset].limit());
+                return (long)k;
+            }});
+        assertFalse(fastCore.handleWrite());
+        // Header and small body are in one segment, large body, the last segment.
+        assertEquals(3, bufCnt[0]);
+        verify(listener, never()).afterSent(any(WriteEvent.class));
+
+        // 2. Write all the remaining buffers.
+        when(ch.write(any(ByteBuffer[].class), anyInt(), anyInt())).thenAnswer(new Answer<Long>(){
+
+            @Override
+            public Long answer(InvocationOnMock invocation) throws Throwable {
+                ByteBuffer[] bfs = (ByteBuffer[])invocation.getArguments()[0];
+                int offset = (Integer)invocation.getArguments()[1];
+                int length = (Integer)invocation.getArguments()[2];
+                long k = 0;
+                for (int i = offset; i < offset + length; ++i) {
+                    k += bfs[i].remaining();
+                    bfs[i].position(bfs[i].limit());
+                }
+                return k;
+            }});
+        assertTrue(fastCore.handleWrite());
+        verify(listener, times(5)).afterSent(any(WriteEvent.class));
+
+        // 3. Nothing to send.
+        assertFalse(fastCore.handleWrite());
+        assertTrue(fastCore.isEmpty());
+    }
+
+    /**
+     * Test method for {@link org.apache.niolex.network.server.FastCore#handleGatheringWrite()}.
+     * @throws IOException
+     */
+    @Test
+    public void testHandleGatheringWriteFile() throws IOException {
+        SocketChannel ch = mock(SocketChannel.class);
+        FieldUtil.setValue(fastCore, "socketChannel", ch);
+        FileChannel fc = mock(FileChannel.class);
+        WriteEventListener listener = mock(WriteEventListener.class);
+        fastCore.addEventListener(listener);
+        fastCore.setGatheringWrite(true);
+        fastCore.handleWrite(new PacketData(3, new byte[5]));
+        fastCore.handleWrite(new FilePacketData(4, fc, 10, 100));
+        fastCore.handleWrite(new PacketData(5, new byte[5]));
+        when(ch.write(any(ByteBuffer[].class), anyInt(), anyInt())).thenAnswer(new Answer<Long>(){
+
+            @Override
+            public Long answer(InvocationOnMock invocation) throws Throwable {
+                ByteBuffer[] bfs = (ByteBuffer[])invocation.getArguments()[0];
+                int offset = (Integer)invocation.getArguments()[1];
+                assertEquals(1, invocation.getArguments()[2]);
+                assertEquals(21, bfs[offset].remaining());
+                bfs[offset].position(bfs[offset].limit());
+                return 21L;
+            }});
+        when(fc.transferTo(10, 100, ch)).thenReturn(60L);
+        when(fc.transferTo(70, 40, ch)).thenReturn(0L);
+        when(fc.size()).thenReturn(1000L);
+        // 1. The file is partially sent.
+        assertFalse(fastCore.handleWrite());
+        verify(listener, never()).afterSent(any(WriteEvent.class));
+
+        // 2. The file is sent.
+        when(fc.transferTo(70, 40, ch)).thenReturn(40L);
+        assertTrue(fastCore.handleWrite());
+        verify(listener, times(2)).afterSent(any(WriteEvent.class));
+        verify(ch, times(1)).write(any(ByteBuffer[].class), anyInt(), anyInt());
+        assertEquals(1, fastCore.getRemainQueue().size());
+    }
+
+    @Test
+    public void testSharedSendBuffer() throws IOException {
+        SocketChannel ch = mock(SocketChannel.class);
+        FieldUtil.setValue(fastCore, "socketChannel", ch);
+        ByteBuffer scratch = ByteBuffer.allocateDirect(Config.SERVER_DIRECT_BUFFER_SIZE);
+        when(selectorH.getWriteBuffer()).thenReturn(scratch);
+        fastCore.setSharedSendBuffer(true);
+        assertNull(FieldUtil.getValue(fastCore, "directBuffer"));
+        fastCore.handleWrite(new PacketData(3, new byte[100]));
+        // 1. Write 10 bytes only.
+        when(ch.write(any(ByteBuffer.class))).thenAnswer(new Answer<Integer>(){
+
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                ByteBuffer bf = (ByteBuffer)invocation.getArguments()[0];
+                bf.position(bf.position() + 10);
+                return 10;
+            }});
+        assertFalse(fastCore.handleWrite());
+        ByteBuffer left = FieldUtil.getValue(fastCore, "sendBuffer");
+        assertFalse(left.isDirect());
+        assertEquals(98, left.remaining());
+        // 2. The scratch buffer is reused by others, the leftover is not changed.
+        scratch.clear();
+        scratch.put(new byte[200]);
+        when(ch.write(any(ByteBuffer.class))).thenAnswer(new Answer<Integer>(){
+
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                ByteBuffer bf = (ByteBuffer)invocation.getArguments()[0];
+                int k = bf.remaining();
+                bf.position(bf.limit());
+                return k;
+            }});
+        assertTrue(fastCore.handleWrite());
+        assertEquals(Status.BODY, FieldUtil.getValue(fastCore, "sendStatus"));
+        assertFalse(fastCore.handleWrite());
+        assertTrue(fastCore.isEmpty());
+        fastCore.setSharedSendBuffer(false);
+        assertNotNull(FieldUtil.getValue(fastCore, "directBuffer"));
+    }
+
+    @Test
+    public void testSharedSendBufferBudgetStop() throws IOException {
+        SocketChannel ch = mock(SocketChannel.class);
+        FieldUtil.setValue(fastCore, "socketChannel", ch);
+        ByteBuffer scratch = ByteBuffer.allocateDirect(Config.SERVER_DIRECT_BUFFER_SIZE);
+        when(selectorH.getWriteBuffer()).thenReturn(scratch);
+        fastCore.setSharedSendBuffer(true);
+        fastCore.handleWrite(new PacketData(3, new byte[100]));
+        fastCore.handleWrite(new PacketData(4, new byte[50]));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        when(ch.write(any(ByteBuffer.class))).thenAnswer(new Answer<Integer>(){
+
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                ByteBuffer bf = (ByteBuffer)invocation.getArguments()[0];
+                int k = bf.remaining();
+                byte[] b = new byte[k];
+                bf.get(b);
+                out.write(b);
+                return k;
+            }});
+        // 1. The first packet is fully sent, the turn budget stops the loop here.
+        assertTrue(fastCore.handleWrite());
+        assertEquals(108, out.size());
+        assertNotSame(scratch, FieldUtil.getValue(fastCore, "sendBuffer"));
+        // 2. Another connection leaves its unsent bytes in the scratch buffer.
+        scratch.clear();
+        scratch.put(new byte[30]);
+        // 3. The next turn sends the second packet only.
+        assertTrue(fastCore.handleWrite());
+        assertEquals(166, out.size());
+        assertFalse(fastCore.handleWrite());
+        assertEquals(166, out.size());
+        assertTrue(fastCore.isEmpty());
+    }
+
+    @Test
+    public void testSharedSendBufferGathering() throws IOException {
+        SocketChannel ch = mock(SocketChannel.class);
+        FieldUtil.setValue(fastCore, "socketChannel", ch);
+        when(selectorH.getWriteBuffer()).thenReturn(ByteBuffer.allocateDirect(Config.SERVER_DIRECT_BUFFER_SIZE));
+        fastCore.setSharedSendBuffer(true);
+        fastCore.setGatheringWrite(true);
+        fastCore.handleWrite(new PacketData(3, new byte[5]));
+        fastCore.handleWrite(new PacketData(6, new byte[3000]));
+        fastCore.handleWrite(new PacketData(7, new byte[5]));
+        // Write 3 bytes only.
+        when(ch.write(any(ByteBuffer[].class), anyInt(), anyInt())).thenAnswer(new Answer<Long>(){
+
+            @Override
+            public Long answer(InvocationOnMock invocation) throws Throwable {
+                ByteBuffer[] bfs = (ByteBuffer[])invocation.getArguments()[0];
+                int offset = (Integer)invocation.getArguments()[1];
+                bfs[offset].position(bfs[offset].position() + 3);
+                return 3L;
+            }});
+        assertFalse(fastCore.handleWrite());
+        ByteBuffer[] bfs = FieldUtil.getValue(fastCore, "gatherBuffers");
+        int cnt = FieldUtil.getValue(fastCore, "gatherCount");
+        assertEquals(3, cnt);
+        for (int i = 0; i < cnt; ++i) {
+            assertFalse(bfs[i].isDirect());
+        }
+        assertEquals(10, bfs[0].remaining());
+        assertEquals(3000, bfs[1].remaining());
+        assertEquals(13, bfs[2].remaining());
+    }
+
+    /**
+     * Test method for {@link org.apache.niolex.network.server.FastCore#handleGatheringWrite()}.
+     * @throws IOException
+     */
+    @Test
+    public void testHandleGatheringWriteBudget() throws IOException {
+        SocketChannel ch = mock(SocketChannel.class);
+        FieldUtil.setValue(fastCore, "socketChannel", ch);
+        fastCore.setGatheringWrite(true);
+        fastCore.setGatheringWriteBudget(100);
+        for (int i = 0; i < 10; ++i) {
+            fastCore.handleWrite(new PacketData(3, new byte[42]));
+        }
+        when(ch.write(any(ByteBuffer[].class), anyInt(), anyInt())).thenAnswer(new Answer<Long>(){
+
+            @Override
+            public Long answer(InvocationOnMock invocation) throws Throwable {
+                ByteBuffer[] bfs = (ByteBuffer[])invocation.getArguments()[0];
+                int offset = (Integer)invocation.getArguments()[1];
+                bfs[offset].position(bfs[offset].limit());
+                return 100L;
+            }});
+        // Two packets each turn.
+        assertFalse(fastCore.handleWrite());
+        assertEquals(8, fastCore.getRemainQueue().size());
+        assertFalse(fastCore.handleWrite());
+        assertEquals(6, fastCore.getRemainQueue().size());
+    }
+
+    /**
+     * Test method for {@link org.apache.niolex.network.server.FastCore#handleGatheringWrite()}.
+     * @throws IOException
+     */
+    @Test
+    public void testHandleGatheringWriteError() throws IOException {
+        SocketChannel ch = mock(SocketChannel.class);
+        FieldUtil.setValue(fastCore, "socketChannel", ch);
+        fastCore.setGatheringWrite(true);
+        fastCore.handleWrite(new PacketData(3, new byte[5]));
+        when(ch.write(any(ByteBuffer[].class), anyInt(), anyInt())).thenThrow(new IOException("Broken pipe"));
+        assertFalse(fastCore.handleWrite());
+        verify(packetHandler).handleClose(fastCore);
+    }
+
+    @Test
+    public void testMoveTo() throws Exception {
+        assertTrue(fastCore.isIdle());
+        assertEquals(1, selectorH.getStats().getConnections());
+        SelectorHolder target = mock(SelectorHolder.class);
+        Selector sel = Selector.open();
+        SelectorStats stats = new SelectorStats();
+        when(target.getSelector()).thenReturn(sel);
+        when(target.getStats()).thenReturn(stats);
+        SelectionKey key = FieldUtil.getValue(fastCore, "selectionKey");
+        fastCore.moveTo(target);
+        assertFalse(key.isValid());
+        assertEquals(0, selectorH.getStats().getConnections());
+        assertEquals(1, stats.getConnections());
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(target).execute(captor.capture());
+        // Write packet when moving.
+        fastCore.handleWrite(new PacketData(3));
+        assertEquals(8, stats.getPendingBytes());
+        captor.getValue().run();
+        SelectionKey newKey = FieldUtil.getValue(fastCore, "selectionKey");
+        assertEquals(sel, newKey.selector());
+        assertEquals(SelectionKey.OP_READ | SelectionKey.OP_WRITE, newKey.interestOps());
+        assertFalse(fastCore.isIdle());
+        fastCore.handleWrite(new PacketData(4));
+        verify(target, never()).attacheWrite(any(SelectionKey.class));
+        sel.close();
+    }
+
+    @Test
+    public void testMoveToClosed() throws Exception {
+        SelectorHolder target = mock(SelectorHolder.class);
+        SelectorStats stats = new SelectorStats();
+        when(target.getStats()).thenReturn(stats);
+        fastCore.moveTo(target);
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(target).execute(captor.capture());
+        client.close();
+        captor.getValue().run();
+        verify(target, never()).getSelector();
+    }
+
+    @Test
+    public void testOverflowClose() throws Exception {
+        fastCore.setWaterMarks(0, 10);
+        fastCore.setOverflowPolicy(OverflowPolicy.CLOSE);
+        assertTrue(fastCore.canBlock());
+        fastCore.handleWrite(new PacketData(3, new byte[5]));
+        fastCore.handleWrite(new PacketData(3, new byte[5]));
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(selectorH).execute(captor.capture());
+        assertEquals(1, fastCore.getRemainQueue().size());
+        captor.getValue().run();
+        verify(packetHandler).handleClose(fastCore);
+        captor.getValue().run();
+        verify(packetHandler).handleClose(fastCore);
+    }
+
+    @Test
+    public void testHandleWriteFramed() throws Exception {
+        SocketChannel ch = mock(SocketChannel.class);
+        FieldUtil.setValue(fastCore, "socketChannel", ch);
+        FieldUtil.setValue(fastCore, "selectionKey", mock(SelectionKey.class));
+        final ByteBuffer out = ByteBuffer.allocate(1024);
+        when(ch.write(any(ByteBuffer.class))).thenAnswer(new Answer<Integer>(){
+
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                ByteBuffer bf = (ByteBuffer)invocation.getArguments()[0];
+                // The shared frame is written directly.
+                assertTrue(bf.isReadOnly());
+                int k = Math.min(bf.remaining(), 10);
+                bf.limit(bf.position() + k);
+                out.put(bf);
+                bf.limit(bf.capacity());
+                return k;
+            }});
+        FramedPacketData fp = new FramedPacketData(new PacketData(3, new byte[] {1, 2, 3, 4, 5, 6, 7, 8}));
+        fastCore.handleWrite(fp);
+        fastCore.handleWrite(fp);
+        // The socket accepts at most 10 bytes every time.
+        for (int i = 0; i < 10; ++i) {
+            fastCore.handleWrite();
+        }
+        assertEquals(32, out.position());
+        out.flip();
+        PacketData p = new PacketData();
+        p.parseHeader(out);
+        assertEquals(3, p.getCode());
+        assertEquals(8, p.getLength());
+        assertEquals(1, out.get());
+        assertTrue(fastCore.isEmpty());
+    }
+
+    @Test
+    public void testHandleGatheringWriteFramed() throws Exception {
+        SocketChannel ch = mock(SocketChannel.class);
+        FieldUtil.setValue(fastCore, "socketChannel", ch);
+        WriteEventListener listener = mock(WriteEventListener.class);
+        fastCore.addEventListener(listener);
+        fastCore.setGatheringWrite(true);
+        FramedPacketData fp = new FramedPacketData(new PacketData(4, new byte[100]));
+        fastCore.handleWrite(new PacketData(3, new byte[5]));
+        fastCore.handleWrite(fp);
+        fastCore.handleWrite(new PacketData(5, new byte[5]));
+        final int[] bufCnt = new int[1];
+        when(ch.write(any(ByteBuffer[].class), anyInt(), anyInt())).thenAnswer(new Answer<Long>(){
+
+            @Override
+            public Long answer(InvocationOnMock invocation) throws Throwable {
+                ByteBuffer[] bfs = (ByteBuffer[])invocation.getArguments()[0];
+                int offset = (Integer)invocation.getArguments()[1];
+                int length = (Integer)invocation.getArguments()[2];
+                bufCnt[0] = length;
+                // The framed packet is the second buffer.
+                assertTrue(bfs[offset + 1].isReadOnly());
+                assertEquals(108, bfs[offset + 1].remaining());
+                long k = 0;
+                for (int i = offset; i < offset + length; ++i) {
+                    k += bfs[i].remaining();
+                    bfs[i].position(bfs[i].limit());
+                }
+                return k;
+            }});
+        assertTrue(fastCore.handleWrite());
+        assertEquals(3, bufCnt[0]);
+        verify(listener, times(3)).afterSent(any(WriteEvent.class));
+    }
+
+    @Test
+    public void testTurnBudget() throws Exception {
+        SocketChannel ch = mock(SocketChannel.class);
+        FieldUtil.setValue(fastCore, "socketChannel", ch);
+        when(ch.read(any(ByteBuffer.class))).thenAnswer(new Answer<Integer>(){
+
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                ByteBuffer bf = (ByteBuffer)invocation.getArguments()[0];
+                int k = bf.remaining();
+                bf.position(bf.limit());
+                return k;
+            }});
+        fastCore.startTurn();
+        assertFalse(fastCore.isBudgetUsedUp(0, 0));
+        // Read the header and the body of an empty packet.
+        assertTrue(fastCore.handleRead());
+        assertFalse(fastCore.isBudgetUsedUp(9, 2));
+        assertTrue(fastCore.isBudgetUsedUp(8, 0));
+        assertTrue(fastCore.isBudgetUsedUp(0, 1));
+        assertEquals(2, selectorH.getStats().getBudgetHits());
+        fastCore.startTurn();
+        assertFalse(fastCore.isBudgetUsedUp(8, 1));
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        assertTrue(fastCore.isOpen());
+        fastCore.close();
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(selectorH).execute(captor.capture());
+        assertTrue(fastCore.isOpen());
+        captor.getValue().run();
+        assertFalse(fastCore.isOpen());
+        verify(packetHandler).handleClose(fastCore);
+    }
+
+    @Test
+    public void testLastReadWriteTime() throws Exception {
+        long now = System.currentTimeMillis();
+        assertTrue(fastCore.getLastReadTime() <= now);
+        assertTrue(fastCore.getLastWriteTime() <= now);
+        FieldUtil.setValue(fastCore, "lastReadTime", 0L);
+        FieldUtil.setValue(fastCore, "lastWriteTime", 0L);
+        SocketChannel ch = mock(SocketChannel.class);
+        FieldUtil.setValue(fastCore, "socketChannel", ch);
+        FieldUtil.setValue(fastCore, "selectionKey", mock(SelectionKey.class));
+        // Nothing read, the time is not changed.
+        when(ch.read(any(ByteBuffer.class))).thenReturn(0);
+        fastCore.handleRead();
+        assertEquals(0, fastCore.getLastReadTime());
+        when(ch.read(any(ByteBuffer.class))).thenAnswer(new Answer<Integer>(){
+
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                ByteBuffer bf = (ByteBuffer)invocation.getArguments()[0];
+                bf.put(new byte[3]);
+                return 3;
+            }});
+        fastCore.handleRead();
+        assertTrue(fastCore.getLastReadTime() >= now);
+        // Write a packet.
+        when(ch.write(any(ByteBuffer.class))).thenAnswer(new Answer<Integer>(){
+
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                ByteBuffer bf = (ByteBuffer)invocation.getArguments()[0];
+                int k = bf.remaining();
+                bf.position(bf.limit());
+                return k;
+            }});
+        fastCore.handleWrite(new PacketData(3, new byte[10]));
+        assertEquals(0, fastCore.getLastWriteTime());
+        while (fastCore.handleWrite());
+        assertTrue(fastCore.getLastWriteTime() >= now);
+    }
+
+    @Test
+    public void testTrafficCounters() throws Exception {
+        SocketChannel ch = mock(SocketChannel.class);
+        FieldUtil.setValue(fastCore, "socketChannel", ch);
+        FieldUtil.setValue(fastCore, "selectionKey", mock(SelectionKey.class));
+        when(ch.read(any(ByteBuffer.class))).thenAnswer(new Answer<Integer>(){
+
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                ByteBuffer bf = (ByteBuffer)invocation.getArguments()[0];
+                bf.put(new byte[3]);
+                return 3;
+            }});
+        fastCore.handleRead();
+        assertEquals(3, fastCore.getBytesIn());
+        assertEquals(0, fastCore.getPacketsIn());
+        when(ch.write(any(ByteBuffer.class))).thenAnswer(new Answer<Integer>(){
+
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                ByteBuffer bf = (ByteBuffer)invocation.getArguments()[0];
+                int k = bf.remaining();
+                bf.position(bf.limit());
+                return k;
+            }});
+        fastCore.handleWrite(new PacketData(3, new byte[10]));
+        while (fastCore.handleWrite());
+        // The packet header is counted too.
+        assertTrue(fastCore.getBytesOut() > 10);
+        assertEquals(1, fastCore.getPacketsOut());
+    }
+
 	/**
 	 * Test method for {@link org.apache.niolex.network.server.FastCore#handleRead()}.
 	 * @throws IOException
@@ -182,6 +1010,66 @@ public class FastCoreTest {
         verify(packetHandler, times(1)).handlePacket(any(PacketData.class), any(IPacketWriter.class));
     }
 
+    @Test
+    public void testNegotiateV2() throws Exception {
+        SocketChannel ch = mock(SocketChannel.class);
+        FieldUtil.setValue(fastCore, "socketChannel", ch);
+        final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        when(ch.write(any(ByteBuffer.class))).thenAnswer(new Answer<Integer>(){
+
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                ByteBuffer bf = (ByteBuffer)invocation.getArguments()[0];
+                int k = bf.remaining();
+                while (bf.hasRemaining()) {
+                    bout.write(bf.get());
+                }
+                return k;
+            }});
+        FieldUtil.setValue(fastCore, "receivePacket", new PacketData(Config.CODE_PROTOCOL_V2));
+        fastCore.packetFinished();
+        verify(packetHandler, never()).handlePacket(any(PacketData.class), any(IPacketWriter.class));
+        ByteBuffer recv = FieldUtil.getValue(fastCore, "receiveBuffer");
+        assertEquals(12, recv.remaining());
+        PacketData pc = new PacketData(5, "v2");
+        pc.setCorrelationId(77);
+        fastCore.handleWrite(pc);
+        for (int i = 0; i < 6; ++i) {
+            fastCore.handleWrite();
+        }
+        ByteBuffer out = ByteBuffer.wrap(bout.toByteArray());
+        // The acknowledge packet in version 1.
+        assertEquals(8 + 12 + 2, out.remaining());
+        assertEquals(2, out.get());
+        assertEquals(1, out.get());
+        assertEquals(Config.CODE_PROTOCOL_V2, out.getShort());
+        assertEquals(0, out.getInt());
+        // Then version 2.
+        PacketData qc = new PacketData();
+        qc.parseHeader(out, null, true);
+        assertEquals(5, qc.getCode());
+        assertEquals(77, qc.getCorrelationId());
+    }
+
+    @Test
+    public void testPacketFinishedPooled() throws Exception {
+        ByteArrayPool pool = new ByteArrayPool();
+        fastCore.setArrayPool(pool);
+        PacketData pc = new PacketData();
+        ByteBuffer ba = ByteBuffer.allocate(8);
+        ba.putInt(12345);
+        ba.putInt(100);
+        ba.flip();
+        pc.parseHeader(ba, pool);
+        byte[] data = pc.getData();
+        Field f = FieldUtil.getField(FastCore.class, "receivePacket");
+        FieldUtil.setFieldValue(fastCore, f, pc);
+        fastCore.packetFinished();
+        verify(packetHandler, times(1)).handlePacket(any(PacketData.class), any(IPacketWriter.class));
+        assertFalse(pc.isPooled());
+        assertSame(data, pool.getArray(100));
+    }
+
     @Test
     public void testPacketFinishedOther() throws Exception {
         Field f = FieldUtil.getField(FastCore.class, "receivePacket");
@@ -0,0 +1,101 @@
+/**
+ * IdleStateCheckerTest.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.server;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public class IdleStateCheckerTest {
+
+    private FastCore core;
+    private TimingWheel wheel;
+
+    @Before
+    public void init() {
+        core = mock(FastCore.class);
+        wheel = mock(TimingWheel.class);
+        when(core.isOpen()).thenReturn(true);
+    }
+
+    @Test
+    public void testSchedule() throws Exception {
+        IdleStateChecker checker = new IdleStateChecker(core, wheel, 3000, 2000);
+        assertEquals(3000, checker.getReadIdleTime());
+        assertEquals(2000, checker.getWriteIdleTime());
+        checker.schedule();
+        verify(wheel).newTimeout(checker, 2000);
+        checker = new IdleStateChecker(core, wheel, 3000, 0);
+        checker.schedule();
+        verify(wheel).newTimeout(checker, 3000);
+        checker = new IdleStateChecker(core, wheel, 0, 1000);
+        checker.schedule();
+        verify(wheel).newTimeout(checker, 1000);
+    }
+
+    @Test
+    public void testRunReadIdle() throws Exception {
+        IdleStateChecker checker = new IdleStateChecker(core, wheel, 3000, 2000);
+        long now = System.currentTimeMillis();
+        when(core.getLastReadTime()).thenReturn(now - 3000);
+        when(core.getLastWriteTime()).thenReturn(now);
+        checker.run(null);
+        verify(core).close();
+        verify(wheel, never()).newTimeout(eq(checker), anyLong());
+    }
+
+    @Test
+    public void testRunWriteIdle() throws Exception {
+        IdleStateChecker checker = new IdleStateChecker(core, wheel, 3000, 2000);
+        long now = System.currentTimeMillis();
+        when(core.getLastReadTime()).thenReturn(now);
+        when(core.getLastWriteTime()).thenReturn(now - 2001);
+        checker.run(null);
+        verify(core).close();
+        verify(wheel, never()).newTimeout(eq(checker), anyLong());
+    }
+
+    @Test
+    public void testRunActive() throws Exception {
+        IdleStateChecker checker = new IdleStateChecker(core, wheel, 3000, 0);
+        long now = System.currentTimeMillis();
+        when(core.getLastReadTime()).thenReturn(now - 1000);
+        when(core.getLastWriteTime()).thenReturn(now - 100000);
+        checker.run(null);
+        verify(core, never()).close();
+        // We check again when the read idle time could be reached.
+        verify(wheel).newTimeout(eq(checker), anyLong());
+    }
+
+    @Test
+    public void testRunClosed() throws Exception {
+        IdleStateChecker checker = new IdleStateChecker(core, wheel, 3000, 2000);
+        when(core.isOpen()).thenReturn(false);
+        checker.run(null);
+        verify(core, never()).close();
+        verify(wheel, never()).newTimeout(eq(checker), anyLong());
+    }
+
+}
@@ -0,0 +1,73 @@
+/**
+ * LanePolicyTest.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.server;
+
+import static org.junit.Assert.*;
+
+import org.apache.niolex.network.Config;
+import org.apache.niolex.network.PacketData;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public class LanePolicyTest {
+
+    @Test
+    public void testSelect() {
+        LanePolicy policy = new LanePolicy(1024, 8);
+        assertEquals(1024, policy.getBulkThreshold());
+        assertEquals(8, policy.getMaxBulkDelay());
+        assertEquals(SendLane.CONTROL, policy.select(PacketData.getHeartBeatPacket()));
+        assertEquals(SendLane.CONTROL, policy.select(new PacketData(Config.CODE_NAME_DIFF)));
+        assertEquals(SendLane.NORMAL, policy.select(new PacketData(65500)));
+        assertEquals(SendLane.NORMAL, policy.select(new PacketData(5, new byte[1023])));
+        assertEquals(SendLane.BULK, policy.select(new PacketData(5, new byte[1024])));
+    }
+
+    @Test
+    public void testAssign() {
+        LanePolicy policy = new LanePolicy(0, 1);
+        assertEquals(SendLane.NORMAL, policy.select(new PacketData(5, new byte[1024])));
+        policy.assign(SendLane.BULK, (short) 7, (short) 5);
+        policy.assign(SendLane.CONTROL, (short) 3);
+        assertEquals(SendLane.BULK, policy.select(new PacketData(5)));
+        assertEquals(SendLane.BULK, policy.select(new PacketData(7)));
+        assertEquals(SendLane.CONTROL, policy.select(new PacketData(3)));
+        // Override the former assignment.
+        policy.assign(SendLane.CONTROL, (short) 5);
+        assertEquals(SendLane.CONTROL, policy.select(new PacketData(5)));
+        assertEquals(SendLane.BULK, policy.select(new PacketData(7)));
+        policy.assign(SendLane.NORMAL, (short) 7, Config.CODE_HEART_BEAT);
+        assertEquals(SendLane.NORMAL, policy.select(new PacketData(7)));
+        assertEquals(SendLane.NORMAL, policy.select(PacketData.getHeartBeatPacket()));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidThreshold() {
+        new LanePolicy(-1, 1);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidDelay() {
+        new LanePolicy(0, 0);
+    }
+
+}
@@ -21,21 +21,25 @@ import static org.junit.Assert.*;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.channels.spi.AbstractSelector;
 import java.nio.channels.spi.SelectorProvider;
 import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.niolex.commons.concurrent.ThreadUtil;
 import org.apache.niolex.commons.reflect.FieldUtil;
 import org.apache.niolex.commons.test.Counter;
 import org.apache.niolex.commons.test.MockUtil;
 import org.apache.niolex.commons.util.Const;
+import org.apache.niolex.network.ByteArrayPool;
 import org.apache.niolex.network.CoreRunner;
 import org.apache.niolex.network.IPacketHandler;
 import org.apache.niolex.network.IPacketWriter;
 import org.apache.niolex.network.PacketData;
+import org.apache.niolex.network.UnixSocketUtil;
 import org.apache.niolex.network.client.PacketClient;
 import org.apache.niolex.network.demo.EchoPacketHandler;
 import org.apache.niolex.network.demo.PrintPacketHandler;
@@ -319,6 +323,179 @@ public class MultiNioServerTest {
         }
     }
 
+    @Test
+    public void testCompositeAggregation() throws Exception {
+        MultiNioServer mns = new MultiNioServer();
+        mns.setThreadsNumber(2);
+        mns.setPort(9092);
+        mns.setAcceptTimeout(100);
+        mns.setReadAggregation(true);
+        mns.setArrayPool(new ByteArrayPool());
+        mns.setPacketHandler(new EchoPacketHandler());
+        assertTrue(mns.start());
+        checkEcho(mns, 9092);
+    }
+
+    @Test
+    public void testCompositeGathering() throws Exception {
+        MultiNioServer mns = new MultiNioServer();
+        mns.setThreadsNumber(2);
+        mns.setPort(9093);
+        mns.setAcceptTimeout(100);
+        mns.setReadAggregation(true);
+        mns.setGatheringWrite(true);
+        mns.setGatheringWriteBudget(16 * Const.K);
+        mns.setPacketHandler(new EchoPacketHandler());
+        assertTrue(mns.start());
+        checkEcho(mns, 9093);
+    }
+
+    @Test
+    public void testReusePort() throws Exception {
+        MultiNioServer mns = new MultiNioServer();
+        mns.setThreadsNumber(3);
+        mns.setPort(9094);
+        mns.setAcceptTimeout(100);
+        mns.setReusePort(true);
+        assertTrue(mns.isReusePort());
+        mns.setPacketHandler(new EchoPacketHandler());
+        assertTrue(mns.start());
+        try {
+            mns.setReusePort(false);
+            fail("Should not change it while running.");
+        } catch (IllegalStateException e) {
+            assertTrue(mns.isReusePort());
+        }
+        System.out.println("SO_REUSEPORT supported: " + MultiNioServer.isReusePortSupported());
+        checkEcho(mns, 9094);
+    }
+
+    @Test
+    public void testUnixPath() throws Exception {
+        if (!UnixSocketUtil.isSupported()) {
+            return;
+        }
+        String path = System.getProperty("java.io.tmpdir") + "/niolex-mns-test.sock";
+        MultiNioServer mns = new MultiNioServer();
+        mns.setThreadsNumber(2);
+        mns.setAcceptTimeout(100);
+        mns.setTcpEnabled(false);
+        mns.setUnixPath(path);
+        mns.setPacketHandler(new EchoPacketHandler());
+        assertTrue(mns.start());
+        checkEcho(mns, UnixSocketUtil.unixAddress(path));
+        assertFalse(new File(path).exists());
+    }
+
+    @Test
+    public void testUnixPathReusePort() throws Exception {
+        if (!UnixSocketUtil.isSupported()) {
+            return;
+        }
+        String path = System.getProperty("java.io.tmpdir") + "/niolex-mns-rp-test.sock";
+        MultiNioServer mns = new MultiNioServer();
+        mns.setThreadsNumber(2);
+        mns.setPort(9096);
+        mns.setAcceptTimeout(100);
+        mns.setReusePort(true);
+        mns.setUnixPath(path);
+        mns.setPacketHandler(new EchoPacketHandler());
+        assertTrue(mns.start());
+        checkEcho(mns, UnixSocketUtil.unixAddress(path));
+        assertFalse(new File(path).exists());
+    }
+
+    @Test
+    public void testRebalance() throws Exception {
+        MultiNioServer mns = new MultiNioServer();
+        mns.setThreadsNumber(2);
+        mns.setPort(9095);
+        mns.setAcceptTimeout(100);
+        mns.setPacketHandler(new EchoPacketHandler());
+        // Assign all the connections to the first selector.
+        mns.setAssignStrategy(new AssignStrategy() {
+            @Override
+            public int assign(SelectorStats[] stats) {
+                return 0;
+            }});
+        assertEquals(0, mns.rebalance());
+        assertTrue(mns.start());
+        LinkedList<PacketClient> list = new LinkedList<PacketClient>();
+        ConcurrentLinkedQueue<PacketData> cli = new ConcurrentLinkedQueue<PacketData>();
+        for (int i = 0; i < 4; ++i) {
+            PacketClient c = new PacketClient(new InetSocketAddress("localhost", 9095));
+            c.setPacketHandler(new SavePacketHandler(cli));
+            c.connect();
+            list.add(c);
+        }
+        SelectorStats[] stats = mns.getSelectorStats();
+        int i = 100;
+        while (i-- > 0 && stats[0].getConnections() != 4) ThreadUtil.sleep(CoreRunner.CO_SLEEP);
+        assertEquals(0, stats[1].getConnections());
+        assertEquals(2, mns.rebalance());
+        i = 100;
+        while (i-- > 0 && stats[1].getConnections() != 2) ThreadUtil.sleep(CoreRunner.CO_SLEEP);
+        assertEquals(2, stats[0].getConnections());
+        assertEquals(2, stats[1].getConnections());
+        // All the connections work well after moved.
+        for (PacketClient c : list) {
+            c.handleWrite(new PacketData(5, "rebalance"));
+        }
+        i = 100;
+        while (i-- > 0 && cli.size() != 4) ThreadUtil.sleep(CoreRunner.CO_SLEEP);
+        assertEquals(4, cli.size());
+        assertTrue(stats[1].getBytesOut() > 0);
+        for (PacketClient c : list) {
+            c.stop();
+        }
+        mns.stop();
+    }
+
+    @Test
+    public void testLeastConnections() throws Exception {
+        MultiNioServer mns = new MultiNioServer();
+        mns.setThreadsNumber(2);
+        mns.setPort(9096);
+        mns.setAcceptTimeout(100);
+        mns.setPacketHandler(new EchoPacketHandler());
+        mns.setAssignStrategy(DefaultAssignStrategy.LEAST_CONNECTIONS);
+        assertEquals(DefaultAssignStrategy.LEAST_CONNECTIONS, mns.getAssignStrategy());
+        assertTrue(mns.start());
+        checkEcho(mns, 9096);
+    }
+
+    private void checkEcho(MultiNioServer mns, int port) throws Exception {
+        checkEcho(mns, new InetSocketAddress("localhost", port));
+    }
+
+    private void checkEcho(MultiNioServer mns, InetSocketAddress addr) throws Exception {
+        LinkedList<PacketData> svr = new LinkedList<PacketData>();
+        LinkedList<PacketData> cli = new LinkedList<PacketData>();
+        PacketClient c = new PacketClient(addr);
+        c.setPacketHandler(new SavePacketHandler(cli));
+        c.connect();
+
+        for (int i = 0; i < 200; ++i) {
+            PacketData sc = new PacketData(MockUtil.randInt(1, 500), MockUtil.randByteArray(MockUtil.randInt(0, 3000)));
+            c.handleWrite(sc);
+            svr.add(sc);
+        }
+        PacketData sc = new PacketData(501, MockUtil.randByteArray(100 * Const.K));
+        c.handleWrite(sc);
+        svr.add(sc);
+
+        int i = 100, s = svr.size();
+        while (i-- > 0 && s != cli.size()) ThreadUtil.sleep(CoreRunner.CO_SLEEP);
+
+        assertEquals(s, cli.size());
+        c.stop();
+        mns.stop();
+
+        for (i = 0; i < s; ++i) {
+            checkEq(svr.poll(), cli.poll());
+        }
+    }
+
     private void checkEq(PacketData a, PacketData b) {
         assertEquals(a.getCode(), b.getCode());
         assertEquals(a.getLength(), b.getLength());
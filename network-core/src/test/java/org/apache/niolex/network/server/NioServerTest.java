@@ -18,20 +18,34 @@
 package org.apache.niolex.network.server;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.*;
 
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
 import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.apache.niolex.commons.reflect.FieldUtil;
+import org.apache.niolex.network.ByteArrayPool;
 import org.apache.niolex.network.CoreRunner;
 import org.apache.niolex.network.IPacketHandler;
 import org.apache.niolex.network.IPacketWriter;
+import org.apache.niolex.network.IStreamHandler;
 import org.apache.niolex.network.PacketData;
 import org.apache.niolex.network.client.PacketClient;
 import org.apache.niolex.network.demo.EchoPacketHandler;
@@ -92,6 +106,144 @@ public class NioServerTest {
 		assertEquals(6233, nioServer.getAcceptTimeout());
 		assertEquals(port, nioServer.getPort());
 		assertEquals(packetHandler, nioServer.getPacketHandler());
+		assertNull(nioServer.getArrayPool());
+		ByteArrayPool pool = new ByteArrayPool();
+		nioServer.setArrayPool(pool);
+		assertEquals(pool, nioServer.getArrayPool());
+		nioServer.setArrayPool(null);
+		nioServer.setReadAggregation(true);
+		assertTrue(nioServer.isReadAggregation());
+		nioServer.setReadAggregation(false);
+		nioServer.setGatheringWrite(true);
+		assertTrue(nioServer.isGatheringWrite());
+		nioServer.setGatheringWrite(false);
+		nioServer.setGatheringWriteBudget(1024);
+		assertEquals(1024, nioServer.getGatheringWriteBudget());
+		nioServer.setWaterMarks(1024, 4096);
+		assertEquals(1024, nioServer.getLowWaterMark());
+		assertEquals(4096, nioServer.getHighWaterMark());
+		nioServer.setWaterMarks(0, 0);
+		nioServer.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+		assertEquals(OverflowPolicy.DROP_OLDEST, nioServer.getOverflowPolicy());
+		nioServer.setOverflowPolicy(OverflowPolicy.NOTIFY);
+		nioServer.setJmxEnabled(true);
+		assertTrue(nioServer.isJmxEnabled());
+		nioServer.setJmxEnabled(false);
+		nioServer.setSharedSendBuffer(true);
+		assertTrue(nioServer.isSharedSendBuffer());
+		nioServer.setSharedSendBuffer(false);
+		assertNull(nioServer.getDispatchAdapter());
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		nioServer.setDispatchQueueSize(20);
+		nioServer.setDispatchExecutor(executor);
+		assertSame(executor, nioServer.getDispatchExecutor());
+		assertEquals(20, nioServer.getDispatchQueueSize());
+		assertEquals(20, nioServer.getDispatchAdapter().getMaxQueueSize());
+		nioServer.setDispatchExecutor(null);
+		assertNull(nioServer.getDispatchAdapter());
+		executor.shutdown();
+		nioServer.setIdleTime(3000, 2000);
+		assertEquals(3000, nioServer.getReadIdleTime());
+		assertEquals(2000, nioServer.getWriteIdleTime());
+		nioServer.setIdleTime(0, 0);
+		nioServer.setTurnBudget(64 * 1024, 32);
+		assertEquals(64 * 1024, nioServer.getTurnBudgetBytes());
+		assertEquals(32, nioServer.getTurnBudgetPackets());
+		nioServer.setTurnBudget(0, 0);
+		IStreamHandler sh = mock(IStreamHandler.class);
+		nioServer.setStreamHandler(sh);
+		assertSame(sh, nioServer.getStreamHandler());
+		nioServer.setStreamHandler(null);
+		LanePolicy lp = new LanePolicy(1024, 8);
+		nioServer.setLanePolicy(lp);
+		assertSame(lp, nioServer.getLanePolicy());
+		nioServer.setLanePolicy(null);
+		assertEquals(1, nioServer.getSelectorStats().length);
+	}
+
+	@Test
+	public void testTimingWheel() throws Exception {
+		NioServer s = new NioServer();
+		TimingWheel wheel = s.getTimingWheel();
+		assertSame(wheel, s.getTimingWheel());
+		assertTrue(wheel.isWorking());
+		s.stopTimingWheel();
+		assertFalse(wheel.isWorking());
+		assertNotSame(wheel, s.getTimingWheel());
+		s.stopTimingWheel();
+	}
+
+	@Test
+	public void testIdleTime() throws Exception {
+		NioServer s = new NioServer();
+		s.setPort(9808);
+		s.setPacketHandler(packetHandler);
+		s.setIdleTime(200, 0);
+		s.start();
+		Socket so = new Socket("localhost", 9808);
+		try {
+			so.setSoTimeout(3000);
+			long start = System.currentTimeMillis();
+			// The server will close this connection for read idle.
+			assertEquals(-1, so.getInputStream().read());
+			assertTrue(System.currentTimeMillis() - start >= 150);
+			Thread.sleep(100);
+			verify(packetHandler).handleClose(any(IPacketWriter.class));
+		} finally {
+			so.close();
+			s.stop();
+		}
+	}
+
+	@Test
+	public void testJmxExport() throws Exception {
+		NioServer s = new NioServer();
+		s.setPort(9807);
+		s.setJmxEnabled(true);
+		s.start();
+		MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+		ObjectName server = new ObjectName("org.apache.niolex.network:type=Server,port=9807");
+		ObjectName selector = new ObjectName("org.apache.niolex.network:type=Selector,port=9807,index=0");
+		try {
+			assertTrue(mbs.isRegistered(server));
+			assertTrue(mbs.isRegistered(selector));
+			assertEquals(1, mbs.getAttribute(server, "Selectors"));
+			assertEquals(0, mbs.getAttribute(selector, "Connections"));
+		} finally {
+			s.stop();
+		}
+		assertFalse(mbs.isRegistered(server));
+		assertFalse(mbs.isRegistered(selector));
+	}
+
+	@Test
+	public void testListTopConnections() throws Exception {
+		NioServer s = new NioServer();
+		s.setPort(9809);
+		s.setPacketHandler(new EchoPacketHandler());
+		assertEquals(0, s.listTopConnections(3).length);
+		s.start();
+		PacketClient small = new PacketClient(new InetSocketAddress("localhost", 9809));
+		PacketClient big = new PacketClient(new InetSocketAddress("localhost", 9809));
+		small.setPacketHandler(new PrintPacketHandler());
+		big.setPacketHandler(new PrintPacketHandler());
+		try {
+			small.connect();
+			big.connect();
+			small.handleWrite(new PacketData(4, new byte[10]));
+			big.handleWrite(new PacketData(4, new byte[10000]));
+			big.handleWrite(new PacketData(4, new byte[10000]));
+			Thread.sleep(3 * CoreRunner.CO_SLEEP);
+			String[] top = s.listTopConnections(3);
+			assertEquals(2, top.length);
+			assertTrue(top[0].contains("packetsIn=2, packetsOut=2"));
+			assertTrue(top[1].contains("packetsIn=1, packetsOut=1"));
+			assertEquals(1, s.listTopConnections(1).length);
+		} finally {
+			small.stop();
+			big.stop();
+			s.stop();
+		}
 	}
 
 	@Test
@@ -290,4 +442,15 @@ public class NioServerTest {
         nioServer.handleKey(selectionKey);
     }
 
+    @Test
+    public void testUnixSettings() throws Exception {
+        NioServer s = new NioServer();
+        assertTrue(s.isTcpEnabled());
+        assertNull(s.getUnixPath());
+        s.setTcpEnabled(false);
+        s.setUnixPath("/tmp/niolex-settings.sock");
+        assertFalse(s.isTcpEnabled());
+        assertEquals("/tmp/niolex-settings.sock", s.getUnixPath());
+    }
+
 }
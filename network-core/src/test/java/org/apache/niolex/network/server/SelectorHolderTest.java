@@ -20,9 +20,12 @@ package org.apache.niolex.network.server;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 
+import org.apache.niolex.network.Config;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
@@ -91,6 +94,63 @@ public class SelectorHolderTest {
 		selectorHolder.changeAllInterestOps();
 	}
 
+    @Test
+    public void testExecute() {
+        Runnable r = mock(Runnable.class);
+        Runnable e = mock(Runnable.class);
+        doThrow(new IllegalStateException("test")).when(e).run();
+        selectorHolder.execute(e);
+        selectorHolder.execute(r);
+        verify(r, never()).run();
+        verify(selector).wakeup();
+        selectorHolder.changeAllInterestOps();
+        verify(e).run();
+        verify(r).run();
+        selectorHolder.changeAllInterestOps();
+        verify(r).run();
+    }
+
+    @Test
+    public void testAttacheWriteCancelled() {
+        SelectionKey selectionKey = mock(SelectionKey.class);
+        when(selectionKey.interestOps(anyInt())).thenThrow(new CancelledKeyException());
+        selectorHolder.attacheWrite(selectionKey);
+        selectorHolder.changeAllInterestOps();
+        new SelectorHolder(Thread.currentThread(), selector).attacheWrite(selectionKey);
+        verify(selectionKey, times(2)).interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    @Test
+    public void testGetStats() {
+        assertNotNull(selectorHolder.getStats());
+        assertEquals(0, selectorHolder.getStats().getConnections());
+    }
+
+    @Test
+    public void testIsSelectorThread() {
+        assertFalse(selectorHolder.isSelectorThread());
+        assertTrue(new SelectorHolder(Thread.currentThread(), selector).isSelectorThread());
+    }
+
+	/**
+	 * Test method for {@link org.apache.niolex.network.server.SelectorHolder#getReadBuffer()}.
+	 */
+	@Test
+	public void testGetReadBuffer() {
+	    ByteBuffer buf = selectorHolder.getReadBuffer();
+	    assertTrue(buf.isDirect());
+	    assertEquals(Config.SERVER_READ_BUFFER_SIZE, buf.capacity());
+	    assertSame(buf, selectorHolder.getReadBuffer());
+	}
+
+	@Test
+	public void testGetWriteBuffer() {
+	    ByteBuffer buf = selectorHolder.getWriteBuffer();
+	    assertTrue(buf.isDirect());
+	    assertEquals(Config.SERVER_DIRECT_BUFFER_SIZE, buf.capacity());
+	    assertSame(buf, selectorHolder.getWriteBuffer());
+	}
+
 	/**
 	 * Test method for {@link org.apache.niolex.network.server.SelectorHolder#getSelector()}.
 	 */
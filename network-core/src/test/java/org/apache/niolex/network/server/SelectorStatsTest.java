@@ -0,0 +1,159 @@
+/**
+ * SelectorStatsTest.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.server;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-27
+ */
+public class SelectorStatsTest {
+
+    private SelectorStats stats = new SelectorStats();
+
+    @Test
+    public void testConnections() throws Exception {
+        stats.connectionOpened();
+        stats.connectionOpened();
+        stats.connectionClosed();
+        assertEquals(1, stats.getConnections());
+    }
+
+    @Test
+    public void testBytes() throws Exception {
+        stats.recordRead(100);
+        stats.recordRead(-1);
+        stats.recordWrite(50);
+        stats.recordWrite(0);
+        assertEquals(100, stats.getBytesIn());
+        assertEquals(50, stats.getBytesOut());
+        assertEquals(150, stats.getBytes());
+    }
+
+    @Test
+    public void testBytesPerSecond() throws Exception {
+        long now = System.currentTimeMillis();
+        stats.recordRead(10000);
+        assertTrue(stats.getBytesPerSecond() > 0);
+        // Move the window forward, all the bytes are out of the window.
+        for (int i = 1; i <= 10; ++i) {
+            stats.tick(now + i * 1000);
+        }
+        assertEquals(0, stats.getBytesPerSecond());
+        stats.recordWrite(500);
+        assertTrue(stats.getBytesPerSecond() > 0);
+    }
+
+    @Test
+    public void testTickTooEarly() throws Exception {
+        long now = System.currentTimeMillis();
+        stats.recordRead(10000);
+        stats.tick(now);
+        stats.tick(now + 500);
+        assertTrue(stats.getBytesPerSecond() > 0);
+    }
+
+    @Test
+    public void testCalls() throws Exception {
+        stats.recordRead(100);
+        stats.recordRead(0);
+        stats.recordWrite(50);
+        assertEquals(2, stats.getReadCalls());
+        assertEquals(1, stats.getWriteCalls());
+        stats.tick(System.currentTimeMillis());
+        stats.wakeup();
+        assertEquals(1, stats.getLoops());
+        assertEquals(1, stats.getWakeups());
+        stats.budgetHit();
+        stats.budgetHit();
+        assertEquals(2, stats.getBudgetHits());
+    }
+
+    @Test
+    public void testPackets() throws Exception {
+        stats.packetReceived(0);
+        stats.packetReceived(65);
+        stats.packetSent(128);
+        stats.packetSent(129);
+        assertEquals(2, stats.getPacketsIn());
+        assertEquals(2, stats.getPacketsOut());
+        long[] in = stats.getPacketSizeInHistogram();
+        assertEquals(1, in[0]);
+        assertEquals(1, in[1]);
+        long[] out = stats.getPacketSizeOutHistogram();
+        assertEquals(1, out[1]);
+        assertEquals(1, out[2]);
+    }
+
+    @Test
+    public void testBucket() throws Exception {
+        assertEquals(0, SelectorStats.bucket(64));
+        assertEquals(1, SelectorStats.bucket(65));
+        assertEquals(1, SelectorStats.bucket(128));
+        assertEquals(10, SelectorStats.bucket(64 * 1024));
+        assertEquals(18, SelectorStats.bucket(16 * 1024 * 1024));
+        assertEquals(18, SelectorStats.bucket(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testPendingBytes() throws Exception {
+        stats.addPendingBytes(100);
+        stats.addPendingBytes(-30);
+        assertEquals(70, stats.getPendingBytes());
+    }
+
+    private FastCore mockCore(String name, long bytesIn, long bytesOut) {
+        FastCore core = mock(FastCore.class);
+        when(core.getRemoteName()).thenReturn(name);
+        when(core.getBytesIn()).thenReturn(bytesIn);
+        when(core.getBytesOut()).thenReturn(bytesOut);
+        return core;
+    }
+
+    @Test
+    public void testConnectionsTracked() throws Exception {
+        FastCore a = mockCore("a", 1, 2);
+        stats.connectionOpened(a);
+        stats.connectionOpened(a);
+        assertEquals(1, stats.getConnections());
+        stats.connectionClosed(a);
+        stats.connectionClosed(a);
+        assertEquals(0, stats.getConnections());
+        assertEquals(0, stats.listTopConnections(5).length);
+    }
+
+    @Test
+    public void testListTopConnections() throws Exception {
+        stats.connectionOpened(mockCore("a", 100, 0));
+        stats.connectionOpened(mockCore("b", 10, 500));
+        stats.connectionOpened(mockCore("c", 1, 2));
+        String[] top = stats.listTopConnections(2);
+        assertEquals(2, top.length);
+        assertTrue(top[0].startsWith("b bytesIn=10, bytesOut=500"));
+        assertTrue(top[1].startsWith("a bytesIn=100"));
+        assertEquals(3, stats.listTopConnections(10).length);
+        assertEquals(0, stats.listTopConnections(0).length);
+    }
+
+}
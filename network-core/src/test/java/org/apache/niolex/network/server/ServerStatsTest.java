@@ -0,0 +1,90 @@
+/**
+ * ServerStatsTest.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.server;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-28
+ */
+public class ServerStatsTest {
+
+    private SelectorStats a = new SelectorStats();
+    private SelectorStats b = new SelectorStats();
+    private ServerStats stats = new ServerStats(new SelectorStats[] {a, b});
+
+    @Test
+    public void testSum() throws Exception {
+        a.connectionOpened();
+        b.connectionOpened();
+        a.recordRead(100);
+        b.recordWrite(50);
+        a.packetReceived(10);
+        b.packetSent(10);
+        b.tick(System.currentTimeMillis());
+        a.wakeup();
+        b.budgetHit();
+        b.addPendingBytes(30);
+        assertEquals(2, stats.getSelectors());
+        assertEquals(2, stats.getConnections());
+        assertEquals(100, stats.getBytesIn());
+        assertEquals(50, stats.getBytesOut());
+        assertTrue(stats.getBytesPerSecond() > 0);
+        assertEquals(1, stats.getPacketsIn());
+        assertEquals(1, stats.getPacketsOut());
+        assertEquals(1, stats.getReadCalls());
+        assertEquals(1, stats.getWriteCalls());
+        assertEquals(1, stats.getLoops());
+        assertEquals(1, stats.getWakeups());
+        assertEquals(1, stats.getBudgetHits());
+        assertEquals(30, stats.getPendingBytes());
+    }
+
+    @Test
+    public void testHistogram() throws Exception {
+        a.packetReceived(10);
+        b.packetReceived(20);
+        b.packetSent(100);
+        assertEquals(2, stats.getPacketSizeInHistogram()[0]);
+        assertEquals(1, stats.getPacketSizeOutHistogram()[1]);
+        assertEquals(0, stats.getPacketSizeOutHistogram()[0]);
+    }
+
+    @Test
+    public void testListTopConnections() throws Exception {
+        FastCore x = mock(FastCore.class);
+        when(x.getRemoteName()).thenReturn("x");
+        when(x.getBytesIn()).thenReturn(10L);
+        FastCore y = mock(FastCore.class);
+        when(y.getRemoteName()).thenReturn("y");
+        when(y.getBytesOut()).thenReturn(20L);
+        a.connectionOpened(x);
+        b.connectionOpened(y);
+        String[] top = stats.listTopConnections(1);
+        assertEquals(1, top.length);
+        assertTrue(top[0].startsWith("y "));
+        assertEquals(2, stats.listTopConnections(3).length);
+    }
+
+}
@@ -0,0 +1,69 @@
+/**
+ * StripedCounterTest.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.server;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-28
+ */
+public class StripedCounterTest {
+
+    @Test
+    public void testStripes() throws Exception {
+        assertEquals(1, StripedCounter.stripes(1));
+        assertEquals(4, StripedCounter.stripes(3));
+        assertEquals(8, StripedCounter.stripes(8));
+        assertEquals(64, StripedCounter.stripes(1000));
+    }
+
+    @Test
+    public void testAdd() throws Exception {
+        StripedCounter c = new StripedCounter();
+        c.add(10);
+        c.increment();
+        c.add(-3);
+        assertEquals(8, c.sum());
+    }
+
+    @Test
+    public void testConcurrentAdd() throws Exception {
+        final StripedCounter c = new StripedCounter();
+        Thread[] ts = new Thread[4];
+        for (int i = 0; i < ts.length; ++i) {
+            ts[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; ++j) {
+                        c.increment();
+                    }
+                }
+            };
+            ts[i].start();
+        }
+        for (Thread t : ts) {
+            t.join();
+        }
+        assertEquals(40000, c.sum());
+    }
+
+}
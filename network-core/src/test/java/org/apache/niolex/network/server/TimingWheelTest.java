@@ -0,0 +1,218 @@
+/**
+ * TimingWheelTest.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.server;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.niolex.network.server.TimingWheel.Timeout;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public class TimingWheelTest {
+
+    private TimingWheel wheel;
+
+    @Before
+    public void init() {
+        wheel = new TimingWheel("TimingWheelTest", 5, 8);
+    }
+
+    @After
+    public void destroy() {
+        wheel.stop();
+    }
+
+    private static class LatchTask implements TimingWheel.Task {
+        private final CountDownLatch latch;
+        private final AtomicInteger count = new AtomicInteger();
+        private volatile long runTime;
+
+        private LatchTask(int n) {
+            latch = new CountDownLatch(n);
+        }
+
+        @Override
+        public void run(Timeout timeout) {
+            runTime = System.currentTimeMillis();
+            count.incrementAndGet();
+            latch.countDown();
+        }
+    }
+
+    @Test
+    public void testConstructor() throws Exception {
+        assertEquals(8, wheel.getTicksPerWheel());
+        assertEquals(5, wheel.getTickDuration());
+        assertEquals(16, new TimingWheel("a", 1, 9).getTicksPerWheel());
+        assertEquals(1, new TimingWheel("a", 1, 1).getTicksPerWheel());
+        assertFalse(wheel.isWorking());
+    }
+
+    @Test
+    public void testIsWheelThread() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger count = new AtomicInteger();
+        wheel.start();
+        wheel.newTimeout(new TimingWheel.Task() {
+
+            @Override
+            public void run(Timeout timeout) {
+                if (TimingWheel.isWheelThread()) {
+                    count.incrementAndGet();
+                }
+                latch.countDown();
+            }}, 10);
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertEquals(1, count.get());
+        assertFalse(TimingWheel.isWheelThread());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testConstructorTick() throws Exception {
+        new TimingWheel("a", 0, 8);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testConstructorWheel() throws Exception {
+        new TimingWheel("a", 1, 0);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNewTimeoutNull() throws Exception {
+        wheel.newTimeout(null, 10);
+    }
+
+    @Test
+    public void testNewTimeout() throws Exception {
+        wheel.start();
+        wheel.start();
+        assertTrue(wheel.isWorking());
+        LatchTask task = new LatchTask(1);
+        long start = System.currentTimeMillis();
+        Timeout t = wheel.newTimeout(task, 30);
+        assertSame(task, t.getTask());
+        assertTrue(task.latch.await(1, TimeUnit.SECONDS));
+        assertTrue(task.runTime - start >= 30);
+        assertTrue(t.isExpired());
+        assertFalse(t.isCancelled());
+        assertFalse(t.cancel());
+    }
+
+    @Test
+    public void testNewTimeoutRounds() throws Exception {
+        wheel.start();
+        // One round is 40ms, this task need to wait for 2 rounds.
+        LatchTask task = new LatchTask(1);
+        long start = System.currentTimeMillis();
+        wheel.newTimeout(task, 90);
+        assertTrue(task.latch.await(1, TimeUnit.SECONDS));
+        assertTrue(task.runTime - start >= 90);
+    }
+
+    @Test
+    public void testNewTimeoutExpired() throws Exception {
+        wheel.start();
+        LatchTask task = new LatchTask(3);
+        wheel.newTimeout(task, 0);
+        wheel.newTimeout(task, -10);
+        wheel.newTimeout(task, 1);
+        assertTrue(task.latch.await(1, TimeUnit.SECONDS));
+        assertEquals(3, task.count.get());
+    }
+
+    @Test
+    public void testNewTimeoutBeforeStart() throws Exception {
+        LatchTask task = new LatchTask(1);
+        wheel.newTimeout(task, 10);
+        Thread.sleep(30);
+        assertEquals(0, task.count.get());
+        wheel.start();
+        assertTrue(task.latch.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        wheel.start();
+        LatchTask task = new LatchTask(1);
+        Timeout t1 = wheel.newTimeout(task, 20);
+        Timeout t2 = wheel.newTimeout(task, 60);
+        // Wait for the timeouts to be put into the wheel.
+        Thread.sleep(10);
+        assertTrue(t1.cancel());
+        assertFalse(t1.cancel());
+        assertTrue(t1.isCancelled());
+        assertTrue(wheel.newTimeout(task, 5).cancel());
+        assertTrue(task.latch.await(1, TimeUnit.SECONDS));
+        assertTrue(t2.isExpired());
+        assertFalse(t1.isExpired());
+        assertEquals(1, task.count.get());
+    }
+
+    @Test
+    public void testTaskError() throws Exception {
+        wheel.start();
+        wheel.newTimeout(new TimingWheel.Task() {
+            @Override
+            public void run(Timeout timeout) {
+                throw new IllegalStateException("Test error.");
+            }}, 1);
+        LatchTask task = new LatchTask(1);
+        wheel.newTimeout(task, 10);
+        assertTrue(task.latch.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testTaskReschedule() throws Exception {
+        wheel.start();
+        final CountDownLatch latch = new CountDownLatch(5);
+        wheel.newTimeout(new TimingWheel.Task() {
+            @Override
+            public void run(Timeout timeout) {
+                latch.countDown();
+                wheel.newTimeout(this, 7);
+            }}, 7);
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testStopAndStart() throws Exception {
+        wheel.start();
+        LatchTask task = new LatchTask(1);
+        wheel.newTimeout(task, 60);
+        Thread.sleep(10);
+        wheel.stop();
+        wheel.stop();
+        assertFalse(wheel.isWorking());
+        Thread.sleep(70);
+        assertEquals(0, task.count.get());
+        // The timeout is kept, and expired after started again.
+        wheel.start();
+        assertTrue(task.latch.await(1, TimeUnit.SECONDS));
+    }
+
+}
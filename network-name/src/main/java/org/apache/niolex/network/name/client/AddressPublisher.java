@@ -20,6 +20,7 @@ package org.apache.niolex.network.name.client;
 import java.io.IOException;
 
 import org.apache.niolex.network.Config;
+import org.apache.niolex.network.IClient;
 import org.apache.niolex.network.PacketData;
 import org.apache.niolex.network.name.bean.AddressRegiBean;
 import org.apache.niolex.network.name.core.NameClient;
@@ -49,6 +50,17 @@ public class AddressPublisher extends NameClient {
 		super(serverAddress);
 	}
 
+	/**
+     * The constructor with the specified client.
+     *
+     * @param serverAddress the name server address
+     * @param client the client to connect to the name server
+     * @throws IOException if I / O related error occurred
+     */
+	public AddressPublisher(String serverAddress, IClient client) throws IOException {
+		super(serverAddress, client);
+	}
+
 	/**
      * Publish this service to name server.
      *
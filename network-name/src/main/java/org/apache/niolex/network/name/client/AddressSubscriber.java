@@ -25,6 +25,7 @@ import org.apache.niolex.commons.concurrent.Blocker;
 import org.apache.niolex.commons.concurrent.WaitOn;
 import org.apache.niolex.commons.test.Check;
 import org.apache.niolex.network.Config;
+import org.apache.niolex.network.IClient;
 import org.apache.niolex.network.PacketData;
 import org.apache.niolex.network.name.bean.AddressRecord;
 import org.apache.niolex.network.name.core.NameClient;
@@ -63,6 +64,17 @@ public class AddressSubscriber extends NameClient {
 		super(serverAddress);
 	}
 
+	/**
+     * Construct a subscriber by a server address and the specified client.
+     *
+     * @param serverAddress the name server address
+     * @param client the client to connect to the name server
+     * @throws IOException if I / O related error occurred
+     */
+	public AddressSubscriber(String serverAddress, IClient client) throws IOException {
+		super(serverAddress, client);
+	}
+
 	/**
 	 * It's fire event.
 	 * Override super method
@@ -50,7 +50,7 @@ public class NameClient implements IPacketHandler {
 	/**
 	 * Manage the client retry and fail over.
 	 */
-	private final ClientManager clientManager = new ClientManager(new PacketClient());
+	private final ClientManager clientManager;
 
 	/**
 	 * Transform packets.
@@ -63,7 +63,20 @@ public class NameClient implements IPacketHandler {
      * @param serverAddress the server address
      */
     public NameClient(String serverAddress) {
+		this(serverAddress, new PacketClient());
+	}
+
+	/**
+     * Create a new name client with the specified client, and connect it to the server address.
+     * User can use a {@link org.apache.niolex.network.client.NioClient} here to share the
+     * selector threads with other clients.
+     *
+     * @param serverAddress the server address
+     * @param client the client to connect to the server
+     */
+    public NameClient(String serverAddress, IClient client) {
 		super();
+		clientManager = new ClientManager(client);
 		clientManager.setAddressList(serverAddress);
 		clientManager.setPacketHandler(this);
 		clientManager.setConnectRetryTimes(Integer.MAX_VALUE);
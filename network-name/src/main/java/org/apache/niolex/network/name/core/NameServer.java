@@ -19,7 +19,9 @@ package org.apache.niolex.network.name.core;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.niolex.commons.concurrent.ConcurrentUtil;
 import org.apache.niolex.commons.event.BaseEvent;
 import org.apache.niolex.commons.event.ConcurrentEventDispatcher;
 import org.apache.niolex.commons.event.Dispatcher;
@@ -33,8 +35,9 @@ import org.apache.niolex.network.name.bean.AddressRecord;
 import org.apache.niolex.network.name.bean.AddressRecord.Status;
 import org.apache.niolex.network.name.bean.AddressRegiBean;
 import org.apache.niolex.network.name.bean.RecordStorage;
-import org.apache.niolex.network.name.event.WriteEventListener;
+import org.apache.niolex.network.name.event.GroupEventListener;
 import org.apache.niolex.network.serialize.PacketTransformer;
+import org.apache.niolex.network.server.ChannelGroup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,6 +57,11 @@ public class NameServer implements IPacketHandler {
 	 */
 	private final Dispatcher dispatcher = new ConcurrentEventDispatcher();
 
+	/**
+	 * The subscribers of each address key, the changes are framed only once for all of them.
+	 */
+	private final ConcurrentHashMap<String, ChannelGroup> groups = new ConcurrentHashMap<String, ChannelGroup>();
+
 	/**
 	 * Used to transform packets from and to java beans.
 	 */
@@ -118,7 +126,7 @@ public class NameServer implements IPacketHandler {
 			case Config.CODE_NAME_OBTAIN:
 				String addressKey = transformer.getDataObject(sc);
                 // Add listener for further changes of server address list.
-				dispatcher.addListener(addressKey, WriteEventListener.obtain(wt));
+				getGroup(addressKey).add(wt);
                 // Attach the address key to the client.
 				attachData(wt, addressKey);
                 // Prepare the return list
@@ -146,6 +154,25 @@ public class NameServer implements IPacketHandler {
 		}
 	}
 
+	/**
+	 * Get the channel group of this address key, create it and listen to the address
+	 * changes if not found.
+	 *
+	 * @param addressKey the address key
+	 * @return the channel group
+	 */
+	private ChannelGroup getGroup(String addressKey) {
+		ChannelGroup group = groups.get(addressKey);
+		if (group == null) {
+			ChannelGroup tmp = new ChannelGroup(addressKey);
+			group = ConcurrentUtil.initMap(groups, addressKey, tmp);
+			if (group == tmp) {
+				dispatcher.addListener(addressKey, new GroupEventListener(group));
+			}
+		}
+		return group;
+	}
+
 	private void attachData(IPacketWriter wt, String addressKey) {
 		List<String> addrList = wt.getAttached(Config.ATTACH_KEY_OBTAIN_ADDR);
 		if (addrList == null) {
@@ -181,10 +208,12 @@ public class NameServer implements IPacketHandler {
 		}
 		List<String> addrList = wt.getAttached(Config.ATTACH_KEY_OBTAIN_ADDR);
 		if (addrList != null) {
-		    WriteEventListener tmp = WriteEventListener.obtain(wt);
-            // If this client has any listener, remove it from the dispatcher.
+            // If this client subscribed any address, remove it from the groups.
 			for (String addressKey : addrList) {
-				dispatcher.removeListener(addressKey, tmp);
+				ChannelGroup group = groups.get(addressKey);
+				if (group != null) {
+					group.remove(wt);
+				}
 			}
 			wt.attachData(Config.ATTACH_KEY_OBTAIN_ADDR, null);
 		}
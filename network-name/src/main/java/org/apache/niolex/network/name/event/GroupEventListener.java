@@ -0,0 +1,64 @@
+/**
+ * GroupEventListener.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.name.event;
+
+import org.apache.niolex.commons.event.Event;
+import org.apache.niolex.commons.event.Listener;
+import org.apache.niolex.network.PacketData;
+import org.apache.niolex.network.server.ChannelGroup;
+
+/**
+ * Wrap a channel group into a write event listener, so the packet of one event is framed
+ * only once for all the clients in this group.
+ *
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public class GroupEventListener implements Listener<PacketData> {
+
+    private final ChannelGroup group;
+
+    /**
+     * Create a listener broadcasting the events to this group.
+     *
+     * @param group the channel group
+     */
+    public GroupEventListener(ChannelGroup group) {
+        super();
+        this.group = group;
+    }
+
+    /**
+     * This is the override of super method.
+     *
+     * @see org.apache.niolex.commons.event.Listener#eventHappened(Event)
+     */
+    @Override
+    public void eventHappened(Event<PacketData> e) {
+        group.write(e.getEventValue());
+    }
+
+    /**
+     * @return the channel group
+     */
+    public ChannelGroup getGroup() {
+        return group;
+    }
+
+}
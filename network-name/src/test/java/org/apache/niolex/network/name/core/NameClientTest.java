@@ -31,6 +31,8 @@ import org.apache.niolex.network.Config;
 import org.apache.niolex.network.IPacketWriter;
 import org.apache.niolex.network.PacketData;
 import org.apache.niolex.network.client.ClientManager;
+import org.apache.niolex.network.client.NioClient;
+import org.apache.niolex.network.client.NioClientGroup;
 import org.apache.niolex.network.name.bean.AddressRecord;
 import org.apache.niolex.network.serialize.PacketTransformer;
 import org.junit.After;
@@ -83,6 +85,19 @@ public class NameClientTest {
         assertFalse(nameClient.connect());
     }
 
+    @Test
+    public void testNameClientNio() throws Exception {
+        NioClientGroup group = new NioClientGroup(1);
+        assertTrue(group.start());
+        NioClient client = new NioClient(group);
+        NameClient nc = new NameClient("localhost:8181", client);
+        assertTrue(client.isWorking());
+        assertSame(client, nc.client());
+        nc.stop();
+        assertFalse(client.isWorking());
+        group.stop();
+    }
+
 	/**
 	 * Test method for {@link org.apache.niolex.network.name.core.NameClient#handlePacket(PacketData, IPacketWriter)}.
 	 */
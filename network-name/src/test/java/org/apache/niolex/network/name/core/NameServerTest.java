@@ -93,6 +93,42 @@ public class NameServerTest extends Context {
         name.handlePacket(new PacketData(68), wt);
 	}
 
+	@Test
+	public void testFrameOnce() {
+		BasePacketWriter a = new BasePacketWriter() {
+
+			@Override
+			public String getRemoteName() {
+				return "testFrameOnce-a";
+			}};
+		BasePacketWriter b = new BasePacketWriter() {
+
+			@Override
+			public String getRemoteName() {
+				return "testFrameOnce-b";
+			}};
+		// Step 1. subscribe.
+		PacketData pd = transformer.getPacketData(Config.CODE_NAME_OBTAIN, "network.name.core.FrameOnce");
+		name.handlePacket(pd, a);
+		name.handlePacket(pd, b);
+		assertEquals(Config.CODE_NAME_DATA, a.getRemainQueue().poll().getCode());
+		assertEquals(Config.CODE_NAME_DATA, b.getRemainQueue().poll().getCode());
+
+		// Step 2. publish, the change is framed once for both.
+		AddressRegiBean regi = new AddressRegiBean("network.name.core.FrameOnce", "localhost:8183");
+		PacketData pb = transformer.getPacketData(Config.CODE_NAME_PUBLISH, regi);
+		name.handlePacket(pb, mock(IPacketWriter.class));
+		PacketData da = a.getRemainQueue().poll();
+		assertEquals(Config.CODE_NAME_DIFF, da.getCode());
+		assertSame(da, b.getRemainQueue().poll());
+
+		// Step 3. close, no more changes.
+		name.handleClose(a);
+		name.handlePacket(pb, mock(IPacketWriter.class));
+		assertTrue(a.getRemainQueue().isEmpty());
+		assertEquals(Config.CODE_NAME_DIFF, b.getRemainQueue().poll().getCode());
+	}
+
 	/**
      * Test method for {@link org.apache.niolex.network.name.core.NameServer#start()}.
      */
@@ -0,0 +1,61 @@
+/**
+ * GroupEventListenerTest.java
+ *
+ * Copyright 2013 the original author or authors.
+ *
+ * We licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.niolex.network.name.event;
+
+import static org.junit.Assert.*;
+
+import org.apache.niolex.commons.event.BaseEvent;
+import org.apache.niolex.network.PacketData;
+import org.apache.niolex.network.server.BasePacketWriter;
+import org.apache.niolex.network.server.ChannelGroup;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:xiejiyun@foxmail.com">Xie, Jiyun</a>
+ * @version 1.0.0
+ * @since 2013-11-30
+ */
+public class GroupEventListenerTest {
+
+    private static class TWriter extends BasePacketWriter {
+
+        @Override
+        public String getRemoteName() {
+            return "GroupEventListenerTest";
+        }
+    }
+
+    @Test
+    public void testEventHappened() throws Exception {
+        ChannelGroup group = new ChannelGroup("abc");
+        TWriter a = new TWriter();
+        TWriter b = new TWriter();
+        group.add(a);
+        group.add(b);
+        GroupEventListener l = new GroupEventListener(group);
+        assertSame(group, l.getGroup());
+        l.eventHappened(new BaseEvent<PacketData>("abc", new PacketData(33, new byte[3])));
+        PacketData pa = a.getRemainQueue().poll();
+        assertEquals(33, pa.getCode());
+        assertEquals(3, pa.getLength());
+        // The packet is framed only once.
+        assertSame(pa, b.getRemainQueue().poll());
+        assertEquals(1, group.getBroadcasts());
+    }
+
+}
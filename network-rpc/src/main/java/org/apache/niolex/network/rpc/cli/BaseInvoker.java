@@ -30,6 +30,7 @@ import org.apache.niolex.network.IClient;
 import org.apache.niolex.network.IPacketHandler;
 import org.apache.niolex.network.IPacketWriter;
 import org.apache.niolex.network.PacketData;
+import org.apache.niolex.network.client.BaseClient;
 import org.apache.niolex.network.rpc.RpcException;
 import org.apache.niolex.network.rpc.util.RpcUtil;
 import org.slf4j.Logger;
@@ -144,7 +145,7 @@ public class BaseInvoker implements RemoteInvoker, IPacketHandler {
     @Override
     public PacketData invoke(PacketData packet) {
         // 1. Set up the waiting information
-        Integer key = RpcUtil.generateKey(packet);
+        Integer key = RpcUtil.generateKey(packet, isProtocolV2());
         WaitOn<PacketData> waitOn = blocker.init(key);
         PacketData res = null;
 
@@ -175,6 +176,15 @@ public class BaseInvoker implements RemoteInvoker, IPacketHandler {
     // Internal logics follows.
     // ---------------------------------------------------------------------------------
 
+    /**
+     * Check whether the backed client is using the version 2 wire protocol.
+     *
+     * @return true if it's using the version 2 wire protocol
+     */
+    protected boolean isProtocolV2() {
+        return client instanceof BaseClient && ((BaseClient) client).isProtocolV2();
+    }
+
     /**
      * Release the waiting thread.
      * If there is no thread waiting for this packet, we do a info log.
@@ -184,7 +194,7 @@ public class BaseInvoker implements RemoteInvoker, IPacketHandler {
      */
     @Override
     public void handlePacket(PacketData sc, IPacketWriter wt) {
-        Integer key = RpcUtil.generateKey(sc);
+        Integer key = RpcUtil.generateKey(sc, isProtocolV2());
         boolean isOk = blocker.release(key, sc);
         if (!isOk) {
             LOG.info("Packet received for key [{}] have no handler, just ignored.", key);
@@ -55,6 +55,12 @@ public class RpcStub implements IServiceHandler {
      */
     private final Set<Class<?>> interfaceSet = new HashSet<Class<?>>();
 
+    /**
+     * The correlation ID generator, shared by all the stubs, because stubs may share
+     * one connection.
+     */
+    private static final AtomicInteger CORRELATION_ID = new AtomicInteger();
+
     /**
      * The serial ID generator.
      */
@@ -170,6 +176,9 @@ public class RpcStub implements IServiceHandler {
     /**
      * Generate serial number
      * The serial number will be 1, 3, 5, ...
+     * <br>
+     * We also set the 32-bit correlation id, which is used as the key instead of the
+     * serial number when the connection is using the version 2 wire protocol.
      *
      * @param rc the request packet
      */
@@ -177,6 +186,7 @@ public class RpcStub implements IServiceHandler {
         short seri = (short) (idGen.addAndGet(2));
         rc.setReserved((byte) seri);
         rc.setVersion((byte) (seri >> 8));
+        rc.setCorrelationId(CORRELATION_ID.incrementAndGet());
     }
 
     /**
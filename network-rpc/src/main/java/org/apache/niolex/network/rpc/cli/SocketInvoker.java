@@ -32,6 +32,7 @@ import org.apache.niolex.commons.util.SystemUtil;
 import org.apache.niolex.network.Config;
 import org.apache.niolex.network.ConnStatus;
 import org.apache.niolex.network.PacketData;
+import org.apache.niolex.network.UnixSocketUtil;
 import org.apache.niolex.network.client.BaseClient;
 import org.apache.niolex.network.rpc.RpcException;
 import org.apache.niolex.network.rpc.util.RpcUtil;
@@ -95,6 +96,17 @@ public class SocketInvoker extends BaseClient implements RemoteInvoker, Runnable
         this.serverAddress = serverAddress;
     }
 
+    /**
+     * Create a SocketInvoker with the specified server address string. Both <code>host:port</code>
+     * and <code>unix:/path</code> are supported, the latter connects by Unix domain socket.
+     * 
+     * @param serverAddress the server address to connect to
+     * @see UnixSocketUtil#parseAddress(String)
+     */
+    public SocketInvoker(String serverAddress) {
+        this(UnixSocketUtil.parseAddress(serverAddress));
+    }
+
     /**
      * This is the override of super method.
      * @see org.apache.niolex.network.rpc.cli.RemoteInvoker#connect()
@@ -152,7 +164,7 @@ public class SocketInvoker extends BaseClient implements RemoteInvoker, Runnable
     @Override
     public PacketData invoke(PacketData packet) {
         // Set up the waiting information
-        Integer key = RpcUtil.generateKey(packet);
+        Integer key = RpcUtil.generateKey(packet, protocolV2);
         Notifier notifier = new Notifier();
         ArrayBlockingQueue<PacketData> answer = notifier.getAnswer();
         notifyMap.put(key, notifier);
@@ -262,7 +274,7 @@ public class SocketInvoker extends BaseClient implements RemoteInvoker, Runnable
                     // Let's ignore the heart beat packet here.
                     continue;
                 }
-                Integer respKey = RpcUtil.generateKey(resp);
+                Integer respKey = RpcUtil.generateKey(resp, protocolV2);
 
                 // Notify the waiting thread, remove it from map for cleanup.
                 Notifier n = notifyMap.remove(respKey);
@@ -284,13 +296,15 @@ public class SocketInvoker extends BaseClient implements RemoteInvoker, Runnable
 
     /**
      * This is the override of super method.
+     * We use the combining writer, so packets from concurrent RPC threads will be written and
+     * flushed together by one of them.
      * 
      * @see org.apache.niolex.network.IPacketWriter#handleWrite(org.apache.niolex.network.PacketData)
      */
     @Override
-    public synchronized void handleWrite(PacketData sc) {
+    public void handleWrite(PacketData sc) {
         try {
-            writePacket(sc);
+            combineWrite(sc);
         } catch (IOException e) {
             throw checkStatus(e);
         }
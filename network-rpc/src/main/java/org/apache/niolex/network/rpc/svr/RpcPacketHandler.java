@@ -103,7 +103,8 @@ public class RpcPacketHandler implements IPacketHandler {
 		// Heart beat will be handled in FastCore, so we will not encounter it here.
 		RpcExecuteItem ei = executeMap.get(sc.getCode());
 		if (ei != null) {
-            RpcExecute re = new RpcExecute(ei, sc, wt);
+            // The packet is handled in another thread, so we must keep it.
+            RpcExecute re = new RpcExecute(ei, sc.retain(), wt);
 			queueSize.incrementAndGet();
 			tPool.execute(re);
 		} else {
@@ -176,6 +177,7 @@ public class RpcPacketHandler implements IPacketHandler {
 			} finally {
                 LOG.debug("Packet handled. key {}, queue size {}.", sc.descriptor(),
 						queueSize.decrementAndGet());
+                sc.release();
 			}
 		}
 
@@ -202,6 +204,7 @@ public class RpcPacketHandler implements IPacketHandler {
 			PacketData rc = new PacketData(sc.getCode(), arr);
 			rc.setReserved((byte) (sc.getReserved() + exception));
 			rc.setVersion(sc.getVersion());
+			rc.setCorrelationId(sc.getCorrelationId());
 			wt.handleWrite(rc);
 		} catch (Exception e) {
 			LOG.warn("Error occured when handle return. {}", e.toString());
@@ -104,6 +104,20 @@ public abstract class RpcUtil {
 		return generateKey(rc.getCode(), rc.getVersion(), r);
 	}
 
+	/**
+	 * Generate Key from the packet of the specified wire protocol version. The version 2
+	 * wire protocol uses the 32-bit correlation id as the key, so there can be much more
+	 * requests in flight on one connection.
+	 *
+	 * @param rc the packet
+	 * @param v2 whether the packet is transferred in the version 2 wire protocol
+	 * @return the generated key
+	 * @see #generateKey(PacketData)
+	 */
+	public static final int generateKey(PacketData rc, boolean v2) {
+		return v2 ? rc.getCorrelationId() : generateKey(rc);
+	}
+
 	/**
 	 * Generate Key from a short and two bytes.
 	 * The output value will be "abc" concatenation.
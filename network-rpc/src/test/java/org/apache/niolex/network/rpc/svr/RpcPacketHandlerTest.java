@@ -22,8 +22,11 @@ import static org.mockito.Mockito.*;
 
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
 
 import org.apache.niolex.commons.reflect.MethodUtil;
+import org.apache.niolex.network.ByteArrayPool;
 import org.apache.niolex.network.CoreRunner;
 import org.apache.niolex.network.IPacketWriter;
 import org.apache.niolex.network.PacketData;
@@ -146,6 +149,39 @@ public class RpcPacketHandlerTest {
 		assertEquals(100, au.getValue().getReserved());
 	}
 
+	@Test
+	public void testHandlePooledPacket() throws Exception {
+	    final CountDownLatch latch = new CountDownLatch(1);
+	    RpcPacketHandler rr = new RpcPacketHandler(3, new JsonConverter() {
+	        @Override
+	        public Object[] prepareParams(byte[] data, Type[] generic) throws Exception {
+	            latch.await();
+	            return super.prepareParams(data, generic);
+	        }});
+	    ConfigItem[] confs = new ConfigItem[1];
+	    ConfigItem c = new ConfigItem();
+	    c.setInterface(RpcService.class);
+	    c.setTarget(new RpcServiceImpl());
+	    confs[0] = c;
+	    rr.setRpcConfigs(confs);
+	    PacketData p = new PacketData();
+	    ByteBuffer ba = ByteBuffer.allocate(8);
+	    ba.putInt(16);
+	    ba.putInt(9);
+	    ba.flip();
+	    p.parseHeader(ba, new ByteArrayPool());
+	    assertTrue(p.isPooled());
+	    IPacketWriter wt = mock(IPacketWriter.class);
+	    rr.handlePacket(p, wt);
+	    // The packet reader releases the packet, but it's still kept by the execute thread.
+	    assertFalse(p.release());
+	    assertNotNull(p.getData());
+	    latch.countDown();
+	    Thread.sleep(3 * CoreRunner.CO_SLEEP);
+	    assertNull(p.getData());
+	    verify(wt).handleWrite(any(PacketData.class));
+	}
+
 	@Test
 	public void testHandleReturn() throws Exception {
 	    RpcPacketHandler rr = new RpcPacketHandler(3);
@@ -111,6 +111,16 @@ public class RpcUtilTest extends RpcUtil {
 		assertEquals(s, "ffff1021");
 	}
 
+	@Test
+	public void testGenerateKeyV2() {
+		PacketData abc = new PacketData(65535);
+		abc.setVersion((byte) 16);
+		abc.setReserved((byte) 33);
+		abc.setCorrelationId(123456789);
+		assertEquals(123456789, RpcUtil.generateKey(abc, true));
+		assertEquals(RpcUtil.generateKey(abc), RpcUtil.generateKey(abc, false));
+	}
+
 
     @Test
     public void testGenerateKeyShortByteByte() throws Exception {